@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.controller.impl;
+
+import org.noorganization.instalist.server.model.Device;
+import org.noorganization.instalist.server.model.DeviceGroup;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures lookup and login cost of {@link TokenRegistry} depending on the count of logged in
+ * devices. Both should stay flat. Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TokenRegistryBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int mActiveDevices;
+
+    private TokenRegistry mRegistry;
+    private Device[]      mDevices;
+    private String[]      mTokens;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        DeviceGroup group = new DeviceGroup().withId(1);
+        mRegistry = new TokenRegistry(Long.MAX_VALUE, Long.MAX_VALUE);
+        mDevices = new Device[mActiveDevices];
+        mTokens = new String[mActiveDevices];
+        for (int i = 0; i < mActiveDevices; i++) {
+            mDevices[i] = new Device().withId(i + 1).withGroup(group).withAuthorized(true);
+            mTokens[i] = "token-" + i;
+            mRegistry.register(mTokens[i], mDevices[i]);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public TokenRegistry.AuthInfo lookup() {
+        return mRegistry.get(mTokens[ThreadLocalRandom.current().nextInt(mActiveDevices)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean login() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return mRegistry.register(Long.toHexString(random.nextLong()) +
+                Long.toHexString(random.nextLong()), mDevices[random.nextInt(mActiveDevices)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void revalidate() {
+        mRegistry.update(mDevices[ThreadLocalRandom.current().nextInt(mActiveDevices)]);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import org.noorganization.instalist.server.model.DeviceGroup;
+import org.noorganization.instalist.server.model.ListEntry;
+import org.noorganization.instalist.server.model.Product;
+import org.noorganization.instalist.server.model.ShoppingList;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures inserting many list entries in one transaction, as done by large batch requests. A
+ * batch size of 0 sends every insert on its own. Uses the database configured by
+ * "instalist.db.*", the MariaDB driver needs "rewriteBatchedStatements=true" in the url to send
+ * multi-row inserts. Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EntryInsertBenchmark {
+
+    private static final int ENTRY_COUNT = 10000;
+
+    @Param({"0", "50"})
+    public int mBatchSize;
+
+    private DeviceGroup  mGroup;
+    private ShoppingList mList;
+    private Product      mProduct;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setProperty("instalist.db.batch_size", Integer.toString(mBatchSize));
+        DatabaseHelper.getInstance().initialize("org.noorganization.instalist.server");
+
+        mGroup = new DeviceGroup();
+        mList = new ShoppingList().withGroup(mGroup).withName("benchmark").
+                withUUID(UUID.randomUUID());
+        mProduct = new Product().withGroup(mGroup).withName("benchmark").
+                withUUID(UUID.randomUUID());
+        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        manager.getTransaction().begin();
+        manager.persist(mGroup);
+        manager.persist(mList);
+        manager.persist(mProduct);
+        manager.getTransaction().commit();
+        manager.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        manager.getTransaction().begin();
+        manager.merge(mGroup).setDeleted(true);
+        manager.getTransaction().commit();
+        GroupReaper.getInstance().reap(manager, mGroup.getId());
+        manager.close();
+    }
+
+    @Benchmark
+    public void insertEntries() {
+        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        manager.getTransaction().begin();
+        DeviceGroup group = manager.find(DeviceGroup.class, mGroup.getId());
+        ShoppingList list = manager.find(ShoppingList.class, mList.getId());
+        Product product = manager.find(Product.class, mProduct.getId());
+        int flushSize = Math.max(mBatchSize, 50);
+        for (int i = 1; i <= ENTRY_COUNT; i++) {
+            manager.persist(new ListEntry().withGroup(group).withUUID(UUID.randomUUID()).
+                    withAmount(1f).withList(list).withProduct(product));
+            if (i % flushSize == 0) {
+                manager.flush();
+                manager.clear();
+                group = manager.getReference(DeviceGroup.class, group.getId());
+                list = manager.getReference(ShoppingList.class, list.getId());
+                product = manager.getReference(Product.class, product.getId());
+            }
+        }
+        manager.getTransaction().commit();
+        manager.close();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.noorganization.instalist.comm.message.EntryInfo;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares JSON with the binary formats Smile and CBOR for a sync of many list entries, the
+ * largest part of most syncs. Measures writing and reading; the size of the encoded entries is
+ * printed once per format. Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    private static final int ENTRY_COUNT = 5000;
+
+    @Param({"json", "smile", "cbor"})
+    public String mFormat;
+
+    private ObjectMapper mMapper;
+    private EntryInfo[]  mEntries;
+    private byte[]       mEncoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        JsonFactory factory;
+        switch (mFormat) {
+            case "smile":
+                factory = new SmileFactory();
+                break;
+            case "cbor":
+                factory = new CBORFactory();
+                break;
+            default:
+                factory = new JsonFactory();
+        }
+        mMapper = new ObjectMapper(factory);
+
+        UUID listUUID = UUID.randomUUID();
+        mEntries = new EntryInfo[ENTRY_COUNT];
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            EntryInfo entry = new EntryInfo().withDeleted(false);
+            entry.setUUID(UUID.randomUUID());
+            entry.setListUUID(listUUID);
+            entry.setProductUUID(UUID.randomUUID());
+            entry.setAmount(1f + i % 5);
+            entry.setPriority(i % 3);
+            entry.setStruck(i % 2 == 0);
+            entry.setLastChanged(new Date());
+            mEntries[i] = entry;
+        }
+        mEncoded = mMapper.writeValueAsBytes(mEntries);
+        System.out.println(mFormat + ": " + mEncoded.length + " bytes for " + ENTRY_COUNT +
+                " entries");
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        return mMapper.writeValueAsBytes(mEntries);
+    }
+
+    @Benchmark
+    public EntryInfo[] read() throws IOException {
+        return mMapper.readValue(mEncoded, EntryInfo[].class);
+    }
+}
@@ -16,11 +16,18 @@
 
 package org.noorganization.instalist.server;
 
+import com.fasterxml.jackson.jaxrs.cbor.JacksonCBORProvider;
+import com.fasterxml.jackson.jaxrs.smile.JacksonSmileProvider;
+import org.glassfish.jersey.media.sse.SseFeature;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.noorganization.instalist.server.api.*;
 import org.noorganization.instalist.server.model.Tag;
 import org.noorganization.instalist.server.model.TaggedProduct;
+import org.noorganization.instalist.server.support.ChangeNotifier;
 import org.noorganization.instalist.server.support.DatabaseHelper;
+import org.noorganization.instalist.server.support.GroupReaper;
+import org.noorganization.instalist.server.support.MetricsHelper;
+import org.noorganization.instalist.server.support.TombstoneCompactor;
 
 /**
  * The Application defines all available resources and prepares the database connection.
@@ -32,8 +39,14 @@ public class Application extends ResourceConfig {
     public Application() {
         DatabaseHelper dbHelper = DatabaseHelper.getInstance();
         dbHelper.initialize("org.noorganization.instalist.server");
+        MetricsHelper.getInstance().startReporting();
+        TombstoneCompactor.getInstance().start();
+        GroupReaper.getInstance().start();
+        ChangeNotifier.getInstance().start();
 
+        register(BatchResource.class);
         register(CategoriesResource.class);
+        register(ChangesResource.class);
         register(EntryResource.class);
         register(GroupsResource.class);
         register(IngredientResource.class);
@@ -45,5 +58,17 @@ public class Application extends ResourceConfig {
         register(UnitResource.class);
 
         register(AuthenticationFilter.class);
+        register(CompressionInterceptor.class);
+        register(ConditionalGetFilter.class);
+        register(EntityManagerListener.class);
+        register(QueryCountFilter.class);
+
+        register(SseFeature.class);
+        register(JacksonSmileProvider.class);
+        register(JacksonCBORProvider.class);
+        register(InfoStreamWriter.class);
+        register(ErrorWriter.class);
+
+        register(ShutdownListener.class);
     }
 }
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import org.noorganization.instalist.server.support.ConfigHelper;
+import org.noorganization.instalist.server.support.DeflaterPool;
+import org.noorganization.instalist.server.support.MetricsHelper;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compresses response bodies with gzip or deflate, as accepted by the client ("Accept-Encoding").
+ * The first bytes of a body are buffered: bodies smaller than "instalist.compression.threshold"
+ * bytes are sent as they are, since compressing them costs more than it saves. Deflaters are
+ * taken from the {@link DeflaterPool}. Server-sent events are never compressed, buffering would
+ * delay them.
+ *
+ * A threshold below 0 disables compression.
+ */
+@Provider
+@Priority(Priorities.ENTITY_CODER)
+public class CompressionInterceptor implements ContainerResponseFilter, WriterInterceptor {
+
+    private static final String ENCODING = CompressionInterceptor.class.getName() + ".encoding";
+    private static final String GZIP     = "gzip";
+    private static final String DEFLATE  = "deflate";
+
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0,
+            0, 0, (byte) 0xff };
+
+    private final int     mThreshold;
+    private final Counter mCompressed;
+    private final Counter mUncompressed;
+    private final Counter mBytesIn;
+    private final Counter mBytesOut;
+
+    public CompressionInterceptor() {
+        this(ConfigHelper.getInt("instalist.compression.threshold", 1024));
+    }
+
+    /**
+     * Creates an interceptor with a fixed threshold.
+     * @param _threshold The minimum size of compressed bodies in bytes. Below 0 disables
+     *                   compression.
+     */
+    CompressionInterceptor(int _threshold) {
+        mThreshold = _threshold;
+        MetricRegistry metrics = MetricsHelper.getInstance().getRegistry();
+        mCompressed = metrics.counter("compression.compressed");
+        mUncompressed = metrics.counter("compression.uncompressed");
+        mBytesIn = metrics.counter("compression.bytes_in");
+        mBytesOut = metrics.counter("compression.bytes_out");
+    }
+
+    @Override
+    public void filter(ContainerRequestContext _request, ContainerResponseContext _response)
+            throws IOException {
+        if (mThreshold < 0 || !_response.hasEntity() ||
+                _response.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING) ||
+                isEventStream(_response.getMediaType()))
+            return;
+        _response.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        String encoding = chooseEncoding(_request.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        if (encoding != null)
+            _request.setProperty(ENCODING, encoding);
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext _context) throws IOException {
+        String encoding = (String) _context.getProperty(ENCODING);
+        if (encoding == null) {
+            _context.proceed();
+            return;
+        }
+        ThresholdOutputStream output = new ThresholdOutputStream(_context.getOutputStream(),
+                _context.getHeaders(), encoding);
+        _context.setOutputStream(output);
+        try {
+            _context.proceed();
+            output.finish();
+        } finally {
+            output.release();
+        }
+    }
+
+    /**
+     * Chooses the encoding from the value of "Accept-Encoding". Prefers gzip if accepted with the
+     * same quality as deflate.
+     * @param _acceptEncoding The value of the header. May be null.
+     * @return "gzip", "deflate" or null, if none of them is accepted.
+     */
+    static String chooseEncoding(String _acceptEncoding) {
+        if (_acceptEncoding == null)
+            return null;
+        float gzip = -1;
+        float deflate = -1;
+        float any = -1;
+        for (String part : _acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            float quality = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Float.parseFloat(param.substring(2));
+                    } catch (NumberFormatException _e) {
+                        quality = 0;
+                    }
+                }
+            }
+            String coding = params[0].trim().toLowerCase();
+            if (GZIP.equals(coding) || "x-gzip".equals(coding))
+                gzip = quality;
+            else if (DEFLATE.equals(coding))
+                deflate = quality;
+            else if ("*".equals(coding))
+                any = quality;
+        }
+        if (gzip < 0)
+            gzip = any;
+        if (deflate < 0)
+            deflate = any;
+        if (gzip > 0 && gzip >= deflate)
+            return GZIP;
+        if (deflate > 0)
+            return DEFLATE;
+        return null;
+    }
+
+    private static boolean isEventStream(MediaType _mediaType) {
+        return _mediaType != null && "text".equals(_mediaType.getType()) &&
+                "event-stream".equals(_mediaType.getSubtype());
+    }
+
+    /**
+     * Buffers a body until it reaches the threshold, then switches to compressing. The headers
+     * are changed before the first byte reaches the response.
+     */
+    private class ThresholdOutputStream extends OutputStream {
+        private final OutputStream                   mTarget;
+        private final MultivaluedMap<String, Object> mHeaders;
+        private final boolean                        mGzip;
+        private final CRC32                          mCrc;
+        private       ByteArrayOutputStream          mBuffer;
+        private       Deflater                       mDeflater;
+        private       DeflaterOutputStream           mCompressing;
+        private       long                           mSize;
+        private       boolean                        mFinished;
+
+        ThresholdOutputStream(OutputStream _target, MultivaluedMap<String, Object> _headers,
+                              String _encoding) {
+            mTarget = _target;
+            mHeaders = _headers;
+            mGzip = GZIP.equals(_encoding);
+            mCrc = new CRC32();
+            mBuffer = new ByteArrayOutputStream(Math.max(mThreshold, 32));
+        }
+
+        @Override
+        public void write(int _byte) throws IOException {
+            write(new byte[] { (byte) _byte }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] _bytes, int _offset, int _length) throws IOException {
+            if (mCompressing == null && mBuffer.size() + _length < mThreshold) {
+                mBuffer.write(_bytes, _offset, _length);
+                return;
+            }
+            if (mCompressing == null)
+                startCompressing();
+            compress(_bytes, _offset, _length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // while buffering, a flush would only send the headers early.
+            if (mCompressing != null)
+                mCompressing.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            mTarget.close();
+        }
+
+        void finish() throws IOException {
+            if (mFinished)
+                return;
+            mFinished = true;
+            if (mCompressing == null) {
+                mUncompressed.inc();
+                mBuffer.writeTo(mTarget);
+                return;
+            }
+            mCompressing.finish();
+            long written = mDeflater.getBytesWritten();
+            if (mGzip) {
+                writeInt((int) mCrc.getValue());
+                writeInt((int) mSize);
+                written += GZIP_HEADER.length + 8;
+            }
+            mCompressed.inc();
+            mBytesIn.inc(mSize);
+            mBytesOut.inc(written);
+        }
+
+        void release() {
+            if (mDeflater != null) {
+                DeflaterPool.getInstance().release(mDeflater, mGzip);
+                mDeflater = null;
+            }
+        }
+
+        private void startCompressing() throws IOException {
+            mHeaders.putSingle(HttpHeaders.CONTENT_ENCODING, mGzip ? GZIP : DEFLATE);
+            mHeaders.remove(HttpHeaders.CONTENT_LENGTH);
+            mDeflater = DeflaterPool.getInstance().acquire(mGzip);
+            if (mGzip)
+                mTarget.write(GZIP_HEADER);
+            mCompressing = new DeflaterOutputStream(mTarget, mDeflater, 8192);
+            ByteArrayOutputStream buffered = mBuffer;
+            mBuffer = null;
+            compress(buffered.toByteArray(), 0, buffered.size());
+        }
+
+        private void compress(byte[] _bytes, int _offset, int _length) throws IOException {
+            if (mGzip)
+                mCrc.update(_bytes, _offset, _length);
+            mSize += _length;
+            mCompressing.write(_bytes, _offset, _length);
+        }
+
+        private void writeInt(int _value) throws IOException {
+            mTarget.write(_value & 0xff);
+            mTarget.write((_value >> 8) & 0xff);
+            mTarget.write((_value >> 16) & 0xff);
+            mTarget.write((_value >> 24) & 0xff);
+        }
+    }
+}
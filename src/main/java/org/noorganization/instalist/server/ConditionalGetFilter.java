@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server;
+
+import com.codahale.metrics.Counter;
+import org.noorganization.instalist.server.support.MetricsHelper;
+import org.noorganization.instalist.server.support.RequestManager;
+
+import javax.annotation.Priority;
+import javax.persistence.TypedQuery;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.Produces;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Answers conditional GETs of {@link ConditionalGet} methods. Every write to a group increments
+ * its change counter, so the counter is the version of everything read from the group. It is sent
+ * as weak "ETag" and a request sending it as "If-None-Match" gets "304 Not Modified" without
+ * reading any item. This needs one lookup by primary key. The counter is always read from the
+ * database, not from the entity cache: a cached group may miss writes of other servers and the
+ * client would never see them.
+ *
+ * The same counter is the version of every representation (JSON, Smile, CBOR), so the tag names
+ * the media type, too (e.g. W/"42-json"), and responses vary by "Accept". Otherwise a client
+ * holding JSON could revalidate with another "Accept" and reuse the JSON body.
+ *
+ * "Last-Modified" is sent, too, but "If-Modified-Since" is not used for 304: it has a resolution
+ * of one second and would hide changes made in the same second.
+ */
+@ConditionalGet
+@Provider
+@Priority(Priorities.USER)
+public class ConditionalGetFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String VERSION       = ConditionalGetFilter.class.getName() +
+            ".version";
+    private static final String LAST_MODIFIED = ConditionalGetFilter.class.getName() +
+            ".last_modified";
+
+    private final Counter mNotModified;
+
+    @Context
+    private ResourceInfo mResourceInfo;
+
+    public ConditionalGetFilter() {
+        mNotModified = MetricsHelper.getInstance().getRegistry().counter("requests.not_modified");
+    }
+
+    @Override
+    public void filter(ContainerRequestContext _request) throws IOException {
+        if (!HttpMethod.GET.equals(_request.getMethod()))
+            return;
+        int groupId;
+        try {
+            groupId = Integer.parseInt(_request.getUriInfo().getPathParameters().
+                    getFirst("groupid"));
+        } catch (NumberFormatException _e) {
+            throw new IOException("\"groupid\" was not found in path.");
+        }
+        TypedQuery<Object[]> versionQuery = RequestManager.of(_request).get().createQuery(
+                "select g.changeSeq, g.updated from DeviceGroup g where g.id = :id",
+                Object[].class);
+        versionQuery.setParameter("id", groupId);
+        List<Object[]> versions = versionQuery.getResultList();
+        if (versions.isEmpty())
+            return;
+
+        Object[] version = versions.get(0);
+        EntityTag tag = createTag(version[0], negotiate(_request));
+        _request.setProperty(VERSION, version[0]);
+        if (version[1] != null)
+            _request.setProperty(LAST_MODIFIED, new Date(((Date) version[1]).getTime()));
+        Response.ResponseBuilder failed = _request.getRequest().evaluatePreconditions(tag);
+        if (failed != null) {
+            Response response = failed.build();
+            if (response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode())
+                mNotModified.inc();
+            _request.abortWith(response);
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext _request, ContainerResponseContext _response)
+            throws IOException {
+        Object version = _request.getProperty(VERSION);
+        int status = _response.getStatus();
+        if (version == null || (status != Response.Status.OK.getStatusCode() &&
+                status != Response.Status.NOT_MODIFIED.getStatusCode()))
+            return;
+
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setPrivate(true);
+        cacheControl.setNoCache(true);
+        MediaType type = (_response.getMediaType() != null ? _response.getMediaType() :
+                negotiate(_request));
+        MultivaluedMap<String, Object> headers = _response.getHeaders();
+        headers.putSingle(HttpHeaders.ETAG, createTag(version, type));
+        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        if (_request.getProperty(LAST_MODIFIED) != null)
+            headers.putSingle(HttpHeaders.LAST_MODIFIED, _request.getProperty(LAST_MODIFIED));
+        headers.putSingle(HttpHeaders.CACHE_CONTROL, cacheControl);
+    }
+
+    private static EntityTag createTag(Object _version, MediaType _type) {
+        return new EntityTag(_version + (_type != null ? "-" + _type.getSubtype() : ""), true);
+    }
+
+    /**
+     * Selects the media type of the response like Jersey does: the first type produced by the
+     * method, that is compatible with the most acceptable type of the client.
+     * @return Either the type or null, if the method does not declare produced types.
+     */
+    private MediaType negotiate(ContainerRequestContext _request) {
+        Produces produces = mResourceInfo.getResourceMethod().getAnnotation(Produces.class);
+        if (produces == null)
+            produces = mResourceInfo.getResourceClass().getAnnotation(Produces.class);
+        if (produces == null)
+            return null;
+        for (MediaType acceptable : _request.getAcceptableMediaTypes()) {
+            for (String produced : produces.value()) {
+                MediaType type = MediaType.valueOf(produced);
+                if (acceptable.isCompatible(type))
+                    return type;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server;
+
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+import org.noorganization.instalist.server.support.RequestManager;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Closes the EntityManager of a request when the request is finished. The manager itself is
+ * opened lazily by resources via {@link RequestManager#of(ContainerRequestContext)}, so every
+ * request uses at most one connection and no resource has to close it on its own. Unlike a
+ * response filter, this also runs when a resource failed with an unmapped exception.
+ */
+@Provider
+public class EntityManagerListener implements ApplicationEventListener {
+
+    @Override
+    public void onEvent(ApplicationEvent _event) {
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent _requestEvent) {
+        return _event -> {
+            if (_event.getType() == RequestEvent.Type.FINISHED)
+                RequestManager.release(_event.getContainerRequest());
+        };
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.noorganization.instalist.comm.message.Error;
+import org.noorganization.instalist.server.support.CommonEntity;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Writes {@link Error} messages. The constant errors of {@link CommonEntity} are serialized once
+ * per format when this class is loaded, so rejecting a request, e.g. with
+ * {@link CommonEntity#NOT_AUTHORIZED}, only copies bytes. Other errors are serialized as usual.
+ */
+@Provider
+@Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+public class ErrorWriter implements MessageBodyWriter<Error> {
+
+    private static final ObjectMapper sJsonMapper  = new ObjectMapper();
+    private static final ObjectMapper sSmileMapper = new ObjectMapper(new SmileFactory());
+    private static final ObjectMapper sCBORMapper  = new ObjectMapper(new CBORFactory());
+
+    private static final Map<Error, byte[]> sJson  = new IdentityHashMap<>();
+    private static final Map<Error, byte[]> sSmile = new IdentityHashMap<>();
+    private static final Map<Error, byte[]> sCBOR  = new IdentityHashMap<>();
+
+    static {
+        try {
+            for (Field field : CommonEntity.class.getFields()) {
+                if (field.getType() != Error.class || !Modifier.isStatic(field.getModifiers()))
+                    continue;
+                Error error = (Error) field.get(null);
+                sJson.put(error, sJsonMapper.writeValueAsBytes(error));
+                sSmile.put(error, sSmileMapper.writeValueAsBytes(error));
+                sCBOR.put(error, sCBORMapper.writeValueAsBytes(error));
+            }
+        } catch (IllegalAccessException | JsonProcessingException _e) {
+            throw new ExceptionInInitializerError(_e);
+        }
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> _type, Type _genericType, Annotation[] _annotations,
+                               MediaType _mediaType) {
+        return Error.class.isAssignableFrom(_type);
+    }
+
+    @Override
+    public long getSize(Error _error, Class<?> _type, Type _genericType,
+                        Annotation[] _annotations, MediaType _mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(Error _error, Class<?> _type, Type _genericType,
+                        Annotation[] _annotations, MediaType _mediaType,
+                        MultivaluedMap<String, Object> _httpHeaders, OutputStream _entityStream)
+            throws IOException, WebApplicationException {
+        Map<Error, byte[]> serialized = sJson;
+        ObjectMapper mapper = sJsonMapper;
+        if (_mediaType != null && _mediaType.isCompatible(MediaTypes.SMILE_TYPE)) {
+            serialized = sSmile;
+            mapper = sSmileMapper;
+        } else if (_mediaType != null && _mediaType.isCompatible(MediaTypes.CBOR_TYPE)) {
+            serialized = sCBOR;
+            mapper = sCBORMapper;
+        }
+        byte[] bytes = serialized.get(_error);
+        if (bytes == null)
+            bytes = mapper.writeValueAsBytes(_error);
+        _entityStream.write(bytes);
+    }
+}
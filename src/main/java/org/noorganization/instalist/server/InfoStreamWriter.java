@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.noorganization.instalist.server.support.InfoStream;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Writes an {@link InfoStream} in the negotiated format: JSON, {@link MediaTypes#SMILE} or
+ * {@link MediaTypes#CBOR}.
+ */
+@Provider
+@Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+public class InfoStreamWriter implements MessageBodyWriter<InfoStream> {
+
+    private static final JsonFactory sJsonFactory = new JsonFactory().
+            disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final JsonFactory sSmileFactory = new SmileFactory().
+            disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final JsonFactory sCBORFactory = new CBORFactory().
+            disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    @Override
+    public boolean isWriteable(Class<?> _type, Type _genericType, Annotation[] _annotations,
+                               MediaType _mediaType) {
+        return InfoStream.class.isAssignableFrom(_type);
+    }
+
+    @Override
+    public long getSize(InfoStream _stream, Class<?> _type, Type _genericType,
+                        Annotation[] _annotations, MediaType _mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(InfoStream _stream, Class<?> _type, Type _genericType,
+                        Annotation[] _annotations, MediaType _mediaType,
+                        MultivaluedMap<String, Object> _httpHeaders, OutputStream _entityStream)
+            throws IOException, WebApplicationException {
+        _stream.write(_entityStream, getFactory(_mediaType));
+    }
+
+    private static JsonFactory getFactory(MediaType _mediaType) {
+        if (_mediaType != null && _mediaType.isCompatible(MediaTypes.SMILE_TYPE))
+            return sSmileFactory;
+        if (_mediaType != null && _mediaType.isCompatible(MediaTypes.CBOR_TYPE))
+            return sCBORFactory;
+        return sJsonFactory;
+    }
+}
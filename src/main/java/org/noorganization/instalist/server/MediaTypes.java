@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server;
+
+import com.fasterxml.jackson.jaxrs.cbor.CBORMediaTypes;
+import com.fasterxml.jackson.jaxrs.smile.SmileMediaTypes;
+
+import javax.ws.rs.core.MediaType;
+
+/**
+ * The media types of the binary formats messages can be exchanged in, besides JSON. Both encode
+ * the same structure as the JSON messages, but smaller and faster to parse. Clients choose the
+ * format by "Accept" and "Content-Type".
+ */
+public final class MediaTypes {
+
+    /**
+     * Binary JSON by Jackson, see https://github.com/FasterXML/smile-format-specification.
+     */
+    public static final String SMILE = SmileMediaTypes.APPLICATION_JACKSON_SMILE;
+
+    /**
+     * Concise Binary Object Representation, see RFC 7049.
+     */
+    public static final String CBOR = CBORMediaTypes.APPLICATION_JACKSON_CBOR;
+
+    /**
+     * {@link #SMILE} for comparisons.
+     */
+    public static final MediaType SMILE_TYPE = MediaType.valueOf(SMILE);
+
+    /**
+     * {@link #CBOR} for comparisons.
+     */
+    public static final MediaType CBOR_TYPE = MediaType.valueOf(CBOR);
+
+    private MediaTypes() {
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server;
+
+import com.codahale.metrics.Histogram;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.noorganization.instalist.server.support.ConfigHelper;
+import org.noorganization.instalist.server.support.MetricsHelper;
+import org.noorganization.instalist.server.support.QueryCounter;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.logging.Logger;
+
+/**
+ * Counts the SQL statements of every request with {@link QueryCounter}, including the ones done
+ * while streaming the body. Requests with more statements than "instalist.query.log_threshold"
+ * get logged together with their most repeated statement. With "instalist.debug" the count is
+ * sent as header "X-Query-Count"; the body gets buffered for this, so do not use it in
+ * production.
+ *
+ * Counting starts before authentication, so token lookups are included. Since statements are
+ * counted per thread, requests of suspending resources ({@link Suspended}) and of streams
+ * ({@link ChunkedOutput}) are not counted: they are finished by other threads.
+ */
+@Provider
+@Priority(Priorities.AUTHENTICATION - 1)
+public class QueryCountFilter implements ContainerRequestFilter, ContainerResponseFilter,
+        WriterInterceptor {
+
+    public static final String HEADER = "X-Query-Count";
+
+    private static final Logger sLogger = Logger.getLogger(QueryCountFilter.class.getName());
+    private static final String PATH = QueryCountFilter.class.getName() + ".path";
+
+    private final boolean   mDebug;
+    private final int       mLogThreshold;
+    private final Histogram mStatements;
+
+    @Context
+    private ResourceInfo mResourceInfo;
+
+    public QueryCountFilter() {
+        this(ConfigHelper.getBoolean("instalist.debug", false),
+                ConfigHelper.getInt("instalist.query.log_threshold", 20));
+    }
+
+    /**
+     * @param _debug Whether to send the count of statements as header.
+     * @param _logThreshold The count of statements above which a request gets logged.
+     */
+    public QueryCountFilter(boolean _debug, int _logThreshold) {
+        mDebug = _debug;
+        mLogThreshold = _logThreshold;
+        mStatements = MetricsHelper.getInstance().getRegistry().histogram("requests.statements");
+    }
+
+    public void filter(ContainerRequestContext _requestContext) throws IOException {
+        if (isAsynchronous(mResourceInfo.getResourceMethod())) {
+            QueryCounter.stop();
+            return;
+        }
+        _requestContext.setProperty(PATH, _requestContext.getMethod() + " " +
+                _requestContext.getUriInfo().getPath());
+        QueryCounter.start();
+    }
+
+    public void filter(ContainerRequestContext _requestContext,
+                       ContainerResponseContext _responseContext) throws IOException {
+        if (_requestContext.getProperty(PATH) == null)
+            return; // not counted.
+        if (_responseContext.hasEntity())
+            return; // finished after writing the body.
+        QueryCounter.Counts counts = QueryCounter.stop();
+        if (counts == null)
+            return;
+        if (mDebug)
+            _responseContext.getHeaders().putSingle(HEADER, counts.getTotal());
+        report((String) _requestContext.getProperty(PATH), counts);
+    }
+
+    public void aroundWriteTo(WriterInterceptorContext _context) throws IOException,
+            WebApplicationException {
+        if (_context.getProperty(PATH) == null || QueryCounter.get() == null) {
+            _context.proceed();
+            return;
+        }
+
+        OutputStream target = _context.getOutputStream();
+        ByteArrayOutputStream buffer = null;
+        if (mDebug) {
+            buffer = new ByteArrayOutputStream();
+            _context.setOutputStream(buffer);
+        }
+        QueryCounter.Counts counts;
+        try {
+            _context.proceed();
+        } finally {
+            counts = QueryCounter.stop();
+        }
+        if (buffer != null) {
+            _context.getHeaders().putSingle(HEADER, counts.getTotal());
+            buffer.writeTo(target);
+            _context.setOutputStream(target);
+        }
+        report((String) _context.getProperty(PATH), counts);
+    }
+
+    private static boolean isAsynchronous(Method _method) {
+        if (_method == null)
+            return false;
+        if (ChunkedOutput.class.isAssignableFrom(_method.getReturnType()))
+            return true;
+        for (Annotation[] parameterAnnotations : _method.getParameterAnnotations()) {
+            for (Annotation annotation : parameterAnnotations) {
+                if (annotation instanceof Suspended)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private void report(String _path, QueryCounter.Counts _counts) {
+        mStatements.update(_counts.getTotal());
+        if (_counts.getTotal() <= mLogThreshold)
+            return;
+        String repeated = _counts.getMostRepeated();
+        sLogger.warning(_path + " used " + _counts.getTotal() + " statements, most repeated (" +
+                _counts.getCount(repeated) + "x): " + repeated);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server;
+
+import org.glassfish.jersey.server.spi.Container;
+import org.glassfish.jersey.server.spi.ContainerLifecycleListener;
+import org.noorganization.instalist.server.controller.impl.ControllerFactory;
+import org.noorganization.instalist.server.support.ChangeNotifier;
+import org.noorganization.instalist.server.support.CryptoExecutor;
+import org.noorganization.instalist.server.support.DatabaseHelper;
+import org.noorganization.instalist.server.support.GroupReaper;
+import org.noorganization.instalist.server.support.MetricsHelper;
+import org.noorganization.instalist.server.support.TombstoneCompactor;
+
+/**
+ * Stops the background threads and closes the connection pool when the server shuts down, e.g.
+ * on undeploy. Otherwise the threads keep running and hold the classloader of the old
+ * deployment.
+ */
+public class ShutdownListener implements ContainerLifecycleListener {
+
+    @Override
+    public void onStartup(Container _container) {
+    }
+
+    @Override
+    public void onReload(Container _container) {
+    }
+
+    @Override
+    public void onShutdown(Container _container) {
+        ControllerFactory.getAuthController().shutdown();
+        TombstoneCompactor.getInstance().stop();
+        GroupReaper.getInstance().stop();
+        ChangeNotifier.getInstance().stop();
+        CryptoExecutor.getInstance().stop();
+        MetricsHelper.getInstance().stopReporting();
+        DatabaseHelper.getInstance().close();
+    }
+}
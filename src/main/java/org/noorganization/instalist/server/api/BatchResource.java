@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.noorganization.instalist.comm.message.CategoryInfo;
+import org.noorganization.instalist.comm.message.EntryInfo;
+import org.noorganization.instalist.comm.message.Error;
+import org.noorganization.instalist.comm.message.IngredientInfo;
+import org.noorganization.instalist.comm.message.ListInfo;
+import org.noorganization.instalist.comm.message.ProductInfo;
+import org.noorganization.instalist.comm.message.RecipeInfo;
+import org.noorganization.instalist.comm.message.TagInfo;
+import org.noorganization.instalist.comm.message.TaggedProductInfo;
+import org.noorganization.instalist.comm.message.UnitInfo;
+import org.noorganization.instalist.server.MediaTypes;
+import org.noorganization.instalist.server.TokenSecured;
+import org.noorganization.instalist.server.message.BatchOperation;
+import org.noorganization.instalist.server.message.BatchResult;
+import org.noorganization.instalist.server.support.CommonEntity;
+import org.noorganization.instalist.server.support.ConfigHelper;
+import org.noorganization.instalist.server.support.RequestManager;
+import org.noorganization.instalist.server.support.ResponseFactory;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ResourceContext;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies many changes at once, e.g. the queued changes of a client coming back online. The
+ * operations are applied in order by the usual resources, but in one transaction, so the group
+ * is locked and looked up only once and everything gets flushed together.
+ *
+ * Every operation gets the status its single request would have got. Failed operations do not
+ * change anything, so the others get committed anyway. The count of operations is limited by
+ * "instalist.batch.max_operations".
+ */
+@Path("/groups/{groupid}/batch")
+public class BatchResource {
+
+    private static final ObjectMapper          sMapper = new ObjectMapper();
+    private static final Map<String, Type<?, ?>> sTypes = new HashMap<String, Type<?, ?>>();
+
+    static {
+        sTypes.put("categories", new Type<CategoriesResource, CategoryInfo>(
+                CategoriesResource.class, CategoryInfo.class, CategoriesResource::postCategory,
+                CategoriesResource::putCategory, CategoriesResource::deleteCategory));
+        sTypes.put("ingredients", new Type<IngredientResource, IngredientInfo>(
+                IngredientResource.class, IngredientInfo.class, IngredientResource::postIngredient,
+                IngredientResource::putIngredient, IngredientResource::deleteIngredient));
+        sTypes.put("listentries", new Type<EntryResource, EntryInfo>(EntryResource.class,
+                EntryInfo.class, EntryResource::postEntry, EntryResource::putEntry,
+                EntryResource::deleteListEntryById));
+        sTypes.put("lists", new Type<ListResource, ListInfo>(ListResource.class, ListInfo.class,
+                ListResource::postList, ListResource::putList, ListResource::deleteList));
+        sTypes.put("products", new Type<ProductResource, ProductInfo>(ProductResource.class,
+                ProductInfo.class, ProductResource::postProduct, ProductResource::putProduct,
+                ProductResource::deleteProduct));
+        sTypes.put("recipes", new Type<RecipeResource, RecipeInfo>(RecipeResource.class,
+                RecipeInfo.class, RecipeResource::postRecipe, RecipeResource::putRecipe,
+                RecipeResource::deleteRecipe));
+        sTypes.put("tags", new Type<TagResource, TagInfo>(TagResource.class, TagInfo.class,
+                TagResource::postTag, TagResource::putTag, TagResource::deleteTag));
+        sTypes.put("taggedproducts", new Type<TaggedProductResource, TaggedProductInfo>(
+                TaggedProductResource.class, TaggedProductInfo.class,
+                TaggedProductResource::postTaggedProduct, TaggedProductResource::putTaggedProduct,
+                TaggedProductResource::deleteTaggedProduct));
+        sTypes.put("units", new Type<UnitResource, UnitInfo>(UnitResource.class, UnitInfo.class,
+                UnitResource::postUnit, UnitResource::putUnit, UnitResource::deleteUnit));
+    }
+
+    @Context
+    private ContainerRequestContext mRequest;
+
+    @Context
+    private ResourceContext mResources;
+
+    /**
+     * Applies a list of operations.
+     * @param _groupId The id of the group to change.
+     * @param _operations The operations in the order to apply.
+     * @return The results in the order of the operations.
+     */
+    @POST
+    @TokenSecured
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    public Response postBatch(@PathParam("groupid") int _groupId,
+                              List<BatchOperation> _operations) throws Exception {
+        if (_operations == null)
+            return ResponseFactory.generateBadRequest(CommonEntity.NO_DATA_RECVD);
+        if (_operations.size() > ConfigHelper.getInt("instalist.batch.max_operations", 1000))
+            return ResponseFactory.generateBadRequest(new Error().withMessage("Too many " +
+                    "operations sent at once."));
+
+        RequestManager manager = RequestManager.of(mRequest);
+        manager.beginBatch();
+        List<BatchResult> rtn = new ArrayList<BatchResult>(_operations.size());
+        for (BatchOperation operation : _operations)
+            rtn.add(toResult(apply(_groupId, operation)));
+        manager.commitBatch();
+
+        return ResponseFactory.generateOK(rtn);
+    }
+
+    private Response apply(int _groupId, BatchOperation _operation) throws Exception {
+        Type<?, ?> type = (_operation != null ? sTypes.get(_operation.getType()) : null);
+        if (type == null || _operation.getMethod() == null)
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_DATA);
+        return type.apply(mResources, _groupId, _operation);
+    }
+
+    private static BatchResult toResult(Response _response) {
+        BatchResult rtn = new BatchResult().withStatus(_response.getStatus());
+        if (_response.getEntity() instanceof Error)
+            rtn.setMessage(((Error) _response.getEntity()).getMessage());
+        return rtn;
+    }
+
+    private interface Post<R, I> {
+        Response apply(R _resource, int _groupId, I _info) throws Exception;
+    }
+
+    private interface Put<R, I> {
+        Response apply(R _resource, int _groupId, String _uuid, I _info) throws Exception;
+    }
+
+    private interface Delete<R> {
+        Response apply(R _resource, int _groupId, String _uuid) throws Exception;
+    }
+
+    /**
+     * The resource and message of an item type.
+     */
+    private static class Type<R, I> {
+        private final Class<R>   mResource;
+        private final Class<I>   mInfo;
+        private final Post<R, I> mPost;
+        private final Put<R, I>  mPut;
+        private final Delete<R>  mDelete;
+
+        Type(Class<R> _resource, Class<I> _info, Post<R, I> _post, Put<R, I> _put,
+             Delete<R> _delete) {
+            mResource = _resource;
+            mInfo = _info;
+            mPost = _post;
+            mPut = _put;
+            mDelete = _delete;
+        }
+
+        Response apply(ResourceContext _resources, int _groupId, BatchOperation _operation)
+                throws Exception {
+            if (!_operation.getMethod().equals("POST") && _operation.getUUID() == null)
+                return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
+            R resource = _resources.getResource(mResource);
+            switch (_operation.getMethod()) {
+                case "DELETE":
+                    return mDelete.apply(resource, _groupId, _operation.getUUID());
+                case "POST":
+                case "PUT":
+                    break;
+                default:
+                    return ResponseFactory.generateBadRequest(CommonEntity.INVALID_DATA);
+            }
+
+            if (_operation.getData() == null)
+                return ResponseFactory.generateBadRequest(CommonEntity.NO_DATA_RECVD);
+            I info;
+            try {
+                info = sMapper.treeToValue(_operation.getData(), mInfo);
+            } catch (JsonProcessingException _e) {
+                return ResponseFactory.generateBadRequest(CommonEntity.INVALID_DATA);
+            }
+            if (_operation.getMethod().equals("POST"))
+                return mPost.apply(resource, _groupId, info);
+            return mPut.apply(resource, _groupId, _operation.getUUID(), info);
+        }
+    }
+}
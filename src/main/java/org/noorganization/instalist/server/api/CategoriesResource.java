@@ -20,10 +20,14 @@ package org.noorganization.instalist.server.api;
 import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
 import javax.ws.rs.*;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 
 import com.fasterxml.jackson.databind.util.ISO8601Utils;
 import org.noorganization.instalist.server.support.CommonEntity;
+import org.noorganization.instalist.server.ConditionalGet;
+import org.noorganization.instalist.server.MediaTypes;
 import org.noorganization.instalist.server.TokenSecured;
 import org.noorganization.instalist.comm.message.CategoryInfo;
 import org.noorganization.instalist.server.controller.ICategoryController;
@@ -32,15 +36,18 @@ import org.noorganization.instalist.comm.message.Error;
 import org.noorganization.instalist.server.model.Category;
 import org.noorganization.instalist.server.model.DeletedObject;
 import org.noorganization.instalist.server.model.DeviceGroup;
+import org.noorganization.instalist.server.support.ChangeCursor;
+import org.noorganization.instalist.server.support.ChangeFilter;
+import org.noorganization.instalist.server.support.InfoProjection;
+import org.noorganization.instalist.server.support.InfoStream;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
-import org.noorganization.instalist.server.support.DatabaseHelper;
+import org.noorganization.instalist.server.support.RequestManager;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
 import org.noorganization.instalist.server.support.ResponseFactory;
 
 import java.text.ParseException;
 import java.text.ParsePosition;
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
@@ -53,6 +60,9 @@ import java.util.UUID;
 @Path("/groups/{groupid}/categories")
 public class CategoriesResource {
 
+    @Context
+    private ContainerRequestContext mRequest;
+
 
     /**
      * Get a list of categories.
@@ -60,12 +70,16 @@ public class CategoriesResource {
      * @param _groupId The id of the group.
      * @param _changedSince Optional. Requests only the elements that changed since the given date.
      *                      ISO 8601 time e.g. 2016-01-19T11:54:07+01:00
+     * @param _cursor Optional. Requests only the elements that changed since the sync returning
+     *                this cursor. Preferred over _changedSince.
      */
     @GET
     @TokenSecured
-    @Produces({ "application/json" })
+    @ConditionalGet
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getCategories(@PathParam("groupid") int _groupId,
-                                  @QueryParam("changedsince") String _changedSince)
+                                  @QueryParam("changedsince") String _changedSince,
+                                  @QueryParam("cursor") String _cursor)
             throws Exception {
         try {
 
@@ -78,67 +92,21 @@ public class CategoriesResource {
                 return ResponseFactory.generateBadRequest(CommonEntity.INVALID_DATA);
             }
         }
-
-        List<Category> categories;
-        List<DeletedObject> deletedCategories;
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-
-        if (changedSince != null) {
-            TypedQuery<Category> categoriesQuery =
-                    manager.createQuery("select c from Category c " +
-                                    "where c.group = :groupid and c.updated > :updated",
-                            Category.class);
-            categoriesQuery.setParameter("groupid", group);
-            categoriesQuery.setParameter("updated", changedSince);
-            categories = categoriesQuery.getResultList();
-
-            TypedQuery<DeletedObject> deletedCategoriesQuery =
-                    manager.createQuery("select do " +
-                                    "from DeletedObject do where do.group = :groupid and " +
-                                    "do.type = :type and do.updated > :updated",
-                            DeletedObject.class);
-            deletedCategoriesQuery.setParameter("groupid", group);
-            deletedCategoriesQuery.setParameter("updated", changedSince);
-            deletedCategoriesQuery.setParameter("type", DeletedObject.Type.CATEGORY);
-            deletedCategories = deletedCategoriesQuery.getResultList();
-        } else {
-            TypedQuery<Category> categoriesQuery =
-                    manager.createQuery("select c from Category c " +
-                            "where c.group = :groupid", Category.class);
-            categoriesQuery.setParameter("groupid", group);
-            categories = categoriesQuery.getResultList();
-
-            TypedQuery<DeletedObject> deletedCategoriesQuery =
-                    manager.createQuery("select do " +
-                                    "from DeletedObject do where do.group = :groupid and " +
-                                    "do.type = :type",
-                            DeletedObject.class);
-            deletedCategoriesQuery.setParameter("groupid", group);
-            deletedCategoriesQuery.setParameter("type", DeletedObject.Type.CATEGORY);
-            deletedCategories = deletedCategoriesQuery.getResultList();
+        ChangeFilter filter;
+        try {
+            filter = ChangeFilter.of(changedSince, _cursor);
+        } catch (IllegalArgumentException _e) {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CURSOR);
         }
-        manager.close();
+        if (filter.isBeyondHorizon())
+            return ResponseFactory.generateGone(CommonEntity.RESYNC_REQUIRED);
 
-        List<CategoryInfo> rtnPayload = new ArrayList<CategoryInfo>(categories.size() +
-                deletedCategories.size());
-        for (Category currentCat: categories) {
-            CategoryInfo info = new CategoryInfo();
-            info.setUUID(currentCat.getUUID());
-            info.setName(currentCat.getName());
-            info.setLastChanged(Date.from(currentCat.getUpdated()));
-            info.setDeleted(false);
-            rtnPayload.add(info);
-        }
-        for (DeletedObject currentCat: deletedCategories) {
-            CategoryInfo info = new CategoryInfo();
-            info.setUUID(currentCat.getUUID());
-            info.setLastChanged(Date.from(currentCat.getUpdated()));
-            info.setDeleted(true);
-            rtnPayload.add(info);
-        }
+        EntityManager manager = RequestManager.of(mRequest).get();
+        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
+        ChangeCursor cursor = ChangeCursor.of(group);
 
-        return ResponseFactory.generateOK(rtnPayload);
+        InfoStream rtn = new InfoStream(_groupId, filter, InfoProjection.CATEGORIES);
+        return ResponseFactory.generateChanges(rtn, cursor);
         }catch (Exception _e) {
             _e.printStackTrace();
             throw _e;
@@ -153,8 +121,9 @@ public class CategoriesResource {
      */
     @GET
     @TokenSecured
+    @ConditionalGet
     @Path("{categoryuuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getCategory(@PathParam("groupid") int _groupId,
                                 @PathParam("categoryuuid") String _categoryUUID)
             throws Exception {
@@ -166,16 +135,10 @@ public class CategoriesResource {
         }
 
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-
-        TypedQuery<Category> categoriesQuery =
-                manager.createQuery("select c from Category c " +
-                        "where c.group = :groupid and c.UUID = :uuid", Category.class);
-        categoriesQuery.setParameter("groupid", group);
-        categoriesQuery.setParameter("uuid", categoryUUID);
-        List<Category> categories = categoriesQuery.getResultList();
-        if (categories.size() != 1) {
+        EntityManager manager = RequestManager.of(mRequest).get();
+        CategoryInfo catInfo = InfoProjection.CATEGORIES.find(manager, _groupId, categoryUUID);
+        if (catInfo == null) {
+            DeviceGroup group = manager.getReference(DeviceGroup.class, _groupId);
             TypedQuery<DeletedObject> deletedCategoriesQuery =
                     manager.createQuery("select do " +
                                     "from DeletedObject do where do.group = :groupid and " +
@@ -185,9 +148,8 @@ public class CategoriesResource {
             deletedCategoriesQuery.setParameter("type", DeletedObject.Type.CATEGORY);
             deletedCategoriesQuery.setParameter("uuid", categoryUUID);
             List<DeletedObject> deletedCategories = deletedCategoriesQuery.getResultList();
-            manager.close();
             if (deletedCategories.size() == 1) {
-                CategoryInfo catInfo = new CategoryInfo();
+                catInfo = new CategoryInfo();
                 catInfo.setDeleted(true);
                 catInfo.setLastChanged(Date.from(deletedCategories.get(0).getUpdated()));
                 catInfo.setUUID(categoryUUID);
@@ -197,12 +159,6 @@ public class CategoriesResource {
                         " found."));
             }
         }
-        manager.close();
-        CategoryInfo catInfo = new CategoryInfo();
-        catInfo.setDeleted(false);
-        catInfo.setLastChanged(Date.from(categories.get(0).getUpdated()));
-        catInfo.setName(categories.get(0).getName());
-        catInfo.setUUID(categoryUUID);
 
         return ResponseFactory.generateOK(catInfo);
     }
@@ -215,8 +171,8 @@ public class CategoriesResource {
     @PUT
     @TokenSecured
     @Path("{categoryuuid}")
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response putCategory(@PathParam("groupid") int _groupId,
                                 @PathParam("categoryuuid") String _uuid,
                                 CategoryInfo _entity) throws Exception {
@@ -240,7 +196,7 @@ public class CategoriesResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         ICategoryController categoryController =
                 ControllerFactory.getCategoryController(manager);
         try {
@@ -254,8 +210,6 @@ public class CategoriesResource {
         } catch (ConflictException e) {
             return ResponseFactory.generateConflict(new Error().withMessage("Sent sategory is in " +
                     "conflict with saved one."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
@@ -269,8 +223,8 @@ public class CategoriesResource {
      */
     @POST
     @TokenSecured
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response postCategory(@PathParam("groupid") int _groupId, CategoryInfo _entity) throws
             Exception {
         if (_entity.getUUID() == null || _entity.getName() == null ||
@@ -292,15 +246,13 @@ public class CategoriesResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         ICategoryController categoryController = ControllerFactory.getCategoryController(manager);
         try {
             categoryController.add(_groupId, newCatUUID, _entity.getName(), lastChanged);
         } catch (ConflictException _e) {
             return ResponseFactory.generateConflict(new Error().withMessage("The new category " +
                     "stands in conflict with existing one."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateCreated(null);
@@ -315,7 +267,7 @@ public class CategoriesResource {
     @DELETE
     @TokenSecured
     @Path("{categoryuuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response deleteCategory(@PathParam("groupid") int _groupId,
                                    @PathParam("categoryuuid") String _uuid) throws Exception {
         UUID newCatUUID;
@@ -325,7 +277,7 @@ public class CategoriesResource {
             return ResponseFactory.generateNotFound(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         ICategoryController categoryController = ControllerFactory.getCategoryController(manager);
         try {
             categoryController.delete(_groupId, newCatUUID);
@@ -338,8 +290,6 @@ public class CategoriesResource {
         } catch (ConflictException _e) {
             return ResponseFactory.generateConflict(new Error().withMessage("The category still " +
                     "contains lists."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
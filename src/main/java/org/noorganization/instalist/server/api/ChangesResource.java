@@ -0,0 +1,359 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.api;
+
+import com.fasterxml.jackson.databind.util.ISO8601Utils;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import org.glassfish.jersey.media.sse.SseFeature;
+import org.noorganization.instalist.server.ConditionalGet;
+import org.noorganization.instalist.server.MediaTypes;
+import org.noorganization.instalist.server.TokenSecured;
+import org.noorganization.instalist.server.message.ChangeNotification;
+import org.noorganization.instalist.server.message.ChangesInfo;
+import org.noorganization.instalist.server.model.*;
+import org.noorganization.instalist.server.support.ChangeCursor;
+import org.noorganization.instalist.server.support.ChangeFilter;
+import org.noorganization.instalist.server.support.ChangeLog;
+import org.noorganization.instalist.server.support.ChangeNotifier;
+import org.noorganization.instalist.server.support.CommonEntity;
+import org.noorganization.instalist.server.support.ConfigHelper;
+import org.noorganization.instalist.server.support.InfoProjection;
+import org.noorganization.instalist.server.support.InfoConverter;
+import org.noorganization.instalist.server.support.RequestManager;
+import org.noorganization.instalist.server.support.ResponseFactory;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * All changes of a group in one request. Replaces the requests with "changedsince" to every
+ * collection of the group while synchronizing.
+ */
+@Path("/groups/{groupid}/changes")
+public class ChangesResource {
+
+    @Context
+    private ContainerRequestContext mRequest;
+
+    /**
+     * Get all changed and deleted objects of a group. No snapshot isolation is needed: the cursor
+     * is taken from the group before any object is read. Objects written meanwhile have a higher
+     * change counter, so they are sent again by the next sync and never missed.
+     * @param _groupId The id of the group.
+     * @param _since Optional. Requests only the objects that changed since the given date. ISO
+     *               8601 time e.g. 2016-01-19T11:54:07+01:00
+     * @param _cursor Optional. Requests only the objects that changed since the sync returning
+     *                this cursor. Preferred over _since.
+     */
+    @GET
+    @TokenSecured
+    @ConditionalGet
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    public Response getChanges(@PathParam("groupid") int _groupId,
+                               @QueryParam("since") String _since,
+                               @QueryParam("cursor") String _cursor) throws Exception {
+        Instant since = null;
+        try {
+            if (_since != null)
+                since = ISO8601Utils.parse(_since, new ParsePosition(0)).toInstant();
+        } catch (ParseException _e) {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CHANGEDATE);
+        }
+        ChangeFilter filter;
+        try {
+            filter = ChangeFilter.of(since, _cursor);
+        } catch (IllegalArgumentException _e) {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CURSOR);
+        }
+        if (filter.isBeyondHorizon())
+            return ResponseFactory.generateGone(CommonEntity.RESYNC_REQUIRED);
+
+        EntityManager manager = RequestManager.of(mRequest).get();
+        EntityTransaction tx = manager.getTransaction();
+        tx.begin();
+        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
+        ChangeCursor cursor = ChangeCursor.of(group);
+        ChangeLog.Window window = ChangeLog.getInstance().window(_groupId, filter,
+                group.getChangeSeq());
+
+        ChangesInfo rtn = new ChangesInfo();
+        Instant lastChanged = since;
+        lastChanged = read(manager, InfoProjection.CATEGORIES, _groupId, filter, window,
+                rtn.getCategories(), lastChanged);
+        lastChanged = read(manager, InfoProjection.LISTS, _groupId, filter, window,
+                rtn.getLists(), lastChanged);
+        lastChanged = read(manager, InfoProjection.ENTRIES, _groupId, filter, window,
+                rtn.getEntries(), lastChanged);
+        lastChanged = read(manager, InfoProjection.PRODUCTS, _groupId, filter, window,
+                rtn.getProducts(), lastChanged);
+        lastChanged = read(manager, InfoProjection.UNITS, _groupId, filter, window,
+                rtn.getUnits(), lastChanged);
+        lastChanged = read(manager, InfoProjection.RECIPES, _groupId, filter, window,
+                rtn.getRecipes(), lastChanged);
+        lastChanged = read(manager, InfoProjection.INGREDIENTS, _groupId, filter, window,
+                rtn.getIngredients(), lastChanged);
+        lastChanged = read(manager, InfoProjection.TAGS, _groupId, filter, window,
+                rtn.getTags(), lastChanged);
+        lastChanged = read(manager, InfoProjection.TAGGED_PRODUCTS, _groupId, filter, window,
+                rtn.getTaggedProducts(), lastChanged);
+        List<DeletedObject> deletions = (window != null ? window.getDeletions(null) : null);
+        if (deletions == null) {
+            deletions = new ArrayList<>();
+            for (Object[] row : InfoProjection.createAllDeletedQuery(manager, _groupId, filter).
+                    getResultList())
+                deletions.add(InfoProjection.toDeletedObject(row));
+        }
+        for (DeletedObject deleted : deletions) {
+            addDeleted(rtn, deleted);
+            lastChanged = newest(lastChanged, deleted.getUpdated());
+        }
+        tx.commit();
+
+        if (lastChanged != null)
+            rtn.setLastChanged(Date.from(lastChanged));
+        rtn.setCursor(cursor.toString());
+        return ResponseFactory.generateChanges(rtn, cursor);
+    }
+
+    /**
+     * Streams notifications about changes of a group as server-sent events named "change". Each
+     * event carries a {@link ChangeNotification} naming the changed collections and the cursor
+     * after the changes. Comments are sent as heartbeat. The stream ends, when the client
+     * disconnects.
+     * @param _groupId The id of the group.
+     * @param _cursor Optional. The cursor of the last sync. If the group changed since then, a
+     *                notification is sent right away.
+     */
+    @GET
+    @TokenSecured
+    @Path("stream")
+    @Produces(SseFeature.SERVER_SENT_EVENTS)
+    public Response streamChanges(@PathParam("groupid") int _groupId,
+                                  @QueryParam("cursor") String _cursor) {
+        ChangeCursor since;
+        try {
+            since = (_cursor != null ? ChangeCursor.parse(_cursor) : null);
+        } catch (IllegalArgumentException _e) {
+            return asJson(ResponseFactory.generateBadRequest(CommonEntity.INVALID_CURSOR));
+        }
+
+        ChangeNotifier notifier = ChangeNotifier.getInstance();
+        EventOutput output = new EventOutput();
+        EventSubscriber subscriber = new EventSubscriber(output);
+        if (!notifier.subscribe(_groupId, subscriber))
+            return asJson(ResponseFactory.generateServiceUnavailable(CommonEntity.SERVER_BUSY,
+                    notifier.getRetryAfter()));
+
+        ChangeNotification current = readCurrent(_groupId, since);
+        if (current != null)
+            notifier.publishTo(_groupId, subscriber, current);
+        return Response.ok(output).build();
+    }
+
+    /**
+     * Waits for changes of a group (long polling), for clients not able to use
+     * {@link #streamChanges}. Answers with a {@link ChangeNotification} as soon as the group
+     * changed after the given cursor, or with 204 if nothing changed while waiting.
+     * @param _groupId The id of the group.
+     * @param _cursor Optional. The cursor of the last sync. If the group changed since then, the
+     *                answer is sent right away. Without a cursor, the next change is awaited.
+     * @param _wait Optional. The maximum seconds to wait, limited by "instalist.notify.max_wait".
+     */
+    @GET
+    @TokenSecured
+    @Path("poll")
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    public void pollChanges(@PathParam("groupid") int _groupId,
+                            @QueryParam("cursor") String _cursor,
+                            @QueryParam("wait") Integer _wait,
+                            @Suspended AsyncResponse _response) {
+        ChangeCursor since;
+        try {
+            since = (_cursor != null ? ChangeCursor.parse(_cursor) : null);
+        } catch (IllegalArgumentException _e) {
+            _response.resume(ResponseFactory.generateBadRequest(CommonEntity.INVALID_CURSOR));
+            return;
+        }
+        int maxWait = ConfigHelper.getInt("instalist.notify.max_wait", 60);
+        int wait = (_wait != null ? Math.max(Math.min(_wait, maxWait), 0) : maxWait);
+
+        ChangeNotifier notifier = ChangeNotifier.getInstance();
+        ChangeNotifier.Subscriber subscriber = _notification -> {
+            _response.resume(ResponseFactory.generateOK(_notification));
+            return false;
+        };
+        _response.register((CompletionCallback) _throwable ->
+                notifier.unsubscribe(_groupId, subscriber));
+        _response.setTimeoutHandler(_timedOut ->
+                _timedOut.resume(Response.noContent().build()));
+        _response.setTimeout(wait, TimeUnit.SECONDS);
+        if (!notifier.subscribe(_groupId, subscriber)) {
+            _response.resume(ResponseFactory.generateServiceUnavailable(
+                    CommonEntity.SERVER_BUSY, notifier.getRetryAfter()));
+            return;
+        }
+
+        ChangeNotification current = readCurrent(_groupId, since);
+        if (current != null)
+            _response.resume(ResponseFactory.generateOK(current));
+    }
+
+    /**
+     * Reads the change counter of a group and releases the connection of the request, so waiting
+     * clients do not hold connections. Has to be called after subscribing, otherwise changes
+     * committed in between would get lost.
+     * @return A notification, if the group changed after the cursor. Otherwise null.
+     */
+    private ChangeNotification readCurrent(int _groupId, ChangeCursor _since) {
+        try {
+            DeviceGroup group = RequestManager.of(mRequest).get().find(DeviceGroup.class,
+                    _groupId);
+            if (_since == null || group == null || group.getChangeSeq() <= _since.getSeq())
+                return null;
+            return new ChangeNotification().withCursor(ChangeCursor.of(group).toString());
+        } finally {
+            RequestManager.release(mRequest);
+        }
+    }
+
+    private static Response asJson(Response _response) {
+        return Response.fromResponse(_response).type(MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    private static <I> Instant read(EntityManager _manager, InfoProjection<I> _projection,
+                                    int _groupId, ChangeFilter _filter,
+                                    ChangeLog.Window _window, List<I> _target,
+                                    Instant _lastChanged) {
+        // nothing of the type changed since the cursor, no need to ask the database.
+        if (_window != null && !_window.hasChanges(_projection.getType()))
+            return _lastChanged;
+        Instant rtn = _lastChanged;
+        for (Object[] row : _projection.createQuery(_manager, _groupId, _filter).
+                getResultList()) {
+            _target.add(_projection.toInfo(row));
+            rtn = newest(rtn, InfoProjection.getUpdated(row));
+        }
+        return rtn;
+    }
+
+    private static Instant newest(Instant _current, Instant _candidate) {
+        return (_current == null || _candidate.isAfter(_current) ? _candidate : _current);
+    }
+
+    private static void addDeleted(ChangesInfo _changes, DeletedObject _deleted) {
+        switch (_deleted.getType()) {
+            case CATEGORY:
+                _changes.getCategories().add(InfoConverter.toCategoryInfo(_deleted));
+                break;
+            case INGREDIENT:
+                _changes.getIngredients().add(InfoConverter.toIngredientInfo(_deleted));
+                break;
+            case LIST:
+                _changes.getLists().add(InfoConverter.toListInfo(_deleted));
+                break;
+            case LISTENTRY:
+                _changes.getEntries().add(InfoConverter.toEntryInfo(_deleted));
+                break;
+            case PRODUCT:
+                _changes.getProducts().add(InfoConverter.toProductInfo(_deleted));
+                break;
+            case RECIPE:
+                _changes.getRecipes().add(InfoConverter.toRecipeInfo(_deleted));
+                break;
+            case TAG:
+                _changes.getTags().add(InfoConverter.toTagInfo(_deleted));
+                break;
+            case TAGGEDPRODUCT:
+                _changes.getTaggedProducts().add(InfoConverter.toTaggedProductInfo(_deleted));
+                break;
+            case UNIT:
+                _changes.getUnits().add(InfoConverter.toUnitInfo(_deleted));
+                break;
+        }
+    }
+
+    /**
+     * Writes notifications to an event stream. Gets removed from the notifier, when writing
+     * fails or the client does not keep up.
+     */
+    private static class EventSubscriber implements ChangeNotifier.Subscriber {
+        private final EventOutput mOutput;
+
+        EventSubscriber(EventOutput _output) {
+            mOutput = _output;
+        }
+
+        @Override
+        public boolean onChange(ChangeNotification _notification) {
+            return write(new OutboundEvent.Builder().name("change").
+                    mediaType(MediaType.APPLICATION_JSON_TYPE).
+                    data(ChangeNotification.class, _notification).build());
+        }
+
+        @Override
+        public boolean onHeartbeat() {
+            return write(new OutboundEvent.Builder().comment("heartbeat").build());
+        }
+
+        @Override
+        public void onDropped() {
+            // does not wait for a blocked write, the output gets closed when the write returns.
+            close();
+        }
+
+        private boolean write(OutboundEvent _event) {
+            if (mOutput.isClosed())
+                return false;
+            try {
+                mOutput.write(_event);
+                return true;
+            } catch (IOException _e) {
+                close();
+                return false;
+            }
+        }
+
+        private void close() {
+            try {
+                mOutput.close();
+            } catch (IOException _ignored) {
+                // the connection is gone anyway.
+            }
+        }
+    }
+}
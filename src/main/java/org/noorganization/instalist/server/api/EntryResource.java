@@ -20,24 +20,28 @@ package org.noorganization.instalist.server.api;
 import java.text.ParseException;
 import java.text.ParsePosition;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
 import java.util.UUID;
 import javax.persistence.EntityManager;
-import javax.persistence.TypedQuery;
 import javax.ws.rs.*;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 
 import com.fasterxml.jackson.databind.util.ISO8601Utils;
 import org.noorganization.instalist.comm.message.EntryInfo;
 import org.noorganization.instalist.server.support.CommonEntity;
+import org.noorganization.instalist.server.ConditionalGet;
+import org.noorganization.instalist.server.MediaTypes;
 import org.noorganization.instalist.server.TokenSecured;
 import org.noorganization.instalist.server.controller.IEntryController;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
 import org.noorganization.instalist.comm.message.Error;
 import org.noorganization.instalist.server.model.*;
-import org.noorganization.instalist.server.support.DatabaseHelper;
+import org.noorganization.instalist.server.support.RequestManager;
+import org.noorganization.instalist.server.support.ChangeCursor;
+import org.noorganization.instalist.server.support.ChangeFilter;
+import org.noorganization.instalist.server.support.InfoProjection;
+import org.noorganization.instalist.server.support.InfoStream;
 import org.noorganization.instalist.server.support.ResponseFactory;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
@@ -50,80 +54,47 @@ import org.noorganization.instalist.server.support.exceptions.GoneException;
 @Path("/groups/{groupid}/listentries")
 public class EntryResource {
 
+    @Context
+    private ContainerRequestContext mRequest;
+
     /**
      * Get a list of listEntries.
      * @param _groupId The id of the group containing various list-entries.
      * @param _changedSince Limits the result to elements that changed since the given date. ISO
      *                      8601 time e.g. 2016-01-19T11:54:07+0100
+     * @param _cursor Optional. Requests only the elements that changed since the sync returning
+     *                this cursor. Preferred over _changedSince.
      */
     @GET
     @TokenSecured
-    @Produces({ "application/json" })
+    @ConditionalGet
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getEntries(@PathParam("groupid") int _groupId,
-                               @QueryParam("changedsince") String _changedSince) throws Exception {
-        List<ListEntry> foundEntries;
-        List<DeletedObject> foundDeleted;
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-
-        if (_changedSince != null) {
-            Instant changedSince;
-            try {
+                               @QueryParam("changedsince") String _changedSince,
+                               @QueryParam("cursor") String _cursor) throws Exception {
+        Instant changedSince = null;
+        try {
+            if (_changedSince != null)
                 changedSince = ISO8601Utils.parse(_changedSince, new ParsePosition(0)).
                         toInstant();
-            } catch (ParseException _e) {
-                manager.close();
-                return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CHANGEDATE);
-            }
-
-            TypedQuery<ListEntry> foundEntriesQuery = manager.createQuery("select le from " +
-                            "ListEntry le where le.group = :group and le.updated > :updated",
-                    ListEntry.class);
-            foundEntriesQuery.setParameter("group", group);
-            foundEntriesQuery.setParameter("updated", changedSince);
-            foundEntries = foundEntriesQuery.getResultList();
-
-            TypedQuery<DeletedObject> foundDeletedEntriesQuery = manager.createQuery("select do " +
-                    "from DeletedObject do where do.group = :group and do.updated > :updated and " +
-                    "do.type = :type", DeletedObject.class);
-            foundDeletedEntriesQuery.setParameter("group", group);
-            foundDeletedEntriesQuery.setParameter("updated", changedSince);
-            foundDeletedEntriesQuery.setParameter("type", DeletedObject.Type.LISTENTRY);
-            foundDeleted = foundDeletedEntriesQuery.getResultList();
-        } else {
-            foundEntries = new ArrayList<ListEntry>(group.getListEntries());
-
-            TypedQuery<DeletedObject> deletedEntriesQuery = manager.createQuery("select do from " +
-                    "DeletedObject do where do.group = :group and do.type = :type",
-                    DeletedObject.class);
-            deletedEntriesQuery.setParameter("group", group);
-            deletedEntriesQuery.setParameter("type", DeletedObject.Type.LISTENTRY);
-            foundDeleted = deletedEntriesQuery.getResultList();
-        }
-        manager.close();
-
-        ArrayList<EntryInfo> rtn = new ArrayList<EntryInfo>(foundEntries.size() +
-                foundDeleted.size());
-        for (ListEntry current : foundEntries) {
-            EntryInfo toAdd = new EntryInfo().withDeleted(false);
-            toAdd.setUUID(current.getUUID());
-            toAdd.setProductUUID(current.getProduct().getUUID());
-            toAdd.setListUUID(current.getList().getUUID());
-            toAdd.setAmount(current.getAmount());
-            toAdd.setPriority(current.getPriority());
-            toAdd.setStruck(current.getStruck());
-            toAdd.setLastChanged(Date.from(current.getUpdated()));
-            rtn.add(toAdd);
+        } catch (ParseException _e) {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CHANGEDATE);
         }
-        for (DeletedObject current : foundDeleted) {
-            EntryInfo toAdd = new EntryInfo();
-            toAdd.setUUID(current.getUUID());
-            toAdd.setLastChanged(Date.from(current.getUpdated()));
-            toAdd.setDeleted(true);
-            rtn.add(toAdd);
+        ChangeFilter filter;
+        try {
+            filter = ChangeFilter.of(changedSince, _cursor);
+        } catch (IllegalArgumentException _e) {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CURSOR);
         }
+        if (filter.isBeyondHorizon())
+            return ResponseFactory.generateGone(CommonEntity.RESYNC_REQUIRED);
 
-        return ResponseFactory.generateOK(rtn);
+        EntityManager manager = RequestManager.of(mRequest).get();
+        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
+        ChangeCursor cursor = ChangeCursor.of(group);
+
+        InfoStream rtn = new InfoStream(_groupId, filter, InfoProjection.ENTRIES);
+        return ResponseFactory.generateChanges(rtn, cursor);
     }
 
     /**
@@ -133,8 +104,9 @@ public class EntryResource {
      */
     @GET
     @TokenSecured
+    @ConditionalGet
     @Path("{entryuuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getEntry(@PathParam("groupid") int _groupId,
                              @PathParam("entryuuid") String _entryUUID) throws Exception {
         UUID toFind;
@@ -144,31 +116,18 @@ public class EntryResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-        IEntryController entryController = ControllerFactory.getEntryController(manager);
-
-        ListEntry foundEntry = entryController.findByGroupAndUUID(group, toFind);
-        if (foundEntry == null) {
+        EntityManager manager = RequestManager.of(mRequest).get();
+        EntryInfo rtn = InfoProjection.ENTRIES.find(manager, _groupId, toFind);
+        if (rtn == null) {
+            DeviceGroup group = manager.getReference(DeviceGroup.class, _groupId);
+            IEntryController entryController = ControllerFactory.getEntryController(manager);
             if (entryController.findDeletedByGroupAndUUID(group, toFind) != null) {
-                manager.close();
                 return ResponseFactory.generateGone(new Error().withMessage("The requested " +
                         "listentry has been deleted."));
             }
-            manager.close();
             return ResponseFactory.generateNotFound(new Error().withMessage("The requested " +
                     "listentry was not found."));
         }
-        manager.close();
-
-        EntryInfo rtn = new EntryInfo().withDeleted(false);
-        rtn.setUUID(foundEntry.getUUID());
-        rtn.setProductUUID(foundEntry.getProduct().getUUID());
-        rtn.setListUUID(foundEntry.getList().getUUID());
-        rtn.setAmount(foundEntry.getAmount());
-        rtn.setPriority(foundEntry.getPriority());
-        rtn.setStruck(foundEntry.getStruck());
-        rtn.setLastChanged(Date.from(foundEntry.getUpdated()));
 
         return ResponseFactory.generateOK(rtn);
     }
@@ -182,8 +141,8 @@ public class EntryResource {
     @PUT
     @TokenSecured
     @Path("{entryuuid}")
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response putEntry(@PathParam("groupid") int _groupId,
                              @PathParam("entryuuid") String _entryUUID,
                              EntryInfo _entity) throws Exception {
@@ -212,7 +171,7 @@ public class EntryResource {
         } else
             updated = Instant.now();
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IEntryController entryController = ControllerFactory.getEntryController(manager);
         try {
             entryController.update(_groupId, toUpdate, productUUID, listUUID, _entity.getAmount(),
@@ -229,8 +188,6 @@ public class EntryResource {
         } catch (BadRequestException _e) {
             return ResponseFactory.generateBadRequest(new Error().withMessage("The referenced " +
                     "product or list was not found."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
@@ -243,8 +200,8 @@ public class EntryResource {
      */
     @POST
     @TokenSecured
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response postEntry(@PathParam("groupid") int _groupId, EntryInfo _entity)
             throws Exception {
         if (_entity.getUUID() == null || _entity.getListUUID() == null ||
@@ -274,7 +231,7 @@ public class EntryResource {
         int priority = (_entity.getPriority() != null ? _entity.getPriority() : 0);
         boolean struck = (_entity.getStruck() != null ? _entity.getStruck() : false);
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IEntryController entryController = ControllerFactory.getEntryController(manager);
         try {
             entryController.add(_groupId, toCreate, productUUID, listUUID, amount, priority, struck,
@@ -285,8 +242,6 @@ public class EntryResource {
         } catch (BadRequestException _e) {
             return ResponseFactory.generateBadRequest(new Error().withMessage("The referenced " +
                     "product or list was not found."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateCreated(null);
@@ -300,7 +255,7 @@ public class EntryResource {
     @DELETE
     @TokenSecured
     @Path("{entryuuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response deleteListEntryById(@PathParam("groupid") int _groupId,
                                         @PathParam("entryuuid") String _entryUUID)
             throws Exception {
@@ -311,7 +266,7 @@ public class EntryResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IEntryController entryController = ControllerFactory.getEntryController(manager);
         try {
             entryController.delete(_groupId, toDelete);
@@ -321,8 +276,6 @@ public class EntryResource {
         } catch (GoneException _e) {
             return ResponseFactory.generateGone(new Error().withMessage("The entry has been " +
                     "deleted."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
@@ -23,6 +23,7 @@ import org.noorganization.instalist.comm.message.DeviceRegistration;
 import org.noorganization.instalist.comm.message.GroupInfo;
 import org.noorganization.instalist.comm.message.TokenInfo;
 import org.noorganization.instalist.server.support.CommonEntity;
+import org.noorganization.instalist.server.MediaTypes;
 import org.noorganization.instalist.server.TokenSecured;
 import org.noorganization.instalist.server.controller.IAuthController;
 import org.noorganization.instalist.server.controller.IGroupController;
@@ -30,12 +31,16 @@ import org.noorganization.instalist.server.controller.impl.ControllerFactory;
 import org.noorganization.instalist.comm.message.Error;
 import org.noorganization.instalist.server.model.Device;
 import org.noorganization.instalist.server.model.DeviceGroup;
-import org.noorganization.instalist.server.support.DatabaseHelper;
+import org.noorganization.instalist.server.support.CryptoExecutor;
+import org.noorganization.instalist.server.support.RequestManager;
 import org.noorganization.instalist.server.support.ResponseFactory;
 
 import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
@@ -45,69 +50,82 @@ import java.util.List;
 @Path("/groups")
 public class GroupsResource {
 
+    @Context
+    private ContainerRequestContext mRequest;
+
     /**
      * Get the auth token.
      * Needs basic authentication with server-side-generated id as user and client-sided secret as
      * client. For Encoding-method view RFC 2617
+     * Recently verified secrets are accepted directly, others are verified asynchronously in
+     * {@link CryptoExecutor}. The EntityManager of the request is used by the executor and closed
+     * after resuming.
      */
     @GET
     @Path("{groupid}/devices/token")
-    @Produces({ "application/json" })
-    public Response getDeviceToken(@Context HttpHeaders _headers,
-                                   @PathParam("groupid") int _groupId) throws Exception {
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    public void getDeviceToken(@Context HttpHeaders _headers,
+                               @PathParam("groupid") int _groupId,
+                               @Suspended AsyncResponse _response) throws Exception {
         String authHeader = _headers.getHeaderString(HttpHeaders.AUTHORIZATION);
         if (authHeader == null) {
             Error message = new Error();
             message.setMessage("Authentication needed.");
-            return ResponseFactory.generateNotAuthorizedWAuth(message);
-        } else {
-            if (!authHeader.matches("Basic\\s+[^\\s]+")) {
-                Error message = new Error();
-                message.setMessage("Authorization has wrong format.");
-                return ResponseFactory.generateNotAuthorizedWAuth(message);
-            }
-            String encodedAuthInfo = authHeader.substring("Basic".length() + 1).trim();
-            String decodedAuthInfo = Base64.decodeAsString(encodedAuthInfo);
-
-            int colonPos = decodedAuthInfo.indexOf(":");
-            if (colonPos < 1) {
-                Error message = new Error();
-                message.setMessage("Authorization has wrong format.");
-                return ResponseFactory.generateNotAuthorizedWAuth(message);
-            }
-            int deviceId;
-            try {
-                deviceId = Integer.parseInt(decodedAuthInfo.substring(0, colonPos));
-            } catch (NumberFormatException e) {
-                Error message = new Error();
-                message.setMessage("Authorization has wrong format.");
-                return ResponseFactory.generateNotAuthorizedWAuth(message);
-            }
-            String secret = decodedAuthInfo.substring(colonPos + 1);
-            if (secret.length() == 0){
-                Error message = new Error();
-                message.setMessage("Authorization has wrong format.");
-                return ResponseFactory.generateNotAuthorizedWAuth(message);
-            }
-            EntityManager manager = DatabaseHelper.getInstance().getManager();
-            IAuthController authController = ControllerFactory.getAuthController();
-            String token = authController.getTokenByHttpAuth(manager,
-                    deviceId, secret);
-            manager.close();
-            if (token == null)
-                return ResponseFactory.generateNotAuthorizedWAuth(new Error().withMessage("Login " +
-                        "failed"));
-            else {
-                if (authController.getDeviceByToken(token).getAuthorized())
-                    return ResponseFactory.generateOK(new TokenInfo().withToken(token));
-                else
-                    return ResponseFactory.generateAccepted(new TokenInfo().withToken(token));
-            }
+            _response.resume(ResponseFactory.generateNotAuthorizedWAuth(message));
+            return;
+        }
+        if (!authHeader.matches("Basic\\s+[^\\s]+")) {
+            Error message = new Error();
+            message.setMessage("Authorization has wrong format.");
+            _response.resume(ResponseFactory.generateNotAuthorizedWAuth(message));
+            return;
+        }
+        String encodedAuthInfo = authHeader.substring("Basic".length() + 1).trim();
+        String decodedAuthInfo = Base64.decodeAsString(encodedAuthInfo);
+
+        int colonPos = decodedAuthInfo.indexOf(":");
+        if (colonPos < 1) {
+            Error message = new Error();
+            message.setMessage("Authorization has wrong format.");
+            _response.resume(ResponseFactory.generateNotAuthorizedWAuth(message));
+            return;
+        }
+        int deviceId;
+        try {
+            deviceId = Integer.parseInt(decodedAuthInfo.substring(0, colonPos));
+        } catch (NumberFormatException e) {
+            Error message = new Error();
+            message.setMessage("Authorization has wrong format.");
+            _response.resume(ResponseFactory.generateNotAuthorizedWAuth(message));
+            return;
+        }
+        String secret = decodedAuthInfo.substring(colonPos + 1);
+        if (secret.length() == 0){
+            Error message = new Error();
+            message.setMessage("Authorization has wrong format.");
+            _response.resume(ResponseFactory.generateNotAuthorizedWAuth(message));
+            return;
         }
+
+        // recently verified secrets are answered here, only others wait for BCrypt.
+        RequestManager requestManager = RequestManager.of(mRequest);
+        IAuthController authController = ControllerFactory.getAuthController();
+        String cachedToken = authController.getTokenByCachedAuth(requestManager.get(), deviceId,
+                secret);
+        if (cachedToken != null) {
+            _response.resume(generateTokenResponse(authController, cachedToken));
+            return;
+        }
+        CryptoExecutor.getInstance().execute(_response, () -> {
+            EntityManager manager = requestManager.get();
+            String token = authController.getTokenByHttpAuth(manager, deviceId, secret);
+            return generateTokenResponse(authController, token);
+        });
     }
 
     /**
-     * The action to connect a new device with a group.
+     * The action to connect a new device with a group. Hashing of the secret is done
+     * asynchronously in {@link CryptoExecutor}.
      * 
      * @param _registration A JSON-Object containing all needed information for registering.
      *      e.g. {
@@ -118,48 +136,52 @@ public class GroupsResource {
      */
     @POST
     @Path("{groupid}/devices")
-    @Consumes("application/json")
-    @Produces({ "application/json" })
-    public Response postDevice(@PathParam("groupid") int groupId,
-                               DeviceRegistration _registration) throws Exception {
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    public void postDevice(@PathParam("groupid") int groupId,
+                           DeviceRegistration _registration,
+                           @Suspended AsyncResponse _response) throws Exception {
         if (_registration == null || _registration.getGroupAuth() == null || _registration
                 .getGroupAuth().length() != 6 || _registration.getSecret() == null ||
-                _registration.getSecret().length() == 0 || _registration.getName() == null)
-            return ResponseFactory.generateBadRequest(new Error().withMessage("Sent data was " +
-                    "incomplete."));
-
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        IGroupController groupController = ControllerFactory.getGroupController(manager);
-        Device newDevice = groupController.addDevice(groupId, _registration.getGroupAuth(),
-                _registration.getName(), _registration.getSecret());
-        manager.close();
-
-        if (newDevice == null)
-            return ResponseFactory.generateBadRequest(new Error().withMessage("Sent data was not " +
-                    "correct."));
-        else {
-            DeviceInfo rtnInfo = new DeviceInfo();
-            rtnInfo.setId(newDevice.getId());
-            rtnInfo.setAuthorized(newDevice.getAuthorized());
-            if (newDevice.getAuthorized())
-                return ResponseFactory.generateOK(rtnInfo);
-            else
-                return ResponseFactory.generateCreated(rtnInfo);
+                _registration.getSecret().length() == 0 || _registration.getName() == null) {
+            _response.resume(ResponseFactory.generateBadRequest(new Error().withMessage("Sent " +
+                    "data was incomplete.")));
+            return;
         }
+
+        RequestManager requestManager = RequestManager.of(mRequest);
+        CryptoExecutor.getInstance().execute(_response, () -> {
+            EntityManager manager = requestManager.get();
+            IGroupController groupController = ControllerFactory.getGroupController(manager);
+            Device newDevice = groupController.addDevice(groupId, _registration.getGroupAuth(),
+                    _registration.getName(), _registration.getSecret());
+
+            if (newDevice == null)
+                return ResponseFactory.generateBadRequest(new Error().withMessage("Sent data was " +
+                        "not correct."));
+            else {
+                DeviceInfo rtnInfo = new DeviceInfo();
+                rtnInfo.setId(newDevice.getId());
+                rtnInfo.setAuthorized(newDevice.getAuthorized());
+                if (newDevice.getAuthorized())
+                    return ResponseFactory.generateOK(rtnInfo);
+                else
+                    return ResponseFactory.generateCreated(rtnInfo);
+            }
+        });
     }
 
     @GET
     @TokenSecured
     @Path("{groupid}/devices")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getDevices(@PathParam("groupid") int _groupId) throws Exception {
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
         TypedQuery<Device> devicesQuery = manager.createQuery("select d from Device d where " +
                 "d.group = :dgid", Device.class);
         devicesQuery.setParameter("dgid", group);
         List<Device> devices = devicesQuery.getResultList();
-        manager.close();
 
         List<DeviceInfo> rtn = new ArrayList<DeviceInfo>(devices.size());
         for (Device currentDevice: devices) {
@@ -175,12 +197,11 @@ public class GroupsResource {
 
     @GET
     @Path("{groupid}/devices/{deviceid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getDevice(@PathParam("groupid") int _groupId,
                               @PathParam("deviceid") int _deviceId) throws Exception {
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         Device device = manager.find(Device.class, _deviceId);
-        manager.close();
 
         if (device == null || device.getGroup().getId() != _groupId)
             return ResponseFactory.generateNotFound(new Error().withMessage("Device was not " +
@@ -197,8 +218,8 @@ public class GroupsResource {
     @PUT
     @TokenSecured
     @Path("{groupid}/devices/{deviceid}")
-    @Consumes({ "application/json" })
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response putDevice(@PathParam("groupid") int _groupId,
                               @PathParam("deviceid") int _deviceId,
                               DeviceInfo _deviceToUpdate) throws Exception {
@@ -208,17 +229,15 @@ public class GroupsResource {
         if (_deviceToUpdate.getName() == null && _deviceToUpdate.getAuthorized() == null)
             return ResponseFactory.generateBadRequest(CommonEntity.NO_DATA_RECVD);
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         Device toUpdate = manager.find(Device.class, _deviceId);
         if (toUpdate == null || toUpdate.getGroup().getId() != _groupId) {
-            manager.close();
             return ResponseFactory.generateNotFound(new Error().withMessage("The device was not " +
                     "found."));
         }
         IGroupController groupController = ControllerFactory.getGroupController(manager);
         boolean done = groupController.updateDevice(_deviceId, _deviceToUpdate.getName(),
                 _deviceToUpdate.getAuthorized());
-        manager.close();
 
         if (done)
             return ResponseFactory.generateOK(null);
@@ -230,21 +249,19 @@ public class GroupsResource {
     @DELETE
     @TokenSecured
     @Path("{groupid}/devices/{deviceid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response deleteDevice(@PathParam("groupid") int _groupId,
                                  @PathParam("deviceid") int _deviceId)
             throws Exception {
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         Device toDelete = manager.find(Device.class, _deviceId);
         if (toDelete == null || toDelete.getGroup().getId() != _groupId) {
-            manager.close();
             return ResponseFactory.generateNotFound(new Error().withMessage("The device was not " +
                     "found."));
         }
 
         IGroupController groupController = ControllerFactory.getGroupController(manager);
         groupController.deleteDevice(_deviceId);
-        manager.close();
 
         return ResponseFactory.generateOK(null);
     }
@@ -256,12 +273,11 @@ public class GroupsResource {
     @GET
     @TokenSecured
     @Path("{groupid}/access_key")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getAccessKey(@PathParam("groupid") int _groupId) throws Exception {
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         String accessKey = ControllerFactory.getGroupController(manager).
                 generateAccessKey(_groupId);
-        manager.close();
 
         if (accessKey == null)
             return ResponseFactory.generateServerError(new Error().withMessage("The request seems" +
@@ -274,15 +290,14 @@ public class GroupsResource {
      * 
      */
     @POST
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response postGroups() throws Exception {
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IGroupController groupController = ControllerFactory.getGroupController(manager);
 
         DeviceGroup newDeviceGroup = groupController.addGroup();
         GroupInfo answer = new GroupInfo().withId(newDeviceGroup.getId()).
                 withReadableId(newDeviceGroup.getReadableId());
-        manager.close();
 
         return ResponseFactory.generateOK(answer);
     }
@@ -290,4 +305,14 @@ public class GroupsResource {
     public GroupsResource() {
     }
 
+    private static Response generateTokenResponse(IAuthController _authController,
+                                                  String _token) {
+        if (_token == null)
+            return ResponseFactory.generateNotAuthorizedWAuth(new Error().withMessage("Login " +
+                    "failed"));
+        if (_authController.getDeviceByToken(_token).getAuthorized())
+            return ResponseFactory.generateOK(new TokenInfo().withToken(_token));
+        else
+            return ResponseFactory.generateAccepted(new TokenInfo().withToken(_token));
+    }
 }
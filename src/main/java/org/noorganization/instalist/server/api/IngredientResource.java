@@ -21,106 +21,76 @@ import com.fasterxml.jackson.databind.util.ISO8601Utils;
 import org.noorganization.instalist.comm.message.Error;
 import org.noorganization.instalist.comm.message.IngredientInfo;
 import org.noorganization.instalist.server.support.CommonEntity;
+import org.noorganization.instalist.server.ConditionalGet;
+import org.noorganization.instalist.server.MediaTypes;
 import org.noorganization.instalist.server.TokenSecured;
 import org.noorganization.instalist.server.controller.IIngredientController;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
-import org.noorganization.instalist.server.model.DeletedObject;
 import org.noorganization.instalist.server.model.DeviceGroup;
-import org.noorganization.instalist.server.model.Ingredient;
-import org.noorganization.instalist.server.support.DatabaseHelper;
+import org.noorganization.instalist.server.support.RequestManager;
+import org.noorganization.instalist.server.support.ChangeCursor;
+import org.noorganization.instalist.server.support.ChangeFilter;
+import org.noorganization.instalist.server.support.InfoProjection;
+import org.noorganization.instalist.server.support.InfoStream;
 import org.noorganization.instalist.server.support.ResponseFactory;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
 
 import javax.persistence.EntityManager;
-import javax.persistence.TypedQuery;
 import javax.ws.rs.*;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import java.text.ParseException;
 import java.text.ParsePosition;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
 import java.util.UUID;
 
 
 @Path("/groups/{groupid}/ingredients")
 public class IngredientResource {
 
+    @Context
+    private ContainerRequestContext mRequest;
+
     /**
      * Get a list of ingredients.
      * @param _groupId The id of the group containing various ingredients.
      * @param _changedSince Limits the result to elements that changed since the given date. ISO
      *                      8601 time e.g. 2016-01-19T11:54:07+0100. Optional.
+     * @param _cursor Optional. Requests only the elements that changed since the sync returning
+     *                this cursor. Preferred over _changedSince.
      */
     @GET
     @TokenSecured
-    @Produces({ "application/json" })
+    @ConditionalGet
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getIngredients(@PathParam("groupid") int _groupId,
-                                   @QueryParam("changedsince") String _changedSince)
-            throws Exception {
-        List<Ingredient> ingedients;
-        List<DeletedObject> deletedIngredients;
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-
-        if (_changedSince != null) {
-            Instant changedSince;
-            try {
+                                   @QueryParam("changedsince") String _changedSince,
+                                   @QueryParam("cursor") String _cursor) throws Exception {
+        Instant changedSince = null;
+        try {
+            if (_changedSince != null)
                 changedSince = ISO8601Utils.parse(_changedSince, new ParsePosition(0)).
                         toInstant();
-            } catch (ParseException _e) {
-                manager.close();
-                return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CHANGEDATE);
-            }
-
-            TypedQuery<Ingredient> IngredientsQuery = manager.createQuery("select i from " +
-                            "Ingredient i where i.group = :group and i.updated > :updated",
-                    Ingredient.class);
-            IngredientsQuery.setParameter("group", group);
-            IngredientsQuery.setParameter("updated", changedSince);
-            ingedients = IngredientsQuery.getResultList();
-
-            TypedQuery<DeletedObject> deletedIngredientsQuery = manager.createQuery("select do " +
-                    "from DeletedObject do where do.group = :group and do.updated > :updated and " +
-                    "do.type = :type", DeletedObject.class);
-            deletedIngredientsQuery.setParameter("group", group);
-            deletedIngredientsQuery.setParameter("updated", changedSince);
-            deletedIngredientsQuery.setParameter("type", DeletedObject.Type.INGREDIENT);
-            deletedIngredients = deletedIngredientsQuery.getResultList();
-        } else {
-            ingedients = new ArrayList<Ingredient>(group.getIngredients());
-
-            TypedQuery<DeletedObject> deletedIngredientsQuery = manager.createQuery("select do from " +
-                    "DeletedObject do where do.group = :group and do.type = :type",
-                    DeletedObject.class);
-            deletedIngredientsQuery.setParameter("group", group);
-            deletedIngredientsQuery.setParameter("type", DeletedObject.Type.INGREDIENT);
-            deletedIngredients = deletedIngredientsQuery.getResultList();
-        }
-        manager.close();
-
-        ArrayList<IngredientInfo> rtn = new ArrayList<IngredientInfo>(ingedients.size() +
-                deletedIngredients.size());
-        for (Ingredient current : ingedients) {
-            IngredientInfo toAdd = new IngredientInfo().withDeleted(false);
-            toAdd.setUUID(current.getUUID());
-            toAdd.setProductUUID(current.getProduct().getUUID());
-            toAdd.setRecipeUUID(current.getRecipe().getUUID());
-            toAdd.setAmount(current.getAmount());
-            toAdd.setLastChanged(Date.from(current.getUpdated()));
-            rtn.add(toAdd);
+        } catch (ParseException _e) {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CHANGEDATE);
         }
-        for (DeletedObject current : deletedIngredients) {
-            IngredientInfo toAdd = new IngredientInfo();
-            toAdd.setUUID(current.getUUID());
-            toAdd.setLastChanged(Date.from(current.getUpdated()));
-            toAdd.setDeleted(true);
-            rtn.add(toAdd);
+        ChangeFilter filter;
+        try {
+            filter = ChangeFilter.of(changedSince, _cursor);
+        } catch (IllegalArgumentException _e) {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CURSOR);
         }
+        if (filter.isBeyondHorizon())
+            return ResponseFactory.generateGone(CommonEntity.RESYNC_REQUIRED);
 
-        return ResponseFactory.generateOK(rtn);
+        EntityManager manager = RequestManager.of(mRequest).get();
+        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
+        ChangeCursor cursor = ChangeCursor.of(group);
+
+        InfoStream rtn = new InfoStream(_groupId, filter, InfoProjection.INGREDIENTS);
+        return ResponseFactory.generateChanges(rtn, cursor);
     }
 
     /**
@@ -130,8 +100,9 @@ public class IngredientResource {
      */
     @GET
     @TokenSecured
+    @ConditionalGet
     @Path("{entryuuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getIngredient(@PathParam("groupid") int _groupId,
                              @PathParam("entryuuid") String _entryUUID) throws Exception {
         UUID toFind;
@@ -141,31 +112,19 @@ public class IngredientResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-        IIngredientController ingredientController = ControllerFactory.
-                getIngredientController(manager);
-
-        Ingredient foundIngredient = ingredientController.findByGroupAndUUID(group,
-                toFind);
-        if (foundIngredient == null) {
+        EntityManager manager = RequestManager.of(mRequest).get();
+        IngredientInfo rtn = InfoProjection.INGREDIENTS.find(manager, _groupId, toFind);
+        if (rtn == null) {
+            DeviceGroup group = manager.getReference(DeviceGroup.class, _groupId);
+            IIngredientController ingredientController = ControllerFactory.
+                    getIngredientController(manager);
             if (ingredientController.findDeletedByGroupAndUUID(group, toFind) != null) {
-                manager.close();
                 return ResponseFactory.generateGone(new Error().withMessage("The requested " +
                         "ingredient has been deleted."));
             }
-            manager.close();
             return ResponseFactory.generateNotFound(new Error().withMessage("The requested " +
                     "ingredient was not found."));
         }
-        manager.close();
-
-        IngredientInfo rtn = new IngredientInfo().withDeleted(false);
-        rtn.setUUID(foundIngredient.getUUID());
-        rtn.setProductUUID(foundIngredient.getProduct().getUUID());
-        rtn.setRecipeUUID(foundIngredient.getRecipe().getUUID());
-        rtn.setAmount(foundIngredient.getAmount());
-        rtn.setLastChanged(Date.from(foundIngredient.getUpdated()));
 
         return ResponseFactory.generateOK(rtn);
     }
@@ -179,8 +138,8 @@ public class IngredientResource {
     @PUT
     @TokenSecured
     @Path("{ingredientuuid}")
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response putIngredient(@PathParam("groupid") int _groupId,
                                   @PathParam("ingredientuuid") String _ingredientUUID,
                                   IngredientInfo _entity) throws Exception {
@@ -209,7 +168,7 @@ public class IngredientResource {
         } else
             updated = Instant.now();
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IIngredientController ingredientController = ControllerFactory.
                 getIngredientController(manager);
         try {
@@ -227,8 +186,6 @@ public class IngredientResource {
         } catch (BadRequestException _e) {
             return ResponseFactory.generateBadRequest(new Error().withMessage("The referenced " +
                     "product or recipe was not found."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
@@ -241,8 +198,8 @@ public class IngredientResource {
      */
     @POST
     @TokenSecured
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response postIngredient(@PathParam("groupid") int _groupId, IngredientInfo _entity)
             throws Exception {
         if (_entity.getUUID() == null || _entity.getRecipeUUID() == null ||
@@ -270,7 +227,7 @@ public class IngredientResource {
             created = Instant.now();
         float amount = (_entity.getAmount() != null ? _entity.getAmount() : 1f);
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IIngredientController ingredientController = ControllerFactory.getIngredientController(manager);
         try {
             ingredientController.add(_groupId, toCreate, recipeUUID, productUUID, amount, created);
@@ -280,8 +237,6 @@ public class IngredientResource {
         } catch (BadRequestException _e) {
             return ResponseFactory.generateBadRequest(new Error().withMessage("The referenced " +
                     "recipe or product was not found."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateCreated(null);
@@ -295,7 +250,7 @@ public class IngredientResource {
     @DELETE
     @TokenSecured
     @Path("{ingredientuuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response deleteIngredient(@PathParam("groupid") int _groupId,
                                      @PathParam("ingredientuuid") String _ingredientUUID)
             throws Exception {
@@ -306,7 +261,7 @@ public class IngredientResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IIngredientController ingredientController = ControllerFactory.
                 getIngredientController(manager);
         try {
@@ -317,8 +272,6 @@ public class IngredientResource {
         } catch (GoneException _e) {
             return ResponseFactory.generateGone(new Error().withMessage("The ingredient has been " +
                     "deleted."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
@@ -20,26 +20,28 @@ package org.noorganization.instalist.server.api;
 import java.text.ParseException;
 import java.text.ParsePosition;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
 import java.util.UUID;
 import javax.persistence.EntityManager;
-import javax.persistence.TypedQuery;
 import javax.ws.rs.*;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 
 import com.fasterxml.jackson.databind.util.ISO8601Utils;
 import org.noorganization.instalist.comm.message.ListInfo;
 import org.noorganization.instalist.server.support.CommonEntity;
+import org.noorganization.instalist.server.ConditionalGet;
+import org.noorganization.instalist.server.MediaTypes;
 import org.noorganization.instalist.server.TokenSecured;
 import org.noorganization.instalist.server.controller.IListController;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
 import org.noorganization.instalist.comm.message.Error;
-import org.noorganization.instalist.server.model.DeletedObject;
 import org.noorganization.instalist.server.model.DeviceGroup;
-import org.noorganization.instalist.server.model.ShoppingList;
-import org.noorganization.instalist.server.support.DatabaseHelper;
+import org.noorganization.instalist.server.support.RequestManager;
+import org.noorganization.instalist.server.support.ChangeCursor;
+import org.noorganization.instalist.server.support.ChangeFilter;
+import org.noorganization.instalist.server.support.InfoProjection;
+import org.noorganization.instalist.server.support.InfoStream;
 import org.noorganization.instalist.server.support.ResponseFactory;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
@@ -52,86 +54,48 @@ import org.noorganization.instalist.server.support.exceptions.GoneException;
 @Path("/groups/{groupid}/lists")
 public class ListResource {
 
+    @Context
+    private ContainerRequestContext mRequest;
+
 
     /**
      * Get a list of shopping-lists.
      * @param _groupId The id of the group, containing the lists.
      * @param _changedSince Requests only the elements that changed since the given date. ISO 8601
      *                     time e.g. 2016-01-19T11:54:07+0100
+     * @param _cursor Optional. Requests only the elements that changed since the sync returning
+     *                this cursor. Preferred over _changedSince.
      */
     @GET
     @TokenSecured
-    @Produces({ "application/json" })
+    @ConditionalGet
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getLists(@PathParam("groupid") int _groupId,
-                             @QueryParam("changedsince") String _changedSince) throws Exception {
-
-        List<ShoppingList> foundLists;
-        List<DeletedObject> foundDeleted;
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-
-        if (_changedSince != null) {
-            Instant changedSince;
-            try {
+                             @QueryParam("changedsince") String _changedSince,
+                             @QueryParam("cursor") String _cursor) throws Exception {
+        Instant changedSince = null;
+        try {
+            if (_changedSince != null)
                 changedSince = ISO8601Utils.parse(_changedSince, new ParsePosition(0)).
                         toInstant();
-            } catch (ParseException _e) {
-                manager.close();
-                return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CHANGEDATE);
-            }
-
-            TypedQuery<ShoppingList> foundListsQuery = manager.createQuery("select sl from " +
-                            "ShoppingList sl where sl.group = :group and sl.updated > :updated",
-                    ShoppingList.class);
-            foundListsQuery.setParameter("group", group);
-            foundListsQuery.setParameter("updated", changedSince);
-            foundLists = foundListsQuery.getResultList();
-
-            TypedQuery<DeletedObject> foundDeletedListsQuery =
-                    manager.createQuery("select do from" +
-                            " DeletedObject do where do.group = :group and " +
-                            "do.updated > :updated and do.type = :type",
-                            DeletedObject.class);
-            foundDeletedListsQuery.setParameter("group", group);
-            foundDeletedListsQuery.setParameter("updated", changedSince);
-            foundDeletedListsQuery.setParameter("type", DeletedObject.Type.LIST);
-            foundDeleted = foundDeletedListsQuery.getResultList();
-        } else {
-            TypedQuery<ShoppingList> foundListsQuery = manager.createQuery("select sl from " +
-                    "ShoppingList sl where sl.group = :group", ShoppingList.class);
-            foundListsQuery.setParameter("group", group);
-            foundLists = foundListsQuery.getResultList();
-
-            TypedQuery<DeletedObject> foundDeletedListsQuery = manager.createQuery("select do " +
-                    "from DeletedObject do where do.group = :group and do.type = :type",
-                    DeletedObject.class);
-            foundDeletedListsQuery.setParameter("group", group);
-            foundDeletedListsQuery.setParameter("type", DeletedObject.Type.LIST);
-            foundDeleted = foundDeletedListsQuery.getResultList();
+        } catch (ParseException _e) {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CHANGEDATE);
         }
-        manager.close();
-
-        ArrayList<ListInfo> rtn =
-                new ArrayList<ListInfo>(foundLists.size() + foundDeleted.size());
-        for (ShoppingList current : foundLists) {
-            ListInfo toAdd = new ListInfo();
-            toAdd.setUUID(current.getUUID());
-            toAdd.setName(current.getName());
-            if (current.getCategory() != null)
-                toAdd.setCategoryUUID(current.getCategory().getUUID());
-            toAdd.setLastChanged(Date.from(current.getUpdated()));
-            toAdd.setDeleted(false);
-            rtn.add(toAdd);
-        }
-        for (DeletedObject current : foundDeleted) {
-            ListInfo toAdd = new ListInfo();
-            toAdd.setUUID(current.getUUID());
-            toAdd.setLastChanged(Date.from(current.getUpdated()));
-            toAdd.setDeleted(true);
-            rtn.add(toAdd);
+        ChangeFilter filter;
+        try {
+            filter = ChangeFilter.of(changedSince, _cursor);
+        } catch (IllegalArgumentException _e) {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CURSOR);
         }
+        if (filter.isBeyondHorizon())
+            return ResponseFactory.generateGone(CommonEntity.RESYNC_REQUIRED);
 
-        return ResponseFactory.generateOK(rtn);
+        EntityManager manager = RequestManager.of(mRequest).get();
+        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
+        ChangeCursor cursor = ChangeCursor.of(group);
+
+        InfoStream rtn = new InfoStream(_groupId, filter, InfoProjection.LISTS);
+        return ResponseFactory.generateChanges(rtn, cursor);
     }
 
     /**
@@ -141,8 +105,9 @@ public class ListResource {
      */
     @GET
     @TokenSecured
+    @ConditionalGet
     @Path("{listuuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getList(@PathParam("groupid") int _groupId,
                             @PathParam("listuuid") String _listUUID) throws Exception {
         UUID listUUID;
@@ -152,30 +117,19 @@ public class ListResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-        IListController listController = ControllerFactory.getListController(manager);
-
-        ShoppingList foundList = listController.findByGroupAndUUID(group, listUUID);
-        if (foundList == null) {
-            if (listController.findDeletedByGroupAndUUID(group, listUUID) == null) {
-                manager.close();
-                return ResponseFactory.generateNotFound(new Error().withMessage("The requested " +
-                        "list was not found."));
+        EntityManager manager = RequestManager.of(mRequest).get();
+        ListInfo rtn = InfoProjection.LISTS.find(manager, _groupId, listUUID);
+        if (rtn == null) {
+            DeviceGroup group = manager.getReference(DeviceGroup.class, _groupId);
+            IListController listController = ControllerFactory.getListController(manager);
+            if (listController.findDeletedByGroupAndUUID(group, listUUID) != null) {
+                return ResponseFactory.generateGone(new Error().withMessage("The requested " +
+                        "list was deleted."));
             }
-            manager.close();
-            return ResponseFactory.generateGone(new Error().withMessage("The requested list was " +
-                    "deleted."));
+            return ResponseFactory.generateNotFound(new Error().withMessage("The requested " +
+                    "list was not found."));
         }
 
-        ListInfo rtn = new ListInfo();
-        rtn.setUUID(foundList.getUUID());
-        rtn.setName(foundList.getName());
-        if (foundList.getCategory() != null)
-            rtn.setCategoryUUID(foundList.getCategory().getUUID());
-        rtn.setLastChanged(Date.from(foundList.getUpdated()));
-        rtn.setDeleted(false);
-
         return ResponseFactory.generateOK(rtn);
     }
 
@@ -188,8 +142,8 @@ public class ListResource {
     @PUT
     @TokenSecured
     @Path("{listuuid}")
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response putList(@PathParam("groupid") int _groupId,
                      @PathParam("listuuid") String _listUUID,
                      ListInfo _listInfo) throws Exception {
@@ -219,7 +173,7 @@ public class ListResource {
         } else
             updated = now;
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IListController listController = ControllerFactory.getListController(manager);
         try {
             listController.update(_groupId, listUUID, _listInfo.getName(), categoryUUID,
@@ -235,8 +189,6 @@ public class ListResource {
                     "deleted already."));
         } catch(BadRequestException _e) {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_DATA);
-        } finally {
-            manager.close();
         }
         return ResponseFactory.generateOK(null);
     }
@@ -248,8 +200,8 @@ public class ListResource {
      */
     @POST
     @TokenSecured
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response postList(@PathParam("groupid") int _groupId,
                              ListInfo _listInfo) throws Exception {
         if ((_listInfo.getDeleted() != null && _listInfo.getDeleted()) ||
@@ -274,15 +226,13 @@ public class ListResource {
         } else
             created = Instant.now();
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IListController listController = ControllerFactory.getListController(manager);
         try {
             listController.add(_groupId, listUUID, _listInfo.getName(), categoryUUID, created);
         } catch(ConflictException _e) {
             return ResponseFactory.generateConflict(new Error().withMessage("A list with this " +
                     "uuid already exists."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateCreated(null);
@@ -296,7 +246,7 @@ public class ListResource {
     @DELETE
     @TokenSecured
     @Path("{listuuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response deleteList(@PathParam("groupid") int _groupId,
                                @PathParam("listuuid") String _listUUID) throws Exception {
         UUID listUUID;
@@ -306,7 +256,7 @@ public class ListResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IListController listController = ControllerFactory.getListController(manager);
         try {
             listController.delete(_groupId, listUUID);
@@ -316,8 +266,6 @@ public class ListResource {
         } catch(GoneException _e) {
             return ResponseFactory.generateGone(new Error().withMessage("A list with this " +
                     "uuid was already deleted."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
@@ -20,26 +20,28 @@ package org.noorganization.instalist.server.api;
 import java.text.ParseException;
 import java.text.ParsePosition;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
 import java.util.UUID;
 import javax.persistence.EntityManager;
-import javax.persistence.TypedQuery;
 import javax.ws.rs.*;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 
 import com.fasterxml.jackson.databind.util.ISO8601Utils;
 import org.noorganization.instalist.comm.message.ProductInfo;
 import org.noorganization.instalist.server.support.CommonEntity;
+import org.noorganization.instalist.server.ConditionalGet;
+import org.noorganization.instalist.server.MediaTypes;
 import org.noorganization.instalist.server.TokenSecured;
 import org.noorganization.instalist.server.controller.IProductController;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
 import org.noorganization.instalist.comm.message.Error;
-import org.noorganization.instalist.server.model.DeletedObject;
 import org.noorganization.instalist.server.model.DeviceGroup;
-import org.noorganization.instalist.server.model.Product;
-import org.noorganization.instalist.server.support.DatabaseHelper;
+import org.noorganization.instalist.server.support.RequestManager;
+import org.noorganization.instalist.server.support.ChangeCursor;
+import org.noorganization.instalist.server.support.ChangeFilter;
+import org.noorganization.instalist.server.support.InfoProjection;
+import org.noorganization.instalist.server.support.InfoStream;
 import org.noorganization.instalist.server.support.ResponseFactory;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
@@ -47,86 +49,48 @@ import org.noorganization.instalist.server.support.exceptions.GoneException;
 @Path("/groups/{groupid}/products")
 public class ProductResource {
 
+    @Context
+    private ContainerRequestContext mRequest;
+
 
     /**
      * Get a list of products.
      * @param _groupId The id of the group containing the products.
      * @param _changedSince Optional. Limits the request to the elements that changed since the
      *                      given date. ISO 8601 time e.g. "2016-01-19T11:54:07+0100".
+     * @param _cursor Optional. Requests only the elements that changed since the sync returning
+     *                this cursor. Preferred over _changedSince.
      */
     @GET
     @TokenSecured
-    @Produces({ "application/json" })
+    @ConditionalGet
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getProducts(@PathParam("groupid") int _groupId,
-                                @QueryParam("changedsince") String _changedSince) throws Exception {
-        List<Product> foundProducts;
-        List<DeletedObject> foundDeleted;
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-
-        if (_changedSince != null) {
-            Instant changedSince;
-            try {
+                                @QueryParam("changedsince") String _changedSince,
+                                @QueryParam("cursor") String _cursor) throws Exception {
+        Instant changedSince = null;
+        try {
+            if (_changedSince != null)
                 changedSince = ISO8601Utils.parse(_changedSince, new ParsePosition(0)).
                         toInstant();
-            } catch (ParseException _e) {
-                manager.close();
-                return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CHANGEDATE);
-            }
-
-            TypedQuery<Product> foundProductsQuery = manager.createQuery("select p from " +
-                            "Product p where p.group = :group and p.updated > :updated",
-                    Product.class);
-            foundProductsQuery.setParameter("group", group);
-            foundProductsQuery.setParameter("updated", changedSince);
-            foundProducts = foundProductsQuery.getResultList();
-
-            TypedQuery<DeletedObject> foundDeletedListsQuery = manager.createQuery("select do " +
-                    "from DeletedObject do where do.group = :group and do.updated > :updated and" +
-                    " do.type = :type",
-                            DeletedObject.class);
-            foundDeletedListsQuery.setParameter("group", group);
-            foundDeletedListsQuery.setParameter("updated", changedSince);
-            foundDeletedListsQuery.setParameter("type", DeletedObject.Type.PRODUCT);
-            foundDeleted = foundDeletedListsQuery.getResultList();
-        } else {
-            TypedQuery<Product> foundProductsQuery = manager.createQuery("select p from " +
-                    "Product p where p.group = :group", Product.class);
-            foundProductsQuery.setParameter("group", group);
-            foundProducts = foundProductsQuery.getResultList();
-
-            TypedQuery<DeletedObject> foundDeletedProductsQuery = manager.createQuery("select do " +
-                    "from DeletedObject do where do.group = :group and do.type = :type",
-                            DeletedObject.class);
-            foundDeletedProductsQuery.setParameter("group", group);
-            foundDeletedProductsQuery.setParameter("type", DeletedObject.Type.PRODUCT);
-            foundDeleted = foundDeletedProductsQuery.getResultList();
-        }
-        manager.close();
-
-        ArrayList<ProductInfo> rtn = new ArrayList<ProductInfo>(foundProducts.size() +
-                foundDeleted.size());
-        for (Product current : foundProducts) {
-            ProductInfo toAdd = new ProductInfo();
-            toAdd.setUUID(current.getUUID());
-            toAdd.setName(current.getName());
-            toAdd.setDefaultAmount(current.getDefaultAmount());
-            toAdd.setStepAmount(current.getStepAmount());
-            if (current.getUnit() != null)
-                toAdd.setUnitUUID(current.getUnit().getUUID());
-            toAdd.setLastChanged(Date.from(current.getUpdated()));
-            toAdd.setDeleted(false);
-            rtn.add(toAdd);
+        } catch (ParseException _e) {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CHANGEDATE);
         }
-        for (DeletedObject current : foundDeleted) {
-            ProductInfo toAdd = new ProductInfo();
-            toAdd.setUUID(current.getUUID());
-            toAdd.setLastChanged(Date.from(current.getUpdated()));
-            toAdd.setDeleted(true);
-            rtn.add(toAdd);
+        ChangeFilter filter;
+        try {
+            filter = ChangeFilter.of(changedSince, _cursor);
+        } catch (IllegalArgumentException _e) {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CURSOR);
         }
+        if (filter.isBeyondHorizon())
+            return ResponseFactory.generateGone(CommonEntity.RESYNC_REQUIRED);
 
-        return ResponseFactory.generateOK(rtn);
+        EntityManager manager = RequestManager.of(mRequest).get();
+        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
+        ChangeCursor cursor = ChangeCursor.of(group);
+
+        InfoStream rtn = new InfoStream(_groupId, filter, InfoProjection.PRODUCTS);
+        return ResponseFactory.generateChanges(rtn, cursor);
     }
 
     /**
@@ -136,8 +100,9 @@ public class ProductResource {
      */
     @GET
     @TokenSecured
+    @ConditionalGet
     @Path("{productuuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getProduct(@PathParam("groupid") int _groupId,
                                @PathParam("productuuid") String _productUUID) throws Exception {
         UUID toFind;
@@ -147,31 +112,18 @@ public class ProductResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-        IProductController productController = ControllerFactory.getProductController(manager);
-
-        Product foundProduct = productController.findByGroupAndUUID(group, toFind);
-        if (foundProduct == null) {
+        EntityManager manager = RequestManager.of(mRequest).get();
+        ProductInfo rtn = InfoProjection.PRODUCTS.find(manager, _groupId, toFind);
+        if (rtn == null) {
+            DeviceGroup group = manager.getReference(DeviceGroup.class, _groupId);
+            IProductController productController = ControllerFactory.getProductController(manager);
             if (productController.findDeletedByGroupAndUUID(group, toFind) != null) {
-                manager.close();
                 return ResponseFactory.generateGone(new Error().withMessage("The requested " +
                         "product has been deleted."));
             }
-            manager.close();
             return ResponseFactory.generateNotFound(new Error().withMessage("The requested " +
                     "product was not found."));
         }
-        manager.close();
-
-        ProductInfo rtn = new ProductInfo().withDeleted(false);
-        rtn.setUUID(toFind);
-        rtn.setName(foundProduct.getName());
-        rtn.setDefaultAmount(foundProduct.getDefaultAmount());
-        rtn.setStepAmount(foundProduct.getStepAmount());
-        if (foundProduct.getUnit() != null)
-            rtn.setUnitUUID(foundProduct.getUnit().getUUID());
-        rtn.setLastChanged(Date.from(foundProduct.getUpdated()));
 
         return ResponseFactory.generateOK(rtn);
     }
@@ -186,8 +138,8 @@ public class ProductResource {
     @PUT
     @TokenSecured
     @Path("{productuuid}")
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response putProduct(@PathParam("groupid") int _groupId,
                                @PathParam("productuuid") String _productUUID,
                                ProductInfo _entity) throws Exception {
@@ -216,7 +168,7 @@ public class ProductResource {
         } else
             updated = Instant.now();
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IProductController productController = ControllerFactory.getProductController(manager);
         try {
             productController.update(_groupId, toUpdate, _entity.getName(),
@@ -234,8 +186,6 @@ public class ProductResource {
         } catch (BadRequestException _e) {
             return ResponseFactory.generateBadRequest(new Error().withMessage("The referenced " +
                     "unit was not found."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
@@ -248,8 +198,8 @@ public class ProductResource {
      */
     @POST
     @TokenSecured
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response postProduct(@PathParam("groupid") int _groupId,
                                 ProductInfo _entity) throws Exception {
         if (_entity.getUUID() == null ||
@@ -280,7 +230,7 @@ public class ProductResource {
                 1f);
         float stepAmount = (_entity.getStepAmount() != null ? _entity.getStepAmount() : 1f);
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IProductController productController = ControllerFactory.getProductController(manager);
         try {
             productController.add(_groupId, toCreate, _entity.getName(), defaultAmount,
@@ -291,8 +241,6 @@ public class ProductResource {
         } catch (BadRequestException _e) {
             return ResponseFactory.generateBadRequest(new Error().withMessage("The referenced " +
                     "unit was not found."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateCreated(null);
@@ -307,7 +255,7 @@ public class ProductResource {
     @DELETE
     @TokenSecured
     @Path("{productuuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response deleteProduct(@PathParam("groupid") int _groupId,
                                   @PathParam("productuuid") String _productUUID)
             throws Exception {
@@ -318,7 +266,7 @@ public class ProductResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IProductController productController = ControllerFactory.getProductController(manager);
         try {
             productController.delete(_groupId, toDelete);
@@ -328,8 +276,6 @@ public class ProductResource {
         } catch (GoneException _e) {
             return ResponseFactory.generateGone(new Error().withMessage("The product has been " +
                     "deleted."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
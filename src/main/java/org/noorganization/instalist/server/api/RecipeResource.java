@@ -18,21 +18,27 @@
 package org.noorganization.instalist.server.api;
 
 import javax.persistence.EntityManager;
-import javax.persistence.TypedQuery;
 import javax.ws.rs.*;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 
 import com.fasterxml.jackson.databind.util.ISO8601Utils;
 import org.noorganization.instalist.comm.message.RecipeInfo;
 import org.noorganization.instalist.server.support.CommonEntity;
+import org.noorganization.instalist.server.ConditionalGet;
+import org.noorganization.instalist.server.MediaTypes;
 import org.noorganization.instalist.server.TokenSecured;
 import org.noorganization.instalist.server.controller.IRecipeController;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
 import org.noorganization.instalist.comm.message.Error;
-import org.noorganization.instalist.server.model.DeletedObject;
 import org.noorganization.instalist.server.model.DeviceGroup;
 import org.noorganization.instalist.server.model.Recipe;
-import org.noorganization.instalist.server.support.DatabaseHelper;
+import org.noorganization.instalist.server.support.RequestManager;
+import org.noorganization.instalist.server.support.ChangeCursor;
+import org.noorganization.instalist.server.support.ChangeFilter;
+import org.noorganization.instalist.server.support.InfoProjection;
+import org.noorganization.instalist.server.support.InfoStream;
 import org.noorganization.instalist.server.support.ResponseFactory;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
@@ -40,83 +46,53 @@ import org.noorganization.instalist.server.support.exceptions.GoneException;
 import java.text.ParseException;
 import java.text.ParsePosition;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
 import java.util.UUID;
 
 @Path("/groups/{groupid}/recipes")
 public class RecipeResource {
 
+    @Context
+    private ContainerRequestContext mRequest;
+
 
     /**
      * Get a list of recipes.
      * @param _groupId The id of the group containing the recipes.
      * @param _changedSince Limits the request to elements that changed since the given date. ISO
      *                      8601 time e.g. 2016-01-19T11:54:07+0100. Optional.
+     * @param _cursor Optional. Requests only the elements that changed since the sync returning
+     *                this cursor. Preferred over _changedSince.
      */
     @GET
     @TokenSecured
-    @Produces({ "application/json" })
+    @ConditionalGet
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getRecipes(@PathParam("groupid") int _groupId,
-                               @QueryParam("changedsince") String _changedSince) throws Exception {
+                               @QueryParam("changedsince") String _changedSince,
+                               @QueryParam("cursor") String _cursor) throws Exception {
         Instant changedSince = null;
         try {
             if (_changedSince != null)
                 changedSince = ISO8601Utils.parse(_changedSince, new ParsePosition(0)).
-                    toInstant();
+                        toInstant();
         } catch (ParseException _e) {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CHANGEDATE);
         }
-
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        List<Recipe> recipes;
-        List<DeletedObject> deletedRecipes;
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-
-        if (changedSince != null) {
-            TypedQuery<Recipe> recipeQuery = manager.createQuery("select r from Recipe r where " +
-                    "r.group = :group and r.updated > :updated", Recipe.class);
-            recipeQuery.setParameter("group", group);
-            recipeQuery.setParameter("updated", changedSince);
-            recipes = recipeQuery.getResultList();
-
-            TypedQuery<DeletedObject> deletedRecipesQuery = manager.createQuery("select do " +
-                    "from DeletedObject do where do.group = :group and do.updated > :updated and " +
-                    "do.type = :type", DeletedObject.class);
-            deletedRecipesQuery.setParameter("group", group);
-            deletedRecipesQuery.setParameter("updated", changedSince);
-            deletedRecipesQuery.setParameter("type", DeletedObject.Type.RECIPE);
-            deletedRecipes = deletedRecipesQuery.getResultList();
-        } else {
-            recipes = new ArrayList<Recipe>(group.getRecipes());
-
-            TypedQuery<DeletedObject> deletedRecipesQuery = manager.createQuery("select do " +
-                    "from DeletedObject do where do.group = :group and do.type = :type",
-                    DeletedObject.class);
-            deletedRecipesQuery.setParameter("group", group);
-            deletedRecipesQuery.setParameter("type", DeletedObject.Type.RECIPE);
-            deletedRecipes = deletedRecipesQuery.getResultList();
+        ChangeFilter filter;
+        try {
+            filter = ChangeFilter.of(changedSince, _cursor);
+        } catch (IllegalArgumentException _e) {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CURSOR);
         }
-        manager.close();
+        if (filter.isBeyondHorizon())
+            return ResponseFactory.generateGone(CommonEntity.RESYNC_REQUIRED);
 
-        ArrayList<RecipeInfo> rtn = new ArrayList<RecipeInfo>(recipes.size() +
-                deletedRecipes.size());
-        for (Recipe current: recipes) {
-            RecipeInfo toAdd = new RecipeInfo().withDeleted(false);
-            toAdd.setUUID(current.getUUID());
-            toAdd.setName(current.getName());
-            toAdd.setLastChanged(Date.from(current.getUpdated()));
-            rtn.add(toAdd);
-        }
-        for (DeletedObject current: deletedRecipes) {
-            RecipeInfo toAdd = new RecipeInfo().withDeleted(true);
-            toAdd.setUUID(current.getUUID());
-            toAdd.setLastChanged(Date.from(current.getUpdated()));
-            rtn.add(toAdd);
-        }
+        EntityManager manager = RequestManager.of(mRequest).get();
+        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
+        ChangeCursor cursor = ChangeCursor.of(group);
 
-        return ResponseFactory.generateOK(rtn);
+        InfoStream rtn = new InfoStream(_groupId, filter, InfoProjection.RECIPES);
+        return ResponseFactory.generateChanges(rtn, cursor);
     }
 
     /**
@@ -126,8 +102,9 @@ public class RecipeResource {
      */
     @GET
     @TokenSecured
+    @ConditionalGet
     @Path("{recipeuuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getRecipe(@PathParam("groupid") int _groupId,
                               @PathParam("recipeuuid") String _recipeUUID) throws Exception {
         UUID toFind;
@@ -137,27 +114,18 @@ public class RecipeResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        IRecipeController recipeController = ControllerFactory.getRecipeController(manager);
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-
-        Recipe current = recipeController.findByGroupAndUUID(group, toFind);
-        if (current == null) {
-            if (recipeController.findDeletedByGroupAndUUID(group, toFind) == null) {
-                manager.close();
-                return ResponseFactory.generateNotFound(new Error().withMessage("Recipe was not " +
-                        "found."));
+        EntityManager manager = RequestManager.of(mRequest).get();
+        RecipeInfo rtn = InfoProjection.RECIPES.find(manager, _groupId, toFind);
+        if (rtn == null) {
+            DeviceGroup group = manager.getReference(DeviceGroup.class, _groupId);
+            IRecipeController recipeController = ControllerFactory.getRecipeController(manager);
+            if (recipeController.findDeletedByGroupAndUUID(group, toFind) != null) {
+                return ResponseFactory.generateGone(new Error().withMessage("Recipe was deleted " +
+                        "before."));
             }
-            manager.close();
-            return ResponseFactory.generateGone(new Error().withMessage("Recipe was deleted " +
-                    "before."));
+            return ResponseFactory.generateNotFound(new Error().withMessage("Recipe was not " +
+                    "found."));
         }
-        manager.close();
-
-        RecipeInfo rtn = new RecipeInfo().withDeleted(false);
-        rtn.setUUID(current.getUUID());
-        rtn.setName(current.getName());
-        rtn.setLastChanged(Date.from(current.getUpdated()));
 
         return ResponseFactory.generateOK(rtn);
     }
@@ -171,8 +139,8 @@ public class RecipeResource {
     @PUT
     @TokenSecured
     @Path("{recipeuuid}")
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response putRecipe(@PathParam("groupid") int _groupId,
                               @PathParam("recipeuuid") String _recipeUUID,
                               RecipeInfo _entity) throws Exception {
@@ -195,7 +163,7 @@ public class RecipeResource {
         } else
             updated = Instant.now();
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IRecipeController recipeController = ControllerFactory.getRecipeController(manager);
         try {
             recipeController.update(_groupId, toUpdate, _entity.getName(), updated);
@@ -208,8 +176,6 @@ public class RecipeResource {
         } catch (ConflictException _e) {
             return ResponseFactory.generateConflict(new Error().withMessage("The sent data would " +
                     "conflict with saved recipe."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
@@ -222,8 +188,8 @@ public class RecipeResource {
      */
     @POST
     @TokenSecured
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response postRecipe(@PathParam("groupid") int _groupId,
                                RecipeInfo _entity) throws Exception {
         try {
@@ -248,15 +214,13 @@ public class RecipeResource {
         } else
             created = Instant.now();
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IRecipeController recipeController = ControllerFactory.getRecipeController(manager);
         try {
             recipeController.add(_groupId, toCreate, _entity.getName(), created);
         } catch (ConflictException _e) {
             return ResponseFactory.generateConflict(new Error().withMessage("The sent data would " +
                     "conflict with saved recipe."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateCreated(null);
@@ -274,7 +238,7 @@ public class RecipeResource {
     @DELETE
     @TokenSecured
     @Path("{recipeuuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response deleteRecipe(@PathParam("groupid") int _groupId,
                                  @PathParam("recipeuuid") String _recipeUUID) throws Exception {
         UUID toDelete;
@@ -284,7 +248,7 @@ public class RecipeResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IRecipeController recipeController = ControllerFactory.getRecipeController(manager);
         try {
             recipeController.delete(_groupId, toDelete);
@@ -294,8 +258,6 @@ public class RecipeResource {
         } catch (GoneException _e) {
             return ResponseFactory.generateGone(new Error().withMessage("The recipe has been " +
                     "deleted."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
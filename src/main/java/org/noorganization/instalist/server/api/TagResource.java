@@ -21,100 +21,77 @@ import com.fasterxml.jackson.databind.util.ISO8601Utils;
 import org.noorganization.instalist.comm.message.Error;
 import org.noorganization.instalist.comm.message.TagInfo;
 import org.noorganization.instalist.server.support.CommonEntity;
+import org.noorganization.instalist.server.ConditionalGet;
+import org.noorganization.instalist.server.MediaTypes;
 import org.noorganization.instalist.server.TokenSecured;
 import org.noorganization.instalist.server.controller.ITagController;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
-import org.noorganization.instalist.server.model.DeletedObject;
 import org.noorganization.instalist.server.model.DeviceGroup;
 import org.noorganization.instalist.server.model.Tag;
-import org.noorganization.instalist.server.support.DatabaseHelper;
+import org.noorganization.instalist.server.support.RequestManager;
+import org.noorganization.instalist.server.support.ChangeCursor;
+import org.noorganization.instalist.server.support.ChangeFilter;
+import org.noorganization.instalist.server.support.InfoProjection;
+import org.noorganization.instalist.server.support.InfoStream;
 import org.noorganization.instalist.server.support.ResponseFactory;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
 
 import javax.persistence.EntityManager;
-import javax.persistence.TypedQuery;
 import javax.ws.rs.*;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import java.text.ParseException;
 import java.text.ParsePosition;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
 import java.util.UUID;
 
 @Path("/groups/{groupid}/tags")
 public class TagResource {
 
+    @Context
+    private ContainerRequestContext mRequest;
+
 
     /**
      * Get a list of tags.
      * @param _groupId The id of the group containing the tags.
      * @param _changedSince Limits the request to elements that changed since the given date. ISO
      *                      8601 time e.g. 2016-01-19T11:54:07+0100. Optional.
+     * @param _cursor Optional. Requests only the elements that changed since the sync returning
+     *                this cursor. Preferred over _changedSince.
      */
     @GET
     @TokenSecured
-    @Produces({ "application/json" })
+    @ConditionalGet
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getTags(@PathParam("groupid") int _groupId,
-                            @QueryParam("changedsince") String _changedSince) throws Exception {
+                            @QueryParam("changedsince") String _changedSince,
+                            @QueryParam("cursor") String _cursor) throws Exception {
         Instant changedSince = null;
         try {
             if (_changedSince != null)
                 changedSince = ISO8601Utils.parse(_changedSince, new ParsePosition(0)).
-                    toInstant();
+                        toInstant();
         } catch (ParseException _e) {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CHANGEDATE);
         }
-
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        List<Tag> tags;
-        List<DeletedObject> deletedTags;
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-
-        if (changedSince != null) {
-            TypedQuery<Tag> tagQuery = manager.createQuery("select t from Tag t where " +
-                    "t.group = :group and t.updated > :updated", Tag.class);
-            tagQuery.setParameter("group", group);
-            tagQuery.setParameter("updated", changedSince);
-            tags = tagQuery.getResultList();
-
-            TypedQuery<DeletedObject> deletedRecipesQuery = manager.createQuery("select do " +
-                    "from DeletedObject do where do.group = :group and do.updated > :updated and " +
-                    "do.type = :type", DeletedObject.class);
-            deletedRecipesQuery.setParameter("group", group);
-            deletedRecipesQuery.setParameter("updated", changedSince);
-            deletedRecipesQuery.setParameter("type", DeletedObject.Type.TAG);
-            deletedTags = deletedRecipesQuery.getResultList();
-        } else {
-            tags = new ArrayList<Tag>(group.getTags());
-
-            TypedQuery<DeletedObject> deletedRecipesQuery = manager.createQuery("select do " +
-                    "from DeletedObject do where do.group = :group and do.type = :type",
-                    DeletedObject.class);
-            deletedRecipesQuery.setParameter("group", group);
-            deletedRecipesQuery.setParameter("type", DeletedObject.Type.TAG);
-            deletedTags = deletedRecipesQuery.getResultList();
+        ChangeFilter filter;
+        try {
+            filter = ChangeFilter.of(changedSince, _cursor);
+        } catch (IllegalArgumentException _e) {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CURSOR);
         }
-        manager.close();
+        if (filter.isBeyondHorizon())
+            return ResponseFactory.generateGone(CommonEntity.RESYNC_REQUIRED);
 
-        ArrayList<TagInfo> rtn = new ArrayList<TagInfo>(tags.size() + deletedTags.size());
-        for (Tag current: tags) {
-            TagInfo toAdd = new TagInfo().withDeleted(false);
-            toAdd.setUUID(current.getUUID());
-            toAdd.setName(current.getName());
-            toAdd.setLastChanged(Date.from(current.getUpdated()));
-            rtn.add(toAdd);
-        }
-        for (DeletedObject current: deletedTags) {
-            TagInfo toAdd = new TagInfo().withDeleted(true);
-            toAdd.setUUID(current.getUUID());
-            toAdd.setLastChanged(Date.from(current.getUpdated()));
-            rtn.add(toAdd);
-        }
+        EntityManager manager = RequestManager.of(mRequest).get();
+        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
+        ChangeCursor cursor = ChangeCursor.of(group);
 
-        return ResponseFactory.generateOK(rtn);
+        InfoStream rtn = new InfoStream(_groupId, filter, InfoProjection.TAGS);
+        return ResponseFactory.generateChanges(rtn, cursor);
     }
 
     /**
@@ -124,8 +101,9 @@ public class TagResource {
      */
     @GET
     @TokenSecured
+    @ConditionalGet
     @Path("{taguuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getTag(@PathParam("groupid") int _groupId,
                            @PathParam("taguuid") String _tagUUID) throws Exception {
         UUID toFind;
@@ -135,27 +113,18 @@ public class TagResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        ITagController tagController = ControllerFactory.getTagController(manager);
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-
-        Tag current = tagController.findByGroupAndUUID(group, toFind);
-        if (current == null) {
-            if (tagController.findDeletedByGroupAndUUID(group, toFind) == null) {
-                manager.close();
-                return ResponseFactory.generateNotFound(new Error().withMessage("Tag was not " +
-                        "found."));
+        EntityManager manager = RequestManager.of(mRequest).get();
+        TagInfo rtn = InfoProjection.TAGS.find(manager, _groupId, toFind);
+        if (rtn == null) {
+            DeviceGroup group = manager.getReference(DeviceGroup.class, _groupId);
+            ITagController tagController = ControllerFactory.getTagController(manager);
+            if (tagController.findDeletedByGroupAndUUID(group, toFind) != null) {
+                return ResponseFactory.generateGone(new Error().withMessage("Tag was deleted " +
+                        "before."));
             }
-            manager.close();
-            return ResponseFactory.generateGone(new Error().withMessage("Tag was deleted " +
-                    "before."));
+            return ResponseFactory.generateNotFound(new Error().withMessage("Tag was not " +
+                    "found."));
         }
-        manager.close();
-
-        TagInfo rtn = new TagInfo().withDeleted(false);
-        rtn.setUUID(current.getUUID());
-        rtn.setName(current.getName());
-        rtn.setLastChanged(Date.from(current.getUpdated()));
 
         return ResponseFactory.generateOK(rtn);
     }
@@ -169,8 +138,8 @@ public class TagResource {
     @PUT
     @TokenSecured
     @Path("{taguuid}")
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response putTag(@PathParam("groupid") int _groupId,
                            @PathParam("taguuid") String _tagUUID,
                            TagInfo _entity) throws Exception {
@@ -193,7 +162,7 @@ public class TagResource {
         } else
             updated = Instant.now();
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         ITagController tagController = ControllerFactory.getTagController(manager);
         try {
             tagController.update(_groupId, toUpdate, _entity.getName(), updated);
@@ -206,8 +175,6 @@ public class TagResource {
         } catch (ConflictException _e) {
             return ResponseFactory.generateConflict(new Error().withMessage("The sent data would " +
                     "conflict with saved tag."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
@@ -220,8 +187,8 @@ public class TagResource {
      */
     @POST
     @TokenSecured
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response postTag(@PathParam("groupid") int _groupId,
                             TagInfo _entity) throws Exception {
         if (_entity.getUUID() == null ||
@@ -243,15 +210,13 @@ public class TagResource {
         } else
             created = Instant.now();
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         ITagController tagController = ControllerFactory.getTagController(manager);
         try {
             tagController.add(_groupId, toCreate, _entity.getName(), created);
         } catch (ConflictException _e) {
             return ResponseFactory.generateConflict(new Error().withMessage("The sent data would " +
                     "conflict with saved tag."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateCreated(null);
@@ -265,7 +230,7 @@ public class TagResource {
     @DELETE
     @TokenSecured
     @Path("{taguuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response deleteTag(@PathParam("groupid") int _groupId,
                               @PathParam("taguuid") String _tagUUID) throws Exception {
         UUID toDelete;
@@ -275,7 +240,7 @@ public class TagResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         ITagController tagController = ControllerFactory.getTagController(manager);
         try {
             tagController.delete(_groupId, toDelete);
@@ -285,8 +250,6 @@ public class TagResource {
         } catch (GoneException _e) {
             return ResponseFactory.generateGone(new Error().withMessage("The tag has been " +
                     "deleted."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
@@ -21,105 +21,77 @@ import com.fasterxml.jackson.databind.util.ISO8601Utils;
 import org.noorganization.instalist.comm.message.Error;
 import org.noorganization.instalist.comm.message.TaggedProductInfo;
 import org.noorganization.instalist.server.support.CommonEntity;
+import org.noorganization.instalist.server.ConditionalGet;
+import org.noorganization.instalist.server.MediaTypes;
 import org.noorganization.instalist.server.TokenSecured;
 import org.noorganization.instalist.server.controller.ITaggedProductController;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
-import org.noorganization.instalist.server.model.DeletedObject;
 import org.noorganization.instalist.server.model.DeviceGroup;
 import org.noorganization.instalist.server.model.TaggedProduct;
-import org.noorganization.instalist.server.support.DatabaseHelper;
+import org.noorganization.instalist.server.support.RequestManager;
+import org.noorganization.instalist.server.support.ChangeCursor;
+import org.noorganization.instalist.server.support.ChangeFilter;
+import org.noorganization.instalist.server.support.InfoProjection;
+import org.noorganization.instalist.server.support.InfoStream;
 import org.noorganization.instalist.server.support.ResponseFactory;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
 
 import javax.persistence.EntityManager;
-import javax.persistence.TypedQuery;
 import javax.ws.rs.*;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import java.text.ParseException;
 import java.text.ParsePosition;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
 import java.util.UUID;
 
 
 @Path("/groups/{groupid}/taggedproducts")
 public class TaggedProductResource {
 
+    @Context
+    private ContainerRequestContext mRequest;
+
     /**
      * Get a list of tagged products.
      * @param _groupId The id of the group containing various tagged products.
      * @param _changedSince Limits the result to elements that changed since the given date. ISO
      *                      8601 time e.g. 2016-01-19T11:54:07+0100. Optional.
+     * @param _cursor Optional. Requests only the elements that changed since the sync returning
+     *                this cursor. Preferred over _changedSince.
      */
     @GET
     @TokenSecured
-    @Produces({ "application/json" })
+    @ConditionalGet
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getTaggedProducts(@PathParam("groupid") int _groupId,
-                                      @QueryParam("changedsince") String _changedSince)
-            throws Exception {
-        List<TaggedProduct> taggedProducts;
-        List<DeletedObject> deletedTaggedProducts;
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-
-        if (_changedSince != null) {
-            Instant changedSince;
-            try {
+                                      @QueryParam("changedsince") String _changedSince,
+                                      @QueryParam("cursor") String _cursor) throws Exception {
+        Instant changedSince = null;
+        try {
+            if (_changedSince != null)
                 changedSince = ISO8601Utils.parse(_changedSince, new ParsePosition(0)).
                         toInstant();
-            } catch (ParseException _e) {
-                manager.close();
-                return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CHANGEDATE);
-            }
-
-            TypedQuery<TaggedProduct> taggedProductQuery = manager.createQuery("select tp from " +
-                    "TaggedProduct tp where tp.group = :group and tp.updated > :updated",
-                    TaggedProduct.class);
-            taggedProductQuery.setParameter("group", group);
-            taggedProductQuery.setParameter("updated", changedSince);
-            taggedProducts = taggedProductQuery.getResultList();
-
-            TypedQuery<DeletedObject> deletedTaggedProductQuery = manager.createQuery("select do " +
-                    "from DeletedObject do where do.group = :group and do.updated > :updated and " +
-                    "do.type = :type", DeletedObject.class);
-            deletedTaggedProductQuery.setParameter("group", group);
-            deletedTaggedProductQuery.setParameter("updated", changedSince);
-            deletedTaggedProductQuery.setParameter("type", DeletedObject.Type.TAGGEDPRODUCT);
-            deletedTaggedProducts = deletedTaggedProductQuery.getResultList();
-        } else {
-            taggedProducts = new ArrayList<TaggedProduct>(group.getTaggedProducts());
-
-            TypedQuery<DeletedObject> deletedIngredientsQuery = manager.createQuery("select do " +
-                    "from DeletedObject do where do.group = :group and do.type = :type",
-                    DeletedObject.class);
-            deletedIngredientsQuery.setParameter("group", group);
-            deletedIngredientsQuery.setParameter("type", DeletedObject.Type.TAGGEDPRODUCT);
-            deletedTaggedProducts = deletedIngredientsQuery.getResultList();
-        }
-        manager.close();
-
-        ArrayList<TaggedProductInfo> rtn = new ArrayList<TaggedProductInfo>(taggedProducts.size() +
-                deletedTaggedProducts.size());
-        for (TaggedProduct current : taggedProducts) {
-            TaggedProductInfo toAdd = new TaggedProductInfo().withDeleted(false);
-            toAdd.setUUID(current.getUUID());
-            toAdd.setProductUUID(current.getProduct().getUUID());
-            toAdd.setTagUUID(current.getTag().getUUID());
-            toAdd.setLastChanged(Date.from(current.getUpdated()));
-            rtn.add(toAdd);
+        } catch (ParseException _e) {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CHANGEDATE);
         }
-        for (DeletedObject current : deletedTaggedProducts) {
-            TaggedProductInfo toAdd = new TaggedProductInfo();
-            toAdd.setUUID(current.getUUID());
-            toAdd.setLastChanged(Date.from(current.getUpdated()));
-            toAdd.setDeleted(true);
-            rtn.add(toAdd);
+        ChangeFilter filter;
+        try {
+            filter = ChangeFilter.of(changedSince, _cursor);
+        } catch (IllegalArgumentException _e) {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CURSOR);
         }
+        if (filter.isBeyondHorizon())
+            return ResponseFactory.generateGone(CommonEntity.RESYNC_REQUIRED);
 
-        return ResponseFactory.generateOK(rtn);
+        EntityManager manager = RequestManager.of(mRequest).get();
+        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
+        ChangeCursor cursor = ChangeCursor.of(group);
+
+        InfoStream rtn = new InfoStream(_groupId, filter, InfoProjection.TAGGED_PRODUCTS);
+        return ResponseFactory.generateChanges(rtn, cursor);
     }
 
     /**
@@ -129,8 +101,9 @@ public class TaggedProductResource {
      */
     @GET
     @TokenSecured
+    @ConditionalGet
     @Path("{tpuuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getTaggedProduct(@PathParam("groupid") int _groupId,
                                      @PathParam("tpuuid") String _taggedProductUUID)
             throws Exception {
@@ -141,31 +114,19 @@ public class TaggedProductResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-        ITaggedProductController taggedProductController = ControllerFactory.
-                getTaggedProductController(manager);
-
-        TaggedProduct foundTaggedProduct = taggedProductController.
-                findByGroupAndUUID(group, toFind);
-        if (foundTaggedProduct == null) {
-            if (taggedProductController.findDeletedByGroupAndUUID(group, toFind) !=
-                    null) {
-                manager.close();
+        EntityManager manager = RequestManager.of(mRequest).get();
+        TaggedProductInfo rtn = InfoProjection.TAGGED_PRODUCTS.find(manager, _groupId, toFind);
+        if (rtn == null) {
+            DeviceGroup group = manager.getReference(DeviceGroup.class, _groupId);
+            ITaggedProductController taggedProductController = ControllerFactory.
+                    getTaggedProductController(manager);
+            if (taggedProductController.findDeletedByGroupAndUUID(group, toFind) != null) {
                 return ResponseFactory.generateGone(new Error().withMessage("The requested " +
                         "tagged product has been deleted."));
             }
-            manager.close();
             return ResponseFactory.generateNotFound(new Error().withMessage("The requested " +
                     "tagged product was not found."));
         }
-        manager.close();
-
-        TaggedProductInfo rtn = new TaggedProductInfo().withDeleted(false);
-        rtn.setUUID(foundTaggedProduct.getUUID());
-        rtn.setProductUUID(foundTaggedProduct.getProduct().getUUID());
-        rtn.setTagUUID(foundTaggedProduct.getTag().getUUID());
-        rtn.setLastChanged(Date.from(foundTaggedProduct.getUpdated()));
 
         return ResponseFactory.generateOK(rtn);
     }
@@ -181,8 +142,8 @@ public class TaggedProductResource {
     @PUT
     @TokenSecured
     @Path("{tpuuid}")
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response putTaggedProduct(@PathParam("groupid") int _groupId,
                                      @PathParam("tpuuid") String _taggedProductUUID,
                                      TaggedProductInfo _entity) throws Exception {
@@ -210,7 +171,7 @@ public class TaggedProductResource {
         } else
             updated = Instant.now();
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         ITaggedProductController taggedProductController = ControllerFactory.
                 getTaggedProductController(manager);
         try {
@@ -227,8 +188,6 @@ public class TaggedProductResource {
         } catch (BadRequestException _e) {
             return ResponseFactory.generateBadRequest(new Error().withMessage("The referenced " +
                     "product or tag was not found."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
@@ -241,8 +200,8 @@ public class TaggedProductResource {
      */
     @POST
     @TokenSecured
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response postTaggedProduct(@PathParam("groupid") int _groupId,
                                       TaggedProductInfo _entity) throws Exception {
         if (_entity.getUUID() == null || _entity.getTagUUID() == null ||
@@ -268,7 +227,7 @@ public class TaggedProductResource {
         } else
             created = Instant.now();
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         ITaggedProductController taggedProductController = ControllerFactory.
                 getTaggedProductController(manager);
         try {
@@ -279,8 +238,6 @@ public class TaggedProductResource {
         } catch (BadRequestException _e) {
             return ResponseFactory.generateBadRequest(new Error().withMessage("The referenced " +
                     "recipe or tag was not found."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateCreated(null);
@@ -294,7 +251,7 @@ public class TaggedProductResource {
     @DELETE
     @TokenSecured
     @Path("{tpuuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response deleteTaggedProduct(@PathParam("groupid") int _groupId,
                                         @PathParam("tpuuid") String _taggedProductUUID)
             throws Exception {
@@ -305,7 +262,7 @@ public class TaggedProductResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         ITaggedProductController taggedProductController = ControllerFactory.
                 getTaggedProductController(manager);
         try {
@@ -316,8 +273,6 @@ public class TaggedProductResource {
         } catch (GoneException _e) {
             return ResponseFactory.generateGone(new Error().withMessage("The tagged product has " +
                     "been deleted."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
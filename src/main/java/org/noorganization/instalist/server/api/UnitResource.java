@@ -18,21 +18,27 @@
 package org.noorganization.instalist.server.api;
 
 import javax.persistence.EntityManager;
-import javax.persistence.TypedQuery;
 import javax.ws.rs.*;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 
 import com.fasterxml.jackson.databind.util.ISO8601Utils;
 import org.noorganization.instalist.comm.message.UnitInfo;
 import org.noorganization.instalist.server.support.CommonEntity;
+import org.noorganization.instalist.server.ConditionalGet;
+import org.noorganization.instalist.server.MediaTypes;
 import org.noorganization.instalist.server.TokenSecured;
 import org.noorganization.instalist.server.controller.IUnitController;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
 import org.noorganization.instalist.comm.message.Error;
-import org.noorganization.instalist.server.model.DeletedObject;
 import org.noorganization.instalist.server.model.DeviceGroup;
 import org.noorganization.instalist.server.model.Unit;
-import org.noorganization.instalist.server.support.DatabaseHelper;
+import org.noorganization.instalist.server.support.RequestManager;
+import org.noorganization.instalist.server.support.ChangeCursor;
+import org.noorganization.instalist.server.support.ChangeFilter;
+import org.noorganization.instalist.server.support.InfoProjection;
+import org.noorganization.instalist.server.support.InfoStream;
 import org.noorganization.instalist.server.support.ResponseFactory;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
@@ -40,9 +46,6 @@ import org.noorganization.instalist.server.support.exceptions.GoneException;
 import java.text.ParseException;
 import java.text.ParsePosition;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
 import java.util.UUID;
 
 
@@ -53,74 +56,48 @@ import java.util.UUID;
 @Path("/groups/{groupid}/units")
 public class UnitResource {
 
+    @Context
+    private ContainerRequestContext mRequest;
+
 
     /**
      * Get a list of units.
      * @param _groupId The id of the group containing the requested units.
      * @param _changedSince Requests only the elements that changed since the given date. ISO
      *                     8601 time e.g. 2016-01-19T11:54:07+01:00
+     * @param _cursor Optional. Requests only the elements that changed since the sync returning
+     *                this cursor. Preferred over _changedSince.
      */
     @GET
     @TokenSecured
-    @Produces({ "application/json" })
+    @ConditionalGet
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getUnits(@PathParam("groupid") int _groupId,
-                             @QueryParam("changedsince") String _changedSince) throws Exception {
+                             @QueryParam("changedsince") String _changedSince,
+                             @QueryParam("cursor") String _cursor) throws Exception {
         Instant changedSince = null;
         try {
             if (_changedSince != null)
-                changedSince = ISO8601Utils.parse(_changedSince, new ParsePosition(0)).toInstant();
-        } catch(ParseException _e) {
+                changedSince = ISO8601Utils.parse(_changedSince, new ParsePosition(0)).
+                        toInstant();
+        } catch (ParseException _e) {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CHANGEDATE);
         }
-
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-        List<Unit> resultUnits;
-        List<DeletedObject> resultDeletedUnits;
-
-        if (changedSince == null) {
-            resultUnits = new ArrayList<Unit>(group.getUnits());
-            TypedQuery<DeletedObject> deletedUnitsQuery = manager.createQuery("select do from " +
-                    "DeletedObject do where do.group = :group and do.type = :type",
-                    DeletedObject.class);
-            deletedUnitsQuery.setParameter("group", group);
-            deletedUnitsQuery.setParameter("type", DeletedObject.Type.UNIT);
-            resultDeletedUnits = deletedUnitsQuery.getResultList();
-        } else {
-            TypedQuery<Unit> unitsQuery = manager.createQuery("select u from Unit u where " +
-                    "u.group = :group and u.updated > :updated", Unit.class);
-            unitsQuery.setParameter("group", group);
-            unitsQuery.setParameter("updated", changedSince);
-            resultUnits = unitsQuery.getResultList();
-
-            TypedQuery<DeletedObject> deletedUnitsQuery = manager.createQuery("select do from " +
-                            "DeletedObject do where do.group = :group and do.type = :type and " +
-                            "do.updated > :updated",
-                    DeletedObject.class);
-            deletedUnitsQuery.setParameter("group", group);
-            deletedUnitsQuery.setParameter("type", DeletedObject.Type.UNIT);
-            deletedUnitsQuery.setParameter("updated", changedSince);
-            resultDeletedUnits = deletedUnitsQuery.getResultList();
+        ChangeFilter filter;
+        try {
+            filter = ChangeFilter.of(changedSince, _cursor);
+        } catch (IllegalArgumentException _e) {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CURSOR);
         }
-        manager.close();
+        if (filter.isBeyondHorizon())
+            return ResponseFactory.generateGone(CommonEntity.RESYNC_REQUIRED);
 
-        List<UnitInfo> rtn = new ArrayList<UnitInfo>(resultUnits.size() +
-                resultDeletedUnits.size());
-        for (Unit current: resultUnits) {
-            UnitInfo info = new UnitInfo().withDeleted(false);
-            info.setName(current.getName());
-            info.setUUID(current.getUUID());
-            info.setLastChanged(Date.from(current.getUpdated()));
-            rtn.add(info);
-        }
-        for (DeletedObject current: resultDeletedUnits) {
-            UnitInfo info = new UnitInfo().withDeleted(true);
-            info.setUUID(current.getUUID());
-            info.setLastChanged(Date.from(current.getUpdated()));
-            rtn.add(info);
-        }
+        EntityManager manager = RequestManager.of(mRequest).get();
+        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
+        ChangeCursor cursor = ChangeCursor.of(group);
 
-        return ResponseFactory.generateOK(rtn);
+        InfoStream rtn = new InfoStream(_groupId, filter, InfoProjection.UNITS);
+        return ResponseFactory.generateChanges(rtn, cursor);
     }
 
     /**
@@ -130,8 +107,9 @@ public class UnitResource {
      */
     @GET
     @TokenSecured
+    @ConditionalGet
     @Path("{unituuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response getUnit(@PathParam("groupid") int _groupId,
                             @PathParam("unituuid") String _unitUUID) throws Exception {
         try {
@@ -144,27 +122,18 @@ public class UnitResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
-        IUnitController unitController = ControllerFactory.getUnitController(manager);
-        DeviceGroup group = manager.find(DeviceGroup.class, _groupId);
-
-        Unit resultUnit = unitController.findByGroupAndUUID(group, toFind);
-        if (resultUnit == null) {
-            if (unitController.findDeletedByGroupAndUUID(group,toFind) == null) {
-                manager.close();
-                return ResponseFactory.generateNotFound(new Error().withMessage("The requested " +
-                        "unit was not found."));
+        EntityManager manager = RequestManager.of(mRequest).get();
+        UnitInfo rtn = InfoProjection.UNITS.find(manager, _groupId, toFind);
+        if (rtn == null) {
+            DeviceGroup group = manager.getReference(DeviceGroup.class, _groupId);
+            IUnitController unitController = ControllerFactory.getUnitController(manager);
+            if (unitController.findDeletedByGroupAndUUID(group, toFind) != null) {
+                return ResponseFactory.generateGone(new Error().withMessage("The requested " +
+                        "unit has been deleted."));
             }
-            manager.close();
-            return ResponseFactory.generateGone(new Error().withMessage("The requested unit has " +
-                    "been deleted."));
+            return ResponseFactory.generateNotFound(new Error().withMessage("The requested " +
+                    "unit was not found."));
         }
-        manager.close();
-
-        UnitInfo rtn = new UnitInfo().withDeleted(false);
-        rtn.setName(resultUnit.getName());
-        rtn.setUUID(resultUnit.getUUID());
-        rtn.setLastChanged(Date.from(resultUnit.getUpdated()));
 
         return ResponseFactory.generateOK(rtn);
         } catch (Exception _e) {
@@ -182,8 +151,8 @@ public class UnitResource {
     @PUT
     @TokenSecured
     @Path("{unituuid}")
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response putUnit(@PathParam("groupid") int _groupId,
                             @PathParam("unituuid") String _unitUUID,
                             UnitInfo _entity) throws Exception {
@@ -205,7 +174,7 @@ public class UnitResource {
                 (_entity.getUUID() != null && !_entity.getUUID().equals(_unitUUID)))
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_DATA);
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IUnitController unitController = ControllerFactory.getUnitController(manager);
         try {
             unitController.update(_groupId, toUpdate, _entity.getName(), changeDate);
@@ -218,8 +187,6 @@ public class UnitResource {
         } catch (ConflictException _e) {
             return ResponseFactory.generateConflict(new Error().withMessage("The sent data would " +
                     "lead to a conflict with saved unit."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
@@ -232,8 +199,8 @@ public class UnitResource {
      */
     @POST
     @TokenSecured
-    @Consumes("application/json")
-    @Produces({ "application/json" })
+    @Consumes({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response postUnit(@PathParam("groupid") int _groupId, UnitInfo _entity) throws
             Exception {
         if (_entity.getUUID() == null ||
@@ -257,15 +224,13 @@ public class UnitResource {
                 return ResponseFactory.generateBadRequest(CommonEntity.INVALID_CHANGEDATE);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IUnitController unitController = ControllerFactory.getUnitController(manager);
         try {
             unitController.add(_groupId, toInsert, _entity.getName(), insertDate);
         } catch (ConflictException _e) {
             return ResponseFactory.generateConflict(new Error().withMessage("The sent data would " +
                     "lead to a conflict with saved unit."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateCreated(null);
@@ -279,7 +244,7 @@ public class UnitResource {
     @DELETE
     @TokenSecured
     @Path("{unituuid}")
-    @Produces({ "application/json" })
+    @Produces({ "application/json", MediaTypes.SMILE, MediaTypes.CBOR })
     public Response deleteUnit(@PathParam("groupid") int _groupId,
                                @PathParam("unituuid") String _unitUUID) throws Exception {
         UUID toDelete;
@@ -289,7 +254,7 @@ public class UnitResource {
             return ResponseFactory.generateBadRequest(CommonEntity.INVALID_UUID);
         }
 
-        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityManager manager = RequestManager.of(mRequest).get();
         IUnitController unitController = ControllerFactory.getUnitController(manager);
         try {
             unitController.delete(_groupId, toDelete);
@@ -299,8 +264,6 @@ public class UnitResource {
         } catch (GoneException _e) {
             return ResponseFactory.generateGone(new Error().withMessage("The unit has been " +
                     "already deleted before."));
-        } finally {
-            manager.close();
         }
 
         return ResponseFactory.generateOK(null);
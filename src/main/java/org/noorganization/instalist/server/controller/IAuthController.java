@@ -31,12 +31,14 @@ public interface IAuthController {
     /**
      * Getter for already authenticated devices.
      * @param _token The token used for auth.
-     * @return Either a device or null, if no device was found for this token, or token is invalid.
+     * @return Either a device or null, if no device was found for this token, or token is invalid
+     * or expired.
      */
     Device getDeviceByToken(String _token);
 
     /**
-     * Generates a token if authentication data is correct.
+     * Generates a token if authentication data is correct. Always checks with BCrypt, so
+     * {@link #getTokenByCachedAuth(EntityManager, int, String)} should be tried first.
      * @param _manager A database connection for verifying the authentication data.
      * @param _device The device-id to authenticate.
      * @param _secret The cleartext secret for verification.
@@ -44,10 +46,26 @@ public interface IAuthController {
      */
     String getTokenByHttpAuth(EntityManager _manager, int _device, String _secret);
 
+    /**
+     * Generates a token if the secret was verified recently. Does not check with BCrypt, so it
+     * can be called from a request thread.
+     * @param _manager A database connection for loading the device.
+     * @param _device The device-id to authenticate.
+     * @param _secret The cleartext secret for verification.
+     * @return Either a token-string or null if the secret is not known to be correct. Then
+     * {@link #getTokenByHttpAuth(EntityManager, int, String)} has to decide.
+     */
+    String getTokenByCachedAuth(EntityManager _manager, int _device, String _secret);
+
     /**
      * Reloads a device without logging it out, if not deleted.
      * @param _manager A manager for reloading the data from database.
      * @param _device The device's id for reloading.
      */
     void revalidateDevice(EntityManager _manager, int _device);
+
+    /**
+     * Stops the background threads of the token store. Called when the server shuts down.
+     */
+    void shutdown();
 }
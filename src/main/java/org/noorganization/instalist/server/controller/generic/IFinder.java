@@ -18,15 +18,24 @@ package org.noorganization.instalist.server.controller.generic;
 
 import org.noorganization.instalist.server.model.DeletedObject;
 import org.noorganization.instalist.server.model.DeviceGroup;
+import org.noorganization.instalist.server.support.ChangeLog;
+import org.noorganization.instalist.server.support.ChangeNotifier;
+import org.noorganization.instalist.server.support.EntityCache;
+import org.noorganization.instalist.server.support.TombstoneFilter;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
 
+import javax.persistence.CacheRetrieveMode;
+import javax.persistence.Cacheable;
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 import javax.ws.rs.NotFoundException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -40,12 +49,55 @@ public interface IFinder<T> {
     Class<T> getManagedType();
 
     /**
-     * Finds an object by uuid and group.
+     * Finds a group for changing its items. The group gets locked until the end of the current
+     * transaction and its change counter is incremented, so every item written in this
+     * transaction is stamped with a value no other transaction uses. Since writes of a group are
+     * serialized by the lock, the values get committed in ascending order. Subscribers of the
+     * group get notified after the commit (see {@link ChangeNotifier}) and the written items get
+     * remembered for syncs (see {@link ChangeLog}).
+     * @param _groupId The id of the group.
+     * @return Either the locked group or null if not found.
+     */
+    default DeviceGroup findGroupForChange(int _groupId) {
+        DeviceGroup group = getManager().find(DeviceGroup.class, _groupId,
+                LockModeType.PESSIMISTIC_WRITE);
+        if (group != null) {
+            group.setChangeSeq(group.getChangeSeq() + 1);
+            ChangeLog.getInstance().begin(getManager(), group);
+            TombstoneFilter.getInstance().begin(getManager(), group);
+            DeletedObject.Type type = DeletedObject.mapType(getManagedType());
+            if (type != null)
+                ChangeNotifier.getInstance().notifyOnCommit(getManager(), group, type);
+        }
+        return group;
+    }
+
+    /**
+     * Finds an object by uuid and group. Objects of cached types (see {@link EntityCache}) are
+     * found by their remembered id, so only the first lookup needs a query. If the group is
+     * locked for a change (see {@link #findGroupForChange(int)}), the object is read from the
+     * database instead of the second level cache, which may miss writes of other servers.
      * @param _group The group, that contains the object.
      * @param _uuid The uuid identifying the object in the group.
      * @return Either the object or null if not found.
      */
     default T findByGroupAndUUID(DeviceGroup _group, UUID _uuid) {
+        EntityCache cache = EntityCache.getInstance();
+        boolean cached = getManagedType().isAnnotationPresent(Cacheable.class);
+        if (cached) {
+            Integer id = cache.getId(getManagedType(), _group.getId(), _uuid);
+            if (id != null) {
+                Map<String, Object> hints = (isLockedForChange(_group) ?
+                        Collections.singletonMap("javax.persistence.cache.retrieveMode",
+                                CacheRetrieveMode.BYPASS) :
+                        Collections.emptyMap());
+                T rtn = getManager().find(getManagedType(), id, hints);
+                if (rtn != null)
+                    return rtn;
+                cache.invalidate(getManagedType(), _group.getId(), _uuid);
+            }
+        }
+
         CriteriaBuilder cb = getManager().getCriteriaBuilder();
         CriteriaQuery<T> cq = cb.createQuery(getManagedType());
         Root<T> root = cq.from(getManagedType());
@@ -55,16 +107,35 @@ public interface IFinder<T> {
         List<T> objectResult = objectQuery.getResultList();
         if (objectResult.size() == 0)
             return null;
-        return objectResult.get(0);
+        T rtn = objectResult.get(0);
+        if (cached) {
+            cache.putId(getManagedType(), _group.getId(), _uuid, (Integer) getManager().
+                    getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(rtn));
+        }
+        return rtn;
     }
 
     /**
-     * Finds a deleted object by uuid and group.
+     * @param _group The group to check.
+     * @return Whether the group was locked by {@link #findGroupForChange(int)} in the current
+     * transaction.
+     */
+    default boolean isLockedForChange(DeviceGroup _group) {
+        EntityManager manager = getManager();
+        return manager.getTransaction().isActive() && manager.contains(_group) &&
+                manager.getLockMode(_group) == LockModeType.PESSIMISTIC_WRITE;
+    }
+
+    /**
+     * Finds a deleted object by uuid and group. The query is skipped, if {@link TombstoneFilter}
+     * knows the uuid was never deleted.
      * @param _group The group that contained the object.
      * @param _uuid The uuid that identified the object in the group.
      * @return Either the deleted object or null if it was not deleted.
      */
     default DeletedObject findDeletedByGroupAndUUID(DeviceGroup _group, UUID _uuid) {
+        if (!TombstoneFilter.getInstance().mightBeDeleted(getManager(), _group, _uuid))
+            return null;
         TypedQuery<DeletedObject> delObjectQuery = getManager().createQuery("select do from " +
                 "DeletedObject do where do.UUID = :uuid and do.group = :group and " +
                 "do.type = :type order by do.updated desc", DeletedObject.class);
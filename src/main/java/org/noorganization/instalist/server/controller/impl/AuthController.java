@@ -16,23 +16,18 @@
 
 package org.noorganization.instalist.server.controller.impl;
 
-import org.mindrot.jbcrypt.BCrypt;
 import org.noorganization.instalist.server.controller.IAuthController;
 import org.noorganization.instalist.server.model.Device;
 import org.noorganization.instalist.server.model.DeviceGroup;
-import org.noorganization.instalist.server.support.DatabaseHelper;
+import org.noorganization.instalist.server.support.ConfigHelper;
+import org.noorganization.instalist.server.support.CryptoExecutor;
 
 import javax.persistence.EntityManager;
-import javax.persistence.TypedQuery;
-import java.security.SecureRandom;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
 
 class AuthController implements IAuthController {
 
-    private static SecureRandom sRandom;
-    private static HashMap<String, AuthInfo> sClients;
+    private static final ITokenStore     sClients     = createTokenStore();
+    private static final CredentialCache sCredentials = CredentialCache.createDefault();
 
     /**
      * Check whether authenticated device is authorized to group.
@@ -40,9 +35,8 @@ class AuthController implements IAuthController {
      * @return Whether authorized or not. False, if token is invalid.
      */
     public boolean getIsAuthorizedToGroup(String _token) {
-        if (!sClients.containsKey(_token))
-            return false;
-        return sClients.get(_token).device.getAuthorized();
+        Device device = sClients.getDevice(_token);
+        return device != null && device.getAuthorized();
     }
 
     /**
@@ -52,9 +46,8 @@ class AuthController implements IAuthController {
      * token.
      */
     public DeviceGroup getDeviceGroupByToken(String _token) {
-        if (_token == null || !sClients.containsKey(_token))
-            return null;
-        return sClients.get(_token).device.getGroup();
+        Device device = sClients.getDevice(_token);
+        return (device != null ? device.getGroup() : null);
     }
 
     /**
@@ -63,82 +56,59 @@ class AuthController implements IAuthController {
      * @return Either a positive device id or a negative number, if no authentication was found.
      */
     public Device getDeviceByToken(String _token) {
-        if (_token == null || !sClients.containsKey(_token))
-            return null;
-
-        return sClients.get(_token).device;
+        return sClients.getDevice(_token);
     }
 
     public String getTokenByHttpAuth(EntityManager _manager, int _device, String _secret) {
-        TypedQuery<Device> deviceQuery = _manager.createQuery("select d from Device d where d.id " +
-                "= :id", Device.class);
-        deviceQuery.setParameter("id", _device);
-        List<Device> foundDevices = deviceQuery.getResultList();
-        if (foundDevices.size() == 1) {
-            Device foundDevice = foundDevices.get(0);
-            if (BCrypt.checkpw(_secret, foundDevice.getSecret())){
-                String currentToken = getTokenForDevice(_device);
-                if (currentToken != null)
-                    sClients.remove(currentToken);
-
-                String token = generateToken();
-                AuthInfo authenticated = new AuthInfo();
-                authenticated.authenticated = new Date();
-                authenticated.device = foundDevice;
-                sClients.put(token, authenticated);
-                return token;
-            } else
-                return null;
+        // the device is usually in the manager already, from getTokenByCachedAuth.
+        Device foundDevice = _manager.find(Device.class, _device);
+        if (foundDevice == null)
+            return null;
+        if (CryptoExecutor.getInstance().checkpw(_secret, foundDevice.getSecret())) {
+            sCredentials.put(_device, _secret, foundDevice.getSecret());
+            return sClients.issue(foundDevice);
         } else
             return null;
     }
 
+    public String getTokenByCachedAuth(EntityManager _manager, int _device, String _secret) {
+        Device foundDevice = _manager.find(Device.class, _device);
+        if (foundDevice != null && sCredentials.matches(_device, _secret,
+                foundDevice.getSecret()))
+            return sClients.issue(foundDevice);
+        return null;
+    }
+
     public void revalidateDevice(EntityManager _manager, int _device) {
-        String currentToken = getTokenForDevice(_device);
-        if (currentToken == null)
+        sCredentials.invalidate(_device);
+        if (!sClients.hasToken(_device))
             return;
 
         Device updatedDevice = _manager.find(Device.class, _device);
         if (updatedDevice == null)
-            sClients.remove(currentToken);
+            sClients.remove(_device);
         else
-            sClients.get(currentToken).device = updatedDevice;
+            sClients.update(updatedDevice);
     }
 
-    AuthController() {
-        if (sRandom == null)
-            sRandom = new SecureRandom();
-        if (sClients == null)
-            sClients = new HashMap<String, AuthInfo>();
+    public void shutdown() {
+        sClients.shutdown();
     }
 
-    private String getTokenForDevice(int _device) {
-        for (String token: sClients.keySet()) {
-            if (sClients.get(token).device.getId() == _device) {
-                return token;
-            }
-        }
-        return null;
-    }
-
-    private String generateToken() {
-        String foundToken = random32();
-        while (sClients.containsKey(foundToken))
-            foundToken = random32();
-        return  foundToken;
-    }
-
-    private String random32() {
-        byte randomData[] = new byte[16];
-        sRandom.nextBytes(randomData);
-        StringBuilder rtn = new StringBuilder(32);
-        for (byte currentByte : randomData)
-            rtn.append(String.format("%02x", currentByte & 0xff));
-        return rtn.toString();
+    AuthController() {
     }
 
-    private static class AuthInfo {
-        public Device device;
-        public Date   authenticated;
+    /**
+     * Creates the token store selected by setting "instalist.auth.token_mode". "memory" (default)
+     * keeps tokens in this process, "signed" issues self-contained tokens verifiable by every
+     * server sharing the signing keys.
+     */
+    private static ITokenStore createTokenStore() {
+        String mode = ConfigHelper.getString("instalist.auth.token_mode", "memory");
+        if ("signed".equals(mode))
+            return SignedTokenStore.createDefault();
+        if ("memory".equals(mode))
+            return TokenRegistry.createDefault();
+        throw new IllegalStateException("Unknown token mode: " + mode);
     }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.controller.impl;
+
+import org.hibernate.SQLQuery;
+import org.noorganization.instalist.server.model.DeletedObject;
+import org.noorganization.instalist.server.model.DeviceGroup;
+import org.noorganization.instalist.server.model.Unit;
+import org.noorganization.instalist.server.support.ChangeLog;
+import org.noorganization.instalist.server.support.ChangeNotifier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.sql.Timestamp;
+import java.time.Instant;
+
+/**
+ * Set-based deletion of the items depending on a deleted item. Instead of loading and deleting
+ * children one by one, every method needs a constant count of statements. The methods have to be
+ * called in the transaction deleting the parent, after the change counter of the group was
+ * incremented (see {@code IFinder.findGroupForChange}).
+ */
+class CascadeDelete {
+
+    /**
+     * Deletes all children of a parent and logs them as deleted. Needs two statements: one
+     * inserting the tombstones selected from the children and one deleting the children.
+     * @param _manager The manager with the active transaction.
+     * @param _group The locked group of parent and children.
+     * @param _type The type of the children.
+     * @param _table The table of the children, e.g. "list_entries".
+     * @param _parentColumn The column referencing the parent, e.g. "product_id".
+     * @param _parentId The id of the parent.
+     * @return The count of deleted children.
+     */
+    static int deleteChildren(EntityManager _manager, DeviceGroup _group,
+                              DeletedObject.Type _type, String _table, String _parentColumn,
+                              int _parentId) {
+        // native statements do not flush on their own, children may still be pending.
+        _manager.flush();
+        ChangeNotifier.getInstance().notifyOnCommit(_manager, _group, _type);
+        Instant updated = Instant.now();
+        // the statements bypass the entity listeners, so the uuids of the children stay unknown.
+        ChangeLog.getInstance().record(_group.getId(), _group.getChangeSeq(), _type, null,
+                updated, true);
+        Query insert = _manager.createNativeQuery("insert into deletion_log (devicegroup_id, " +
+                "uuid, type, updated, seq) select devicegroup_id, uuid, :type, :updated, :seq " +
+                "from " + _table + " where " + _parentColumn + " = :parent").
+                setParameter("type", _type.ordinal()).
+                setParameter("updated", Timestamp.from(updated)).
+                setParameter("seq", _group.getChangeSeq()).
+                setParameter("parent", _parentId);
+        // without the touched tables, hibernate would evict every region of the entity cache.
+        insert.unwrap(SQLQuery.class).addSynchronizedQuerySpace("deletion_log");
+        insert.executeUpdate();
+        Query delete = _manager.createNativeQuery("delete from " + _table + " where " +
+                _parentColumn + " = :parent").
+                setParameter("parent", _parentId);
+        delete.unwrap(SQLQuery.class).addSynchronizedQuerySpace(_table);
+        return delete.executeUpdate();
+    }
+
+    /**
+     * Removes a unit from all products using it, with one statement. The products get marked as
+     * changed. Hibernate evicts all cached products on this statement.
+     * @param _manager The manager with the active transaction.
+     * @param _group The locked group of unit and products.
+     * @param _unit The unit to remove.
+     * @return The count of changed products.
+     */
+    static int unlinkUnit(EntityManager _manager, DeviceGroup _group, Unit _unit) {
+        ChangeNotifier.getInstance().notifyOnCommit(_manager, _group, DeletedObject.Type.PRODUCT);
+        Instant updated = Instant.now();
+        ChangeLog.getInstance().record(_group.getId(), _group.getChangeSeq(),
+                DeletedObject.Type.PRODUCT, null, updated, false);
+        return _manager.createQuery("update Product p set p.unit = null, p.updated = :updated, " +
+                "p.seq = :seq where p.unit = :unit").
+                setParameter("updated", updated).
+                setParameter("seq", _group.getChangeSeq()).
+                setParameter("unit", _unit).
+                executeUpdate();
+    }
+
+    private CascadeDelete() {
+    }
+}
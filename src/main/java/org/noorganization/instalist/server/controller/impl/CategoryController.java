@@ -20,6 +20,8 @@ import org.noorganization.instalist.server.controller.ICategoryController;
 import org.noorganization.instalist.server.model.Category;
 import org.noorganization.instalist.server.model.DeletedObject;
 import org.noorganization.instalist.server.model.DeviceGroup;
+import org.noorganization.instalist.server.support.EntityCache;
+import org.noorganization.instalist.server.support.TombstoneFilter;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
 
@@ -41,7 +43,7 @@ class CategoryController implements ICategoryController {
             ClientErrorException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
         Category existingCategory = findByGroupAndUUID(group, _uuid);
         if (existingCategory != null) {
             tx.rollback();
@@ -70,7 +72,7 @@ class CategoryController implements ICategoryController {
             ClientErrorException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
         Category catToEdit = getCategory(group, _categoryUUID, tx);
 
         if (catToEdit.getUpdated().isAfter(_changed)) {
@@ -88,7 +90,7 @@ class CategoryController implements ICategoryController {
             NotFoundException, GoneException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
         Category catToDelete = getCategory(group, _categoryUUID, tx);
         if (catToDelete.getLists().size() != 0) {
             tx.rollback();
@@ -96,11 +98,13 @@ class CategoryController implements ICategoryController {
         }
         DeletedObject deletedCat = new DeletedObject();
         deletedCat.setType(DeletedObject.Type.CATEGORY);
-        deletedCat.setGroup(mManager.find(DeviceGroup.class, _groupId));
+        deletedCat.setGroup(group);
         deletedCat.setUUID(_categoryUUID);
         mManager.persist(deletedCat);
         mManager.remove(catToDelete);
+        TombstoneFilter.getInstance().addOnCommit(mManager, _groupId, _categoryUUID);
         tx.commit();
+        EntityCache.getInstance().invalidate(Category.class, _groupId, _categoryUUID);
     }
 
     private Category getCategory(DeviceGroup _group, UUID _categoryUUID, EntityTransaction _tx)
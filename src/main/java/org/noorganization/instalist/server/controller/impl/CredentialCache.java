@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.controller.impl;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import org.noorganization.instalist.server.support.ConfigHelper;
+import org.noorganization.instalist.server.support.MetricsHelper;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers recently verified device secrets, so a repeated login does not need a BCrypt check.
+ * Secrets are not stored in cleartext but as HMAC-SHA256 with a random key of this process. The
+ * stored hash of the device is part of the HMAC, so changed secrets never match.
+ *
+ * The cache is bounded in size (least recently used entries are dropped) and entries expire after
+ * a short time.
+ */
+class CredentialCache {
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    /**
+     * Rough memory cost of one entry: map entry, boxed key, entry object and the digest.
+     */
+    static final int BYTES_PER_ENTRY = 48 + 16 + 24 + 48;
+
+    private final Map<Integer, Entry>   mEntries;
+    private final SecretKeySpec         mKey;
+    private final ThreadLocal<Mac>      mMac;
+    private final long                  mTtlMillis;
+    private final int                   mMaxSize;
+    private final Counter               mHits;
+    private final Counter               mMisses;
+
+    /**
+     * Checks whether a secret was verified recently for the device.
+     * @param _deviceId The id of the device.
+     * @param _secret The cleartext secret sent by the device.
+     * @param _storedHash The BCrypt-hash currently saved for the device.
+     * @return True, if the same secret was verified against the same hash before.
+     */
+    public boolean matches(int _deviceId, String _secret, String _storedHash) {
+        if (mMaxSize == 0)
+            return false;
+        Entry entry;
+        synchronized (mEntries) {
+            entry = mEntries.get(_deviceId);
+        }
+        if (entry == null || entry.expiresAt < System.currentTimeMillis() ||
+                !MessageDigest.isEqual(entry.digest, digest(_secret, _storedHash))) {
+            mMisses.inc();
+            return false;
+        }
+        mHits.inc();
+        return true;
+    }
+
+    /**
+     * Remembers a successfully verified secret.
+     * @param _deviceId The id of the device.
+     * @param _secret The cleartext secret sent by the device.
+     * @param _storedHash The BCrypt-hash the secret was verified against.
+     */
+    public void put(int _deviceId, String _secret, String _storedHash) {
+        if (mMaxSize == 0)
+            return;
+        Entry entry = new Entry(digest(_secret, _storedHash),
+                System.currentTimeMillis() + mTtlMillis);
+        synchronized (mEntries) {
+            mEntries.put(_deviceId, entry);
+        }
+    }
+
+    /**
+     * Forgets the verified secret of a device.
+     * @param _deviceId The id of the device.
+     */
+    public void invalidate(int _deviceId) {
+        synchronized (mEntries) {
+            mEntries.remove(_deviceId);
+        }
+    }
+
+    /**
+     * @return The count of remembered secrets.
+     */
+    public int size() {
+        synchronized (mEntries) {
+            return mEntries.size();
+        }
+    }
+
+    /**
+     * Creates a cache.
+     * @param _ttlMillis The time a verified secret is remembered.
+     * @param _maxSize The maximum count of remembered secrets. 0 disables the cache.
+     * @param _metrics The registry for hit and size metrics.
+     */
+    CredentialCache(long _ttlMillis, int _maxSize, MetricRegistry _metrics) {
+        mTtlMillis = _ttlMillis;
+        mMaxSize = Math.max(_maxSize, 0);
+        mEntries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> _eldest) {
+                return size() > mMaxSize;
+            }
+        };
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        mKey = new SecretKeySpec(key, MAC_ALGORITHM);
+        mMac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(mKey);
+                return mac;
+            } catch (GeneralSecurityException _e) {
+                throw new IllegalStateException("HMAC is not available.", _e);
+            }
+        });
+
+        mHits = _metrics.counter("auth.credentials.hits");
+        mMisses = _metrics.counter("auth.credentials.misses");
+        _metrics.register("auth.credentials.size", (Gauge<Integer>) this::size);
+        _metrics.register("auth.credentials.memory", (Gauge<Long>) () ->
+                (long) size() * BYTES_PER_ENTRY);
+        _metrics.register("auth.credentials.hit_ratio", new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(mHits.getCount(), mHits.getCount() + mMisses.getCount());
+            }
+        });
+    }
+
+    /**
+     * Creates the cache for the whole server, configured by "instalist.auth.credential_ttl"
+     * (seconds) and "instalist.auth.credential_cache_size".
+     * @return The created cache.
+     */
+    static CredentialCache createDefault() {
+        return new CredentialCache(
+                ConfigHelper.getLong("instalist.auth.credential_ttl", 5 * 60) * 1000,
+                ConfigHelper.getInt("instalist.auth.credential_cache_size", 10000),
+                MetricsHelper.getInstance().getRegistry());
+    }
+
+    private byte[] digest(String _secret, String _storedHash) {
+        Mac mac = mMac.get();
+        mac.update(_storedHash.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        return mac.doFinal(_secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static class Entry {
+        final byte[] digest;
+        final long   expiresAt;
+
+        Entry(byte[] _digest, long _expiresAt) {
+            digest = _digest;
+            expiresAt = _expiresAt;
+        }
+    }
+}
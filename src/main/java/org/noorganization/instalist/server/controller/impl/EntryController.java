@@ -20,6 +20,7 @@ import org.noorganization.instalist.server.controller.IEntryController;
 import org.noorganization.instalist.server.controller.IListController;
 import org.noorganization.instalist.server.controller.IProductController;
 import org.noorganization.instalist.server.model.*;
+import org.noorganization.instalist.server.support.TombstoneFilter;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
 
@@ -42,7 +43,7 @@ class EntryController implements IEntryController {
             throws ConflictException, BadRequestException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         ListEntry toCheck = findByGroupAndUUID(group, _entryUUID);
         if (toCheck != null) {
@@ -83,7 +84,7 @@ class EntryController implements IEntryController {
             throws ConflictException, GoneException, NotFoundException, BadRequestException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         ListEntry toUpdate = getEntry(group, _entryUUID, tx);
         if (toUpdate.getUpdated().isAfter(_lastChanged)) {
@@ -128,7 +129,7 @@ class EntryController implements IEntryController {
     public void delete(int _groupId, UUID _entryUUID) throws GoneException, NotFoundException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         ListEntry toDelete = getEntry(group, _entryUUID, tx);
         DeletedObject oldProduct = new DeletedObject().withGroup(group);
@@ -138,6 +139,7 @@ class EntryController implements IEntryController {
         mManager.persist(oldProduct);
         mManager.remove(toDelete);
 
+        TombstoneFilter.getInstance().addOnCommit(mManager, _groupId, _entryUUID);
         tx.commit();
     }
 
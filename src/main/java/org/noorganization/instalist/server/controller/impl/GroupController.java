@@ -16,11 +16,13 @@
 
 package org.noorganization.instalist.server.controller.impl;
 
-import org.mindrot.jbcrypt.BCrypt;
 import org.noorganization.instalist.server.controller.IAuthController;
 import org.noorganization.instalist.server.controller.IGroupController;
 import org.noorganization.instalist.server.model.Device;
 import org.noorganization.instalist.server.model.DeviceGroup;
+import org.noorganization.instalist.server.support.CryptoExecutor;
+import org.noorganization.instalist.server.support.GroupReaper;
+
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
@@ -47,8 +49,8 @@ class GroupController implements IGroupController {
     public Device addDevice(int _groupId, String _groupAuth, String _name, String _secret) {
 
         DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
-        if (group == null || group.getReadableId() == null || !group.getReadableId().
-                equals(_groupAuth))
+        if (group == null || group.getDeleted() || group.getReadableId() == null ||
+                !group.getReadableId().equals(_groupAuth))
             return null;
 
         mManager.getTransaction().begin();
@@ -64,7 +66,7 @@ class GroupController implements IGroupController {
         Device rtn = new Device();
         rtn.setName(_name);
         rtn.setGroup(group);
-        rtn.setSecret(BCrypt.hashpw(_secret, BCrypt.gensalt(10)));
+        rtn.setSecret(CryptoExecutor.getInstance().hashpw(_secret, 10));
         rtn.setAuthorized(otherDevices.size() == 0);
         mManager.persist(rtn);
         mManager.getTransaction().commit();
@@ -114,11 +116,17 @@ class GroupController implements IGroupController {
         otherDevicesQuery.setParameter("did", toDelete.getId());
         otherDevicesQuery.setMaxResults(1);
         List<Device> otherDevices = otherDevicesQuery.getResultList();
-        if (otherDevices.size() == 0)
-            mManager.remove(toDelete.getGroup());
-        else
-            mManager.remove(toDelete);
+        boolean lastDevice = otherDevices.size() == 0;
+        if (lastDevice) {
+            // the items get removed by the reaper, so the request does not load the group.
+            DeviceGroup group = toDelete.getGroup();
+            group.setDeleted(true);
+            group.setReadableId(null);
+        }
+        mManager.remove(toDelete);
         mManager.getTransaction().commit();
+        if (lastDevice)
+            GroupReaper.getInstance().trigger();
 
         IAuthController authController = ControllerFactory.getAuthController();
         authController.revalidateDevice(mManager, _deviceId);
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.controller.impl;
+
+import org.noorganization.instalist.server.model.Device;
+
+/**
+ * A strategy for issuing and verifying tokens of authenticated devices. Used by
+ * {@link AuthController}, which selects the implementation by setting
+ * "instalist.auth.token_mode".
+ */
+interface ITokenStore {
+
+    /**
+     * Verifies a token. Must not need a database connection.
+     * @param _token The token to verify. May be null.
+     * @return Either the authenticated device or null, if token is invalid, expired or revoked.
+     */
+    Device getDevice(String _token);
+
+    /**
+     * Issues a new token for a device. Previous tokens of the device may get invalidated.
+     * @param _device The device whose authentication was verified.
+     * @return The new token. Never null.
+     */
+    String issue(Device _device);
+
+    /**
+     * Checks whether a device may have a valid token. Used to avoid reloading devices without
+     * tokens.
+     * @param _deviceId The id of the device.
+     * @return False, if the device surely has no valid token.
+     */
+    boolean hasToken(int _deviceId);
+
+    /**
+     * Makes future verifications reflect a changed device.
+     * @param _device The reloaded device.
+     */
+    void update(Device _device);
+
+    /**
+     * Invalidates all tokens of a device.
+     * @param _deviceId The id of the device to log out.
+     */
+    void remove(int _deviceId);
+
+    /**
+     * Stops background work of the store, e.g. when the server gets undeployed.
+     */
+    default void shutdown() {
+    }
+}
@@ -20,6 +20,7 @@ import org.noorganization.instalist.server.controller.IIngredientController;
 import org.noorganization.instalist.server.controller.IProductController;
 import org.noorganization.instalist.server.controller.IRecipeController;
 import org.noorganization.instalist.server.model.*;
+import org.noorganization.instalist.server.support.TombstoneFilter;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
 
@@ -41,7 +42,7 @@ class IngredientController implements IIngredientController {
             throws ConflictException, BadRequestException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         Ingredient toCheck = findByGroupAndUUID(group, _ingredientUUID);
         if (toCheck != null) {
@@ -78,7 +79,7 @@ class IngredientController implements IIngredientController {
             throws ConflictException, GoneException, NotFoundException, BadRequestException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         Ingredient toUpdate = getIngredient(group, _ingredientUUID, tx);
         if (toUpdate.getUpdated().isAfter(_lastChanged)) {
@@ -118,7 +119,7 @@ class IngredientController implements IIngredientController {
     public void delete(int _groupId, UUID _ingredientUUID) throws GoneException, NotFoundException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         Ingredient toDelete = getIngredient(group, _ingredientUUID, tx);
         DeletedObject oldProduct = new DeletedObject().withGroup(group);
@@ -127,6 +128,7 @@ class IngredientController implements IIngredientController {
         mManager.persist(oldProduct);
         mManager.remove(toDelete);
 
+        TombstoneFilter.getInstance().addOnCommit(mManager, _groupId, _ingredientUUID);
         tx.commit();
     }
 
@@ -17,9 +17,9 @@
 package org.noorganization.instalist.server.controller.impl;
 
 import org.noorganization.instalist.server.controller.ICategoryController;
-import org.noorganization.instalist.server.controller.IEntryController;
 import org.noorganization.instalist.server.controller.IListController;
 import org.noorganization.instalist.server.model.*;
+import org.noorganization.instalist.server.support.TombstoneFilter;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
 import javax.persistence.EntityManager;
@@ -43,7 +43,7 @@ class ListController implements IListController {
 
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
         ShoppingList found = findByGroupAndUUID(group, _listUUID);
         DeletedObject deletedList = findDeletedByGroupAndUUID(group, _listUUID);
         if (found != null || (deletedList != null && deletedList.getUpdated().
@@ -72,7 +72,7 @@ class ListController implements IListController {
 
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
         ShoppingList listToUpdate = getList(group, _listUUID, tx);
         if (listToUpdate.getUpdated().isAfter(_lastChanged)) {
             tx.rollback();
@@ -97,15 +97,11 @@ class ListController implements IListController {
     public void delete(int _groupId, UUID _listUUID) throws GoneException, NotFoundException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
         ShoppingList listToDelete = getList(group, _listUUID, tx);
 
-        IEntryController entryController = ControllerFactory.getEntryController(mManager);
-        for (ListEntry entry: listToDelete.getEntries()) {
-            try {
-                entryController.delete(_groupId, entry.getUUID());
-            } catch (Exception ignored) {}
-        }
+        CascadeDelete.deleteChildren(mManager, group, DeletedObject.Type.LISTENTRY,
+                "list_entries", "list_id", listToDelete.getId());
 
         DeletedObject deletedList = new DeletedObject().withType(DeletedObject.Type.LIST);
         deletedList.setUUID(_listUUID);
@@ -113,6 +109,7 @@ class ListController implements IListController {
         mManager.persist(deletedList);
         mManager.remove(listToDelete);
 
+        TombstoneFilter.getInstance().invalidateOnCommit(mManager, _groupId);
         tx.commit();
     }
 
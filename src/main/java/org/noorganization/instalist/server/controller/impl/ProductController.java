@@ -16,11 +16,11 @@
 
 package org.noorganization.instalist.server.controller.impl;
 
-import org.noorganization.instalist.server.controller.IEntryController;
-import org.noorganization.instalist.server.controller.IIngredientController;
 import org.noorganization.instalist.server.controller.IProductController;
 import org.noorganization.instalist.server.controller.IUnitController;
 import org.noorganization.instalist.server.model.*;
+import org.noorganization.instalist.server.support.EntityCache;
+import org.noorganization.instalist.server.support.TombstoneFilter;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
 
@@ -43,7 +43,7 @@ class ProductController implements IProductController {
             throws ConflictException, BadRequestException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         Product toCheck = findByGroupAndUUID(group, _newUUID);
         if (toCheck != null) {
@@ -83,7 +83,7 @@ class ProductController implements IProductController {
             throws ConflictException, NotFoundException, GoneException, BadRequestException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         Product toUpdate = getProduct(group, _uuid, tx);
         if (toUpdate.getUpdated().isAfter(_updated)) {
@@ -119,30 +119,25 @@ class ProductController implements IProductController {
     public void delete(int _groupId, UUID _uuid) throws NotFoundException, GoneException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         Product toDelete = getProduct(group, _uuid, tx);
 
-        IEntryController entryController = ControllerFactory.getEntryController(mManager);
-        for (ListEntry entry: toDelete.getEntries()) {
-            try {
-                entryController.delete(_groupId, entry.getUUID());
-            } catch (Exception _e) {}
-        }
-        IIngredientController ingredientController = ControllerFactory.
-                getIngredientController(mManager);
-        for (Ingredient ingredient: toDelete.getIngredients()) {
-            try {
-                ingredientController.delete(_groupId, ingredient.getUUID());
-            } catch (Exception _e) {}
-        }
+        CascadeDelete.deleteChildren(mManager, group, DeletedObject.Type.LISTENTRY,
+                "list_entries", "product_id", toDelete.getId());
+        CascadeDelete.deleteChildren(mManager, group, DeletedObject.Type.INGREDIENT,
+                "ingredients", "product_id", toDelete.getId());
+        CascadeDelete.deleteChildren(mManager, group, DeletedObject.Type.TAGGEDPRODUCT,
+                "tagged_products", "product_id", toDelete.getId());
         DeletedObject oldProduct = new DeletedObject().withGroup(group);
         oldProduct.setUUID(_uuid);
         oldProduct.setType(DeletedObject.Type.PRODUCT);
         mManager.persist(oldProduct);
         mManager.remove(toDelete);
 
+        TombstoneFilter.getInstance().invalidateOnCommit(mManager, _groupId);
         tx.commit();
+        EntityCache.getInstance().invalidate(Product.class, _groupId, _uuid);
     }
 
     ProductController(EntityManager _manager) {
@@ -16,9 +16,9 @@
 
 package org.noorganization.instalist.server.controller.impl;
 
-import org.noorganization.instalist.server.controller.IIngredientController;
 import org.noorganization.instalist.server.controller.IRecipeController;
 import org.noorganization.instalist.server.model.*;
+import org.noorganization.instalist.server.support.TombstoneFilter;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
 
@@ -39,7 +39,7 @@ class RecipeController implements IRecipeController {
             throws ConflictException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         Recipe toCheck = findByGroupAndUUID(group, _recipeUUID);
         if (toCheck != null) {
@@ -66,7 +66,7 @@ class RecipeController implements IRecipeController {
             throws ConflictException, GoneException, NotFoundException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         Recipe toUpdate = getRecipe(group, _recipeUUID, tx);
         if (toUpdate.getUpdated().isAfter(_lastChanged)) {
@@ -85,23 +85,19 @@ class RecipeController implements IRecipeController {
     public void delete(int _groupId, UUID _recipeUUID) throws GoneException, NotFoundException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         Recipe toDelete = getRecipe(group, _recipeUUID, tx);
 
-        IIngredientController ingredientController = ControllerFactory.
-                getIngredientController(mManager);
-        for (Ingredient ingredient: toDelete.getIngredients()) {
-            try {
-                ingredientController.delete(_groupId, ingredient.getUUID());
-            } catch (Exception _e) {}
-        }
+        CascadeDelete.deleteChildren(mManager, group, DeletedObject.Type.INGREDIENT,
+                "ingredients", "recipe_id", toDelete.getId());
         DeletedObject oldRecipe = new DeletedObject().withGroup(group);
         oldRecipe.setUUID(_recipeUUID);
         oldRecipe.setType(DeletedObject.Type.RECIPE);
         mManager.persist(oldRecipe);
         mManager.remove(toDelete);
 
+        TombstoneFilter.getInstance().invalidateOnCommit(mManager, _groupId);
         tx.commit();
     }
 
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.controller.impl;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.noorganization.instalist.server.model.Device;
+import org.noorganization.instalist.server.model.DeviceGroup;
+import org.noorganization.instalist.server.support.ConfigHelper;
+import org.noorganization.instalist.server.support.MetricsHelper;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Issues self-contained tokens signed with HMAC-SHA256, so every server knowing the signing keys
+ * can verify them without shared memory or database access. A token has the form
+ * {@code <key id>.<payload>.<signature>} (both base64url) and its payload contains device id,
+ * group id, authorization, issue time and expiry.
+ *
+ * Since such tokens can not be withdrawn from clients, changes of devices are handled by a
+ * revocation list of this server: tokens of a device issued before its last change are refused.
+ * Other servers only refuse them after expiry, so the lifetime of tokens should be short.
+ */
+class SignedTokenStore implements ITokenStore {
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final byte   VERSION       = 1;
+    private static final int    PAYLOAD_SIZE  = 1 + 4 + 4 + 1 + 8 + 8;
+
+    private final Map<String, SecretKeySpec>         mKeys;
+    private final String                             mCurrentKeyId;
+    private final long                               mTtlMillis;
+    private final ConcurrentHashMap<Integer, Long>   mRevocations;
+    private final ThreadLocal<Map<String, Mac>>      mMacs;
+
+    @Override
+    public Device getDevice(String _token) {
+        if (_token == null)
+            return null;
+        int firstDot = _token.indexOf('.');
+        int secondDot = _token.indexOf('.', firstDot + 1);
+        if (firstDot < 1 || secondDot < 0 || _token.indexOf('.', secondDot + 1) >= 0)
+            return null;
+        String keyId = _token.substring(0, firstDot);
+        if (!mKeys.containsKey(keyId))
+            return null;
+
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = Base64.getUrlDecoder().decode(_token.substring(firstDot + 1, secondDot));
+            signature = Base64.getUrlDecoder().decode(_token.substring(secondDot + 1));
+        } catch (IllegalArgumentException _e) {
+            return null;
+        }
+        if (payload.length != PAYLOAD_SIZE ||
+                !MessageDigest.isEqual(sign(keyId, payload), signature))
+            return null;
+
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        if (buffer.get() != VERSION)
+            return null;
+        int deviceId = buffer.getInt();
+        int groupId = buffer.getInt();
+        boolean authorized = buffer.get() != 0;
+        long issuedAt = buffer.getLong();
+        long expiresAt = buffer.getLong();
+
+        if (System.currentTimeMillis() > expiresAt)
+            return null;
+        Long revokedAt = mRevocations.get(deviceId);
+        if (revokedAt != null && issuedAt <= revokedAt)
+            return null;
+
+        return new Device().withId(deviceId).withAuthorized(authorized).
+                withGroup(new DeviceGroup().withId(groupId));
+    }
+
+    @Override
+    public String issue(Device _device) {
+        long issuedAt = System.currentTimeMillis();
+        Long revokedAt = mRevocations.get(_device.getId());
+        if (revokedAt != null && issuedAt <= revokedAt)
+            issuedAt = revokedAt + 1;
+
+        ByteBuffer payload = ByteBuffer.allocate(PAYLOAD_SIZE);
+        payload.put(VERSION);
+        payload.putInt(_device.getId());
+        payload.putInt(_device.getGroup().getId());
+        payload.put((byte) (_device.getAuthorized() ? 1 : 0));
+        payload.putLong(issuedAt);
+        payload.putLong(issuedAt + mTtlMillis);
+
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return mCurrentKeyId + "." + encoder.encodeToString(payload.array()) + "." +
+                encoder.encodeToString(sign(mCurrentKeyId, payload.array()));
+    }
+
+    /**
+     * Since issued tokens are not tracked, every device may have a token.
+     * @return Always true.
+     */
+    @Override
+    public boolean hasToken(int _deviceId) {
+        return true;
+    }
+
+    /**
+     * Revokes all tokens of the device, since they contain outdated data. The device has to
+     * fetch a new token.
+     */
+    @Override
+    public void update(Device _device) {
+        remove(_device.getId());
+    }
+
+    @Override
+    public void remove(int _deviceId) {
+        long now = System.currentTimeMillis();
+        mRevocations.put(_deviceId, now);
+        // Revocations older than the token lifetime do not refuse anything anymore.
+        mRevocations.values().removeIf(_revokedAt -> _revokedAt < now - mTtlMillis);
+    }
+
+    /**
+     * @return The count of revoked devices held by this server.
+     */
+    public int getRevocationCount() {
+        return mRevocations.size();
+    }
+
+    /**
+     * Creates a store.
+     * @param _keys The signing keys by their id. Ids must not contain dots.
+     * @param _currentKeyId The id of the key for signing new tokens.
+     * @param _ttlMillis The lifetime of new tokens.
+     * @param _metrics The registry for the gauges of this store.
+     */
+    SignedTokenStore(Map<String, byte[]> _keys, String _currentKeyId, long _ttlMillis,
+                     MetricRegistry _metrics) {
+        if (!_keys.containsKey(_currentKeyId))
+            throw new IllegalArgumentException("Signing key \"" + _currentKeyId + "\" is " +
+                    "unknown.");
+        mKeys = new HashMap<String, SecretKeySpec>();
+        for (Map.Entry<String, byte[]> key : _keys.entrySet()) {
+            if (key.getKey().length() == 0 || key.getKey().contains("."))
+                throw new IllegalArgumentException("Invalid signing key id: " + key.getKey());
+            mKeys.put(key.getKey(), new SecretKeySpec(key.getValue(), MAC_ALGORITHM));
+        }
+        mCurrentKeyId = _currentKeyId;
+        mTtlMillis = _ttlMillis;
+        mRevocations = new ConcurrentHashMap<Integer, Long>();
+        mMacs = ThreadLocal.withInitial(HashMap::new);
+
+        _metrics.register("auth.tokens.revocations", (Gauge<Integer>) this::getRevocationCount);
+    }
+
+    /**
+     * Creates the store for the whole server. Keys are read from setting
+     * "instalist.auth.signing_keys" as comma separated list of {@code <id>:<base64 key>}, the
+     * key for new tokens from "instalist.auth.signing_key_id" (default: first key) and the
+     * lifetime from "instalist.auth.signed_ttl" (seconds).
+     * @return The created store.
+     * @throws IllegalStateException If no keys are configured.
+     */
+    static SignedTokenStore createDefault() {
+        String keySetting = ConfigHelper.getString("instalist.auth.signing_keys", null);
+        if (keySetting == null)
+            throw new IllegalStateException("Signed tokens need \"instalist.auth.signing_keys\".");
+
+        Map<String, byte[]> keys = new HashMap<String, byte[]>();
+        String firstKeyId = null;
+        for (String keyDefinition : keySetting.split(",")) {
+            int colonPos = keyDefinition.indexOf(':');
+            if (colonPos < 1)
+                throw new IllegalStateException("Signing keys must have format <id>:<key>.");
+            String keyId = keyDefinition.substring(0, colonPos).trim();
+            keys.put(keyId, Base64.getDecoder().decode(keyDefinition.substring(colonPos + 1).
+                    trim()));
+            if (firstKeyId == null)
+                firstKeyId = keyId;
+        }
+
+        return new SignedTokenStore(keys,
+                ConfigHelper.getString("instalist.auth.signing_key_id", firstKeyId),
+                ConfigHelper.getLong("instalist.auth.signed_ttl", 60 * 60) * 1000,
+                MetricsHelper.getInstance().getRegistry());
+    }
+
+    private byte[] sign(String _keyId, byte[] _payload) {
+        Map<String, Mac> macs = mMacs.get();
+        Mac mac = macs.get(_keyId);
+        if (mac == null) {
+            try {
+                mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(mKeys.get(_keyId));
+            } catch (GeneralSecurityException _e) {
+                throw new IllegalStateException("HMAC is not available.", _e);
+            }
+            macs.put(_keyId, mac);
+        }
+        mac.update(_keyId.getBytes(StandardCharsets.UTF_8));
+        return mac.doFinal(_payload);
+    }
+}
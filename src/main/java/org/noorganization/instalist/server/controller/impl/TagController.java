@@ -17,8 +17,8 @@
 package org.noorganization.instalist.server.controller.impl;
 
 import org.noorganization.instalist.server.controller.ITagController;
-import org.noorganization.instalist.server.controller.ITaggedProductController;
 import org.noorganization.instalist.server.model.*;
+import org.noorganization.instalist.server.support.TombstoneFilter;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
 
@@ -39,7 +39,7 @@ class TagController implements ITagController {
             throws ConflictException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         Tag toCheck = findByGroupAndUUID(group, _tagUUID);
         if (toCheck != null) {
@@ -66,7 +66,7 @@ class TagController implements ITagController {
             throws ConflictException, GoneException, NotFoundException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         Tag toUpdate = getTag(group, _recipeUUID, tx);
         if (toUpdate.getUpdated().isAfter(_lastChanged)) {
@@ -85,23 +85,19 @@ class TagController implements ITagController {
     public void delete(int _groupId, UUID _recipeUUID) throws GoneException, NotFoundException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         Tag toDelete = getTag(group, _recipeUUID, tx);
 
-        ITaggedProductController taggedProductController = ControllerFactory.
-                getTaggedProductController(mManager);
-        for (TaggedProduct taggedProduct: toDelete.getTaggedProducts()) {
-            try {
-                taggedProductController.delete(_groupId, taggedProduct.getUUID());
-            } catch (Exception _e) {}
-        }
+        CascadeDelete.deleteChildren(mManager, group, DeletedObject.Type.TAGGEDPRODUCT,
+                "tagged_products", "tag_id", toDelete.getId());
         DeletedObject oldRecipe = new DeletedObject().withGroup(group);
         oldRecipe.setUUID(_recipeUUID);
         oldRecipe.setType(DeletedObject.Type.TAG);
         mManager.persist(oldRecipe);
         mManager.remove(toDelete);
 
+        TombstoneFilter.getInstance().invalidateOnCommit(mManager, _groupId);
         tx.commit();
     }
 
@@ -20,6 +20,7 @@ import org.noorganization.instalist.server.controller.IProductController;
 import org.noorganization.instalist.server.controller.ITagController;
 import org.noorganization.instalist.server.controller.ITaggedProductController;
 import org.noorganization.instalist.server.model.*;
+import org.noorganization.instalist.server.support.TombstoneFilter;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
 
@@ -40,7 +41,7 @@ class TaggedProductController implements ITaggedProductController {
             throws ConflictException, BadRequestException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         TaggedProduct toCheck = findByGroupAndUUID(group, _tpUUID);
         if (toCheck != null) {
@@ -77,7 +78,7 @@ class TaggedProductController implements ITaggedProductController {
             throws ConflictException, GoneException, NotFoundException, BadRequestException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         TaggedProduct toUpdate = getTP(group, _tpUUID, tx);
         if (toUpdate.getUpdated().isAfter(_lastChanged)) {
@@ -116,7 +117,7 @@ class TaggedProductController implements ITaggedProductController {
     public void delete(int _groupId, UUID _tpUUID) throws GoneException, NotFoundException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         TaggedProduct toDelete = getTP(group, _tpUUID, tx);
         DeletedObject oldProduct = new DeletedObject().withGroup(group);
@@ -125,6 +126,7 @@ class TaggedProductController implements ITaggedProductController {
         mManager.persist(oldProduct);
         mManager.remove(toDelete);
 
+        TombstoneFilter.getInstance().addOnCommit(mManager, _groupId, _tpUUID);
         tx.commit();
     }
 
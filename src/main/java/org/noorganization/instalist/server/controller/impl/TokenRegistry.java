@@ -0,0 +1,284 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.controller.impl;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.noorganization.instalist.server.model.Device;
+import org.noorganization.instalist.server.support.ConfigHelper;
+import org.noorganization.instalist.server.support.MetricsHelper;
+
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory store for tokens of authenticated devices. Tokens are indexed by token and by device
+ * id, so every operation is O(1). Reads (as done by
+ * {@link org.noorganization.instalist.server.AuthenticationFilter}) do not lock, writes for the
+ * same device are serialized by the device index.
+ *
+ * Tokens expire after an idle time (no access) and after an absolute time since login. Expired
+ * tokens are refused on access and removed by a background sweeper, so memory stays bounded.
+ */
+class TokenRegistry implements ITokenStore {
+
+    /**
+     * Last access times are only written if they are older than this, so a busy token does not
+     * cause a memory write on every request.
+     */
+    private static final long ACCESS_RESOLUTION_MILLIS = 1000;
+
+    private static final SecureRandom sRandom = new SecureRandom();
+
+    private final ConcurrentHashMap<String, AuthInfo> mTokens;
+    private final ConcurrentHashMap<Integer, String>  mDeviceTokens;
+    private final long                                mIdleTtlMillis;
+    private final long                                mAbsoluteTtlMillis;
+    private final Counter                             mIdleEvictions;
+    private final Counter                             mAbsoluteEvictions;
+    private       ScheduledExecutorService            mSweeper;
+
+    /**
+     * Looks up the authentication for a token. Expired tokens get removed and are not returned.
+     * @param _token The token to look up. May be null.
+     * @return Either the authentication or null, if token is unknown or expired.
+     */
+    public AuthInfo get(String _token) {
+        if (_token == null)
+            return null;
+        AuthInfo info = mTokens.get(_token);
+        if (info == null)
+            return null;
+
+        long now = System.currentTimeMillis();
+        if (isExpired(info, now)) {
+            expire(_token, info, now);
+            return null;
+        }
+        if (now - info.lastAccess > ACCESS_RESOLUTION_MILLIS)
+            info.lastAccess = now;
+        return info;
+    }
+
+    @Override
+    public Device getDevice(String _token) {
+        AuthInfo info = get(_token);
+        return (info != null ? info.device : null);
+    }
+
+    @Override
+    public String issue(Device _device) {
+        String token = random32();
+        while (!register(token, _device))
+            token = random32();
+        return token;
+    }
+
+    @Override
+    public boolean hasToken(int _deviceId) {
+        return getTokenForDevice(_deviceId) != null;
+    }
+
+    /**
+     * Searches the current token of a device.
+     * @param _deviceId The id of the device.
+     * @return Either the token or null, if device is not logged in.
+     */
+    public String getTokenForDevice(int _deviceId) {
+        return mDeviceTokens.get(_deviceId);
+    }
+
+    /**
+     * Registers a token for a device. A previous token of the same device gets invalidated.
+     * @param _token The new token. Must not be registered already.
+     * @param _device The authenticated device.
+     * @return Whether the token was registered. False if token is already in use.
+     */
+    public boolean register(String _token, Device _device) {
+        long now = System.currentTimeMillis();
+        AuthInfo info = new AuthInfo(_device, new Date(now), now);
+        boolean[] registered = new boolean[1];
+        // token and device index are written under the lock of the device, so a concurrent
+        // logout can not leave the new token unindexed.
+        mDeviceTokens.compute(_device.getId(), (_id, _oldToken) -> {
+            if (mTokens.putIfAbsent(_token, info) != null)
+                return _oldToken;
+            if (_oldToken != null)
+                mTokens.remove(_oldToken);
+            registered[0] = true;
+            return _token;
+        });
+        return registered[0];
+    }
+
+    /**
+     * Replaces the device of a token, without logging it out.
+     * @param _device The reloaded device.
+     */
+    @Override
+    public void update(Device _device) {
+        mDeviceTokens.computeIfPresent(_device.getId(), (_id, _token) -> {
+            mTokens.computeIfPresent(_token, (_t, _info) ->
+                    new AuthInfo(_device, _info.authenticated, _info.lastAccess));
+            return _token;
+        });
+    }
+
+    /**
+     * Logs a device out by removing its token.
+     * @param _deviceId The id of the device to log out.
+     */
+    @Override
+    public void remove(int _deviceId) {
+        mDeviceTokens.computeIfPresent(_deviceId, (_id, _token) -> {
+            mTokens.remove(_token);
+            return null;
+        });
+    }
+
+    /**
+     * @return The count of currently registered tokens.
+     */
+    public int size() {
+        return mTokens.size();
+    }
+
+    /**
+     * Removes all expired tokens. Gets called periodically by the sweeper.
+     */
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, AuthInfo> entry : mTokens.entrySet()) {
+            if (isExpired(entry.getValue(), now))
+                expire(entry.getKey(), entry.getValue(), now);
+        }
+    }
+
+    /**
+     * Starts a daemon thread removing expired tokens periodically. Calling this more than once
+     * has no effect.
+     * @param _intervalMillis The time between two sweeps.
+     */
+    public synchronized void startSweeper(long _intervalMillis) {
+        if (mSweeper != null)
+            return;
+        mSweeper = Executors.newSingleThreadScheduledExecutor(_runnable -> {
+            Thread sweeperThread = new Thread(_runnable, "instalist-token-sweeper");
+            sweeperThread.setDaemon(true);
+            return sweeperThread;
+        });
+        mSweeper.scheduleWithFixedDelay(this::sweep, _intervalMillis, _intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the sweeper thread, if started.
+     */
+    @Override
+    public synchronized void shutdown() {
+        if (mSweeper == null)
+            return;
+        mSweeper.shutdownNow();
+        mSweeper = null;
+    }
+
+    /**
+     * Creates a registry without metrics.
+     * @param _idleTtlMillis The time a token stays valid without access.
+     * @param _absoluteTtlMillis The time a token stays valid after login.
+     */
+    TokenRegistry(long _idleTtlMillis, long _absoluteTtlMillis) {
+        this(_idleTtlMillis, _absoluteTtlMillis, new MetricRegistry());
+    }
+
+    /**
+     * Creates a registry and registers its metrics.
+     * @param _idleTtlMillis The time a token stays valid without access.
+     * @param _absoluteTtlMillis The time a token stays valid after login.
+     * @param _metrics The registry for the gauges and counters of the token store.
+     */
+    TokenRegistry(long _idleTtlMillis, long _absoluteTtlMillis, MetricRegistry _metrics) {
+        mTokens = new ConcurrentHashMap<String, AuthInfo>();
+        mDeviceTokens = new ConcurrentHashMap<Integer, String>();
+        mIdleTtlMillis = _idleTtlMillis;
+        mAbsoluteTtlMillis = _absoluteTtlMillis;
+
+        mIdleEvictions = _metrics.counter("auth.tokens.evicted.idle");
+        mAbsoluteEvictions = _metrics.counter("auth.tokens.evicted.absolute");
+        _metrics.register("auth.tokens.size", (Gauge<Integer>) this::size);
+    }
+
+    /**
+     * Creates the registry for the whole server, configured by settings "instalist.auth.idle_ttl"
+     * and "instalist.auth.absolute_ttl" (both seconds).
+     * @return A registry with running sweeper.
+     */
+    static TokenRegistry createDefault() {
+        TokenRegistry rtn = new TokenRegistry(
+                ConfigHelper.getLong("instalist.auth.idle_ttl", 24 * 60 * 60) * 1000,
+                ConfigHelper.getLong("instalist.auth.absolute_ttl", 30 * 24 * 60 * 60) * 1000,
+                MetricsHelper.getInstance().getRegistry());
+        rtn.startSweeper(ConfigHelper.getLong("instalist.auth.sweep_interval", 60) * 1000);
+        return rtn;
+    }
+
+    private boolean isExpired(AuthInfo _info, long _now) {
+        return _now - _info.lastAccess > mIdleTtlMillis ||
+                _now - _info.authenticated.getTime() > mAbsoluteTtlMillis;
+    }
+
+    private void expire(String _token, AuthInfo _info, long _now) {
+        if (!mTokens.remove(_token, _info))
+            return;
+        mDeviceTokens.remove(_info.device.getId(), _token);
+        if (_now - _info.authenticated.getTime() > mAbsoluteTtlMillis)
+            mAbsoluteEvictions.inc();
+        else
+            mIdleEvictions.inc();
+    }
+
+    private static String random32() {
+        byte randomData[] = new byte[16];
+        sRandom.nextBytes(randomData);
+        StringBuilder rtn = new StringBuilder(32);
+        for (byte currentByte : randomData)
+            rtn.append(String.format("%02x", currentByte & 0xff));
+        return rtn.toString();
+    }
+
+    /**
+     * An authentication of a device. Gets replaced, when the device changes. Only the time of
+     * last access is mutable.
+     */
+    static class AuthInfo {
+        public final    Device device;
+        public final    Date   authenticated;
+        public volatile long   lastAccess;
+
+        AuthInfo(Device _device, Date _authenticated, long _lastAccess) {
+            device = _device;
+            authenticated = _authenticated;
+            lastAccess = _lastAccess;
+        }
+    }
+}
@@ -16,12 +16,12 @@
 
 package org.noorganization.instalist.server.controller.impl;
 
-import org.noorganization.instalist.server.controller.IProductController;
 import org.noorganization.instalist.server.controller.IUnitController;
 import org.noorganization.instalist.server.model.DeletedObject;
 import org.noorganization.instalist.server.model.DeviceGroup;
-import org.noorganization.instalist.server.model.Product;
 import org.noorganization.instalist.server.model.Unit;
+import org.noorganization.instalist.server.support.EntityCache;
+import org.noorganization.instalist.server.support.TombstoneFilter;
 import org.noorganization.instalist.server.support.exceptions.ConflictException;
 import org.noorganization.instalist.server.support.exceptions.GoneException;
 
@@ -40,7 +40,7 @@ class UnitController implements IUnitController {
             throws ConflictException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         Unit existingUnit = findByGroupAndUUID(group, _newUUID);
         if (existingUnit != null) {
@@ -67,7 +67,7 @@ class UnitController implements IUnitController {
             throws ConflictException, NotFoundException, GoneException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         Unit toUpdate = getUnit(_uuid, tx, group);
         if (toUpdate.getUpdated().isAfter(_updated)) {
@@ -85,24 +85,20 @@ class UnitController implements IUnitController {
     public void delete(int _groupId, UUID _uuid) throws NotFoundException, GoneException {
         EntityTransaction tx = mManager.getTransaction();
         tx.begin();
-        DeviceGroup group = mManager.find(DeviceGroup.class, _groupId);
+        DeviceGroup group = findGroupForChange(_groupId);
 
         DeletedObject oldUnit = new DeletedObject().withGroup(group);
         Unit toDelete = getUnit(_uuid, tx, group);
 
-        IProductController productController = ControllerFactory.getProductController(mManager);
-        for (Product productToUnlink: toDelete.getProducts()) {
-            try {
-                productController.update(_groupId, productToUnlink.getUUID(), null, null, null,
-                        null, true, Instant.now());
-            } catch (Exception ignored) {}
-        }
+        CascadeDelete.unlinkUnit(mManager, group, toDelete);
         oldUnit.setUUID(toDelete.getUUID());
         oldUnit.setType(DeletedObject.Type.UNIT);
         mManager.persist(oldUnit);
         mManager.remove(toDelete);
 
+        TombstoneFilter.getInstance().addOnCommit(mManager, _groupId, _uuid);
         tx.commit();
+        EntityCache.getInstance().invalidate(Unit.class, _groupId, _uuid);
     }
 
     private Unit getUnit(UUID _uuid, EntityTransaction _tx, DeviceGroup _group)
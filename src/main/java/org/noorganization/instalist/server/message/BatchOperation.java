@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.message;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A single change sent to {@link org.noorganization.instalist.server.api.BatchResource}. It
+ * describes a request, that would be sent otherwise: {@link #getMethod()} is "POST", "PUT" or
+ * "DELETE", {@link #getType()} is the collection of the item (e.g. "listentries") and
+ * {@link #getData()} is the usual message for POST and PUT, e.g. an EntryInfo.
+ */
+public class BatchOperation {
+    private String   mMethod;
+    private String   mType;
+    private String   mUUID;
+    private JsonNode mData;
+
+    public String getMethod() {
+        return mMethod;
+    }
+
+    public void setMethod(String _method) {
+        mMethod = _method;
+    }
+
+    public BatchOperation withMethod(String _method) {
+        setMethod(_method);
+        return this;
+    }
+
+    public String getType() {
+        return mType;
+    }
+
+    public void setType(String _type) {
+        mType = _type;
+    }
+
+    public BatchOperation withType(String _type) {
+        setType(_type);
+        return this;
+    }
+
+    /**
+     * @return The uuid of the item to change or delete. Not needed for POST.
+     */
+    public String getUUID() {
+        return mUUID;
+    }
+
+    public void setUUID(String _uuid) {
+        mUUID = _uuid;
+    }
+
+    public BatchOperation withUUID(String _uuid) {
+        setUUID(_uuid);
+        return this;
+    }
+
+    public JsonNode getData() {
+        return mData;
+    }
+
+    public void setData(JsonNode _data) {
+        mData = _data;
+    }
+
+    public BatchOperation withData(JsonNode _data) {
+        setData(_data);
+        return this;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.message;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * The result of a {@link BatchOperation}. The status is the one the single request would have
+ * been answered with, e.g. 201 for a created item or 409 for a conflict. The message is only set
+ * for failed operations.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchResult {
+    private int    mStatus;
+    private String mMessage;
+
+    public int getStatus() {
+        return mStatus;
+    }
+
+    public void setStatus(int _status) {
+        mStatus = _status;
+    }
+
+    public BatchResult withStatus(int _status) {
+        setStatus(_status);
+        return this;
+    }
+
+    public String getMessage() {
+        return mMessage;
+    }
+
+    public void setMessage(String _message) {
+        mMessage = _message;
+    }
+
+    public BatchResult withMessage(String _message) {
+        setMessage(_message);
+        return this;
+    }
+}
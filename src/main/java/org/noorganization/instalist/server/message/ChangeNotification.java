@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tells a subscriber of a group, that data changed. The notification only names the changed
+ * collections (e.g. "listentries"), the changes themselves have to be fetched with
+ * GET /groups/{groupid}/changes. The cursor is the state after the changes, a client being
+ * up to date with it can skip the fetch.
+ */
+public class ChangeNotification {
+    private List<String> mTypes = new ArrayList<>();
+    private String       mCursor;
+
+    public List<String> getTypes() {
+        return mTypes;
+    }
+
+    public void setTypes(List<String> _types) {
+        mTypes = _types;
+    }
+
+    public ChangeNotification withTypes(List<String> _types) {
+        setTypes(_types);
+        return this;
+    }
+
+    public String getCursor() {
+        return mCursor;
+    }
+
+    public void setCursor(String _cursor) {
+        mCursor = _cursor;
+    }
+
+    public ChangeNotification withCursor(String _cursor) {
+        setCursor(_cursor);
+        return this;
+    }
+}
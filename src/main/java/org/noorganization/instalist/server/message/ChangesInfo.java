@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.message;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.noorganization.instalist.comm.message.CategoryInfo;
+import org.noorganization.instalist.comm.message.EntryInfo;
+import org.noorganization.instalist.comm.message.IngredientInfo;
+import org.noorganization.instalist.comm.message.ListInfo;
+import org.noorganization.instalist.comm.message.ProductInfo;
+import org.noorganization.instalist.comm.message.RecipeInfo;
+import org.noorganization.instalist.comm.message.TagInfo;
+import org.noorganization.instalist.comm.message.TaggedProductInfo;
+import org.noorganization.instalist.comm.message.UnitInfo;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * All changes of a group since a given time, as answered by
+ * {@link org.noorganization.instalist.server.api.ChangesResource}. Changed and deleted objects
+ * are sent as their usual messages, deleted ones only with uuid, time and deleted flag.
+ * {@link #getCursor()} should be sent as "cursor" by the next synchronisation. Older clients may
+ * send {@link #getLastChanged()}, the newest change contained, as "since" instead.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChangesInfo {
+    private List<CategoryInfo>      mCategories = new ArrayList<CategoryInfo>();
+    private List<ListInfo>          mLists = new ArrayList<ListInfo>();
+    private List<EntryInfo>         mEntries = new ArrayList<EntryInfo>();
+    private List<ProductInfo>       mProducts = new ArrayList<ProductInfo>();
+    private List<UnitInfo>          mUnits = new ArrayList<UnitInfo>();
+    private List<RecipeInfo>        mRecipes = new ArrayList<RecipeInfo>();
+    private List<IngredientInfo>    mIngredients = new ArrayList<IngredientInfo>();
+    private List<TagInfo>           mTags = new ArrayList<TagInfo>();
+    private List<TaggedProductInfo> mTaggedProducts = new ArrayList<TaggedProductInfo>();
+    private Date                    mLastChanged;
+    private String                  mCursor;
+
+    public List<CategoryInfo> getCategories() {
+        return mCategories;
+    }
+
+    public void setCategories(List<CategoryInfo> _categories) {
+        mCategories = _categories;
+    }
+
+    public ChangesInfo withCategories(List<CategoryInfo> _categories) {
+        setCategories(_categories);
+        return this;
+    }
+
+    public List<ListInfo> getLists() {
+        return mLists;
+    }
+
+    public void setLists(List<ListInfo> _lists) {
+        mLists = _lists;
+    }
+
+    public ChangesInfo withLists(List<ListInfo> _lists) {
+        setLists(_lists);
+        return this;
+    }
+
+    public List<EntryInfo> getEntries() {
+        return mEntries;
+    }
+
+    public void setEntries(List<EntryInfo> _entries) {
+        mEntries = _entries;
+    }
+
+    public ChangesInfo withEntries(List<EntryInfo> _entries) {
+        setEntries(_entries);
+        return this;
+    }
+
+    public List<ProductInfo> getProducts() {
+        return mProducts;
+    }
+
+    public void setProducts(List<ProductInfo> _products) {
+        mProducts = _products;
+    }
+
+    public ChangesInfo withProducts(List<ProductInfo> _products) {
+        setProducts(_products);
+        return this;
+    }
+
+    public List<UnitInfo> getUnits() {
+        return mUnits;
+    }
+
+    public void setUnits(List<UnitInfo> _units) {
+        mUnits = _units;
+    }
+
+    public ChangesInfo withUnits(List<UnitInfo> _units) {
+        setUnits(_units);
+        return this;
+    }
+
+    public List<RecipeInfo> getRecipes() {
+        return mRecipes;
+    }
+
+    public void setRecipes(List<RecipeInfo> _recipes) {
+        mRecipes = _recipes;
+    }
+
+    public ChangesInfo withRecipes(List<RecipeInfo> _recipes) {
+        setRecipes(_recipes);
+        return this;
+    }
+
+    public List<IngredientInfo> getIngredients() {
+        return mIngredients;
+    }
+
+    public void setIngredients(List<IngredientInfo> _ingredients) {
+        mIngredients = _ingredients;
+    }
+
+    public ChangesInfo withIngredients(List<IngredientInfo> _ingredients) {
+        setIngredients(_ingredients);
+        return this;
+    }
+
+    public List<TagInfo> getTags() {
+        return mTags;
+    }
+
+    public void setTags(List<TagInfo> _tags) {
+        mTags = _tags;
+    }
+
+    public ChangesInfo withTags(List<TagInfo> _tags) {
+        setTags(_tags);
+        return this;
+    }
+
+    public List<TaggedProductInfo> getTaggedProducts() {
+        return mTaggedProducts;
+    }
+
+    public void setTaggedProducts(List<TaggedProductInfo> _taggedProducts) {
+        mTaggedProducts = _taggedProducts;
+    }
+
+    public ChangesInfo withTaggedProducts(List<TaggedProductInfo> _taggedProducts) {
+        setTaggedProducts(_taggedProducts);
+        return this;
+    }
+
+    public Date getLastChanged() {
+        return mLastChanged;
+    }
+
+    public void setLastChanged(Date _lastChanged) {
+        mLastChanged = _lastChanged;
+    }
+
+    public ChangesInfo withLastChanged(Date _lastChanged) {
+        setLastChanged(_lastChanged);
+        return this;
+    }
+
+    public String getCursor() {
+        return mCursor;
+    }
+
+    public void setCursor(String _cursor) {
+        mCursor = _cursor;
+    }
+
+    public ChangesInfo withCursor(String _cursor) {
+        setCursor(_cursor);
+        return this;
+    }
+}
@@ -16,6 +16,8 @@
 
 package org.noorganization.instalist.server.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.noorganization.instalist.server.model.generic.BaseItem;
 import org.noorganization.instalist.server.model.generic.NamedBaseItem;
 import org.noorganization.instalist.server.model.generic.NamedItem;
@@ -27,7 +29,13 @@ import java.util.Set;
 import java.util.UUID;
 
 @Entity
-@Table(name = "categories")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "categories")
+@Table(name = "categories", indexes = {
+        @Index(name = "categories_group_uuid_uq", columnList = "devicegroup_id, uuid",
+                unique = true),
+        @Index(name = "categories_group_updated_idx", columnList = "devicegroup_id, updated"),
+        @Index(name = "categories_group_seq_idx", columnList = "devicegroup_id, seq") })
 public class Category extends NamedBaseItem<Category> {
 
     private int         mId;
@@ -39,7 +47,9 @@ public class Category extends NamedBaseItem<Category> {
     }
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "categories_ids")
+    @TableGenerator(name = "categories_ids", table = "id_generators", pkColumnName = "name",
+            valueColumnName = "next_id", pkColumnValue = "categories", allocationSize = 100)
     @Column(name = "id")
     public int getId() {
         return mId;
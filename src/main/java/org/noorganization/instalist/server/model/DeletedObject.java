@@ -23,7 +23,12 @@ import java.sql.Timestamp;
 import java.util.Date;
 
 @Entity
-@Table(name = "deletion_log")
+@Table(name = "deletion_log", indexes = {
+        @Index(name = "deletion_log_group_updated_idx", columnList = "devicegroup_id, updated"),
+        @Index(name = "deletion_log_group_type_updated_idx",
+                columnList = "devicegroup_id, type, updated"),
+        @Index(name = "deletion_log_group_uuid_idx", columnList = "devicegroup_id, uuid, type"),
+        @Index(name = "deletion_log_group_seq_idx", columnList = "devicegroup_id, seq") })
 public class DeletedObject extends BaseItem<DeletedObject> {
 
     public enum Type {
@@ -16,19 +16,27 @@
 
 package org.noorganization.instalist.server.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 import java.sql.Timestamp;
 import java.util.Date;
 import java.util.Set;
 
 @Entity
-@Table(name = "devicegroups")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "devicegroups")
+@Table(name = "devicegroups", indexes = {
+        @Index(name = "devicegroups_deleted_idx", columnList = "deleted") })
 @EntityListeners({DeviceGroup.PostUpdateEventListener.class})
 public class DeviceGroup {
     private int    mId;
     private String mReadableId;
     private Date   mUpdated;
     private Date   mCreated;
+    private long   mChangeSeq;
+    private boolean mDeleted;
 
     private Set<Category> mCategories;
     private Set<DeletedObject> mDeletedObjects;
@@ -118,6 +126,42 @@ public class DeviceGroup {
         return this;
     }
 
+    /**
+     * @return The counter of changes to the items of this group. Gets incremented by every
+     * transaction changing items, the changed items are stamped with the new value.
+     */
+    @Column(name = "changeseq", nullable = false, columnDefinition = "BIGINT DEFAULT 0")
+    public long getChangeSeq() {
+        return mChangeSeq;
+    }
+
+    public void setChangeSeq(long _changeSeq) {
+        mChangeSeq = _changeSeq;
+    }
+
+    public DeviceGroup withChangeSeq(long _changeSeq) {
+        setChangeSeq(_changeSeq);
+        return this;
+    }
+
+    /**
+     * @return Whether the group was left by its last device. Deleted groups get removed with all
+     * items in background by {@link org.noorganization.instalist.server.support.GroupReaper}.
+     */
+    @Column(name = "deleted", columnDefinition = "TINYINT(1) DEFAULT 0", nullable = false)
+    public boolean getDeleted() {
+        return mDeleted;
+    }
+
+    public void setDeleted(boolean _deleted) {
+        mDeleted = _deleted;
+    }
+
+    public DeviceGroup withDeleted(boolean _deleted) {
+        setDeleted(_deleted);
+        return this;
+    }
+
     @OneToMany(cascade = CascadeType.REMOVE, mappedBy = "group", orphanRemoval = true)
     public Set<Device> getDevices() {
         return mDevices;
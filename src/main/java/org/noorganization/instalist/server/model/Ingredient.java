@@ -23,7 +23,11 @@ import java.time.Instant;
 import java.util.UUID;
 
 @Entity
-@Table(name = "ingredients")
+@Table(name = "ingredients", indexes = {
+        @Index(name = "ingredients_group_uuid_uq", columnList = "devicegroup_id, uuid",
+                unique = true),
+        @Index(name = "ingredients_group_updated_idx", columnList = "devicegroup_id, updated"),
+        @Index(name = "ingredients_group_seq_idx", columnList = "devicegroup_id, seq") })
 public class Ingredient extends BaseItem<Ingredient> {
 
     private int mId;
@@ -37,7 +41,9 @@ public class Ingredient extends BaseItem<Ingredient> {
     }
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "ingredients_ids")
+    @TableGenerator(name = "ingredients_ids", table = "id_generators", pkColumnName = "name",
+            valueColumnName = "next_id", pkColumnValue = "ingredients", allocationSize = 100)
     @Column(name = "id")
     public int getId() {
         return mId;
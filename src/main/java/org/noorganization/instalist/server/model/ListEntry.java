@@ -25,7 +25,11 @@ import java.util.Date;
 import java.util.UUID;
 
 @Entity
-@Table(name = "list_entries")
+@Table(name = "list_entries", indexes = {
+        @Index(name = "list_entries_group_uuid_uq", columnList = "devicegroup_id, uuid",
+                unique = true),
+        @Index(name = "list_entries_group_updated_idx", columnList = "devicegroup_id, updated"),
+        @Index(name = "list_entries_group_seq_idx", columnList = "devicegroup_id, seq") })
 public class ListEntry extends BaseItem<ListEntry> {
 
     private int mId;
@@ -43,7 +47,9 @@ public class ListEntry extends BaseItem<ListEntry> {
     }
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "list_entries_ids")
+    @TableGenerator(name = "list_entries_ids", table = "id_generators", pkColumnName = "name",
+            valueColumnName = "next_id", pkColumnValue = "list_entries", allocationSize = 100)
     @Column(name = "id")
     public int getId() {
         return mId;
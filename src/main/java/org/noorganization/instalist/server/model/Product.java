@@ -16,6 +16,8 @@
 
 package org.noorganization.instalist.server.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.noorganization.instalist.server.model.generic.NamedBaseItem;
 import org.noorganization.instalist.server.model.generic.NamedItem;
 
@@ -25,7 +27,13 @@ import java.util.Set;
 import java.util.UUID;
 
 @Entity
-@Table(name = "products")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "products")
+@Table(name = "products", indexes = {
+        @Index(name = "products_group_uuid_uq", columnList = "devicegroup_id, uuid",
+                unique = true),
+        @Index(name = "products_group_updated_idx", columnList = "devicegroup_id, updated"),
+        @Index(name = "products_group_seq_idx", columnList = "devicegroup_id, seq") })
 public class Product extends NamedBaseItem<Product> {
     private int         mId;
     private Unit        mUnit;
@@ -42,7 +50,9 @@ public class Product extends NamedBaseItem<Product> {
     }
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "products_ids")
+    @TableGenerator(name = "products_ids", table = "id_generators", pkColumnName = "name",
+            valueColumnName = "next_id", pkColumnValue = "products", allocationSize = 100)
     @Column(name = "id")
     public int getId() {
         return mId;
@@ -25,7 +25,11 @@ import java.util.Set;
 import java.util.UUID;
 
 @Entity
-@Table(name = "recipes")
+@Table(name = "recipes", indexes = {
+        @Index(name = "recipes_group_uuid_uq", columnList = "devicegroup_id, uuid",
+                unique = true),
+        @Index(name = "recipes_group_updated_idx", columnList = "devicegroup_id, updated"),
+        @Index(name = "recipes_group_seq_idx", columnList = "devicegroup_id, seq") })
 public class Recipe extends NamedBaseItem<Recipe> {
     private int         mId;
 
@@ -36,7 +40,9 @@ public class Recipe extends NamedBaseItem<Recipe> {
     }
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "recipes_ids")
+    @TableGenerator(name = "recipes_ids", table = "id_generators", pkColumnName = "name",
+            valueColumnName = "next_id", pkColumnValue = "recipes", allocationSize = 100)
     @Column(name = "id")
     public int getId() {
         return mId;
@@ -25,7 +25,11 @@ import java.util.Set;
 import java.util.UUID;
 
 @Entity
-@Table(name = "lists")
+@Table(name = "lists", indexes = {
+        @Index(name = "lists_group_uuid_uq", columnList = "devicegroup_id, uuid",
+                unique = true),
+        @Index(name = "lists_group_updated_idx", columnList = "devicegroup_id, updated"),
+        @Index(name = "lists_group_seq_idx", columnList = "devicegroup_id, seq") })
 public class ShoppingList extends NamedBaseItem<ShoppingList> {
     private int         mId;
     private Category    mCategory;
@@ -37,7 +41,9 @@ public class ShoppingList extends NamedBaseItem<ShoppingList> {
     }
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "lists_ids")
+    @TableGenerator(name = "lists_ids", table = "id_generators", pkColumnName = "name",
+            valueColumnName = "next_id", pkColumnValue = "lists", allocationSize = 100)
     @Column(name = "id")
     public int getId() {
         return mId;
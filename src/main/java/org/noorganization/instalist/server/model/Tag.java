@@ -25,7 +25,11 @@ import java.util.Set;
 import java.util.UUID;
 
 @Entity
-@Table(name = "tags")
+@Table(name = "tags", indexes = {
+        @Index(name = "tags_group_uuid_uq", columnList = "devicegroup_id, uuid",
+                unique = true),
+        @Index(name = "tags_group_updated_idx", columnList = "devicegroup_id, updated"),
+        @Index(name = "tags_group_seq_idx", columnList = "devicegroup_id, seq") })
 public class Tag extends NamedBaseItem<Tag> {
     private int         mId;
 
@@ -36,7 +40,9 @@ public class Tag extends NamedBaseItem<Tag> {
     }
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "tags_ids")
+    @TableGenerator(name = "tags_ids", table = "id_generators", pkColumnName = "name",
+            valueColumnName = "next_id", pkColumnValue = "tags", allocationSize = 100)
     @Column(name = "id")
     public int getId() {
         return mId;
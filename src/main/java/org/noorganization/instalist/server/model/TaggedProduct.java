@@ -23,7 +23,12 @@ import java.time.Instant;
 import java.util.UUID;
 
 @Entity
-@Table(name = "tagged_products")
+@Table(name = "tagged_products", indexes = {
+        @Index(name = "tagged_products_group_uuid_uq", columnList = "devicegroup_id, uuid",
+                unique = true),
+        @Index(name = "tagged_products_group_updated_idx",
+                columnList = "devicegroup_id, updated"),
+        @Index(name = "tagged_products_group_seq_idx", columnList = "devicegroup_id, seq") })
 public class TaggedProduct extends BaseItem<TaggedProduct> {
 
     private int mId;
@@ -35,7 +40,9 @@ public class TaggedProduct extends BaseItem<TaggedProduct> {
     }
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "tagged_products_ids")
+    @TableGenerator(name = "tagged_products_ids", table = "id_generators", pkColumnName = "name",
+            valueColumnName = "next_id", pkColumnValue = "tagged_products", allocationSize = 100)
     @Column(name = "id")
     public int getId() {
         return mId;
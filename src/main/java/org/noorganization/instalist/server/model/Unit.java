@@ -16,6 +16,8 @@
 
 package org.noorganization.instalist.server.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.noorganization.instalist.server.model.generic.NamedBaseItem;
 import org.noorganization.instalist.server.model.generic.NamedItem;
 
@@ -25,7 +27,13 @@ import java.util.Set;
 import java.util.UUID;
 
 @Entity
-@Table(name = "units")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "units")
+@Table(name = "units", indexes = {
+        @Index(name = "units_group_uuid_uq", columnList = "devicegroup_id, uuid",
+                unique = true),
+        @Index(name = "units_group_updated_idx", columnList = "devicegroup_id, updated"),
+        @Index(name = "units_group_seq_idx", columnList = "devicegroup_id, seq") })
 public class Unit extends NamedBaseItem<Unit> {
     private int         mId;
 
@@ -36,7 +44,9 @@ public class Unit extends NamedBaseItem<Unit> {
     }
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "units_ids")
+    @TableGenerator(name = "units_ids", table = "id_generators", pkColumnName = "name",
+            valueColumnName = "next_id", pkColumnValue = "units", allocationSize = 100)
     @Column(name = "id")
     public int getId() {
         return mId;
@@ -17,11 +17,15 @@
 package org.noorganization.instalist.server.model.generic;
 
 import org.noorganization.instalist.server.model.DeviceGroup;
+import org.noorganization.instalist.server.support.ChangeLog;
 
 import javax.persistence.Column;
+import javax.persistence.EntityListeners;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.MappedSuperclass;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import java.time.Instant;
 import java.util.UUID;
 
@@ -29,10 +33,12 @@ import java.util.UUID;
  * Created by damihe on 17.02.16.
  */
 @MappedSuperclass
+@EntityListeners({ChangeLog.ItemListener.class})
 public abstract class BaseItem<T extends BaseItem> {
     UUID        mUUID;
     Instant     mUpdated;
     DeviceGroup mGroup;
+    long        mSeq;
 
     public BaseItem() {
         mUpdated = Instant.now();
@@ -81,4 +87,34 @@ public abstract class BaseItem<T extends BaseItem> {
         setGroup(_group);
         return (T) this;
     }
+
+    /**
+     * @return The change counter of the group at the last write of this item. Sync with a cursor
+     * returns items with a higher value than the cursor.
+     */
+    @Column(name = "seq", nullable = false, columnDefinition = "BIGINT DEFAULT 0")
+    public long getSeq() {
+        return mSeq;
+    }
+
+    public void setSeq(long _seq) {
+        mSeq = _seq;
+    }
+
+    public T withSeq(long _seq) {
+        setSeq(_seq);
+        return (T) this;
+    }
+
+    /**
+     * Stamps the item with the change counter of its group. The counter has to be incremented in
+     * the same transaction before, see
+     * {@link org.noorganization.instalist.server.controller.generic.IFinder#findGroupForChange}.
+     */
+    @PrePersist
+    @PreUpdate
+    void stampSeq() {
+        if (mGroup != null)
+            mSeq = mGroup.getChangeSeq();
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import org.noorganization.instalist.server.model.DeviceGroup;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * A position in the changes of a group. Clients get it with every sync and send it back with the
+ * next one, the content is opaque for them. It contains the change counter of the group at the
+ * time of the sync and the time itself, for detecting syncs beyond the tombstone horizon.
+ */
+public class ChangeCursor {
+
+    /**
+     * The response header containing the cursor for the next sync.
+     */
+    public static final String HEADER = "X-Cursor";
+
+    private final long    mSeq;
+    private final Instant mIssued;
+
+    public ChangeCursor(long _seq, Instant _issued) {
+        mSeq = _seq;
+        mIssued = _issued;
+    }
+
+    /**
+     * Creates the cursor for the current state of a group. Must be read before the changes, so
+     * changes committed in the meantime are sent again instead of being missed.
+     * @param _group The group to sync.
+     * @return The cursor.
+     */
+    public static ChangeCursor of(DeviceGroup _group) {
+        return new ChangeCursor(_group.getChangeSeq(), Instant.now());
+    }
+
+    /**
+     * Decodes a cursor sent by a client.
+     * @param _cursor The cursor as created by {@link #toString()}.
+     * @return The decoded cursor.
+     * @throws IllegalArgumentException If the cursor is malformed.
+     */
+    public static ChangeCursor parse(String _cursor) throws IllegalArgumentException {
+        String decoded = new String(Base64.getUrlDecoder().decode(_cursor),
+                StandardCharsets.US_ASCII);
+        int separator = decoded.indexOf('.');
+        if (separator < 0)
+            throw new IllegalArgumentException("Cursor has no separator.");
+        long seq = Long.parseLong(decoded.substring(0, separator));
+        long issued = Long.parseLong(decoded.substring(separator + 1));
+        if (seq < 0)
+            throw new IllegalArgumentException("Cursor has negative sequence.");
+        return new ChangeCursor(seq, Instant.ofEpochMilli(issued));
+    }
+
+    public long getSeq() {
+        return mSeq;
+    }
+
+    public Instant getIssued() {
+        return mIssued;
+    }
+
+    @Override
+    public String toString() {
+        String plain = mSeq + "." + mIssued.toEpochMilli();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                plain.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import javax.persistence.Query;
+import java.time.Instant;
+
+/**
+ * Restricts sync queries to the items changed since the last sync of a client. A cursor selects
+ * the items by the change counter of the group and is preferred, the time of the last change
+ * selects by the client supplied update time and is kept for older clients.
+ */
+public class ChangeFilter {
+
+    /**
+     * Selects all items.
+     */
+    public static final ChangeFilter ALL = new ChangeFilter(null, null);
+
+    private final Instant      mSince;
+    private final ChangeCursor mCursor;
+
+    private ChangeFilter(Instant _since, ChangeCursor _cursor) {
+        mSince = _since;
+        mCursor = _cursor;
+    }
+
+    /**
+     * Creates a filter from the parameters of a sync request.
+     * @param _since Optional. The time of the last change known to the client.
+     * @param _cursor Optional. The cursor of the last sync. Wins over _since.
+     * @return The filter. {@link #ALL}, if neither _since nor _cursor is given.
+     * @throws IllegalArgumentException If the cursor is malformed.
+     */
+    public static ChangeFilter of(Instant _since, String _cursor) throws IllegalArgumentException {
+        if (_cursor != null)
+            return new ChangeFilter(null, ChangeCursor.parse(_cursor));
+        if (_since != null)
+            return new ChangeFilter(_since, null);
+        return ALL;
+    }
+
+    /**
+     * @return The cursor of the last sync or null, if the filter selects by time or all items.
+     */
+    public ChangeCursor getCursor() {
+        return mCursor;
+    }
+
+    /**
+     * @return Whether the selected changes are possibly incomplete, because tombstones were
+     * pruned since.
+     */
+    public boolean isBeyondHorizon() {
+        TombstoneCompactor compactor = TombstoneCompactor.getInstance();
+        if (mCursor != null)
+            return compactor.isBeyondHorizon(mCursor.getIssued());
+        return mSince != null && compactor.isBeyondHorizon(mSince);
+    }
+
+    /**
+     * Builds the condition to append to a where clause.
+     * @param _alias The alias of the item in the query.
+     * @return The condition starting with " and " or an empty string for {@link #ALL}.
+     */
+    public String getCondition(String _alias) {
+        if (mCursor != null)
+            return " and " + _alias + ".seq > :seq";
+        if (mSince != null)
+            return " and " + _alias + ".updated > :updated";
+        return "";
+    }
+
+    /**
+     * Sets the parameters of the condition created by {@link #getCondition(String)}.
+     * @param _query The query to set the parameters for.
+     */
+    public void bind(Query _query) {
+        if (mCursor != null)
+            _query.setParameter("seq", mCursor.getSeq());
+        else if (mSince != null)
+            _query.setParameter("updated", mSince);
+    }
+}
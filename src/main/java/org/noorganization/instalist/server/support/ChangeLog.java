@@ -0,0 +1,371 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.noorganization.instalist.server.model.DeletedObject;
+import org.noorganization.instalist.server.model.DeviceGroup;
+import org.noorganization.instalist.server.model.generic.BaseItem;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PostPersist;
+import javax.persistence.PostUpdate;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the recent changes of the most active groups, so syncs with a cursor often need no
+ * query for the types that did not change. Every group gets a ring buffer of its last changes
+ * (type, uuid, deleted flag, update time and change counter). Changes are collected per
+ * transaction, stamped with the change counter (see {@code IFinder.findGroupForChange}), and
+ * added after the commit.
+ *
+ * A buffer only answers, if it holds every change between the cursor and the current change
+ * counter. This is not the case for changes older than the buffer, changes made by other servers
+ * or while a commit is still adding its changes. The database is used then.
+ *
+ * Configured by "instalist.changelog.groups" (groups with a buffer, 0 disables the buffers) and
+ * "instalist.changelog.size" (changes per group).
+ */
+public class ChangeLog {
+    private static ChangeLog sInstance;
+
+    /**
+     * Out of order commits waited for at most, before a buffer is restarted.
+     */
+    private static final int MAX_PENDING = 64;
+
+    private final int                        mMaxGroups;
+    private final int                        mSize;
+    private final Map<Integer, Ring>         mRings;
+    private final Map<OpenKey, List<Change>> mOpen;
+    private final Counter                    mHits;
+    private final Counter                    mMisses;
+
+    /**
+     * A change of an item. The uuid is null for changes of an unknown set of items, e.g. done by
+     * {@code CascadeDelete}.
+     */
+    private static class Change {
+        private final DeletedObject.Type mType;
+        private final UUID               mUUID;
+        private final Instant            mUpdated;
+        private final boolean            mDeleted;
+        private final long               mSeq;
+
+        Change(DeletedObject.Type _type, UUID _uuid, Instant _updated, boolean _deleted,
+               long _seq) {
+            mType = _type;
+            mUUID = _uuid;
+            mUpdated = _updated;
+            mDeleted = _deleted;
+            mSeq = _seq;
+        }
+    }
+
+    /**
+     * This entity-listener records every written item (see {@link #record}).
+     */
+    public static class ItemListener {
+
+        @PostPersist
+        @PostUpdate
+        public void onWrite(BaseItem<?> _item) {
+            if (_item.getGroup() == null)
+                return;
+            boolean deleted = _item instanceof DeletedObject;
+            DeletedObject.Type type = (deleted ? ((DeletedObject) _item).getType() :
+                    DeletedObject.mapType(_item.getClass()));
+            if (type != null)
+                getInstance().record(_item.getGroup().getId(), _item.getSeq(), type,
+                        _item.getUUID(), _item.getUpdated(), deleted);
+        }
+    }
+
+    /**
+     * The changes of a group between a cursor and the current change counter.
+     */
+    public static class Window {
+        private final List<Change> mChanges;
+
+        private Window(List<Change> _changes) {
+            mChanges = _changes;
+        }
+
+        /**
+         * @param _type The type of the items.
+         * @return Whether items of the type were created or updated.
+         */
+        public boolean hasChanges(DeletedObject.Type _type) {
+            for (Change change : mChanges) {
+                if (change.mType == _type && !change.mDeleted)
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Lists the deleted items, like read from the deletion log.
+         * @param _type The type of the items or null for all types.
+         * @return The detached deleted objects, containing only uuid, time and type. Null, if
+         * items of unknown uuid were deleted, so the deletion log has to be read.
+         */
+        public List<DeletedObject> getDeletions(DeletedObject.Type _type) {
+            List<DeletedObject> rtn = new ArrayList<>();
+            for (Change change : mChanges) {
+                if (!change.mDeleted || (_type != null && change.mType != _type))
+                    continue;
+                if (change.mUUID == null)
+                    return null;
+                rtn.add(new DeletedObject().withUUID(change.mUUID).withUpdated(change.mUpdated).
+                        withType(change.mType));
+            }
+            return rtn;
+        }
+    }
+
+    /**
+     * Identifies a transaction writing to a group. Writes to a group are serialized, so only one
+     * open transaction can have a change counter.
+     */
+    private static class OpenKey {
+        private final int  mGroupId;
+        private final long mSeq;
+
+        OpenKey(int _groupId, long _seq) {
+            mGroupId = _groupId;
+            mSeq = _seq;
+        }
+
+        @Override
+        public boolean equals(Object _other) {
+            if (!(_other instanceof OpenKey))
+                return false;
+            OpenKey other = (OpenKey) _other;
+            return mGroupId == other.mGroupId && mSeq == other.mSeq;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mGroupId, mSeq);
+        }
+    }
+
+    /**
+     * The buffer of a group. Holds every change with a change counter above mFloor up to
+     * mComplete.
+     */
+    private static class Ring {
+        private final Change[]                    mChanges;
+        private final TreeMap<Long, List<Change>> mPending;
+        private       int                         mNext;
+        private       int                         mCount;
+        private       long                        mFloor;
+        private       long                        mComplete;
+
+        Ring(int _size, long _floor) {
+            mChanges = new Change[_size];
+            mPending = new TreeMap<>();
+            mFloor = _floor;
+            mComplete = _floor;
+        }
+
+        synchronized void commit(long _seq, List<Change> _changes) {
+            if (_seq <= mComplete)
+                return;
+            mPending.put(_seq, _changes);
+            if (mPending.size() > MAX_PENDING) {
+                // a commit never arrives, e.g. it was done by another server.
+                long last = mPending.lastKey();
+                mPending.clear();
+                mCount = 0;
+                mFloor = last;
+                mComplete = last;
+                return;
+            }
+            while (!mPending.isEmpty() && mPending.firstKey() == mComplete + 1) {
+                for (Change change : mPending.pollFirstEntry().getValue())
+                    add(change);
+                mComplete++;
+            }
+        }
+
+        synchronized Window window(long _fromSeq, long _toSeq) {
+            if (_fromSeq < mFloor || _toSeq > mComplete)
+                return null;
+            List<Change> changes = new ArrayList<>();
+            for (int i = 0; i < mCount; i++) {
+                Change change = mChanges[(mNext - mCount + i + mChanges.length) %
+                        mChanges.length];
+                if (change.mSeq > _fromSeq && change.mSeq <= _toSeq)
+                    changes.add(change);
+            }
+            return new Window(changes);
+        }
+
+        private void add(Change _change) {
+            if (mCount == mChanges.length)
+                mFloor = Math.max(mFloor, mChanges[mNext].mSeq);
+            else
+                mCount++;
+            mChanges[mNext] = _change;
+            mNext = (mNext + 1) % mChanges.length;
+        }
+    }
+
+    /**
+     * Starts collecting the changes of a transaction. Has to be called right after the change
+     * counter of the group was incremented. The changes get added to the buffer of the group
+     * after a successful commit, or dropped on rollback.
+     * @param _manager The manager with the active transaction.
+     * @param _group The locked group.
+     */
+    public void begin(EntityManager _manager, DeviceGroup _group) {
+        if (mMaxGroups == 0)
+            return;
+        int groupId = _group.getId();
+        long seq = _group.getChangeSeq();
+        OpenKey key = new OpenKey(groupId, seq);
+        List<Change> changes = new ArrayList<>();
+        // a rolled back transaction may have left its changes for the same counter.
+        mOpen.put(key, changes);
+        _manager.unwrap(EventSource.class).getActionQueue().registerProcess(
+                (_success, _session) -> {
+                    mOpen.remove(key, changes);
+                    if (_success)
+                        commit(groupId, seq, changes);
+                });
+    }
+
+    /**
+     * Records a written item of an open transaction. Items written without incrementing the
+     * change counter before are ignored.
+     * @param _groupId The id of the group of the item.
+     * @param _seq The change counter the item was stamped with.
+     * @param _type The type of the item.
+     * @param _uuid The uuid of the item. Null, if an unknown set of items was written.
+     * @param _updated The update time of the item.
+     * @param _deleted Whether the item was deleted.
+     */
+    public void record(int _groupId, long _seq, DeletedObject.Type _type, UUID _uuid,
+                       Instant _updated, boolean _deleted) {
+        if (mMaxGroups == 0)
+            return;
+        List<Change> changes = mOpen.get(new OpenKey(_groupId, _seq));
+        // only the writing thread adds to the changes of its transaction.
+        if (changes == null)
+            return;
+        changes.add(new Change(_type, _uuid, _updated, _deleted, _seq));
+    }
+
+    /**
+     * Finds the changes a filter selects, if the buffer of the group holds all of them.
+     * @param _groupId The id of the group.
+     * @param _filter The filter of the sync. Only filters with a cursor can be answered.
+     * @param _currentSeq The change counter of the group read by the sync.
+     * @return The changes or null, if the database has to be read.
+     */
+    public Window window(int _groupId, ChangeFilter _filter, long _currentSeq) {
+        if (mMaxGroups == 0 || _filter.getCursor() == null)
+            return null;
+        Ring ring;
+        synchronized (mRings) {
+            ring = mRings.get(_groupId);
+        }
+        Window rtn = (ring != null ? ring.window(_filter.getCursor().getSeq(), _currentSeq) :
+                null);
+        if (rtn != null)
+            mHits.inc();
+        else
+            mMisses.inc();
+        return rtn;
+    }
+
+    /**
+     * Removes all buffers, e.g. after the database was recreated.
+     */
+    public void clear() {
+        synchronized (mRings) {
+            mRings.clear();
+        }
+        mOpen.clear();
+    }
+
+    /**
+     * @return The count of groups having a buffer.
+     */
+    public int size() {
+        synchronized (mRings) {
+            return mRings.size();
+        }
+    }
+
+    /**
+     * Creates an empty change log.
+     * @param _maxGroups The maximum count of groups with a buffer. 0 disables the buffers.
+     * @param _size The count of changes remembered per group.
+     * @param _metrics The registry for the metrics.
+     */
+    ChangeLog(int _maxGroups, int _size, MetricRegistry _metrics) {
+        mMaxGroups = Math.max(_maxGroups, 0);
+        mSize = Math.max(_size, 1);
+        mRings = new LinkedHashMap<Integer, Ring>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Ring> _eldest) {
+                return size() > mMaxGroups;
+            }
+        };
+        mOpen = new ConcurrentHashMap<>();
+
+        mHits = _metrics.counter("changelog.hits");
+        mMisses = _metrics.counter("changelog.misses");
+        _metrics.register("changelog.groups", (Gauge<Integer>) this::size);
+    }
+
+    public static synchronized ChangeLog getInstance() {
+        if (sInstance == null) {
+            sInstance = new ChangeLog(
+                    ConfigHelper.getInt("instalist.changelog.groups", 1000),
+                    ConfigHelper.getInt("instalist.changelog.size", 256),
+                    MetricsHelper.getInstance().getRegistry());
+        }
+        return sInstance;
+    }
+
+    private void commit(int _groupId, long _seq, List<Change> _changes) {
+        Ring ring;
+        synchronized (mRings) {
+            ring = mRings.get(_groupId);
+            if (ring == null) {
+                // nothing is known about earlier changes of the group.
+                ring = new Ring(mSize, _seq - 1);
+                mRings.put(_groupId, ring);
+            }
+        }
+        ring.commit(_seq, _changes);
+    }
+}
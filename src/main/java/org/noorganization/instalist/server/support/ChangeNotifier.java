@@ -0,0 +1,450 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.noorganization.instalist.server.message.ChangeNotification;
+import org.noorganization.instalist.server.model.DeletedObject;
+import org.noorganization.instalist.server.model.DeviceGroup;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tells subscribed clients, that data of their group changed, so they do not have to poll.
+ * Writing transactions register the changed types (see {@link #notifyOnCommit}); after a
+ * successful commit a notification gets queued. Publishing never blocks the writer: one thread
+ * dispatches the queued notifications, several changes of a group made before the dispatch are
+ * merged into one notification.
+ *
+ * Every subscriber has a bounded queue, written to its client by a bounded pool of writers. A
+ * client that stops reading only blocks its own writer: when its queue is full or a write takes
+ * longer than the write timeout, the subscriber gets dropped and its output closed. A write
+ * already blocked in the socket stays blocked until the write timeout of the container, so at
+ * most "instalist.notify.writers" threads are blocked by stalled clients. While all of them are,
+ * the other subscribers wait.
+ *
+ * Configured by "instalist.notify.max_subscribers" (per group), "instalist.notify.max_total"
+ * (over all groups), "instalist.notify.heartbeat" (seconds between heartbeats, which find
+ * subscribers that are gone), "instalist.notify.queue_size" (queued events per subscriber),
+ * "instalist.notify.write_timeout" (seconds) and "instalist.notify.writers" (threads).
+ */
+public class ChangeNotifier {
+    private static ChangeNotifier sInstance;
+
+    private static final Map<DeletedObject.Type, String> sCollections;
+
+    /**
+     * Marks a heartbeat in the queue of a subscriber.
+     */
+    private static final ChangeNotification HEARTBEAT = new ChangeNotification();
+
+    /**
+     * A client waiting for changes of a group. Gets called by one writer at a time, never
+     * concurrently.
+     */
+    public interface Subscriber {
+        /**
+         * Delivers a notification.
+         * @param _notification The notification. Never null.
+         * @return Whether the subscriber wants further notifications.
+         */
+        boolean onChange(ChangeNotification _notification);
+
+        /**
+         * Checks, whether the subscriber is still there, e.g. by writing to its connection.
+         * @return Whether the subscriber wants further notifications.
+         */
+        default boolean onHeartbeat() {
+            return true;
+        }
+
+        /**
+         * Called when the subscriber was removed, since it fell behind. Should release the
+         * connection of the client. May be called while a write is blocked and must not block
+         * itself, since it is called by the dispatcher or the heartbeat.
+         */
+        default void onDropped() {
+        }
+    }
+
+    private static class Pending {
+        private final Set<DeletedObject.Type> mTypes = EnumSet.noneOf(DeletedObject.Type.class);
+        private       long                    mSeq;
+        private       boolean                 mTaken;
+    }
+
+    /**
+     * The queue of a subscriber. It is drained by one writer at a time.
+     */
+    private class Delivery implements Runnable {
+        private final    int                               mGroupId;
+        private final    Subscriber                        mSubscriber;
+        private final    BlockingQueue<ChangeNotification> mQueue;
+        private final    AtomicBoolean                     mScheduled;
+        private final    AtomicBoolean                     mRemoved;
+        private volatile long                              mWriteStarted;
+
+        Delivery(int _groupId, Subscriber _subscriber) {
+            mGroupId = _groupId;
+            mSubscriber = _subscriber;
+            mQueue = new ArrayBlockingQueue<>(mQueueSize);
+            mScheduled = new AtomicBoolean();
+            mRemoved = new AtomicBoolean();
+        }
+
+        void offer(ChangeNotification _notification) {
+            if (mRemoved.get())
+                return;
+            if (!mQueue.offer(_notification)) {
+                drop();
+                return;
+            }
+            if (mScheduled.compareAndSet(false, true))
+                mWriters.execute(this);
+        }
+
+        boolean isStalled(long _now) {
+            long started = mWriteStarted;
+            return started != 0 && _now - started > mWriteTimeoutMillis;
+        }
+
+        @Override
+        public void run() {
+            ChangeNotification next;
+            while (!mRemoved.get() && (next = mQueue.poll()) != null) {
+                boolean keep;
+                mWriteStarted = System.currentTimeMillis();
+                try {
+                    keep = (next == HEARTBEAT ? mSubscriber.onHeartbeat() :
+                            mSubscriber.onChange(next));
+                } catch (RuntimeException _e) {
+                    keep = false;
+                } finally {
+                    mWriteStarted = 0;
+                }
+                if (!keep) {
+                    mRemoved.set(true);
+                    unsubscribe(mGroupId, mSubscriber);
+                }
+            }
+            mScheduled.set(false);
+            // an event queued after the last poll would be left otherwise.
+            if (!mQueue.isEmpty() && !mRemoved.get() && mScheduled.compareAndSet(false, true))
+                mWriters.execute(this);
+        }
+
+        void drop() {
+            if (!mRemoved.compareAndSet(false, true))
+                return;
+            unsubscribe(mGroupId, mSubscriber);
+            mDropped.inc();
+            // not left to a writer: all of them may be blocked.
+            try {
+                mSubscriber.onDropped();
+            } catch (RuntimeException _e) {
+                // the subscriber is removed anyway.
+            }
+        }
+    }
+
+    private final int                                     mMaxPerGroup;
+    private final int                                     mMaxTotal;
+    private final int                                     mHeartbeatSeconds;
+    private final int                                     mQueueSize;
+    private final long                                    mWriteTimeoutMillis;
+    private final Map<Integer, Map<Subscriber, Delivery>> mSubscribers;
+    private final Map<Integer, Pending>                   mPending;
+    private final AtomicInteger                           mSubscriberCount;
+    private final ExecutorService                         mDispatcher;
+    private final ExecutorService                         mWriters;
+    private final Counter                                 mEvents;
+    private final Counter                                 mRejected;
+    private final Counter                                 mDropped;
+    private       ScheduledExecutorService                mHeartbeat;
+
+    static {
+        sCollections = new EnumMap<>(DeletedObject.Type.class);
+        sCollections.put(DeletedObject.Type.CATEGORY, "categories");
+        sCollections.put(DeletedObject.Type.INGREDIENT, "ingredients");
+        sCollections.put(DeletedObject.Type.LIST, "lists");
+        sCollections.put(DeletedObject.Type.LISTENTRY, "listentries");
+        sCollections.put(DeletedObject.Type.PRODUCT, "products");
+        sCollections.put(DeletedObject.Type.RECIPE, "recipes");
+        sCollections.put(DeletedObject.Type.TAG, "tags");
+        sCollections.put(DeletedObject.Type.TAGGEDPRODUCT, "taggedproducts");
+        sCollections.put(DeletedObject.Type.UNIT, "units");
+    }
+
+    /**
+     * Adds a subscriber to a group.
+     * @param _groupId The id of the group.
+     * @param _subscriber The subscriber to add.
+     * @return False, if the limit of subscribers for the group or in total is reached. The
+     * subscriber was not added then.
+     */
+    public boolean subscribe(int _groupId, Subscriber _subscriber) {
+        if (mSubscriberCount.incrementAndGet() > mMaxTotal) {
+            mSubscriberCount.decrementAndGet();
+            mRejected.inc();
+            return false;
+        }
+        boolean[] added = new boolean[1];
+        mSubscribers.compute(_groupId, (_id, _current) -> {
+            Map<Subscriber, Delivery> rtn = (_current != null ? _current :
+                    new ConcurrentHashMap<>());
+            if (rtn.size() < mMaxPerGroup && !rtn.containsKey(_subscriber)) {
+                rtn.put(_subscriber, new Delivery(_groupId, _subscriber));
+                added[0] = true;
+            }
+            return rtn.isEmpty() ? null : rtn;
+        });
+        if (!added[0]) {
+            mSubscriberCount.decrementAndGet();
+            mRejected.inc();
+        }
+        return added[0];
+    }
+
+    /**
+     * Removes a subscriber from a group. Removing a subscriber twice has no effect.
+     * @param _groupId The id of the group.
+     * @param _subscriber The subscriber to remove.
+     */
+    public void unsubscribe(int _groupId, Subscriber _subscriber) {
+        boolean[] removed = new boolean[1];
+        mSubscribers.computeIfPresent(_groupId, (_id, _current) -> {
+            removed[0] = _current.remove(_subscriber) != null;
+            return _current.isEmpty() ? null : _current;
+        });
+        if (removed[0])
+            mSubscriberCount.decrementAndGet();
+    }
+
+    /**
+     * Queues a notification for a single subscriber, e.g. about changes made before it
+     * subscribed. It gets written like all other notifications, never by the calling thread.
+     * @param _groupId The id of the group.
+     * @param _subscriber The subscribed subscriber. Nothing is sent, if it is not subscribed.
+     * @param _notification The notification to send.
+     */
+    public void publishTo(int _groupId, Subscriber _subscriber,
+                          ChangeNotification _notification) {
+        Map<Subscriber, Delivery> subscribers = mSubscribers.get(_groupId);
+        Delivery delivery = (subscribers != null ? subscribers.get(_subscriber) : null);
+        if (delivery != null)
+            delivery.offer(_notification);
+    }
+
+    /**
+     * Registers changed types of a group to be published after the transaction of the manager
+     * committed successfully. Nothing gets published on rollback. Must be called after the
+     * change counter was incremented (see {@code IFinder.findGroupForChange}).
+     * @param _manager The manager with the active transaction.
+     * @param _group The locked group.
+     * @param _type The changed type.
+     */
+    public void notifyOnCommit(EntityManager _manager, DeviceGroup _group,
+                               DeletedObject.Type _type) {
+        int groupId = _group.getId();
+        long seq = _group.getChangeSeq();
+        _manager.unwrap(EventSource.class).getActionQueue().registerProcess(
+                (_success, _session) -> {
+                    if (_success)
+                        publish(groupId, seq, _type);
+                });
+    }
+
+    /**
+     * Queues a notification for the subscribers of a group and returns immediately.
+     * @param _groupId The id of the group.
+     * @param _seq The change counter of the group after the change.
+     * @param _type The changed type.
+     */
+    public void publish(int _groupId, long _seq, DeletedObject.Type _type) {
+        if (!mSubscribers.containsKey(_groupId))
+            return;
+        while (true) {
+            Pending created = new Pending();
+            Pending pending = mPending.putIfAbsent(_groupId, created);
+            if (pending == null)
+                pending = created;
+            synchronized (pending) {
+                // taken by the dispatcher in the meantime, queue a new one.
+                if (pending.mTaken)
+                    continue;
+                pending.mTypes.add(_type);
+                pending.mSeq = Math.max(pending.mSeq, _seq);
+            }
+            if (pending == created)
+                mDispatcher.execute(() -> deliver(_groupId));
+            return;
+        }
+    }
+
+    /**
+     * Starts sending heartbeats with the interval set by "instalist.notify.heartbeat". Calling
+     * this more than once has no effect.
+     */
+    public synchronized void start() {
+        if (mHeartbeat != null)
+            return;
+        mHeartbeat = Executors.newSingleThreadScheduledExecutor(_runnable -> {
+            Thread heartbeatThread = new Thread(_runnable, "instalist-notify-heartbeat");
+            heartbeatThread.setDaemon(true);
+            return heartbeatThread;
+        });
+        mHeartbeat.scheduleWithFixedDelay(this::heartbeat, mHeartbeatSeconds, mHeartbeatSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the heartbeats and the delivery of notifications. The notifier can not be used
+     * afterwards.
+     */
+    public synchronized void stop() {
+        if (mHeartbeat != null) {
+            mHeartbeat.shutdownNow();
+            mHeartbeat = null;
+        }
+        mDispatcher.shutdownNow();
+        mWriters.shutdownNow();
+    }
+
+    /**
+     * @return The seconds a rejected subscriber should wait before retrying. Subscribers that
+     * are gone get removed within this time.
+     */
+    public int getRetryAfter() {
+        return mHeartbeatSeconds;
+    }
+
+    /**
+     * @return The current count of subscribers over all groups.
+     */
+    public int size() {
+        return mSubscriberCount.get();
+    }
+
+    /**
+     * Creates a notifier without subscribers.
+     * @param _maxPerGroup The maximum count of subscribers of one group.
+     * @param _maxTotal The maximum count of subscribers over all groups.
+     * @param _heartbeatSeconds The time between two heartbeats.
+     * @param _queueSize The count of events queued per subscriber before it gets dropped.
+     * @param _writeTimeoutSeconds The time a write may block before the subscriber gets dropped.
+     * @param _writers The count of threads writing to subscribers.
+     * @param _metrics The registry for the metrics.
+     */
+    ChangeNotifier(int _maxPerGroup, int _maxTotal, int _heartbeatSeconds, int _queueSize,
+                   int _writeTimeoutSeconds, int _writers, MetricRegistry _metrics) {
+        mMaxPerGroup = _maxPerGroup;
+        mMaxTotal = _maxTotal;
+        mHeartbeatSeconds = Math.max(_heartbeatSeconds, 1);
+        mQueueSize = Math.max(_queueSize, 1);
+        mWriteTimeoutMillis = Math.max(_writeTimeoutSeconds, 1) * 1000L;
+        mSubscribers = new ConcurrentHashMap<>();
+        mPending = new ConcurrentHashMap<>();
+        mSubscriberCount = new AtomicInteger();
+        mDispatcher = Executors.newSingleThreadExecutor(_runnable -> {
+            Thread dispatcherThread = new Thread(_runnable, "instalist-notify-dispatcher");
+            dispatcherThread.setDaemon(true);
+            return dispatcherThread;
+        });
+        final AtomicInteger writerCount = new AtomicInteger();
+        int writers = Math.max(_writers, 1);
+        ThreadPoolExecutor writerPool = new ThreadPoolExecutor(writers, writers, 60,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), _runnable -> {
+                    Thread writerThread = new Thread(_runnable, "instalist-notify-writer-" +
+                            writerCount.incrementAndGet());
+                    writerThread.setDaemon(true);
+                    return writerThread;
+                });
+        writerPool.allowCoreThreadTimeOut(true);
+        mWriters = writerPool;
+
+        mEvents = _metrics.counter("notify.events");
+        mRejected = _metrics.counter("notify.rejected");
+        mDropped = _metrics.counter("notify.dropped");
+        _metrics.register("notify.subscribers", (Gauge<Integer>) this::size);
+    }
+
+    public static synchronized ChangeNotifier getInstance() {
+        if (sInstance == null) {
+            sInstance = new ChangeNotifier(
+                    ConfigHelper.getInt("instalist.notify.max_subscribers", 50),
+                    ConfigHelper.getInt("instalist.notify.max_total", 5000),
+                    ConfigHelper.getInt("instalist.notify.heartbeat", 30),
+                    ConfigHelper.getInt("instalist.notify.queue_size", 16),
+                    ConfigHelper.getInt("instalist.notify.write_timeout", 10),
+                    ConfigHelper.getInt("instalist.notify.writers", 64),
+                    MetricsHelper.getInstance().getRegistry());
+        }
+        return sInstance;
+    }
+
+    private void deliver(int _groupId) {
+        Pending pending = mPending.remove(_groupId);
+        if (pending == null)
+            return;
+        ChangeNotification notification = new ChangeNotification();
+        synchronized (pending) {
+            pending.mTaken = true;
+            notification.setTypes(new ArrayList<>());
+            for (DeletedObject.Type type : pending.mTypes)
+                notification.getTypes().add(sCollections.get(type));
+            notification.setCursor(new ChangeCursor(pending.mSeq, Instant.now()).toString());
+        }
+        Map<Subscriber, Delivery> subscribers = mSubscribers.get(_groupId);
+        if (subscribers == null)
+            return;
+        mEvents.inc();
+        for (Delivery delivery : subscribers.values())
+            delivery.offer(notification);
+    }
+
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        for (Map<Subscriber, Delivery> group : mSubscribers.values()) {
+            for (Delivery delivery : group.values()) {
+                if (delivery.isStalled(now))
+                    delivery.drop();
+                else
+                    delivery.offer(HEARTBEAT);
+            }
+        }
+    }
+}
@@ -52,6 +52,22 @@ public class CommonEntity {
      */
     public static final Error INVALID_CHANGEDATE;
 
+    /**
+     * The sent cursor is invalid. It was not created by this server.
+     */
+    public static final Error INVALID_CURSOR;
+
+    /**
+     * The server is too busy for processing the request. The client should retry later.
+     */
+    public static final Error SERVER_BUSY;
+
+    /**
+     * The requested changes are not completely available anymore, since deletions older than
+     * the retention time were removed. The client has to fetch all data again.
+     */
+    public static final Error RESYNC_REQUIRED;
+
     static {
         NOT_AUTHORIZED = new Error().withMessage("Not authorized.");
         NO_DATA_RECVD = new Error().withMessage("No data was sent.");
@@ -59,6 +75,10 @@ public class CommonEntity {
         INVALID_UUID = new Error().withMessage("UUID was in wrong format.");
         INVALID_CHANGEDATE = new Error().withMessage("Change date was either not in expected " +
                 "format or in future.");
+        INVALID_CURSOR = new Error().withMessage("Cursor was in wrong format.");
+        SERVER_BUSY = new Error().withMessage("Server is busy. Please retry later.");
+        RESYNC_REQUIRED = new Error().withMessage("Changes since the given date are not " +
+                "available anymore. Full resync required.");
     }
 
     private CommonEntity() {
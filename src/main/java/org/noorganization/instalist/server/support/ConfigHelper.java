@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+/**
+ * Reads settings of the server. A setting is looked up as system property (e.g.
+ * {@code -Dinstalist.auth.idle_ttl=3600}) first and then as environment variable, with dots
+ * replaced by underscores and upper case (e.g. {@code INSTALIST_AUTH_IDLE_TTL}).
+ */
+public class ConfigHelper {
+
+    /**
+     * Reads a setting as string.
+     * @param _key The key of the setting, e.g. "instalist.auth.idle_ttl".
+     * @param _default The value to return, if setting is not set.
+     * @return Either the set value or the default.
+     */
+    public static String getString(String _key, String _default) {
+        String value = System.getProperty(_key);
+        if (value == null)
+            value = System.getenv(_key.replace('.', '_').toUpperCase());
+        if (value == null || value.trim().length() == 0)
+            return _default;
+        return value.trim();
+    }
+
+    /**
+     * Reads a setting as long.
+     * @param _key The key of the setting.
+     * @param _default The value to return, if setting is not set or not a number.
+     * @return Either the set value or the default.
+     */
+    public static long getLong(String _key, long _default) {
+        String value = getString(_key, null);
+        if (value == null)
+            return _default;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException _e) {
+            return _default;
+        }
+    }
+
+    /**
+     * Reads a setting as int.
+     * @param _key The key of the setting.
+     * @param _default The value to return, if setting is not set or not a number.
+     * @return Either the set value or the default.
+     */
+    public static int getInt(String _key, int _default) {
+        long value = getLong(_key, _default);
+        if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE)
+            return _default;
+        return (int) value;
+    }
+
+    /**
+     * Reads a setting as boolean.
+     * @param _key The key of the setting.
+     * @param _default The value to return, if setting is not set.
+     * @return Either the set value or the default.
+     */
+    public static boolean getBoolean(String _key, boolean _default) {
+        String value = getString(_key, null);
+        if (value == null)
+            return _default;
+        return Boolean.parseBoolean(value);
+    }
+
+    private ConfigHelper() {
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.mindrot.jbcrypt.BCrypt;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool for expensive password hashing (BCrypt). Requests needing hashing get suspended
+ * and processed by this pool, so a burst of logins does not block the request threads of other
+ * resources. If the queue is full, requests are answered with 503 and a Retry-After header.
+ *
+ * The pool is configured by "instalist.crypto.threads", "instalist.crypto.queue_size" and
+ * "instalist.crypto.retry_after" (seconds).
+ */
+public class CryptoExecutor {
+    private static CryptoExecutor sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final int                mRetryAfter;
+    private final Timer              mQueueWait;
+    private final Timer              mHashTime;
+    private final Timer              mVerifyTime;
+
+    /**
+     * Processes a suspended request in the pool.
+     * @param _response The suspended response to resume with the result of the task.
+     * @param _task The task generating the response. Exceptions are passed to the response.
+     */
+    public void execute(AsyncResponse _response, Callable<Response> _task) {
+        final Timer.Context waitContext = mQueueWait.time();
+        try {
+            mExecutor.execute(() -> {
+                waitContext.stop();
+                try {
+                    _response.resume(_task.call());
+                } catch (Throwable _e) {
+                    _response.resume(_e);
+                }
+            });
+        } catch (RejectedExecutionException _e) {
+            _response.resume(ResponseFactory.generateServiceUnavailable(CommonEntity.SERVER_BUSY,
+                    mRetryAfter));
+        }
+    }
+
+    /**
+     * Hashes a secret with BCrypt.
+     * @param _secret The cleartext secret.
+     * @param _logRounds The work factor for BCrypt.
+     * @return The hashed secret.
+     */
+    public String hashpw(String _secret, int _logRounds) {
+        try (Timer.Context ignored = mHashTime.time()) {
+            return BCrypt.hashpw(_secret, BCrypt.gensalt(_logRounds));
+        }
+    }
+
+    /**
+     * Checks a secret against a BCrypt-hash.
+     * @param _secret The cleartext secret.
+     * @param _hashed The previously hashed secret.
+     * @return Whether the secret matches.
+     */
+    public boolean checkpw(String _secret, String _hashed) {
+        try (Timer.Context ignored = mVerifyTime.time()) {
+            return BCrypt.checkpw(_secret, _hashed);
+        }
+    }
+
+    /**
+     * Stops the pool. Waiting tasks are dropped, later requests are answered with 503.
+     */
+    public void stop() {
+        mExecutor.shutdownNow();
+    }
+
+    public static synchronized CryptoExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new CryptoExecutor(
+                    ConfigHelper.getInt("instalist.crypto.threads",
+                            Runtime.getRuntime().availableProcessors()),
+                    ConfigHelper.getInt("instalist.crypto.queue_size", 64),
+                    ConfigHelper.getInt("instalist.crypto.retry_after", 2),
+                    MetricsHelper.getInstance().getRegistry());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates a pool.
+     * @param _threads The count of threads hashing.
+     * @param _queueSize The count of tasks waiting for a thread, before requests get refused.
+     * @param _retryAfter The seconds sent in Retry-After of refused requests.
+     * @param _metrics The registry for the timers and gauges of the pool.
+     */
+    CryptoExecutor(int _threads, int _queueSize, int _retryAfter, MetricRegistry _metrics) {
+        mRetryAfter = _retryAfter;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(_threads, _threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(_queueSize), _runnable -> {
+                    Thread thread = new Thread(_runnable, "instalist-crypto-" +
+                            threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        mQueueWait = _metrics.timer("crypto.queue_wait");
+        mHashTime = _metrics.timer("crypto.hash");
+        mVerifyTime = _metrics.timer("crypto.verify");
+        _metrics.register("crypto.queue_depth", (Gauge<Integer>) () -> mExecutor.getQueue().
+                size());
+        _metrics.register("crypto.active", (Gauge<Integer>) mExecutor::getActiveCount);
+    }
+}
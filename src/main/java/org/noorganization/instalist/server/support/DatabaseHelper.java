@@ -16,14 +16,23 @@
 
 package org.noorganization.instalist.server.support;
 
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.jpa.boot.internal.ParsedPersistenceXmlDescriptor;
+import org.hibernate.jpa.boot.internal.PersistenceXmlParser;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.FlushModeType;
 import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.sql.*;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This Helper holds an EntityManagerFactory and allows to generate new EntityManager's
@@ -48,13 +57,76 @@ public class DatabaseHelper {
     }
 
     /**
-     * Initializes the DatabaseHelper.
-     * @param _jpaInstance The JPA-Persistence-Instance to use as Database-Connection.
+     * Retrieves the connection pool of the current persistence unit.
+     * @return Either the pool or null, if the persistence unit does not use
+     * {@link PooledConnectionProvider}.
+     * @throws IllegalStateException If initialize was not called properly before.
+     */
+    public PooledConnectionProvider getPool() {
+        if (mFactory == null)
+            throw new IllegalStateException("DatabaseHelper was not initialized properly.");
+        ConnectionProvider provider = mFactory.unwrap(SessionFactoryImplementor.class).
+                getServiceRegistry().getService(ConnectionProvider.class);
+        if (provider instanceof PooledConnectionProvider)
+            return (PooledConnectionProvider) provider;
+        return null;
+    }
+
+    /**
+     * Initializes the DatabaseHelper and brings the schema up to date with {@link SchemaMigrator}.
+     * If the schema gets generated by Hibernate ("hibernate.hbm2ddl.auto" is "create",
+     * "create-drop" or "update"), all migrations are just marked as applied. Otherwise they are
+     * applied before Hibernate validates the schema. The {@link EntityCache} and the
+     * {@link TombstoneFilter} get reset.
+     * @param _jpaInstance The JPA-Persistence-Instance to use as Database-Connection. A
+     *                     previous instance gets closed, including its connection pool.
+     * @throws IllegalStateException If migrating failed or the migrated schema does not match
+     * the model.
      */
     public void initialize(String _jpaInstance) {
-        if (mFactory != null)
+        if (mFactory != null) {
+            mFactory.close();
+            mFactory = null;
+        }
+
+        SchemaMigrator migrator = SchemaMigrator.createDefault();
+        String schemaMode = getSchemaMode(_jpaInstance);
+        boolean generated = schemaMode != null && (schemaMode.startsWith("create") ||
+                schemaMode.equals("update"));
+        if (!generated) {
+            EntityManagerFactory bootstrap = Persistence.createEntityManagerFactory(_jpaInstance,
+                    Collections.singletonMap("hibernate.hbm2ddl.auto", "none"));
+            try {
+                runWithConnection(bootstrap, migrator::migrate);
+            } finally {
+                bootstrap.close();
+            }
+        }
+
+        try {
+            mFactory = Persistence.createEntityManagerFactory(_jpaInstance, getSettings());
+        } catch (PersistenceException _e) {
+            throw new IllegalStateException("Schema of " + _jpaInstance + " does not match " +
+                    "the model after migration to version " + migrator.getLatestVersion() + ".",
+                    _e);
+        }
+        if (generated)
+            runWithConnection(mFactory, migrator::baseline);
+        EntityCache.getInstance().clear();
+        TombstoneFilter.getInstance().clear();
+        ChangeLog.getInstance().clear();
+        EntityCache.getInstance().configureRegions();
+    }
+
+    /**
+     * Closes the persistence unit including its connection pool. {@link #initialize(String)} has
+     * to be called again before the next use.
+     */
+    public void close() {
+        if (mFactory != null) {
             mFactory.close();
-        mFactory = Persistence.createEntityManagerFactory(_jpaInstance);
+            mFactory = null;
+        }
     }
 
     public static DatabaseHelper getInstance() {
@@ -66,4 +138,47 @@ public class DatabaseHelper {
 
     private DatabaseHelper() {
     }
+
+    /**
+     * Collects the hibernate settings of the server. Writes are sent as JDBC batches of
+     * "instalist.db.batch_size" statements (0 disables batching). Inserts and updates get ordered
+     * by entity, so flushing different items still forms batches.
+     * @return The settings overriding the persistence unit.
+     */
+    static Map<String, String> getSettings() {
+        Map<String, String> rtn = new HashMap<String, String>();
+        rtn.put("hibernate.jdbc.batch_size",
+                Integer.toString(ConfigHelper.getInt("instalist.db.batch_size", 50)));
+        rtn.put("hibernate.order_inserts", "true");
+        rtn.put("hibernate.order_updates", "true");
+        return rtn;
+    }
+
+    private static String getSchemaMode(String _jpaInstance) {
+        for (ParsedPersistenceXmlDescriptor unit :
+                PersistenceXmlParser.locatePersistenceUnits(new HashMap())) {
+            if (unit.getName().equals(_jpaInstance))
+                return unit.getProperties().getProperty("hibernate.hbm2ddl.auto");
+        }
+        return null;
+    }
+
+    private static void runWithConnection(EntityManagerFactory _factory, SchemaTask _task) {
+        ConnectionProvider provider = _factory.unwrap(SessionFactoryImplementor.class).
+                getServiceRegistry().getService(ConnectionProvider.class);
+        try {
+            Connection connection = provider.getConnection();
+            try {
+                _task.run(connection);
+            } finally {
+                provider.closeConnection(connection);
+            }
+        } catch (SQLException _e) {
+            throw new IllegalStateException("Migrating the schema failed.", _e);
+        }
+    }
+
+    private interface SchemaTask {
+        void run(Connection _connection) throws SQLException;
+    }
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Keeps idle {@link Deflater}s for compressing responses. A Deflater allocates native memory
+ * of several hundred kilobytes, which is only freed by {@link Deflater#end()} or the finalizer,
+ * so creating one per response is expensive. Deflaters for gzip (raw deflate, "nowrap") and for
+ * deflate (zlib format) are kept separately.
+ *
+ * Configured by "instalist.compression.level" (1 to 9) and "instalist.compression.pool_size"
+ * (idle Deflaters kept per format).
+ */
+public class DeflaterPool {
+    private static DeflaterPool sInstance;
+
+    private final int                     mLevel;
+    private final BlockingQueue<Deflater> mRaw;
+    private final BlockingQueue<Deflater> mWrapped;
+    private final Counter                 mCreated;
+
+    /**
+     * Takes an idle Deflater or creates a new one.
+     * @param _nowrap Whether raw deflate is needed (for gzip) instead of the zlib format.
+     * @return The Deflater. Has to be given back by {@link #release(Deflater, boolean)}.
+     */
+    public Deflater acquire(boolean _nowrap) {
+        Deflater rtn = (_nowrap ? mRaw : mWrapped).poll();
+        if (rtn == null) {
+            mCreated.inc();
+            rtn = new Deflater(mLevel, _nowrap);
+        }
+        return rtn;
+    }
+
+    /**
+     * Gives back a Deflater for reuse. If enough Deflaters are idle, it is ended instead.
+     * @param _deflater The Deflater taken by {@link #acquire(boolean)}.
+     * @param _nowrap The format the Deflater was taken for.
+     */
+    public void release(Deflater _deflater, boolean _nowrap) {
+        _deflater.reset();
+        if (!(_nowrap ? mRaw : mWrapped).offer(_deflater))
+            _deflater.end();
+    }
+
+    /**
+     * Creates an empty pool.
+     * @param _level The compression level of created Deflaters.
+     * @param _maxIdle The maximum count of idle Deflaters per format.
+     * @param _metrics The registry for the metrics.
+     */
+    DeflaterPool(int _level, int _maxIdle, MetricRegistry _metrics) {
+        mLevel = _level;
+        mRaw = new ArrayBlockingQueue<>(Math.max(_maxIdle, 1));
+        mWrapped = new ArrayBlockingQueue<>(Math.max(_maxIdle, 1));
+        mCreated = _metrics.counter("compression.deflaters_created");
+    }
+
+    public static synchronized DeflaterPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new DeflaterPool(
+                    ConfigHelper.getInt("instalist.compression.level", 6),
+                    ConfigHelper.getInt("instalist.compression.pool_size",
+                            Runtime.getRuntime().availableProcessors() * 2),
+                    MetricsHelper.getInstance().getRegistry());
+        }
+        return sInstance;
+    }
+}
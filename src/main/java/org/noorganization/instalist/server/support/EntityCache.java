@@ -0,0 +1,240 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.ToLongFunction;
+
+/**
+ * Caches the entities read by nearly every request: groups, units, categories and products. The
+ * entities themselves are held by the second-level cache of hibernate (regions in
+ * {@link #REGIONS}, stored by ehcache). Hibernate updates a region on every write through an
+ * EntityManager and evicts it on bulk statements touching its table.
+ *
+ * Additionally this class maps group and uuid of cached items to their id, so they can be found
+ * by id instead of a query (see
+ * {@link org.noorganization.instalist.server.controller.generic.IFinder#findByGroupAndUUID}).
+ * Ids are never reused, so a mapping to a deleted item only causes a miss.
+ *
+ * Both are bounded to "instalist.cache.max_size" entries (per region, 0 disables caching) and
+ * entries expire after "instalist.cache.ttl" seconds.
+ */
+public class EntityCache {
+
+    /**
+     * The regions of the cached entities, named like their tables.
+     */
+    public static final String[] REGIONS = { "devicegroups", "units", "categories", "products" };
+
+    /**
+     * The name of the ehcache manager configured in ehcache.xml.
+     */
+    static final String CACHE_MANAGER = "instalist";
+
+    private static EntityCache sInstance;
+
+    private final Map<Key, Entry> mIds;
+    private final long            mTtlMillis;
+    private final int             mMaxSize;
+    private final MetricRegistry  mMetrics;
+    private final Counter         mHits;
+    private final Counter         mMisses;
+
+    /**
+     * Looks up the id of a cached item.
+     * @param _type The class of the item.
+     * @param _groupId The id of the group containing the item.
+     * @param _uuid The uuid of the item.
+     * @return Either the id or null, if not known.
+     */
+    public Integer getId(Class<?> _type, int _groupId, UUID _uuid) {
+        if (mMaxSize == 0)
+            return null;
+        Entry entry;
+        synchronized (mIds) {
+            entry = mIds.get(new Key(_type, _groupId, _uuid));
+        }
+        if (entry == null || entry.expiresAt < System.currentTimeMillis()) {
+            mMisses.inc();
+            return null;
+        }
+        mHits.inc();
+        return entry.id;
+    }
+
+    /**
+     * Remembers the id of an item.
+     * @param _type The class of the item.
+     * @param _groupId The id of the group containing the item.
+     * @param _uuid The uuid of the item.
+     * @param _id The id of the item.
+     */
+    public void putId(Class<?> _type, int _groupId, UUID _uuid, int _id) {
+        if (mMaxSize == 0)
+            return;
+        Entry entry = new Entry(_id, System.currentTimeMillis() + mTtlMillis);
+        synchronized (mIds) {
+            mIds.put(new Key(_type, _groupId, _uuid), entry);
+        }
+    }
+
+    /**
+     * Forgets the id of an item, e.g. after deleting it.
+     * @param _type The class of the item.
+     * @param _groupId The id of the group containing the item.
+     * @param _uuid The uuid of the item.
+     */
+    public void invalidate(Class<?> _type, int _groupId, UUID _uuid) {
+        synchronized (mIds) {
+            mIds.remove(new Key(_type, _groupId, _uuid));
+        }
+    }
+
+    /**
+     * Forgets all ids. Needed if the database gets replaced.
+     */
+    public void clear() {
+        synchronized (mIds) {
+            mIds.clear();
+        }
+    }
+
+    /**
+     * @return The count of remembered ids.
+     */
+    public int size() {
+        synchronized (mIds) {
+            return mIds.size();
+        }
+    }
+
+    /**
+     * Applies size and TTL to the regions of the running cache manager and registers their
+     * metrics below "cache.regions". Has to be called after a persistence unit was started.
+     */
+    public void configureRegions() {
+        mMetrics.removeMatching((_name, _metric) -> _name.startsWith("cache.regions."));
+        CacheManager manager = CacheManager.getCacheManager(CACHE_MANAGER);
+        for (String region : REGIONS) {
+            Ehcache cache = manager != null ? manager.getEhcache(region) : null;
+            if (cache != null) {
+                cache.getCacheConfiguration().setTimeToLiveSeconds(mTtlMillis / 1000);
+                cache.getCacheConfiguration().setMaxEntriesLocalHeap(mMaxSize);
+                cache.setDisabled(mMaxSize == 0);
+            }
+            registerRegionGauge(region, "hits", _cache -> _cache.getStatistics().cacheHitCount());
+            registerRegionGauge(region, "misses", _cache ->
+                    _cache.getStatistics().cacheMissCount());
+            registerRegionGauge(region, "size", _cache -> _cache.getStatistics().getSize());
+        }
+    }
+
+    /**
+     * Creates a cache.
+     * @param _ttlMillis The time an entry is kept.
+     * @param _maxSize The maximum count of entries. 0 disables the cache.
+     * @param _metrics The registry for hit and size metrics.
+     */
+    EntityCache(long _ttlMillis, int _maxSize, MetricRegistry _metrics) {
+        mTtlMillis = _ttlMillis;
+        mMaxSize = Math.max(_maxSize, 0);
+        mMetrics = _metrics;
+        mIds = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> _eldest) {
+                return size() > mMaxSize;
+            }
+        };
+
+        mHits = _metrics.counter("cache.ids.hits");
+        mMisses = _metrics.counter("cache.ids.misses");
+        _metrics.register("cache.ids.size", (Gauge<Integer>) this::size);
+        _metrics.register("cache.ids.hit_ratio", new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(mHits.getCount(), mHits.getCount() + mMisses.getCount());
+            }
+        });
+    }
+
+    /**
+     * @return The cache of the server, configured by "instalist.cache.ttl" (seconds) and
+     * "instalist.cache.max_size".
+     */
+    public static synchronized EntityCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new EntityCache(ConfigHelper.getLong("instalist.cache.ttl", 600) * 1000,
+                    ConfigHelper.getInt("instalist.cache.max_size", 10000),
+                    MetricsHelper.getInstance().getRegistry());
+        }
+        return sInstance;
+    }
+
+    private void registerRegionGauge(String _region, String _name,
+                                     ToLongFunction<Ehcache> _value) {
+        mMetrics.register("cache.regions." + _region + "." + _name, (Gauge<Long>) () -> {
+            CacheManager manager = CacheManager.getCacheManager(CACHE_MANAGER);
+            Ehcache cache = manager != null ? manager.getEhcache(_region) : null;
+            return cache != null ? _value.applyAsLong(cache) : 0L;
+        });
+    }
+
+    private static class Key {
+        final Class<?> type;
+        final int      groupId;
+        final UUID     uuid;
+
+        Key(Class<?> _type, int _groupId, UUID _uuid) {
+            type = _type;
+            groupId = _groupId;
+            uuid = _uuid;
+        }
+
+        @Override
+        public boolean equals(Object _other) {
+            if (!(_other instanceof Key))
+                return false;
+            Key other = (Key) _other;
+            return type == other.type && groupId == other.groupId && uuid.equals(other.uuid);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, groupId, uuid);
+        }
+    }
+
+    private static class Entry {
+        final int  id;
+        final long expiresAt;
+
+        Entry(int _id, long _expiresAt) {
+            id = _id;
+            expiresAt = _expiresAt;
+        }
+    }
+}
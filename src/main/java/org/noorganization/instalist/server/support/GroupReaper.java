@@ -0,0 +1,209 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.noorganization.instalist.server.model.DeviceGroup;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Removes groups marked as deleted ({@link DeviceGroup#getDeleted()}) with all their rows. The
+ * rows are deleted in chunks, each in its own transaction, so removing a big group neither holds
+ * long locks nor loads the group into memory. Children are deleted before their parents, so the
+ * last statement deleting the group itself leaves nothing for the "ON DELETE CASCADE" of the
+ * database.
+ *
+ * Configured by "instalist.groups.reap_interval" (seconds) and "instalist.groups.chunk_size"
+ * (rows deleted per transaction).
+ */
+public class GroupReaper {
+    /**
+     * The entities of a group in the order to delete.
+     */
+    private static final String[] ENTITIES = { "ListEntry", "Ingredient", "TaggedProduct",
+            "DeletedObject", "ShoppingList", "Product", "Recipe", "Tag", "Unit", "Category",
+            "Device" };
+
+    private static final Logger sLogger = Logger.getLogger(GroupReaper.class.getName());
+
+    private static GroupReaper sInstance;
+
+    private final int                      mChunkSize;
+    private final AtomicInteger            mPending;
+    private final Counter                  mReaped;
+    private final Counter                  mRows;
+    private final Counter                  mFailures;
+    private       ScheduledExecutorService mScheduler;
+
+    /**
+     * Removes all groups marked as deleted.
+     * @param _manager The manager to use. Must not have an active transaction.
+     * @return The count of removed groups.
+     */
+    public int reap(EntityManager _manager) {
+        TypedQuery<Integer> groupQuery = _manager.createQuery("select g.id from DeviceGroup g " +
+                "where g.deleted = true", Integer.class);
+        List<Integer> groupIds = groupQuery.getResultList();
+        mPending.set(groupIds.size());
+        for (int groupId : groupIds) {
+            reap(_manager, groupId);
+            mPending.decrementAndGet();
+        }
+        return groupIds.size();
+    }
+
+    /**
+     * Removes a group marked as deleted. Does nothing, if the group is not marked.
+     * @param _manager The manager to use. Must not have an active transaction.
+     * @param _groupId The id of the group.
+     * @return The count of removed rows, including the group.
+     */
+    public int reap(EntityManager _manager, int _groupId) {
+        int rtn = 0;
+        for (String entity : ENTITIES)
+            rtn += deleteChunked(_manager, entity, _groupId);
+
+        EntityTransaction tx = _manager.getTransaction();
+        tx.begin();
+        int deletedGroups = _manager.createQuery("delete from DeviceGroup g where g.id = :group " +
+                "and g.deleted = true").setParameter("group", _groupId).executeUpdate();
+        tx.commit();
+        TombstoneFilter.getInstance().invalidate(_groupId);
+        mRows.inc(deletedGroups);
+        mReaped.inc(deletedGroups);
+        return rtn + deletedGroups;
+    }
+
+    /**
+     * Starts a daemon thread removing deleted groups periodically. Calling this more than once
+     * has no effect.
+     * @param _intervalMillis The time between two runs.
+     */
+    public synchronized void start(long _intervalMillis) {
+        if (mScheduler != null)
+            return;
+        mScheduler = Executors.newSingleThreadScheduledExecutor(_runnable -> {
+            Thread reaperThread = new Thread(_runnable, "instalist-group-reaper");
+            reaperThread.setDaemon(true);
+            return reaperThread;
+        });
+        mScheduler.scheduleWithFixedDelay(this::run, _intervalMillis, _intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic removal. A running removal gets interrupted.
+     */
+    public synchronized void stop() {
+        if (mScheduler == null)
+            return;
+        mScheduler.shutdownNow();
+        mScheduler = null;
+    }
+
+    /**
+     * Starts a run as soon as possible, e.g. after a group was marked as deleted. Does nothing,
+     * if the reaper was not started.
+     */
+    public synchronized void trigger() {
+        if (mScheduler != null)
+            mScheduler.execute(this::run);
+    }
+
+    /**
+     * Creates a reaper.
+     * @param _chunkSize The count of rows to delete in one transaction.
+     * @param _metrics The registry for the metrics of the reaper.
+     */
+    GroupReaper(int _chunkSize, MetricRegistry _metrics) {
+        mChunkSize = _chunkSize;
+        mPending = new AtomicInteger();
+        mReaped = _metrics.counter("groups.reaped");
+        mRows = _metrics.counter("groups.reaped_rows");
+        mFailures = _metrics.counter("groups.reaper_failures");
+        _metrics.register("groups.reaper_pending", (Gauge<Integer>) mPending::get);
+    }
+
+    public static synchronized GroupReaper getInstance() {
+        if (sInstance == null) {
+            sInstance = new GroupReaper(ConfigHelper.getInt("instalist.groups.chunk_size", 500),
+                    MetricsHelper.getInstance().getRegistry());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts the periodic removal with the interval set by "instalist.groups.reap_interval".
+     */
+    public void start() {
+        start(ConfigHelper.getLong("instalist.groups.reap_interval", 5 * 60) * 1000);
+    }
+
+    private void run() {
+        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        try {
+            reap(manager);
+        } catch (RuntimeException _e) {
+            // keep the schedule alive, the next run tries again.
+            sLogger.log(Level.WARNING, "Removal of deleted groups failed.", _e);
+            mFailures.inc();
+        } finally {
+            if (manager.getTransaction().isActive())
+                manager.getTransaction().rollback();
+            manager.close();
+        }
+    }
+
+    private int deleteChunked(EntityManager _manager, String _entity, int _groupId) {
+        TypedQuery<Integer> idQuery = _manager.createQuery("select e.id from " + _entity +
+                " e where e.group.id = :group", Integer.class);
+        idQuery.setParameter("group", _groupId);
+        idQuery.setMaxResults(mChunkSize);
+        Query deleteQuery = _manager.createQuery("delete from " + _entity + " e where " +
+                "e.id in :ids");
+        int rtn = 0;
+        while (true) {
+            EntityTransaction tx = _manager.getTransaction();
+            tx.begin();
+            List<Integer> ids = idQuery.getResultList();
+            if (ids.isEmpty()) {
+                tx.commit();
+                return rtn;
+            }
+            deleteQuery.setParameter("ids", ids);
+            int deleted = deleteQuery.executeUpdate();
+            tx.commit();
+            rtn += deleted;
+            mRows.inc(deleted);
+            if (ids.size() < mChunkSize)
+                return rtn;
+        }
+    }
+}
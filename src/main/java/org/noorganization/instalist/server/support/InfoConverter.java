@@ -0,0 +1,206 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import org.noorganization.instalist.comm.message.CategoryInfo;
+import org.noorganization.instalist.comm.message.EntryInfo;
+import org.noorganization.instalist.comm.message.IngredientInfo;
+import org.noorganization.instalist.comm.message.ListInfo;
+import org.noorganization.instalist.comm.message.ProductInfo;
+import org.noorganization.instalist.comm.message.RecipeInfo;
+import org.noorganization.instalist.comm.message.TagInfo;
+import org.noorganization.instalist.comm.message.TaggedProductInfo;
+import org.noorganization.instalist.comm.message.UnitInfo;
+import org.noorganization.instalist.server.model.Category;
+import org.noorganization.instalist.server.model.DeletedObject;
+import org.noorganization.instalist.server.model.Ingredient;
+import org.noorganization.instalist.server.model.ListEntry;
+import org.noorganization.instalist.server.model.Product;
+import org.noorganization.instalist.server.model.Recipe;
+import org.noorganization.instalist.server.model.ShoppingList;
+import org.noorganization.instalist.server.model.Tag;
+import org.noorganization.instalist.server.model.TaggedProduct;
+import org.noorganization.instalist.server.model.Unit;
+
+import java.util.Date;
+
+/**
+ * Converts model objects to the messages sent to clients. Deleted objects are converted to
+ * messages containing only uuid, time of deletion and the deleted flag.
+ */
+public class InfoConverter {
+
+    public static CategoryInfo toInfo(Category _category) {
+        CategoryInfo rtn = new CategoryInfo();
+        rtn.setUUID(_category.getUUID());
+        rtn.setName(_category.getName());
+        rtn.setLastChanged(Date.from(_category.getUpdated()));
+        rtn.setDeleted(false);
+        return rtn;
+    }
+
+    public static EntryInfo toInfo(ListEntry _entry) {
+        EntryInfo rtn = new EntryInfo().withDeleted(false);
+        rtn.setUUID(_entry.getUUID());
+        rtn.setProductUUID(_entry.getProduct().getUUID());
+        rtn.setListUUID(_entry.getList().getUUID());
+        rtn.setAmount(_entry.getAmount());
+        rtn.setPriority(_entry.getPriority());
+        rtn.setStruck(_entry.getStruck());
+        rtn.setLastChanged(Date.from(_entry.getUpdated()));
+        return rtn;
+    }
+
+    public static IngredientInfo toInfo(Ingredient _ingredient) {
+        IngredientInfo rtn = new IngredientInfo().withDeleted(false);
+        rtn.setUUID(_ingredient.getUUID());
+        rtn.setProductUUID(_ingredient.getProduct().getUUID());
+        rtn.setRecipeUUID(_ingredient.getRecipe().getUUID());
+        rtn.setAmount(_ingredient.getAmount());
+        rtn.setLastChanged(Date.from(_ingredient.getUpdated()));
+        return rtn;
+    }
+
+    public static ListInfo toInfo(ShoppingList _list) {
+        ListInfo rtn = new ListInfo();
+        rtn.setUUID(_list.getUUID());
+        rtn.setName(_list.getName());
+        if (_list.getCategory() != null)
+            rtn.setCategoryUUID(_list.getCategory().getUUID());
+        rtn.setLastChanged(Date.from(_list.getUpdated()));
+        rtn.setDeleted(false);
+        return rtn;
+    }
+
+    public static ProductInfo toInfo(Product _product) {
+        ProductInfo rtn = new ProductInfo();
+        rtn.setUUID(_product.getUUID());
+        rtn.setName(_product.getName());
+        rtn.setDefaultAmount(_product.getDefaultAmount());
+        rtn.setStepAmount(_product.getStepAmount());
+        if (_product.getUnit() != null)
+            rtn.setUnitUUID(_product.getUnit().getUUID());
+        rtn.setLastChanged(Date.from(_product.getUpdated()));
+        rtn.setDeleted(false);
+        return rtn;
+    }
+
+    public static RecipeInfo toInfo(Recipe _recipe) {
+        RecipeInfo rtn = new RecipeInfo().withDeleted(false);
+        rtn.setUUID(_recipe.getUUID());
+        rtn.setName(_recipe.getName());
+        rtn.setLastChanged(Date.from(_recipe.getUpdated()));
+        return rtn;
+    }
+
+    public static TagInfo toInfo(Tag _tag) {
+        TagInfo rtn = new TagInfo().withDeleted(false);
+        rtn.setUUID(_tag.getUUID());
+        rtn.setName(_tag.getName());
+        rtn.setLastChanged(Date.from(_tag.getUpdated()));
+        return rtn;
+    }
+
+    public static TaggedProductInfo toInfo(TaggedProduct _taggedProduct) {
+        TaggedProductInfo rtn = new TaggedProductInfo().withDeleted(false);
+        rtn.setUUID(_taggedProduct.getUUID());
+        rtn.setProductUUID(_taggedProduct.getProduct().getUUID());
+        rtn.setTagUUID(_taggedProduct.getTag().getUUID());
+        rtn.setLastChanged(Date.from(_taggedProduct.getUpdated()));
+        return rtn;
+    }
+
+    public static UnitInfo toInfo(Unit _unit) {
+        UnitInfo rtn = new UnitInfo().withDeleted(false);
+        rtn.setUUID(_unit.getUUID());
+        rtn.setName(_unit.getName());
+        rtn.setLastChanged(Date.from(_unit.getUpdated()));
+        return rtn;
+    }
+
+    public static CategoryInfo toCategoryInfo(DeletedObject _deleted) {
+        CategoryInfo rtn = new CategoryInfo();
+        rtn.setUUID(_deleted.getUUID());
+        rtn.setLastChanged(Date.from(_deleted.getUpdated()));
+        rtn.setDeleted(true);
+        return rtn;
+    }
+
+    public static EntryInfo toEntryInfo(DeletedObject _deleted) {
+        EntryInfo rtn = new EntryInfo();
+        rtn.setUUID(_deleted.getUUID());
+        rtn.setLastChanged(Date.from(_deleted.getUpdated()));
+        rtn.setDeleted(true);
+        return rtn;
+    }
+
+    public static IngredientInfo toIngredientInfo(DeletedObject _deleted) {
+        IngredientInfo rtn = new IngredientInfo();
+        rtn.setUUID(_deleted.getUUID());
+        rtn.setLastChanged(Date.from(_deleted.getUpdated()));
+        rtn.setDeleted(true);
+        return rtn;
+    }
+
+    public static ListInfo toListInfo(DeletedObject _deleted) {
+        ListInfo rtn = new ListInfo();
+        rtn.setUUID(_deleted.getUUID());
+        rtn.setLastChanged(Date.from(_deleted.getUpdated()));
+        rtn.setDeleted(true);
+        return rtn;
+    }
+
+    public static ProductInfo toProductInfo(DeletedObject _deleted) {
+        ProductInfo rtn = new ProductInfo();
+        rtn.setUUID(_deleted.getUUID());
+        rtn.setLastChanged(Date.from(_deleted.getUpdated()));
+        rtn.setDeleted(true);
+        return rtn;
+    }
+
+    public static RecipeInfo toRecipeInfo(DeletedObject _deleted) {
+        RecipeInfo rtn = new RecipeInfo().withDeleted(true);
+        rtn.setUUID(_deleted.getUUID());
+        rtn.setLastChanged(Date.from(_deleted.getUpdated()));
+        return rtn;
+    }
+
+    public static TagInfo toTagInfo(DeletedObject _deleted) {
+        TagInfo rtn = new TagInfo().withDeleted(true);
+        rtn.setUUID(_deleted.getUUID());
+        rtn.setLastChanged(Date.from(_deleted.getUpdated()));
+        return rtn;
+    }
+
+    public static TaggedProductInfo toTaggedProductInfo(DeletedObject _deleted) {
+        TaggedProductInfo rtn = new TaggedProductInfo();
+        rtn.setUUID(_deleted.getUUID());
+        rtn.setLastChanged(Date.from(_deleted.getUpdated()));
+        rtn.setDeleted(true);
+        return rtn;
+    }
+
+    public static UnitInfo toUnitInfo(DeletedObject _deleted) {
+        UnitInfo rtn = new UnitInfo().withDeleted(true);
+        rtn.setUUID(_deleted.getUUID());
+        rtn.setLastChanged(Date.from(_deleted.getUpdated()));
+        return rtn;
+    }
+
+    private InfoConverter() {
+    }
+}
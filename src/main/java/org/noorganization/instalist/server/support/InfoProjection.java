@@ -0,0 +1,281 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import org.noorganization.instalist.comm.message.CategoryInfo;
+import org.noorganization.instalist.comm.message.EntryInfo;
+import org.noorganization.instalist.comm.message.IngredientInfo;
+import org.noorganization.instalist.comm.message.ListInfo;
+import org.noorganization.instalist.comm.message.ProductInfo;
+import org.noorganization.instalist.comm.message.RecipeInfo;
+import org.noorganization.instalist.comm.message.TagInfo;
+import org.noorganization.instalist.comm.message.TaggedProductInfo;
+import org.noorganization.instalist.comm.message.UnitInfo;
+import org.noorganization.instalist.server.model.DeletedObject;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Reads messages directly from the columns they need, without loading entities. References are
+ * joined for their uuid, so every read is answered by exactly one statement, regardless of the
+ * count of rows.
+ *
+ * Every row starts with uuid and time of last update, followed by the columns of the type.
+ */
+public class InfoProjection<I> {
+
+    public static final InfoProjection<CategoryInfo> CATEGORIES = new InfoProjection<>(
+            "select item.UUID, item.updated, item.name from Category item",
+            DeletedObject.Type.CATEGORY, _row -> {
+                CategoryInfo rtn = new CategoryInfo();
+                rtn.setUUID(getUUID(_row));
+                rtn.setName((String) _row[2]);
+                rtn.setLastChanged(Date.from(getUpdated(_row)));
+                rtn.setDeleted(false);
+                return rtn;
+            }, InfoConverter::toCategoryInfo);
+
+    public static final InfoProjection<EntryInfo> ENTRIES = new InfoProjection<>(
+            "select item.UUID, item.updated, p.UUID, l.UUID, item.amount, item.priority, " +
+                    "item.struck from ListEntry item join item.product p join item.list l",
+            DeletedObject.Type.LISTENTRY, _row -> {
+                EntryInfo rtn = new EntryInfo().withDeleted(false);
+                rtn.setUUID(getUUID(_row));
+                rtn.setProductUUID((UUID) _row[2]);
+                rtn.setListUUID((UUID) _row[3]);
+                rtn.setAmount((Float) _row[4]);
+                rtn.setPriority((Integer) _row[5]);
+                rtn.setStruck((Boolean) _row[6]);
+                rtn.setLastChanged(Date.from(getUpdated(_row)));
+                return rtn;
+            }, InfoConverter::toEntryInfo);
+
+    public static final InfoProjection<IngredientInfo> INGREDIENTS = new InfoProjection<>(
+            "select item.UUID, item.updated, p.UUID, r.UUID, item.amount from Ingredient item " +
+                    "join item.product p join item.recipe r",
+            DeletedObject.Type.INGREDIENT, _row -> {
+                IngredientInfo rtn = new IngredientInfo().withDeleted(false);
+                rtn.setUUID(getUUID(_row));
+                rtn.setProductUUID((UUID) _row[2]);
+                rtn.setRecipeUUID((UUID) _row[3]);
+                rtn.setAmount((Float) _row[4]);
+                rtn.setLastChanged(Date.from(getUpdated(_row)));
+                return rtn;
+            }, InfoConverter::toIngredientInfo);
+
+    public static final InfoProjection<ListInfo> LISTS = new InfoProjection<>(
+            "select item.UUID, item.updated, item.name, c.UUID from ShoppingList item " +
+                    "left join item.category c",
+            DeletedObject.Type.LIST, _row -> {
+                ListInfo rtn = new ListInfo();
+                rtn.setUUID(getUUID(_row));
+                rtn.setName((String) _row[2]);
+                if (_row[3] != null)
+                    rtn.setCategoryUUID((UUID) _row[3]);
+                rtn.setLastChanged(Date.from(getUpdated(_row)));
+                rtn.setDeleted(false);
+                return rtn;
+            }, InfoConverter::toListInfo);
+
+    public static final InfoProjection<ProductInfo> PRODUCTS = new InfoProjection<>(
+            "select item.UUID, item.updated, item.name, item.defaultAmount, item.stepAmount, " +
+                    "u.UUID from Product item left join item.unit u",
+            DeletedObject.Type.PRODUCT, _row -> {
+                ProductInfo rtn = new ProductInfo();
+                rtn.setUUID(getUUID(_row));
+                rtn.setName((String) _row[2]);
+                rtn.setDefaultAmount((Float) _row[3]);
+                rtn.setStepAmount((Float) _row[4]);
+                if (_row[5] != null)
+                    rtn.setUnitUUID((UUID) _row[5]);
+                rtn.setLastChanged(Date.from(getUpdated(_row)));
+                rtn.setDeleted(false);
+                return rtn;
+            }, InfoConverter::toProductInfo);
+
+    public static final InfoProjection<RecipeInfo> RECIPES = new InfoProjection<>(
+            "select item.UUID, item.updated, item.name from Recipe item",
+            DeletedObject.Type.RECIPE, _row -> {
+                RecipeInfo rtn = new RecipeInfo().withDeleted(false);
+                rtn.setUUID(getUUID(_row));
+                rtn.setName((String) _row[2]);
+                rtn.setLastChanged(Date.from(getUpdated(_row)));
+                return rtn;
+            }, InfoConverter::toRecipeInfo);
+
+    public static final InfoProjection<TagInfo> TAGS = new InfoProjection<>(
+            "select item.UUID, item.updated, item.name from Tag item",
+            DeletedObject.Type.TAG, _row -> {
+                TagInfo rtn = new TagInfo().withDeleted(false);
+                rtn.setUUID(getUUID(_row));
+                rtn.setName((String) _row[2]);
+                rtn.setLastChanged(Date.from(getUpdated(_row)));
+                return rtn;
+            }, InfoConverter::toTagInfo);
+
+    public static final InfoProjection<TaggedProductInfo> TAGGED_PRODUCTS =
+            new InfoProjection<>("select item.UUID, item.updated, p.UUID, t.UUID from " +
+                    "TaggedProduct item join item.product p join item.tag t",
+                    DeletedObject.Type.TAGGEDPRODUCT, _row -> {
+                        TaggedProductInfo rtn = new TaggedProductInfo().withDeleted(false);
+                        rtn.setUUID(getUUID(_row));
+                        rtn.setProductUUID((UUID) _row[2]);
+                        rtn.setTagUUID((UUID) _row[3]);
+                        rtn.setLastChanged(Date.from(getUpdated(_row)));
+                        return rtn;
+                    }, InfoConverter::toTaggedProductInfo);
+
+    public static final InfoProjection<UnitInfo> UNITS = new InfoProjection<>(
+            "select item.UUID, item.updated, item.name from Unit item",
+            DeletedObject.Type.UNIT, _row -> {
+                UnitInfo rtn = new UnitInfo().withDeleted(false);
+                rtn.setUUID(getUUID(_row));
+                rtn.setName((String) _row[2]);
+                rtn.setLastChanged(Date.from(getUpdated(_row)));
+                return rtn;
+            }, InfoConverter::toUnitInfo);
+
+    private static final String DELETED_QUERY = "select item.UUID, item.updated, item.type " +
+            "from DeletedObject item where item.group.id = :groupid";
+
+    private final String                     mQuery;
+    private final DeletedObject.Type         mType;
+    private final Function<Object[], I>      mConverter;
+    private final Function<DeletedObject, I> mDeletedConverter;
+
+    private InfoProjection(String _query, DeletedObject.Type _type,
+                           Function<Object[], I> _converter,
+                           Function<DeletedObject, I> _deletedConverter) {
+        mQuery = _query + " where item.group.id = :groupid";
+        mType = _type;
+        mConverter = _converter;
+        mDeletedConverter = _deletedConverter;
+    }
+
+    public DeletedObject.Type getType() {
+        return mType;
+    }
+
+    /**
+     * Reads a single item.
+     * @param _manager The manager to read with.
+     * @param _groupId The id of the group containing the item.
+     * @param _uuid The uuid of the item.
+     * @return Either the message of the item or null, if not found.
+     */
+    public I find(EntityManager _manager, int _groupId, UUID _uuid) {
+        TypedQuery<Object[]> query = _manager.createQuery(mQuery + " and item.UUID = :uuid",
+                Object[].class);
+        query.setParameter("groupid", _groupId);
+        query.setParameter("uuid", _uuid);
+        query.setMaxResults(1);
+        List<Object[]> rows = query.getResultList();
+        return (rows.isEmpty() ? null : toInfo(rows.get(0)));
+    }
+
+    /**
+     * Creates the query for the rows of the items of a group.
+     * @param _manager The manager to create the query with.
+     * @param _groupId The id of the group.
+     * @param _filter Selects the items to read.
+     * @return The query. Rows are converted by {@link #toInfo(Object[])}.
+     */
+    public TypedQuery<Object[]> createQuery(EntityManager _manager, int _groupId,
+                                            ChangeFilter _filter) {
+        TypedQuery<Object[]> query = _manager.createQuery(mQuery + _filter.getCondition("item"),
+                Object[].class);
+        query.setParameter("groupid", _groupId);
+        _filter.bind(query);
+        return query;
+    }
+
+    /**
+     * Creates the query for the rows of the deleted items of a group.
+     * @param _manager The manager to create the query with.
+     * @param _groupId The id of the group.
+     * @param _filter Selects the deleted items to read.
+     * @return The query. Rows are converted by {@link #toDeletedInfo(Object[])}.
+     */
+    public TypedQuery<Object[]> createDeletedQuery(EntityManager _manager, int _groupId,
+                                                   ChangeFilter _filter) {
+        TypedQuery<Object[]> query = createAllDeletedQuery(_manager, " and item.type = :type",
+                _groupId, _filter);
+        query.setParameter("type", mType);
+        return query;
+    }
+
+    public I toInfo(Object[] _row) {
+        return mConverter.apply(_row);
+    }
+
+    public I toDeletedInfo(Object[] _row) {
+        return toDeletedInfo(toDeletedObject(_row));
+    }
+
+    public I toDeletedInfo(DeletedObject _deleted) {
+        return mDeletedConverter.apply(_deleted);
+    }
+
+    /**
+     * Creates the query for the rows of the deleted items of all types of a group. Rows contain
+     * the type as third column, see {@link #toDeletedObject(Object[])}.
+     * @param _manager The manager to create the query with.
+     * @param _groupId The id of the group.
+     * @param _filter Selects the deleted items to read.
+     * @return The query.
+     */
+    public static TypedQuery<Object[]> createAllDeletedQuery(EntityManager _manager,
+                                                             int _groupId, ChangeFilter _filter) {
+        return createAllDeletedQuery(_manager, "", _groupId, _filter);
+    }
+
+    /**
+     * Converts a row of a deleted item to a detached {@link DeletedObject}, for use with
+     * {@link InfoConverter}.
+     * @param _row The row as read by {@link #createAllDeletedQuery(EntityManager, int,
+     *             ChangeFilter)}.
+     * @return The deleted object, containing only uuid, time and type.
+     */
+    public static DeletedObject toDeletedObject(Object[] _row) {
+        return new DeletedObject().withUUID(getUUID(_row)).withUpdated(getUpdated(_row)).
+                withType((DeletedObject.Type) _row[2]);
+    }
+
+    public static UUID getUUID(Object[] _row) {
+        return (UUID) _row[0];
+    }
+
+    public static Instant getUpdated(Object[] _row) {
+        return (Instant) _row[1];
+    }
+
+    private static TypedQuery<Object[]> createAllDeletedQuery(EntityManager _manager,
+                                                              String _condition, int _groupId,
+                                                              ChangeFilter _filter) {
+        TypedQuery<Object[]> query = _manager.createQuery(DELETED_QUERY + _condition +
+                _filter.getCondition("item"), Object[].class);
+        query.setParameter("groupid", _groupId);
+        _filter.bind(query);
+        return query;
+    }
+}
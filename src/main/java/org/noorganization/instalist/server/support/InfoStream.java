@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.noorganization.instalist.server.model.DeletedObject;
+import org.noorganization.instalist.server.model.DeviceGroup;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.TypedQuery;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Writes the items of a group as JSON array while scrolling through them, so memory used by a
+ * request does not depend on the count of items. The binary formats are written with the same
+ * structure by {@code InfoStreamWriter}. Items are read by an {@link InfoProjection},
+ * every row is converted to its message and written directly.
+ *
+ * The stream uses its own EntityManager, since it is written after the request's manager was
+ * closed. Items and deleted items are read in one transaction. With a cursor, the recent changes
+ * of the group (see {@link ChangeLog}) can tell that nothing was changed or deleted, the queries
+ * are skipped then.
+ */
+public class InfoStream implements StreamingOutput {
+
+    private static final ObjectMapper sMapper = new ObjectMapper().
+            disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    static {
+        sMapper.getFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    private final int               mGroupId;
+    private final ChangeFilter      mFilter;
+    private final InfoProjection<?> mProjection;
+    private final int               mFetchSize;
+
+    /**
+     * Creates a stream for the items of a group, with fetch size configured by setting
+     * "instalist.stream.fetch_size".
+     * @param _groupId The id of the group.
+     * @param _filter The filter selecting the items to write.
+     * @param _projection The projection reading the items and deleted items.
+     */
+    public InfoStream(int _groupId, ChangeFilter _filter, InfoProjection<?> _projection) {
+        this(_groupId, _filter, _projection,
+                ConfigHelper.getInt("instalist.stream.fetch_size", 250));
+    }
+
+    InfoStream(int _groupId, ChangeFilter _filter, InfoProjection<?> _projection,
+               int _fetchSize) {
+        mGroupId = _groupId;
+        mFilter = _filter;
+        mProjection = _projection;
+        mFetchSize = _fetchSize;
+    }
+
+    @Override
+    public void write(OutputStream _output) throws IOException, WebApplicationException {
+        write(_output, sMapper.getFactory());
+    }
+
+    /**
+     * Writes the items in the format of a factory, e.g. a SmileFactory for binary JSON.
+     * @param _output The stream to write to. Stays open.
+     * @param _factory The factory creating the generator. Should not close its target.
+     */
+    public void write(OutputStream _output, JsonFactory _factory) throws IOException {
+        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        EntityTransaction tx = manager.getTransaction();
+        try (JsonGenerator generator = _factory.createGenerator(_output)) {
+            tx.begin();
+            DeviceGroup group = manager.find(DeviceGroup.class, mGroupId);
+            ChangeLog.Window window = (group != null ? ChangeLog.getInstance().window(mGroupId,
+                    mFilter, group.getChangeSeq()) : null);
+            generator.writeStartArray();
+            if (window == null || window.hasChanges(mProjection.getType()))
+                write(mProjection.createQuery(manager, mGroupId, mFilter), mProjection::toInfo,
+                        generator);
+            List<DeletedObject> deletions = (window != null ?
+                    window.getDeletions(mProjection.getType()) : null);
+            if (deletions == null) {
+                write(mProjection.createDeletedQuery(manager, mGroupId, mFilter),
+                        mProjection::toDeletedInfo, generator);
+            } else {
+                for (DeletedObject deleted : deletions)
+                    sMapper.writeValue(generator, mProjection.toDeletedInfo(deleted));
+            }
+            generator.writeEndArray();
+            tx.commit();
+        } finally {
+            if (tx.isActive())
+                tx.rollback();
+            manager.close();
+        }
+    }
+
+    private void write(TypedQuery<Object[]> _query, Function<Object[], ?> _converter,
+                       JsonGenerator _generator) throws IOException {
+        _query.setHint("org.hibernate.fetchSize", mFetchSize);
+        ScrollableResults results = _query.unwrap(org.hibernate.Query.class).
+                scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while (results.next())
+                sMapper.writeValue(_generator, _converter.apply(results.get()));
+        } finally {
+            results.close();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * This Helper holds the MetricRegistry, where all components of the server register their
+ * metrics. The metrics get published via JMX in domain "org.noorganization.instalist.server".
+ */
+public class MetricsHelper {
+    private static MetricsHelper  sInstance;
+    private final  MetricRegistry mRegistry;
+    private        JmxReporter    mReporter;
+
+    /**
+     * @return The registry for all metrics of the server. Never null.
+     */
+    public MetricRegistry getRegistry() {
+        return mRegistry;
+    }
+
+    /**
+     * Starts publishing the metrics via JMX. Calling this more than once has no effect.
+     */
+    public synchronized void startReporting() {
+        if (mReporter != null)
+            return;
+        mReporter = JmxReporter.forRegistry(mRegistry).
+                inDomain("org.noorganization.instalist.server").build();
+        mReporter.start();
+    }
+
+    /**
+     * Stops publishing the metrics via JMX.
+     */
+    public synchronized void stopReporting() {
+        if (mReporter == null)
+            return;
+        mReporter.stop();
+        mReporter = null;
+    }
+
+    public static synchronized MetricsHelper getInstance() {
+        if (sInstance == null) {
+            sInstance = new MetricsHelper();
+        }
+        return sInstance;
+    }
+
+    private MetricsHelper() {
+        mRegistry = new MetricRegistry();
+    }
+}
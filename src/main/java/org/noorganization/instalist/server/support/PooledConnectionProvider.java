@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.MetricRegistry;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Connection pool for Hibernate, backed by HikariCP. Gets activated in persistence.xml by setting
+ * "hibernate.connection.provider_class" to this class.
+ *
+ * The connection is read from "javax.persistence.jdbc.*" and the pool from "instalist.pool.*"
+ * properties of the persistence unit. Both can be overridden via {@link ConfigHelper}, the
+ * connection by "instalist.db.url", "instalist.db.user", "instalist.db.password" and
+ * "instalist.db.driver".
+ *
+ * The pool registers its metrics below "db.pool" in the {@link MetricsHelper}: a timer "Wait"
+ * for acquiring connections, a histogram "Usage" for the time connections are held and gauges
+ * "ActiveConnections", "IdleConnections", "PendingConnections" and "TotalConnections".
+ */
+public class PooledConnectionProvider implements ConnectionProvider, Configurable, Stoppable {
+    public static final String POOL_NAME = "db";
+
+    private HikariDataSource mDataSource;
+
+    @Override
+    public void configure(Map _properties) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(POOL_NAME);
+        config.setJdbcUrl(setting(_properties, "instalist.db.url", "javax.persistence.jdbc.url",
+                "hibernate.connection.url"));
+        config.setUsername(setting(_properties, "instalist.db.user", "javax.persistence.jdbc.user",
+                "hibernate.connection.username"));
+        config.setPassword(setting(_properties, "instalist.db.password",
+                "javax.persistence.jdbc.password", "hibernate.connection.password"));
+        String driver = setting(_properties, "instalist.db.driver", "javax.persistence.jdbc.driver",
+                "hibernate.connection.driver_class");
+        if (driver != null)
+            config.setDriverClassName(driver);
+
+        config.setMinimumIdle(intSetting(_properties, "instalist.pool.min_idle", 2));
+        config.setMaximumPoolSize(intSetting(_properties, "instalist.pool.max_size", 10));
+        config.setConnectionTimeout(intSetting(_properties, "instalist.pool.connection_timeout",
+                30000));
+        config.setIdleTimeout(intSetting(_properties, "instalist.pool.idle_timeout", 600000));
+        config.setMaxLifetime(intSetting(_properties, "instalist.pool.max_lifetime", 1800000));
+        config.setLeakDetectionThreshold(intSetting(_properties, "instalist.pool.leak_detection",
+                0));
+        config.setValidationTimeout(intSetting(_properties, "instalist.pool.validation_timeout",
+                5000));
+        String validationQuery = setting(_properties, "instalist.pool.validation_query");
+        if (validationQuery != null)
+            config.setConnectionTestQuery(validationQuery);
+
+        String autoCommit = setting(_properties, "hibernate.connection.autocommit");
+        config.setAutoCommit(autoCommit != null && Boolean.parseBoolean(autoCommit));
+        String isolation = setting(_properties, "hibernate.connection.isolation");
+        if (isolation != null)
+            config.setTransactionIsolation(isolationName(Integer.parseInt(isolation)));
+
+        MetricRegistry registry = MetricsHelper.getInstance().getRegistry();
+        registry.removeMatching((_name, _metric) -> _name.startsWith(POOL_NAME + ".pool."));
+        config.setMetricRegistry(registry);
+
+        mDataSource = new HikariDataSource(config);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return mDataSource.getConnection();
+    }
+
+    @Override
+    public void closeConnection(Connection _connection) throws SQLException {
+        _connection.close();
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    @Override
+    public void stop() {
+        if (mDataSource != null) {
+            mDataSource.close();
+            mDataSource = null;
+        }
+    }
+
+    /**
+     * @return The count of connections currently borrowed from the pool.
+     */
+    public int getActiveConnections() {
+        return mDataSource.getHikariPoolMXBean().getActiveConnections();
+    }
+
+    /**
+     * @return The count of open connections currently not in use.
+     */
+    public int getIdleConnections() {
+        return mDataSource.getHikariPoolMXBean().getIdleConnections();
+    }
+
+    /**
+     * @return The count of threads waiting for a connection.
+     */
+    public int getWaitingThreads() {
+        return mDataSource.getHikariPoolMXBean().getThreadsAwaitingConnection();
+    }
+
+    @Override
+    public boolean isUnwrappableAs(Class _unwrapType) {
+        return ConnectionProvider.class.equals(_unwrapType) ||
+                PooledConnectionProvider.class.isAssignableFrom(_unwrapType) ||
+                DataSource.class.isAssignableFrom(_unwrapType);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> _unwrapType) {
+        if (ConnectionProvider.class.equals(_unwrapType) ||
+                PooledConnectionProvider.class.isAssignableFrom(_unwrapType))
+            return (T) this;
+        if (DataSource.class.isAssignableFrom(_unwrapType))
+            return (T) mDataSource;
+        throw new UnknownUnwrapTypeException(_unwrapType);
+    }
+
+    /**
+     * Looks up a setting, first via {@link ConfigHelper} and then in the persistence unit.
+     * @param _properties The properties of the persistence unit.
+     * @param _key The name of the setting.
+     * @param _unitKeys Names to use instead of the setting name in the persistence unit.
+     * @return Either the value or null, if not set at all.
+     */
+    private static String setting(Map _properties, String _key, String... _unitKeys) {
+        String rtn = ConfigHelper.getString(_key, null);
+        if (rtn != null)
+            return rtn;
+        String[] unitKeys = (_unitKeys.length > 0 ? _unitKeys : new String[] { _key });
+        for (String unitKey : unitKeys) {
+            Object value = _properties.get(unitKey);
+            if (value != null)
+                return value.toString();
+        }
+        return null;
+    }
+
+    private static int intSetting(Map _properties, String _key, int _default) {
+        String value = setting(_properties, _key);
+        return (value != null ? Integer.parseInt(value) : _default);
+    }
+
+    private static String isolationName(int _level) {
+        switch (_level) {
+            case Connection.TRANSACTION_READ_UNCOMMITTED:
+                return "TRANSACTION_READ_UNCOMMITTED";
+            case Connection.TRANSACTION_READ_COMMITTED:
+                return "TRANSACTION_READ_COMMITTED";
+            case Connection.TRANSACTION_REPEATABLE_READ:
+                return "TRANSACTION_REPEATABLE_READ";
+            case Connection.TRANSACTION_SERIALIZABLE:
+                return "TRANSACTION_SERIALIZABLE";
+            default:
+                return "TRANSACTION_NONE";
+        }
+    }
+}
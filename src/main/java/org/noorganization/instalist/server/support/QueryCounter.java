@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the SQL statements prepared by hibernate in the current thread. Configured as
+ * "hibernate.session_factory.statement_inspector", so it sees every statement of every
+ * EntityManager. Counting is only done between {@link #start()} and {@link #stop()}, e.g. for a
+ * single request by {@link org.noorganization.instalist.server.QueryCountFilter}.
+ */
+public class QueryCounter implements StatementInspector {
+
+    private static final ThreadLocal<Counts> sCounts = new ThreadLocal<Counts>();
+
+    @Override
+    public String inspect(String _sql) {
+        Counts counts = sCounts.get();
+        if (counts != null)
+            counts.add(_sql);
+        return _sql;
+    }
+
+    /**
+     * Starts counting for the current thread. Previous counts get dropped.
+     */
+    public static void start() {
+        sCounts.set(new Counts());
+    }
+
+    /**
+     * @return The statements of the current thread since start or null, if not counting.
+     */
+    public static Counts get() {
+        return sCounts.get();
+    }
+
+    /**
+     * Stops counting for the current thread.
+     * @return The statements since start or null, if not counting.
+     */
+    public static Counts stop() {
+        Counts rtn = sCounts.get();
+        sCounts.remove();
+        return rtn;
+    }
+
+    /**
+     * The statements counted for one thread. Equal statements are counted together, so repeated
+     * ones (most times a N+1 query) can be found.
+     */
+    public static class Counts {
+        private final Map<String, Integer> mStatements = new HashMap<String, Integer>();
+        private int mTotal;
+
+        /**
+         * @return The count of all statements.
+         */
+        public int getTotal() {
+            return mTotal;
+        }
+
+        /**
+         * @return The statement executed most often or null, if no statement was executed.
+         */
+        public String getMostRepeated() {
+            String rtn = null;
+            int rtnCount = 0;
+            for (Map.Entry<String, Integer> statement : mStatements.entrySet()) {
+                if (statement.getValue() > rtnCount) {
+                    rtn = statement.getKey();
+                    rtnCount = statement.getValue();
+                }
+            }
+            return rtn;
+        }
+
+        /**
+         * @param _sql The statement to look up.
+         * @return How often the statement was executed.
+         */
+        public int getCount(String _sql) {
+            Integer rtn = mStatements.get(_sql);
+            return (rtn != null ? rtn : 0);
+        }
+
+        private void add(String _sql) {
+            mTotal++;
+            mStatements.merge(_sql, 1, Integer::sum);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
+import javax.ws.rs.container.ContainerRequestContext;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+/**
+ * Holds the EntityManager of a single request. The manager is only opened when needed, so
+ * requests refused before accessing the database do not use a connection. It gets closed by
+ * {@link org.noorganization.instalist.server.EntityManagerListener} when the request is
+ * finished, rolling back a transaction left open.
+ */
+public class RequestManager {
+    private static final String PROPERTY = RequestManager.class.getName();
+
+    private EntityManager mManager;
+    private EntityManager mBatchManager;
+
+    /**
+     * Retrieves the manager of the request. Opens it on first call.
+     * @return The manager. Never null.
+     */
+    public synchronized EntityManager get() {
+        if (mBatchManager != null)
+            return mBatchManager;
+        if (mManager == null)
+            mManager = DatabaseHelper.getInstance().getManager();
+        return mManager;
+    }
+
+    /**
+     * Starts a transaction spanning all following changes of the request, e.g. for applying a
+     * batch of changes. Afterwards {@link #get()} returns a manager whose transactions only join
+     * the spanning one: begin, commit and rollback do nothing. This is safe, since controllers
+     * roll back only before changing anything. Changes get flushed before queries, so following
+     * operations see them.
+     */
+    public synchronized void beginBatch() {
+        EntityManager manager = get();
+        manager.setFlushMode(FlushModeType.AUTO);
+        manager.getTransaction().begin();
+        EntityTransaction joined = new JoinedTransaction(manager.getTransaction());
+        mBatchManager = (EntityManager) Proxy.newProxyInstance(
+                EntityManager.class.getClassLoader(), new Class<?>[]{ EntityManager.class },
+                (_proxy, _method, _args) -> {
+                    if (_method.getName().equals("getTransaction"))
+                        return joined;
+                    try {
+                        return _method.invoke(manager, _args);
+                    } catch (InvocationTargetException _e) {
+                        throw _e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * Commits the transaction started by {@link #beginBatch()}.
+     */
+    public synchronized void commitBatch() {
+        mBatchManager = null;
+        mManager.getTransaction().commit();
+    }
+
+    /**
+     * @return Whether a manager was opened for this request.
+     */
+    public synchronized boolean isOpen() {
+        return mManager != null;
+    }
+
+    /**
+     * Closes the manager, if opened. An active transaction gets rolled back before.
+     */
+    public synchronized void close() {
+        mBatchManager = null;
+        if (mManager == null)
+            return;
+        try {
+            if (mManager.getTransaction().isActive())
+                mManager.getTransaction().rollback();
+        } finally {
+            mManager.close();
+            mManager = null;
+        }
+    }
+
+    /**
+     * Finds the holder of a request. Creates it if not existing yet.
+     * @param _request The context of the request.
+     * @return The holder. Never null.
+     */
+    public static RequestManager of(ContainerRequestContext _request) {
+        RequestManager rtn = (RequestManager) _request.getProperty(PROPERTY);
+        if (rtn == null) {
+            rtn = new RequestManager();
+            _request.setProperty(PROPERTY, rtn);
+        }
+        return rtn;
+    }
+
+    /**
+     * Closes the manager of a request, if a holder was created.
+     * @param _request The context of the finished request.
+     */
+    public static void release(ContainerRequestContext _request) {
+        RequestManager manager = (RequestManager) _request.getProperty(PROPERTY);
+        if (manager != null) {
+            _request.removeProperty(PROPERTY);
+            manager.close();
+        }
+    }
+
+    /**
+     * A transaction joining an already active one.
+     */
+    private static class JoinedTransaction implements EntityTransaction {
+        private final EntityTransaction mSpanning;
+
+        JoinedTransaction(EntityTransaction _spanning) {
+            mSpanning = _spanning;
+        }
+
+        public void begin() {
+        }
+
+        public void commit() {
+        }
+
+        public void rollback() {
+        }
+
+        public void setRollbackOnly() {
+            mSpanning.setRollbackOnly();
+        }
+
+        public boolean getRollbackOnly() {
+            return mSpanning.getRollbackOnly();
+        }
+
+        public boolean isActive() {
+            return mSpanning.isActive();
+        }
+    }
+}
@@ -39,6 +39,18 @@ public class ResponseFactory {
         return builder.build();
     }
 
+    /**
+     * Generates a response with HTTP-Code OK for a synchronisation.
+     * @param _entity The changes (body).
+     * @param _cursor The cursor for the next synchronisation. Gets sent in header
+     *                {@link ChangeCursor#HEADER}.
+     * @return The generated Response.
+     */
+    public static Response generateChanges(Object _entity, ChangeCursor _cursor) {
+        return Response.status(Response.Status.OK).entity(_entity).
+                header(ChangeCursor.HEADER, _cursor.toString()).build();
+    }
+
     /**
      * Generates a resopnse with HTTP-Code Created. This Response should be only used in POST-
      * Requests.
@@ -167,4 +179,20 @@ public class ResponseFactory {
         }
         return builder.build();
     }
+
+    /**
+     * Generates a response with HTTP-Code Service Unavailable. Use this if the server is
+     * temporarily overloaded and the client should retry later.
+     * @param _entity Optional entity (body). If null, no body will be added to the response.
+     * @param _retryAfter The seconds the client should wait before retrying.
+     * @return The generated Response.
+     */
+    public static Response generateServiceUnavailable(Object _entity, int _retryAfter) {
+        Response.ResponseBuilder builder = Response.status(Response.Status.SERVICE_UNAVAILABLE);
+        builder.header(HttpHeaders.RETRY_AFTER, _retryAfter);
+        if (_entity != null) {
+            builder.entity(_entity);
+        }
+        return builder.build();
+    }
 }
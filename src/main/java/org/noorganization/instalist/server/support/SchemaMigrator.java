@@ -0,0 +1,339 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies versioned changes to the schema of the database. Every migration is a SQL script in
+ * "db/migration" named like "V2__group_updated_indexes.sql" and must be listed in
+ * {@link #MIGRATIONS}. Applied versions are recorded in table "schema_version", so every
+ * migration runs exactly once per database.
+ *
+ * Migrations are never changed after release. To change the schema, add a new migration and
+ * adapt the model accordingly.
+ *
+ * DDL is not transactional on MySQL and MariaDB: every statement commits implicitly, so a failed
+ * migration leaves its previous statements applied. Therefore "CREATE TABLE", "CREATE INDEX" and
+ * "ALTER TABLE ... ADD COLUMN" are skipped, if the table, index or column exists already, and
+ * the migration can just be run again. Before a unique index gets created, the table is checked
+ * for duplicates, which let the migration fail with a message naming them.
+ */
+public class SchemaMigrator {
+    /**
+     * The migrations in the order to apply.
+     */
+    public static final String[] MIGRATIONS = {
+            "V1__group_uuid_indexes.sql",
+            "V2__group_updated_indexes.sql",
+            "V3__deletion_log_indexes.sql",
+            "V4__change_sequence.sql",
+            "V5__group_teardown.sql",
+            "V6__pooled_item_ids.sql"
+    };
+
+    private static final String TABLE = "schema_version";
+
+    private static final Pattern CREATE_TABLE = Pattern.compile(
+            "CREATE\\s+TABLE\\s+(\\w+).*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern CREATE_INDEX = Pattern.compile(
+            "CREATE\\s+(UNIQUE\\s+)?INDEX\\s+(\\w+)\\s+ON\\s+(\\w+)\\s*\\(([^)]+)\\).*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern ADD_COLUMN = Pattern.compile(
+            "ALTER\\s+TABLE\\s+(\\w+)\\s+ADD\\s+COLUMN\\s+(\\w+).*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final List<Migration> mMigrations;
+
+    /**
+     * Applies all migrations not applied yet.
+     * @param _connection The connection to the database to migrate. Its auto commit mode gets
+     *                    restored afterwards.
+     * @return The count of applied migrations.
+     * @throws SQLException If a migration failed. Previous migrations stay applied, as well as
+     *                      the DDL statements of the failed one on MySQL.
+     */
+    public int migrate(Connection _connection) throws SQLException {
+        int currentVersion = getCurrentVersion(_connection);
+        int applied = 0;
+        boolean autoCommit = _connection.getAutoCommit();
+        _connection.setAutoCommit(false);
+        try {
+            for (Migration migration : mMigrations) {
+                if (migration.version <= currentVersion)
+                    continue;
+                try (Statement statement = _connection.createStatement()) {
+                    for (String sql : migration.statements) {
+                        if (isApplied(_connection, sql))
+                            continue;
+                        statement.execute(sql);
+                    }
+                }
+                record(_connection, migration);
+                _connection.commit();
+                applied++;
+            }
+        } catch (SQLException _e) {
+            _connection.rollback();
+            throw _e;
+        } finally {
+            _connection.setAutoCommit(autoCommit);
+        }
+        return applied;
+    }
+
+    /**
+     * Marks all migrations as applied without running them. Used if the schema was generated
+     * from the model, which already contains all changes.
+     * @param _connection The connection to the database.
+     * @throws SQLException If recording the versions failed.
+     */
+    public void baseline(Connection _connection) throws SQLException {
+        int currentVersion = getCurrentVersion(_connection);
+        boolean autoCommit = _connection.getAutoCommit();
+        _connection.setAutoCommit(false);
+        try {
+            for (Migration migration : mMigrations) {
+                if (migration.version > currentVersion)
+                    record(_connection, migration);
+            }
+            _connection.commit();
+        } catch (SQLException _e) {
+            _connection.rollback();
+            throw _e;
+        } finally {
+            _connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Retrieves the version of the database. Creates the table for versions, if not existing.
+     * @param _connection The connection to the database.
+     * @return The highest applied version or 0, if no migration was applied.
+     * @throws SQLException If reading the version failed.
+     */
+    public int getCurrentVersion(Connection _connection) throws SQLException {
+        createVersionTable(_connection);
+        try (Statement statement = _connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT MAX(version) FROM " + TABLE)) {
+            return (result.next() ? result.getInt(1) : 0);
+        }
+    }
+
+    /**
+     * @return The version of the newest known migration.
+     */
+    public int getLatestVersion() {
+        return (mMigrations.isEmpty() ? 0 : mMigrations.get(mMigrations.size() - 1).version);
+    }
+
+    /**
+     * Creates a migrator.
+     * @param _migrations The migrations to apply. Get sorted by version.
+     */
+    public SchemaMigrator(List<Migration> _migrations) {
+        mMigrations = new ArrayList<Migration>(_migrations);
+        Collections.sort(mMigrations, (_first, _second) ->
+                Integer.compare(_first.version, _second.version));
+    }
+
+    /**
+     * Creates the migrator for the migrations of the server, listed in {@link #MIGRATIONS}.
+     * @return The migrator.
+     * @throws IllegalStateException If a migration could not be loaded.
+     */
+    public static SchemaMigrator createDefault() {
+        List<Migration> migrations = new ArrayList<Migration>(MIGRATIONS.length);
+        for (String name : MIGRATIONS) {
+            try (InputStream script = SchemaMigrator.class.getClassLoader().
+                    getResourceAsStream("db/migration/" + name)) {
+                if (script == null)
+                    throw new IllegalStateException("Migration " + name + " not found.");
+                migrations.add(Migration.parse(name, script));
+            } catch (IOException _e) {
+                throw new IllegalStateException("Migration " + name + " could not be read.", _e);
+            }
+        }
+        return new SchemaMigrator(migrations);
+    }
+
+    private void createVersionTable(Connection _connection) throws SQLException {
+        if (hasTable(_connection.getMetaData(), TABLE))
+            return;
+        try (Statement statement = _connection.createStatement()) {
+            statement.execute("CREATE TABLE " + TABLE + " (" +
+                    "version INT NOT NULL, " +
+                    "description VARCHAR(255) NOT NULL, " +
+                    "applied TIMESTAMP NOT NULL, " +
+                    "PRIMARY KEY (version))");
+        }
+    }
+
+    /**
+     * Checks whether a DDL statement was already applied by a previous, failed run.
+     * @throws SQLException If a unique index is to be created on a table with duplicates.
+     */
+    private boolean isApplied(Connection _connection, String _sql) throws SQLException {
+        DatabaseMetaData metaData = _connection.getMetaData();
+        Matcher matcher = CREATE_TABLE.matcher(_sql);
+        if (matcher.matches())
+            return hasTable(metaData, matcher.group(1));
+        matcher = ADD_COLUMN.matcher(_sql);
+        if (matcher.matches())
+            return hasColumn(metaData, matcher.group(1), matcher.group(2));
+        matcher = CREATE_INDEX.matcher(_sql);
+        if (!matcher.matches())
+            return false;
+        if (hasIndex(metaData, matcher.group(3), matcher.group(2)))
+            return true;
+        if (matcher.group(1) != null)
+            checkDuplicates(_connection, matcher.group(3), matcher.group(4));
+        return false;
+    }
+
+    private void checkDuplicates(Connection _connection, String _table, String _columns)
+            throws SQLException {
+        try (Statement statement = _connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM (SELECT " +
+                     _columns + " FROM " + _table + " GROUP BY " + _columns +
+                     " HAVING COUNT(*) > 1) duplicates")) {
+            long duplicates = (result.next() ? result.getLong(1) : 0);
+            if (duplicates > 0)
+                throw new SQLException("Table " + _table + " has " + duplicates +
+                        " duplicate values of (" + _columns + "). Remove the duplicates and " +
+                        "restart to create the unique index.");
+        }
+    }
+
+    private static boolean hasTable(DatabaseMetaData _metaData, String _table)
+            throws SQLException {
+        for (String table : new String[]{ _table, _table.toUpperCase() }) {
+            try (ResultSet tables = _metaData.getTables(null, null, table, null)) {
+                if (tables.next())
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasColumn(DatabaseMetaData _metaData, String _table, String _column)
+            throws SQLException {
+        for (String table : new String[]{ _table, _table.toUpperCase() }) {
+            try (ResultSet columns = _metaData.getColumns(null, null, table, null)) {
+                while (columns.next()) {
+                    if (_column.equalsIgnoreCase(columns.getString("COLUMN_NAME")))
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasIndex(DatabaseMetaData _metaData, String _table, String _index)
+            throws SQLException {
+        for (String table : new String[]{ _table, _table.toUpperCase() }) {
+            try (ResultSet indexes = _metaData.getIndexInfo(null, null, table, false, true)) {
+                while (indexes.next()) {
+                    if (_index.equalsIgnoreCase(indexes.getString("INDEX_NAME")))
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void record(Connection _connection, Migration _migration) throws SQLException {
+        try (PreparedStatement insert = _connection.prepareStatement("INSERT INTO " + TABLE +
+                " (version, description, applied) VALUES (?, ?, ?)")) {
+            insert.setInt(1, _migration.version);
+            insert.setString(2, _migration.description);
+            insert.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+            insert.executeUpdate();
+        }
+    }
+
+    /**
+     * A single change of the schema.
+     */
+    public static class Migration {
+        public final int          version;
+        public final String       description;
+        public final List<String> statements;
+
+        public Migration(int _version, String _description, List<String> _statements) {
+            version = _version;
+            description = _description;
+            statements = Collections.unmodifiableList(new ArrayList<String>(_statements));
+        }
+
+        /**
+         * Reads a migration from a script. Statements are terminated by ";" at the end of a
+         * line, lines starting with "--" are comments.
+         * @param _name The name of the script, e.g. "V1__group_uuid_indexes.sql".
+         * @param _script The content of the script.
+         * @return The migration.
+         * @throws IOException If reading failed.
+         * @throws IllegalArgumentException If the name does not contain a version.
+         */
+        public static Migration parse(String _name, InputStream _script) throws IOException {
+            if (!_name.matches("V[0-9]+__.+\\.sql"))
+                throw new IllegalArgumentException("Name of migration is invalid: " + _name);
+            int separator = _name.indexOf("__");
+            int version = Integer.parseInt(_name.substring(1, separator));
+            String description = _name.substring(separator + 2, _name.length() - 4).
+                    replace('_', ' ');
+
+            List<String> statements = new ArrayList<String>();
+            StringBuilder current = new StringBuilder();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(_script,
+                    StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+                if (trimmed.length() == 0 || trimmed.startsWith("--"))
+                    continue;
+                if (current.length() > 0)
+                    current.append('\n');
+                current.append(trimmed);
+                if (trimmed.endsWith(";")) {
+                    current.setLength(current.length() - 1);
+                    statements.add(current.toString());
+                    current.setLength(0);
+                }
+            }
+            if (current.length() > 0)
+                statements.add(current.toString());
+            return new Migration(version, description, statements);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import org.noorganization.instalist.server.model.DeletedObject;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the deletion log ({@link DeletedObject}) small. Only the newest tombstone per uuid is
+ * read, so older duplicates get removed. Tombstones older than the retention time get removed,
+ * too. Clients asking for changes since a time before this horizon can not get all deletions
+ * anymore and have to resync completely.
+ *
+ * Configured by "instalist.tombstones.retention" (seconds, 0 keeps tombstones forever),
+ * "instalist.tombstones.compact_interval" (seconds) and "instalist.tombstones.chunk_size"
+ * (tombstones deleted per transaction).
+ */
+public class TombstoneCompactor {
+    private static final Logger sLogger = Logger.getLogger(TombstoneCompactor.class.getName());
+
+    private static TombstoneCompactor sInstance;
+
+    private final long                     mRetentionMillis;
+    private final int                      mChunkSize;
+    private final Counter                  mCompacted;
+    private final Counter                  mPruned;
+    private final Counter                  mFailures;
+    private       ScheduledExecutorService mScheduler;
+
+    /**
+     * Retrieves the time before which tombstones may be pruned.
+     * @return Either the horizon or null, if tombstones are kept forever.
+     */
+    public Instant getHorizon() {
+        if (mRetentionMillis <= 0)
+            return null;
+        return Instant.now().minusMillis(mRetentionMillis);
+    }
+
+    /**
+     * Checks whether changes since a time are possibly incomplete, because tombstones were pruned.
+     * @param _changedSince The time of the last synchronisation of the client.
+     * @return Whether the client has to resync completely.
+     */
+    public boolean isBeyondHorizon(Instant _changedSince) {
+        Instant horizon = getHorizon();
+        return horizon != null && _changedSince.isBefore(horizon);
+    }
+
+    /**
+     * Removes all tombstones having a newer tombstone for the same uuid and type in the same
+     * group.
+     * @param _manager The manager to use. Must not have an active transaction.
+     * @return The count of removed tombstones.
+     */
+    public int compact(EntityManager _manager) {
+        TypedQuery<Integer> duplicatesQuery = _manager.createQuery("select do.id from " +
+                "DeletedObject do where exists (select newer.id from DeletedObject newer where " +
+                "newer.group = do.group and newer.UUID = do.UUID and newer.type = do.type and " +
+                "(newer.updated > do.updated or (newer.updated = do.updated and " +
+                "newer.id > do.id)))", Integer.class);
+        int rtn = deleteChunked(_manager, duplicatesQuery);
+        mCompacted.inc(rtn);
+        return rtn;
+    }
+
+    /**
+     * Removes all tombstones older than the horizon.
+     * @param _manager The manager to use. Must not have an active transaction.
+     * @return The count of removed tombstones.
+     */
+    public int prune(EntityManager _manager) {
+        Instant horizon = getHorizon();
+        if (horizon == null)
+            return 0;
+        TypedQuery<Integer> expiredQuery = _manager.createQuery("select do.id from " +
+                "DeletedObject do where do.updated < :horizon", Integer.class);
+        expiredQuery.setParameter("horizon", horizon);
+        int rtn = deleteChunked(_manager, expiredQuery);
+        mPruned.inc(rtn);
+        return rtn;
+    }
+
+    /**
+     * Starts a daemon thread compacting and pruning periodically. Calling this more than once
+     * has no effect.
+     * @param _intervalMillis The time between two runs.
+     */
+    public synchronized void start(long _intervalMillis) {
+        if (mScheduler != null)
+            return;
+        mScheduler = Executors.newSingleThreadScheduledExecutor(_runnable -> {
+            Thread compactorThread = new Thread(_runnable, "instalist-tombstone-compactor");
+            compactorThread.setDaemon(true);
+            return compactorThread;
+        });
+        mScheduler.scheduleWithFixedDelay(this::run, _intervalMillis, _intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic compaction. A running compaction gets interrupted.
+     */
+    public synchronized void stop() {
+        if (mScheduler == null)
+            return;
+        mScheduler.shutdownNow();
+        mScheduler = null;
+    }
+
+    /**
+     * Creates a compactor.
+     * @param _retentionMillis The time tombstones are kept. 0 or less keeps them forever.
+     * @param _chunkSize The count of tombstones to delete in one transaction.
+     * @param _metrics The registry for the counters of the compactor.
+     */
+    TombstoneCompactor(long _retentionMillis, int _chunkSize, MetricRegistry _metrics) {
+        mRetentionMillis = _retentionMillis;
+        mChunkSize = _chunkSize;
+        mCompacted = _metrics.counter("tombstones.compacted");
+        mPruned = _metrics.counter("tombstones.pruned");
+        mFailures = _metrics.counter("tombstones.failures");
+    }
+
+    public static synchronized TombstoneCompactor getInstance() {
+        if (sInstance == null) {
+            sInstance = new TombstoneCompactor(
+                    ConfigHelper.getLong("instalist.tombstones.retention", 180 * 24 * 60 * 60) *
+                            1000,
+                    ConfigHelper.getInt("instalist.tombstones.chunk_size", 500),
+                    MetricsHelper.getInstance().getRegistry());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts the periodic compaction with the interval set by
+     * "instalist.tombstones.compact_interval".
+     */
+    public void start() {
+        start(ConfigHelper.getLong("instalist.tombstones.compact_interval", 60 * 60) * 1000);
+    }
+
+    private void run() {
+        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        try {
+            compact(manager);
+            prune(manager);
+        } catch (RuntimeException _e) {
+            // keep the schedule alive, the next run tries again.
+            sLogger.log(Level.WARNING, "Compaction of deletion log failed.", _e);
+            mFailures.inc();
+        } finally {
+            if (manager.getTransaction().isActive())
+                manager.getTransaction().rollback();
+            manager.close();
+        }
+    }
+
+    private int deleteChunked(EntityManager _manager, TypedQuery<Integer> _idQuery) {
+        _idQuery.setMaxResults(mChunkSize);
+        Query deleteQuery = _manager.createQuery("delete from DeletedObject do where " +
+                "do.id in :ids");
+        int rtn = 0;
+        while (true) {
+            EntityTransaction tx = _manager.getTransaction();
+            tx.begin();
+            List<Integer> ids = _idQuery.getResultList();
+            if (ids.isEmpty()) {
+                tx.commit();
+                return rtn;
+            }
+            deleteQuery.setParameter("ids", ids);
+            rtn += deleteQuery.executeUpdate();
+            tx.commit();
+            if (ids.size() < mChunkSize)
+                return rtn;
+        }
+    }
+}
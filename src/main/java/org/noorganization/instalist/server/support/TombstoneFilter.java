@@ -0,0 +1,384 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.noorganization.instalist.server.model.DeviceGroup;
+
+import javax.persistence.EntityManager;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers the uuids in the deletion log of each group in a bloom filter, so lookups of
+ * tombstones can be skipped for uuids that were definitely never deleted (nearly every created
+ * item). The filter of a group is built from the deletion log on first use.
+ *
+ * Writers report tombstones by {@link #addOnCommit} or {@link #invalidateOnCommit}, which
+ * apply them before the commit and again after it. So the next writer of the group, waiting for
+ * the lock, never sees a filter missing them. A filter built while a transaction with tombstones
+ * is open does not get kept, since its query might have missed them. Removed tombstones and
+ * rolled back ones stay in the filter, they only cause a needless lookup.
+ *
+ * Each filter knows the change counter of its group it reflects. Writes of this server advance
+ * it (see {@link #begin}). If a group shows a higher counter, another server changed it and the
+ * filter gets rebuilt. Reads of a group from the entity cache may show an old counter, so other
+ * servers' deletions can be missed by reads until "instalist.cache.ttl", never by writes.
+ *
+ * Filters are kept for at most "instalist.tombstones.filter_groups" groups (least recently used
+ * get dropped, 0 disables the filters).
+ */
+public class TombstoneFilter {
+
+    /**
+     * Minimum count of uuids a filter is sized for. Filters are sized for twice the tombstones
+     * found on build and get rebuilt when they are full.
+     */
+    static final int MIN_CAPACITY   = 1024;
+    /**
+     * Bits and hash functions per uuid, about 1% false positives when full.
+     */
+    static final int BITS_PER_UUID  = 10;
+    static final int HASHES         = 7;
+    private static final int GENERATION_STRIPES = 64;
+    /**
+     * Commits of this server a filter waits for at most, before it gets dropped.
+     */
+    private static final int MAX_AHEAD = 64;
+
+    private static TombstoneFilter sInstance;
+
+    private final Map<Integer, Filter> mFilters;
+    private final AtomicLong[]         mGenerations;
+    private final AtomicInteger[]      mOpen;
+    private final int                  mMaxGroups;
+    private final Counter              mSkipped;
+    private final Counter              mChecked;
+    private final Counter              mBuilds;
+
+    /**
+     * Checks whether an uuid may have been deleted in a group. Builds the filter of the group,
+     * if needed or if the group was changed by another server.
+     * @param _manager The manager to use for building the filter.
+     * @param _group The group as read by the caller.
+     * @param _uuid The uuid to check.
+     * @return False, if the uuid is definitely not in the deletion log.
+     */
+    public boolean mightBeDeleted(EntityManager _manager, DeviceGroup _group, UUID _uuid) {
+        if (mMaxGroups == 0)
+            return true;
+        int groupId = _group.getId();
+        Filter filter;
+        synchronized (mFilters) {
+            filter = mFilters.get(groupId);
+        }
+        if (filter == null || !filter.covers(_group.getChangeSeq()))
+            filter = build(_manager, groupId, _group.getChangeSeq());
+        if (filter.mightContain(_uuid)) {
+            mChecked.inc();
+            return true;
+        }
+        mSkipped.inc();
+        return false;
+    }
+
+    /**
+     * Counts a write of this server to the filter of a group. Has to be called right after the
+     * change counter was incremented (see {@code IFinder.findGroupForChange}). The transaction
+     * is counted before its commit: its own tombstones get reported before the commit as well.
+     * @param _manager The manager with the active transaction.
+     * @param _group The locked group.
+     */
+    public void begin(EntityManager _manager, DeviceGroup _group) {
+        if (mMaxGroups == 0)
+            return;
+        int groupId = _group.getId();
+        long seq = _group.getChangeSeq();
+        Filter filter;
+        synchronized (mFilters) {
+            filter = mFilters.get(groupId);
+        }
+        if (filter != null)
+            filter.advance(seq);
+        _manager.unwrap(EventSource.class).getActionQueue().registerProcess(
+                (_success, _session) -> {
+                    if (_success)
+                        return;
+                    // the counter may get used by another server now.
+                    Filter current;
+                    synchronized (mFilters) {
+                        current = mFilters.get(groupId);
+                    }
+                    if (current != null)
+                        current.retract(seq);
+                });
+    }
+
+    /**
+     * Reports a tombstone of an active transaction. It is added right away and again after the
+     * transaction completed.
+     * @param _manager The manager with the active transaction.
+     * @param _groupId The id of the group.
+     * @param _uuid The uuid of the deleted item.
+     */
+    public void addOnCommit(EntityManager _manager, int _groupId, UUID _uuid) {
+        AtomicInteger open = open(_groupId);
+        open.incrementAndGet();
+        add(_groupId, _uuid);
+        _manager.unwrap(EventSource.class).getActionQueue().registerProcess(
+                (_success, _session) -> {
+                    add(_groupId, _uuid);
+                    open.decrementAndGet();
+                });
+    }
+
+    /**
+     * Drops the filter of a group for tombstones of an active transaction, whose uuids are not
+     * known. It is dropped right away and again after the transaction completed.
+     * @param _manager The manager with the active transaction.
+     * @param _groupId The id of the group.
+     */
+    public void invalidateOnCommit(EntityManager _manager, int _groupId) {
+        AtomicInteger open = open(_groupId);
+        open.incrementAndGet();
+        invalidate(_groupId);
+        _manager.unwrap(EventSource.class).getActionQueue().registerProcess(
+                (_success, _session) -> {
+                    invalidate(_groupId);
+                    open.decrementAndGet();
+                });
+    }
+
+    /**
+     * Reports a committed tombstone.
+     * @param _groupId The id of the group.
+     * @param _uuid The uuid of the deleted item.
+     */
+    public void add(int _groupId, UUID _uuid) {
+        Filter filter;
+        synchronized (mFilters) {
+            generation(_groupId).incrementAndGet();
+            filter = mFilters.get(_groupId);
+            if (filter != null && filter.isFull())
+                mFilters.remove(_groupId);
+        }
+        if (filter != null)
+            filter.put(_uuid);
+    }
+
+    /**
+     * Drops the filter of a group, e.g. after tombstones were written without knowing their uuids
+     * or after the group was deleted. It gets rebuilt on next use.
+     * @param _groupId The id of the group.
+     */
+    public void invalidate(int _groupId) {
+        synchronized (mFilters) {
+            generation(_groupId).incrementAndGet();
+            mFilters.remove(_groupId);
+        }
+    }
+
+    /**
+     * Drops all filters. Needed if the database gets replaced.
+     */
+    public void clear() {
+        synchronized (mFilters) {
+            for (AtomicLong generation : mGenerations)
+                generation.incrementAndGet();
+            mFilters.clear();
+        }
+    }
+
+    /**
+     * @return The count of groups having a filter.
+     */
+    public int size() {
+        synchronized (mFilters) {
+            return mFilters.size();
+        }
+    }
+
+    /**
+     * Creates an empty set of filters.
+     * @param _maxGroups The maximum count of groups with a filter. 0 disables filtering.
+     * @param _metrics The registry for the metrics.
+     */
+    TombstoneFilter(int _maxGroups, MetricRegistry _metrics) {
+        mMaxGroups = Math.max(_maxGroups, 0);
+        mFilters = new LinkedHashMap<Integer, Filter>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Filter> _eldest) {
+                return size() > mMaxGroups;
+            }
+        };
+        mGenerations = new AtomicLong[GENERATION_STRIPES];
+        mOpen = new AtomicInteger[GENERATION_STRIPES];
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            mGenerations[i] = new AtomicLong();
+            mOpen[i] = new AtomicInteger();
+        }
+
+        mSkipped = _metrics.counter("tombstones.filter.skipped");
+        mChecked = _metrics.counter("tombstones.filter.checked");
+        mBuilds = _metrics.counter("tombstones.filter.builds");
+        _metrics.register("tombstones.filter.groups", (Gauge<Integer>) this::size);
+    }
+
+    public static synchronized TombstoneFilter getInstance() {
+        if (sInstance == null) {
+            sInstance = new TombstoneFilter(
+                    ConfigHelper.getInt("instalist.tombstones.filter_groups", 10000),
+                    MetricsHelper.getInstance().getRegistry());
+        }
+        return sInstance;
+    }
+
+    private Filter build(EntityManager _manager, int _groupId, long _seq) {
+        AtomicLong generation = generation(_groupId);
+        long before = generation.get();
+        List<UUID> uuids = _manager.createQuery("select do.UUID from DeletedObject do where " +
+                "do.group.id = :group", UUID.class).
+                setParameter("group", _groupId).
+                getResultList();
+        Filter rtn = new Filter(Math.max(uuids.size() * 2, MIN_CAPACITY), _seq);
+        for (UUID uuid : uuids)
+            rtn.put(uuid);
+        mBuilds.inc();
+        synchronized (mFilters) {
+            if (generation.get() == before && open(_groupId).get() == 0)
+                mFilters.put(_groupId, rtn);
+        }
+        return rtn;
+    }
+
+    private AtomicLong generation(int _groupId) {
+        return mGenerations[Math.floorMod(_groupId, GENERATION_STRIPES)];
+    }
+
+    private AtomicInteger open(int _groupId) {
+        return mOpen[Math.floorMod(_groupId, GENERATION_STRIPES)];
+    }
+
+    /**
+     * A bloom filter of uuids, reflecting the tombstones up to a change counter. Thread safe.
+     */
+    static class Filter {
+        private final AtomicLongArray mBits;
+        private final long            mBitCount;
+        private final int             mCapacity;
+        private final AtomicInteger   mSize;
+        private final TreeSet<Long>   mAhead;
+        private       long            mSeq;
+        private       boolean         mStale;
+
+        Filter(int _capacity, long _seq) {
+            mCapacity = _capacity;
+            mBits = new AtomicLongArray((int) (((long) _capacity * BITS_PER_UUID + 63) / 64));
+            mBitCount = mBits.length() * 64L;
+            mSize = new AtomicInteger();
+            mAhead = new TreeSet<>();
+            mSeq = _seq;
+        }
+
+        /**
+         * @param _seq The change counter of the group.
+         * @return Whether all changes up to the counter are known.
+         */
+        synchronized boolean covers(long _seq) {
+            return !mStale && _seq <= mSeq;
+        }
+
+        /**
+         * Marks the change with the counter as known. Changes following a gap (made by another
+         * server) only get known, when the gap is closed.
+         */
+        synchronized void advance(long _seq) {
+            if (_seq <= mSeq)
+                return;
+            mAhead.add(_seq);
+            if (mAhead.size() > MAX_AHEAD) {
+                mStale = true;
+                mAhead.clear();
+            }
+            while (mAhead.remove(mSeq + 1))
+                mSeq++;
+        }
+
+        /**
+         * Marks the change with the counter and all later ones as unknown, e.g. after a rollback.
+         */
+        synchronized void retract(long _seq) {
+            mAhead.removeIf(_ahead -> _ahead >= _seq);
+            mSeq = Math.min(mSeq, _seq - 1);
+        }
+
+        void put(UUID _uuid) {
+            long hash1 = hash1(_uuid);
+            long hash2 = hash2(_uuid, hash1);
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Math.floorMod(hash1 + i * hash2, mBitCount);
+                long mask = 1L << bit;
+                mBits.getAndAccumulate((int) (bit >>> 6), mask, (_word, _mask) -> _word | _mask);
+            }
+            mSize.incrementAndGet();
+        }
+
+        boolean mightContain(UUID _uuid) {
+            long hash1 = hash1(_uuid);
+            long hash2 = hash2(_uuid, hash1);
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Math.floorMod(hash1 + i * hash2, mBitCount);
+                if ((mBits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+                    return false;
+            }
+            return true;
+        }
+
+        boolean isFull() {
+            return mSize.get() >= mCapacity;
+        }
+
+        private static long hash1(UUID _uuid) {
+            return mix(_uuid.getMostSignificantBits() ^ mix(_uuid.getLeastSignificantBits()));
+        }
+
+        private static long hash2(UUID _uuid, long _hash1) {
+            return mix(_hash1 ^ _uuid.getLeastSignificantBits()) | 1;
+        }
+
+        /**
+         * Finalizer of MurmurHash3, spreads client chosen uuids over all bits.
+         */
+        private static long mix(long _value) {
+            _value ^= _value >>> 33;
+            _value *= 0xff51afd7ed558ccdL;
+            _value ^= _value >>> 33;
+            _value *= 0xc4ceb9fe1a85ec53L;
+            _value ^= _value >>> 33;
+            return _value;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+-- Every item is looked up by its group and uuid (IFinder.findByGroupAndUUID). The uuid of an
+-- item is unique inside its group, so the index is unique, too. Older versions could store
+-- duplicates by concurrent requests, SchemaMigrator refuses to create the index then.
+
+CREATE UNIQUE INDEX categories_group_uuid_uq ON categories (devicegroup_id, uuid);
+CREATE UNIQUE INDEX lists_group_uuid_uq ON lists (devicegroup_id, uuid);
+CREATE UNIQUE INDEX units_group_uuid_uq ON units (devicegroup_id, uuid);
+CREATE UNIQUE INDEX products_group_uuid_uq ON products (devicegroup_id, uuid);
+CREATE UNIQUE INDEX list_entries_group_uuid_uq ON list_entries (devicegroup_id, uuid);
+CREATE UNIQUE INDEX recipes_group_uuid_uq ON recipes (devicegroup_id, uuid);
+CREATE UNIQUE INDEX ingredients_group_uuid_uq ON ingredients (devicegroup_id, uuid);
+CREATE UNIQUE INDEX tags_group_uuid_uq ON tags (devicegroup_id, uuid);
+CREATE UNIQUE INDEX tagged_products_group_uuid_uq ON tagged_products (devicegroup_id, uuid);
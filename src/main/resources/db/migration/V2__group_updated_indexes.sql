@@ -0,0 +1,12 @@
+-- Requests with "changedsince" filter by group and time of last update.
+
+CREATE INDEX categories_group_updated_idx ON categories (devicegroup_id, updated);
+CREATE INDEX lists_group_updated_idx ON lists (devicegroup_id, updated);
+CREATE INDEX units_group_updated_idx ON units (devicegroup_id, updated);
+CREATE INDEX products_group_updated_idx ON products (devicegroup_id, updated);
+CREATE INDEX list_entries_group_updated_idx ON list_entries (devicegroup_id, updated);
+CREATE INDEX recipes_group_updated_idx ON recipes (devicegroup_id, updated);
+CREATE INDEX ingredients_group_updated_idx ON ingredients (devicegroup_id, updated);
+CREATE INDEX tags_group_updated_idx ON tags (devicegroup_id, updated);
+CREATE INDEX tagged_products_group_updated_idx ON tagged_products (devicegroup_id, updated);
+CREATE INDEX deletion_log_group_updated_idx ON deletion_log (devicegroup_id, updated);
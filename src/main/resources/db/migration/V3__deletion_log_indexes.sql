@@ -0,0 +1,5 @@
+-- Sync queries read the tombstones of one type changed since a time, finders look up the
+-- newest tombstone of a uuid.
+
+CREATE INDEX deletion_log_group_type_updated_idx ON deletion_log (devicegroup_id, type, updated);
+CREATE INDEX deletion_log_group_uuid_idx ON deletion_log (devicegroup_id, uuid, type);
@@ -0,0 +1,26 @@
+-- Every write to a group increments its change counter and stamps the touched rows with the new
+-- value. Sync with a cursor reads the rows of a group with a higher value.
+
+ALTER TABLE devicegroups ADD COLUMN changeseq BIGINT NOT NULL DEFAULT 0;
+
+ALTER TABLE categories ADD COLUMN seq BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE lists ADD COLUMN seq BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE units ADD COLUMN seq BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE products ADD COLUMN seq BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE list_entries ADD COLUMN seq BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE recipes ADD COLUMN seq BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE ingredients ADD COLUMN seq BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE tags ADD COLUMN seq BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE tagged_products ADD COLUMN seq BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE deletion_log ADD COLUMN seq BIGINT NOT NULL DEFAULT 0;
+
+CREATE INDEX categories_group_seq_idx ON categories (devicegroup_id, seq);
+CREATE INDEX lists_group_seq_idx ON lists (devicegroup_id, seq);
+CREATE INDEX units_group_seq_idx ON units (devicegroup_id, seq);
+CREATE INDEX products_group_seq_idx ON products (devicegroup_id, seq);
+CREATE INDEX list_entries_group_seq_idx ON list_entries (devicegroup_id, seq);
+CREATE INDEX recipes_group_seq_idx ON recipes (devicegroup_id, seq);
+CREATE INDEX ingredients_group_seq_idx ON ingredients (devicegroup_id, seq);
+CREATE INDEX tags_group_seq_idx ON tags (devicegroup_id, seq);
+CREATE INDEX tagged_products_group_seq_idx ON tagged_products (devicegroup_id, seq);
+CREATE INDEX deletion_log_group_seq_idx ON deletion_log (devicegroup_id, seq);
@@ -0,0 +1,6 @@
+-- Groups left by their last device are only marked as deleted. The GroupReaper removes their rows
+-- in background and finds them by this column.
+
+ALTER TABLE devicegroups ADD COLUMN deleted TINYINT(1) NOT NULL DEFAULT 0;
+
+CREATE INDEX devicegroups_deleted_idx ON devicegroups (deleted);
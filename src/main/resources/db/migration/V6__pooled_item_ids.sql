@@ -0,0 +1,28 @@
+-- Items get their ids from this table in blocks of 100 instead of AUTO_INCREMENT, so Hibernate can
+-- send inserts as JDBC batches. A row holds the upper end of the last reserved block, the next
+-- block starts above it. Seeding with MAX(id) + 101 makes the first block start above all
+-- existing ids.
+
+CREATE TABLE id_generators (
+  name VARCHAR(255) NOT NULL,
+  next_id BIGINT,
+  PRIMARY KEY (name));
+
+INSERT INTO id_generators (name, next_id)
+  SELECT 'categories', COALESCE(MAX(id), 0) + 101 FROM categories;
+INSERT INTO id_generators (name, next_id)
+  SELECT 'lists', COALESCE(MAX(id), 0) + 101 FROM lists;
+INSERT INTO id_generators (name, next_id)
+  SELECT 'units', COALESCE(MAX(id), 0) + 101 FROM units;
+INSERT INTO id_generators (name, next_id)
+  SELECT 'products', COALESCE(MAX(id), 0) + 101 FROM products;
+INSERT INTO id_generators (name, next_id)
+  SELECT 'list_entries', COALESCE(MAX(id), 0) + 101 FROM list_entries;
+INSERT INTO id_generators (name, next_id)
+  SELECT 'recipes', COALESCE(MAX(id), 0) + 101 FROM recipes;
+INSERT INTO id_generators (name, next_id)
+  SELECT 'ingredients', COALESCE(MAX(id), 0) + 101 FROM ingredients;
+INSERT INTO id_generators (name, next_id)
+  SELECT 'tags', COALESCE(MAX(id), 0) + 101 FROM tags;
+INSERT INTO id_generators (name, next_id)
+  SELECT 'tagged_products', COALESCE(MAX(id), 0) + 101 FROM tagged_products;
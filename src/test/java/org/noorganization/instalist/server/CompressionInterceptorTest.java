@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server;
+
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.test.JerseyTest;
+import org.junit.Test;
+import org.noorganization.instalist.server.support.CommonEntity;
+import org.noorganization.instalist.server.support.ResponseFactory;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Application;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class CompressionInterceptorTest extends JerseyTest {
+
+    private static final String LARGE_BODY = new String(new char[4096]).replace('\0', 'a');
+
+    @Path("test")
+    public static class TestResource {
+
+        @GET
+        @Path("large")
+        @Produces("text/plain")
+        public String getLarge() {
+            return LARGE_BODY;
+        }
+
+        @GET
+        @Path("error")
+        @Produces({ "application/json" })
+        public Response getError() {
+            return ResponseFactory.generateBadRequest(CommonEntity.INVALID_DATA);
+        }
+    }
+
+    @Override
+    public Application configure() {
+        ResourceConfig rc = new ResourceConfig(TestResource.class);
+        rc.register(new CompressionInterceptor(1024));
+        rc.register(ErrorWriter.class);
+        return rc;
+    }
+
+    @Test
+    public void testChooseEncoding() throws Exception {
+        assertNull(CompressionInterceptor.chooseEncoding(null));
+        assertNull(CompressionInterceptor.chooseEncoding("identity"));
+        assertEquals("gzip", CompressionInterceptor.chooseEncoding("gzip, deflate"));
+        assertEquals("deflate", CompressionInterceptor.chooseEncoding("gzip;q=0.5, deflate"));
+        assertEquals("deflate", CompressionInterceptor.chooseEncoding("gzip;q=0, *"));
+        assertEquals("gzip", CompressionInterceptor.chooseEncoding("*"));
+        assertNull(CompressionInterceptor.chooseEncoding("*;q=0"));
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        Response gzipResponse = target("test/large").request().
+                header(HttpHeaders.ACCEPT_ENCODING, "gzip").get();
+        assertEquals(200, gzipResponse.getStatus());
+        assertEquals("gzip", gzipResponse.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(LARGE_BODY, read(new GZIPInputStream(
+                gzipResponse.readEntity(InputStream.class))));
+
+        Response deflateResponse = target("test/large").request().
+                header(HttpHeaders.ACCEPT_ENCODING, "deflate").get();
+        assertEquals("deflate", deflateResponse.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(LARGE_BODY, read(new InflaterInputStream(
+                deflateResponse.readEntity(InputStream.class))));
+
+        Response plainResponse = target("test/large").request().get();
+        assertNull(plainResponse.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(LARGE_BODY, plainResponse.readEntity(String.class));
+
+        // errors are below the threshold.
+        Response errorResponse = target("test/error").request().
+                header(HttpHeaders.ACCEPT_ENCODING, "gzip").get();
+        assertEquals(400, errorResponse.getStatus());
+        assertNull(errorResponse.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+        assertTrue(errorResponse.readEntity(String.class).contains("Sent data was invalid."));
+    }
+
+    private static String read(InputStream _input) throws IOException {
+        ByteArrayOutputStream rtn = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = _input.read(buffer)) > 0)
+            rtn.write(buffer, 0, read);
+        _input.close();
+        return new String(rtn.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server;
+
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.test.JerseyTest;
+import org.junit.Before;
+import org.junit.Test;
+import org.noorganization.instalist.server.support.RequestManager;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.Application;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+
+import static org.junit.Assert.*;
+
+public class EntityManagerListenerTest extends JerseyTest {
+
+    private static RequestManager sLastManager;
+
+    @Path("test")
+    public static class TestResource {
+
+        @Context
+        private ContainerRequestContext mRequest;
+
+        @GET
+        @Path("fail")
+        public String getFailing() {
+            sLastManager = RequestManager.of(mRequest);
+            sLastManager.get();
+            throw new IllegalStateException("unmapped");
+        }
+    }
+
+    @Override
+    public Application configure() {
+        ResourceConfig rc = new ResourceConfig(TestResource.class);
+        rc.register(EntityManagerListener.class);
+        return rc;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        new CommonData();
+        sLastManager = null;
+    }
+
+    @Test
+    public void testReleaseOnException() throws Exception {
+        Response failedResponse = target("test/fail").request().get();
+        assertEquals(500, failedResponse.getStatus());
+        assertNotNull(sLastManager);
+        // the request may finish shortly after the client received the response.
+        for (int i = 0; i < 50 && sLastManager.isOpen(); i++)
+            Thread.sleep(20);
+        assertFalse(sLastManager.isOpen());
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server;
+
+import javax.ws.rs.core.Response;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Assertions on the count of SQL statements of a request, as sent by {@link QueryCountFilter}.
+ * Resource tests have to register the filter in debug mode, e.g. with
+ * {@code rc.register(QueryCountAssert.filter())}.
+ */
+public class QueryCountAssert {
+
+    /**
+     * @return A filter sending the count of statements and logging nothing.
+     */
+    public static QueryCountFilter filter() {
+        return new QueryCountFilter(true, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Fails, if a request used more statements than expected. Used to catch N+1 queries.
+     * @param _max The maximum count of statements.
+     * @param _response The response of the request.
+     */
+    public static void assertQueryCount(int _max, Response _response) {
+        int count = getQueryCount(_response);
+        assertTrue("Request used " + count + " statements, expected at most " + _max + ".",
+                count <= _max);
+    }
+
+    /**
+     * Reads the count of statements of a request. Fails, if the response has no count.
+     * @param _response The response of the request.
+     * @return The count of statements.
+     */
+    public static int getQueryCount(Response _response) {
+        String count = _response.getHeaderString(QueryCountFilter.HEADER);
+        assertNotNull("Response has no header " + QueryCountFilter.HEADER + ".", count);
+        return Integer.parseInt(count);
+    }
+}
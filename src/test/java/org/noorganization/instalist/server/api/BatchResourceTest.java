@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.api;
+
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.test.JerseyTest;
+import org.glassfish.jersey.test.TestProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.noorganization.instalist.server.AuthenticationFilter;
+import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.EntityManagerListener;
+import org.noorganization.instalist.server.controller.impl.ControllerFactory;
+import org.noorganization.instalist.server.message.BatchResult;
+import org.noorganization.instalist.server.model.*;
+import org.noorganization.instalist.server.support.DatabaseHelper;
+
+import javax.persistence.EntityManager;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.Application;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class BatchResourceTest extends JerseyTest {
+
+    EntityManager mManager;
+    String mToken;
+    Unit mUnit;
+    DeletedObject mDeletedUnit;
+    DeviceGroup mGroup;
+    DeviceGroup mNAGroup;
+
+    @Override
+    public Application configure() {
+        enable(TestProperties.LOG_TRAFFIC);
+        enable(TestProperties.DUMP_ENTITY);
+
+        ResourceConfig rc = new ResourceConfig(BatchResource.class);
+        rc.register(AuthenticationFilter.class);
+        rc.register(EntityManagerListener.class);
+        return rc;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        CommonData data = new CommonData();
+        mManager = DatabaseHelper.getInstance().getManager();
+        mManager.getTransaction().begin();
+
+        mGroup = new DeviceGroup();
+        mUnit = new Unit().withGroup(mGroup).withName("unit1").withUUID(UUID.randomUUID());
+        mDeletedUnit = new DeletedObject().withGroup(mGroup).withUUID(UUID.randomUUID()).
+                withType(DeletedObject.Type.UNIT);
+        mNAGroup = new DeviceGroup();
+
+        Device authorizedDevice = new Device().withAuthorized(true).withGroup(mGroup).
+                withName("dev1").withSecret(data.mEncryptedSecret);
+
+        mManager.persist(mGroup);
+        mManager.persist(mUnit);
+        mManager.persist(mDeletedUnit);
+        mManager.persist(mNAGroup);
+        mManager.persist(authorizedDevice);
+        mManager.getTransaction().commit();
+
+        mManager.refresh(mGroup);
+        mManager.refresh(mUnit);
+        mManager.refresh(authorizedDevice);
+
+        mToken = ControllerFactory.getAuthController().getTokenByHttpAuth(mManager,
+                authorizedDevice.getId(), data.mSecret);
+        assertNotNull(mToken);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mManager.close();
+        super.tearDown();
+    }
+
+    @Test
+    public void testPostBatch() throws Exception {
+        String url = "/groups/%d/batch";
+        UUID newUUID = UUID.randomUUID();
+        String operations = "[" +
+                "{\"method\":\"POST\",\"type\":\"units\",\"data\":{\"uuid\":\"" + newUUID +
+                "\",\"name\":\"unit2\"}}," +
+                "{\"method\":\"PUT\",\"type\":\"units\",\"uuid\":\"" + mUnit.getUUID() +
+                "\",\"data\":{\"name\":\"unit3\"}}," +
+                "{\"method\":\"DELETE\",\"type\":\"units\",\"uuid\":\"" +
+                mDeletedUnit.getUUID() + "\"}," +
+                "{\"method\":\"DELETE\",\"type\":\"units\",\"uuid\":\"" + UUID.randomUUID() +
+                "\"}," +
+                "{\"method\":\"POST\",\"type\":\"units\",\"data\":{\"uuid\":\"" + newUUID +
+                "\",\"name\":\"unit4\"}}," +
+                "{\"method\":\"POST\",\"type\":\"unknown\",\"data\":{}}]";
+
+        Response notAuthorizedResponse = target(String.format(url, mGroup.getId())).request().
+                post(Entity.json(operations));
+        assertEquals(401, notAuthorizedResponse.getStatus());
+
+        Response wrongGroupResponse = target(String.format(url, mNAGroup.getId())).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).
+                post(Entity.json(operations));
+        assertEquals(401, wrongGroupResponse.getStatus());
+
+        Response okResponse = target(String.format(url, mGroup.getId())).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).
+                post(Entity.json(operations));
+        assertEquals(200, okResponse.getStatus());
+        BatchResult[] results = okResponse.readEntity(BatchResult[].class);
+        assertEquals(6, results.length);
+        assertEquals(201, results[0].getStatus());
+        assertNull(results[0].getMessage());
+        assertEquals(200, results[1].getStatus());
+        assertEquals(410, results[2].getStatus());
+        assertNotNull(results[2].getMessage());
+        assertEquals(404, results[3].getStatus());
+        assertEquals(409, results[4].getStatus());
+        assertEquals(400, results[5].getStatus());
+
+        mManager.clear();
+        Unit created = ControllerFactory.getUnitController(mManager).findByGroupAndUUID(
+                mManager.find(DeviceGroup.class, mGroup.getId()), newUUID);
+        assertNotNull(created);
+        assertEquals("unit2", created.getName());
+        assertEquals("unit3", mManager.find(Unit.class, mUnit.getId()).getName());
+    }
+}
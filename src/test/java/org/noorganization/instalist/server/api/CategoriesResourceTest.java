@@ -25,6 +25,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.noorganization.instalist.server.AuthenticationFilter;
 import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.EntityManagerListener;
 import org.noorganization.instalist.comm.message.CategoryInfo;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
 import org.noorganization.instalist.server.model.Category;
@@ -64,6 +65,7 @@ public class CategoriesResourceTest extends JerseyTest {
 
         ResourceConfig rtn = new ResourceConfig(CategoriesResource.class);
         rtn.register(AuthenticationFilter.class);
+        rtn.register(EntityManagerListener.class);
         return rtn;
     }
 
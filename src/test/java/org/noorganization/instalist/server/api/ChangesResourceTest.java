@@ -0,0 +1,256 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.api;
+
+import com.fasterxml.jackson.databind.util.ISO8601Utils;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.test.JerseyTest;
+import org.glassfish.jersey.test.TestProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.noorganization.instalist.server.AuthenticationFilter;
+import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.EntityManagerListener;
+import org.noorganization.instalist.server.controller.impl.ControllerFactory;
+import org.noorganization.instalist.server.message.ChangeNotification;
+import org.noorganization.instalist.server.message.ChangesInfo;
+import org.noorganization.instalist.server.model.*;
+import org.noorganization.instalist.server.support.ChangeCursor;
+import org.noorganization.instalist.server.support.DatabaseHelper;
+
+import javax.persistence.EntityManager;
+import javax.ws.rs.core.Application;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.time.Instant;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ChangesResourceTest extends JerseyTest {
+
+    EntityManager mManager;
+    String mToken;
+    Unit mUnit;
+    Product mProduct;
+    ShoppingList mList;
+    ListEntry mEntry;
+    DeletedObject mDeletedUnit;
+    DeviceGroup mGroup;
+    DeviceGroup mNAGroup;
+
+    @Override
+    public Application configure() {
+        enable(TestProperties.LOG_TRAFFIC);
+        enable(TestProperties.DUMP_ENTITY);
+
+        ResourceConfig rc = new ResourceConfig(ChangesResource.class);
+        rc.register(AuthenticationFilter.class);
+        rc.register(EntityManagerListener.class);
+        return rc;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        CommonData data = new CommonData();
+        mManager = DatabaseHelper.getInstance().getManager();
+        mManager.getTransaction().begin();
+
+        Instant creation = Instant.now().minusSeconds(10);
+        mGroup = new DeviceGroup();
+        mUnit = new Unit().withGroup(mGroup).withName("unit1").withUUID(UUID.randomUUID()).
+                withUpdated(creation);
+        mProduct = new Product().withGroup(mGroup).withName("product1").withUnit(mUnit).
+                withUUID(UUID.randomUUID()).withUpdated(creation);
+        mList = new ShoppingList().withGroup(mGroup).withName("list1").withUUID(UUID.randomUUID()).
+                withUpdated(creation);
+        mEntry = new ListEntry().withGroup(mGroup).withUUID(UUID.randomUUID()).withAmount(1f).
+                withProduct(mProduct).withList(mList).withUpdated(creation);
+        mDeletedUnit = new DeletedObject().withGroup(mGroup).withUUID(UUID.randomUUID()).
+                withType(DeletedObject.Type.UNIT).withUpdated(creation);
+        mNAGroup = new DeviceGroup();
+        Unit naUnit = new Unit().withGroup(mNAGroup).withName("unit2").withUUID(UUID.randomUUID());
+
+        Device authorizedDevice = new Device().withAuthorized(true).withGroup(mGroup).
+                withName("dev1").withSecret(data.mEncryptedSecret);
+
+        mManager.persist(mGroup);
+        mManager.persist(mUnit);
+        mManager.persist(mProduct);
+        mManager.persist(mList);
+        mManager.persist(mEntry);
+        mManager.persist(mDeletedUnit);
+        mManager.persist(mNAGroup);
+        mManager.persist(naUnit);
+        mManager.persist(authorizedDevice);
+        mManager.getTransaction().commit();
+
+        mToken = ControllerFactory.getAuthController().getTokenByHttpAuth(mManager,
+                authorizedDevice.getId(), data.mSecret);
+        assertNotNull(mToken);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mManager.close();
+        super.tearDown();
+    }
+
+    @Test
+    public void testGetChanges() throws Exception {
+        String url = "/groups/%d/changes";
+
+        Response notAuthorizedResponse = target(String.format(url, mGroup.getId())).request().get();
+        assertEquals(401, notAuthorizedResponse.getStatus());
+
+        Response wrongGroupResponse = target(String.format(url, mNAGroup.getId())).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(401, wrongGroupResponse.getStatus());
+
+        Response invalidSinceResponse = target(String.format(url, mGroup.getId())).
+                queryParam("since", "yesterday").request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(400, invalidSinceResponse.getStatus());
+
+        Response allResponse = target(String.format(url, mGroup.getId())).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(200, allResponse.getStatus());
+        ChangesInfo all = allResponse.readEntity(ChangesInfo.class);
+        assertEquals(2, all.getUnits().size());
+        assertEquals(1, all.getProducts().size());
+        assertEquals(mUnit.getUUID(), UUID.fromString(all.getProducts().get(0).getUnitUUID()));
+        assertEquals(1, all.getLists().size());
+        assertEquals(1, all.getEntries().size());
+        assertEquals(mProduct.getUUID(),
+                UUID.fromString(all.getEntries().get(0).getProductUUID()));
+        assertEquals(0, all.getCategories().size());
+        assertEquals(mEntry.getUpdated(), all.getLastChanged().toInstant());
+        for (int i = 0; i < all.getUnits().size(); i++) {
+            if (mDeletedUnit.getUUID().equals(UUID.fromString(all.getUnits().get(i).getUUID())))
+                assertTrue(all.getUnits().get(i).getDeleted());
+            else
+                assertFalse(all.getUnits().get(i).getDeleted());
+        }
+
+        mManager.getTransaction().begin();
+        mList.setName("list1b");
+        mList.setUpdated(Instant.now());
+        mManager.getTransaction().commit();
+
+        Response changedResponse = target(String.format(url, mGroup.getId())).
+                queryParam("since", ISO8601Utils.format(Date.from(all.getLastChanged().
+                        toInstant()), true)).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(200, changedResponse.getStatus());
+        ChangesInfo changed = changedResponse.readEntity(ChangesInfo.class);
+        assertEquals(1, changed.getLists().size());
+        assertEquals("list1b", changed.getLists().get(0).getName());
+        assertEquals(0, changed.getUnits().size());
+        assertEquals(0, changed.getEntries().size());
+        assertEquals(mList.getUpdated(), changed.getLastChanged().toInstant());
+    }
+
+    @Test
+    public void testGetChangesWithCursor() throws Exception {
+        String url = "/groups/%d/changes";
+
+        Response invalidCursorResponse = target(String.format(url, mGroup.getId())).
+                queryParam("cursor", "no cursor").request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(400, invalidCursorResponse.getStatus());
+
+        Response allResponse = target(String.format(url, mGroup.getId())).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(200, allResponse.getStatus());
+        ChangesInfo all = allResponse.readEntity(ChangesInfo.class);
+        assertNotNull(all.getCursor());
+        assertEquals(all.getCursor(), allResponse.getHeaderString(ChangeCursor.HEADER));
+
+        // A client with a clock far behind: the change is older than everything already synced.
+        UUID categoryUUID = UUID.randomUUID();
+        ControllerFactory.getCategoryController(mManager).add(mGroup.getId(), categoryUUID,
+                "cat1", Instant.now().minusSeconds(3600));
+
+        Response bySinceResponse = target(String.format(url, mGroup.getId())).
+                queryParam("since", ISO8601Utils.format(all.getLastChanged(), true)).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(200, bySinceResponse.getStatus());
+        assertEquals(0, bySinceResponse.readEntity(ChangesInfo.class).getCategories().size());
+
+        Response byCursorResponse = target(String.format(url, mGroup.getId())).
+                queryParam("cursor", all.getCursor()).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(200, byCursorResponse.getStatus());
+        ChangesInfo byCursor = byCursorResponse.readEntity(ChangesInfo.class);
+        assertEquals(1, byCursor.getCategories().size());
+        assertEquals(categoryUUID, UUID.fromString(byCursor.getCategories().get(0).getUUID()));
+        assertEquals(0, byCursor.getUnits().size());
+        assertEquals(0, byCursor.getLists().size());
+        assertNotEquals(all.getCursor(), byCursor.getCursor());
+
+        Response unchangedResponse = target(String.format(url, mGroup.getId())).
+                queryParam("cursor", byCursor.getCursor()).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(200, unchangedResponse.getStatus());
+        assertEquals(0, unchangedResponse.readEntity(ChangesInfo.class).getCategories().size());
+    }
+
+    @Test
+    public void testPollChanges() throws Exception {
+        String url = "/groups/%d/changes";
+
+        Response invalidCursorResponse = target(String.format(url + "/poll", mGroup.getId())).
+                queryParam("cursor", "no cursor").request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(400, invalidCursorResponse.getStatus());
+
+        Response allResponse = target(String.format(url, mGroup.getId())).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(200, allResponse.getStatus());
+        String cursor = allResponse.readEntity(ChangesInfo.class).getCursor();
+
+        Response unchangedResponse = target(String.format(url + "/poll", mGroup.getId())).
+                queryParam("cursor", cursor).queryParam("wait", 1).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(204, unchangedResponse.getStatus());
+
+        Future<Response> waiting = target(String.format(url + "/poll", mGroup.getId())).
+                queryParam("cursor", cursor).queryParam("wait", 10).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).async().get();
+        ControllerFactory.getUnitController(mManager).add(mGroup.getId(), UUID.randomUUID(),
+                "unit3", Instant.now());
+        Response changedResponse = waiting.get(10, TimeUnit.SECONDS);
+        assertEquals(200, changedResponse.getStatus());
+        ChangeNotification changed = changedResponse.readEntity(ChangeNotification.class);
+        assertNotEquals(cursor, changed.getCursor());
+
+        // the change happened before polling, so the answer comes right away.
+        Response missedResponse = target(String.format(url + "/poll", mGroup.getId())).
+                queryParam("cursor", cursor).queryParam("wait", 10).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(200, missedResponse.getStatus());
+        ChangeNotification missed = missedResponse.readEntity(ChangeNotification.class);
+        assertEquals(ChangeCursor.parse(changed.getCursor()).getSeq(),
+                ChangeCursor.parse(missed.getCursor()).getSeq());
+    }
+}
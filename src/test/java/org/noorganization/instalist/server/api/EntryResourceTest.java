@@ -26,6 +26,8 @@ import org.junit.Test;
 import org.noorganization.instalist.comm.message.EntryInfo;
 import org.noorganization.instalist.server.AuthenticationFilter;
 import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.EntityManagerListener;
+import org.noorganization.instalist.server.QueryCountAssert;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
 import org.noorganization.instalist.server.model.*;
 import org.noorganization.instalist.server.support.DatabaseHelper;
@@ -42,6 +44,8 @@ import java.util.List;
 import java.util.UUID;
 
 import static org.junit.Assert.*;
+import static org.noorganization.instalist.server.QueryCountAssert.assertQueryCount;
+import static org.noorganization.instalist.server.QueryCountAssert.getQueryCount;
 
 public class EntryResourceTest extends JerseyTest {
 
@@ -64,6 +68,8 @@ public class EntryResourceTest extends JerseyTest {
 
         ResourceConfig rc = new ResourceConfig(EntryResource.class);
         rc.register(AuthenticationFilter.class);
+        rc.register(EntityManagerListener.class);
+        rc.register(QueryCountAssert.filter());
         return rc;
     }
 
@@ -150,6 +156,7 @@ public class EntryResourceTest extends JerseyTest {
         Response okResponse1 = target(String.format(url, mGroup.getId())).request().
                 header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
         assertEquals(200, okResponse1.getStatus());
+        assertQueryCount(3, okResponse1);
         EntryInfo[] allEntryInfo = okResponse1.readEntity(EntryInfo[].class);
         assertEquals(2, allEntryInfo.length);
         for(EntryInfo current: allEntryInfo) {
@@ -218,6 +225,7 @@ public class EntryResourceTest extends JerseyTest {
                 mEntry.getUUID().toString())).request().
                 header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
         assertEquals(200, okResponse1.getStatus());
+        assertQueryCount(1, okResponse1);
         EntryInfo returnedEntryInfo = okResponse1.readEntity(EntryInfo.class);
         assertNotNull(returnedEntryInfo);
         assertEquals(mEntry.getUpdated(), returnedEntryInfo.getLastChanged().toInstant());
@@ -229,6 +237,27 @@ public class EntryResourceTest extends JerseyTest {
         assertFalse(returnedEntryInfo.getDeleted());
     }
 
+    @Test
+    public void testGetEntriesStatementCount() throws Exception {
+        String url = "/groups/%d/listentries";
+
+        int fewStatements = countStatements(String.format(url, mGroup.getId()));
+
+        mManager.getTransaction().begin();
+        for (int i = 0; i < 20; i++) {
+            mManager.persist(new ListEntry().withGroup(mGroup).withUUID(UUID.randomUUID()).
+                    withAmount(1f).withProduct(mProduct).withList(mList));
+        }
+        mManager.getTransaction().commit();
+
+        int manyStatements = countStatements(String.format(url, mGroup.getId()));
+        assertEquals(fewStatements, manyStatements);
+
+        int singleStatements = countStatements(String.format(url + "/%s", mGroup.getId(),
+                mEntry.getUUID().toString()));
+        assertEquals(1, singleStatements);
+    }
+
     @Test
     public void testPostEntry() throws Exception {
         String url = "/groups/%d/listentries";
@@ -371,4 +400,12 @@ public class EntryResourceTest extends JerseyTest {
         assertEquals(1, savedDeletedEntries.size());
         assertTrue(preDelete.isBefore(savedDeletedEntries.get(0).getUpdated()));
     }
+
+    private int countStatements(String _path) {
+        Response response = target(_path).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(200, response.getStatus());
+        response.readEntity(String.class);
+        return getQueryCount(response);
+    }
 }
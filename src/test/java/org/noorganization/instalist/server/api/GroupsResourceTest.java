@@ -16,6 +16,7 @@
 
 package org.noorganization.instalist.server.api;
 
+import com.codahale.metrics.Timer;
 import org.glassfish.jersey.internal.util.Base64;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.jersey.test.JerseyTest;
@@ -30,11 +31,14 @@ import org.noorganization.instalist.comm.message.GroupInfo;
 import org.noorganization.instalist.comm.message.TokenInfo;
 import org.noorganization.instalist.server.AuthenticationFilter;
 import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.EntityManagerListener;
 import org.noorganization.instalist.server.controller.IAuthController;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
 import org.noorganization.instalist.server.model.Device;
 import org.noorganization.instalist.server.model.DeviceGroup;
 import org.noorganization.instalist.server.support.DatabaseHelper;
+import org.noorganization.instalist.server.support.GroupReaper;
+import org.noorganization.instalist.server.support.MetricsHelper;
 
 import javax.persistence.EntityManager;
 import javax.ws.rs.client.Entity;
@@ -62,6 +66,7 @@ public class GroupsResourceTest extends JerseyTest{
         enable(TestProperties.DUMP_ENTITY);
         ResourceConfig rc = new ResourceConfig(GroupsResource.class);
         rc.register(AuthenticationFilter.class);
+        rc.register(EntityManagerListener.class);
         return rc;
     }
 
@@ -118,6 +123,16 @@ public class GroupsResourceTest extends JerseyTest{
         assertEquals(200, okResponse.getStatus());
         TokenInfo acceptedToken = okResponse.readEntity(TokenInfo.class);
         assertTrue(acceptedToken.getToken().length() == 32);
+
+        // answered from the verified secrets, without BCrypt.
+        Timer verify = MetricsHelper.getInstance().getRegistry().timer("crypto.verify");
+        long verified = verify.getCount();
+        Response cachedResponse = target(url).request().header(HttpHeaders.AUTHORIZATION,
+                "Basic " + Base64.encodeAsString(mDeviceWAuth.getId() + ":" + mData.mSecret)).get();
+        assertEquals(200, cachedResponse.getStatus());
+        assertNotEquals(acceptedToken.getToken(), cachedResponse.readEntity(TokenInfo.class).
+                getToken());
+        assertEquals(verified, verify.getCount());
     }
 
     @Test
@@ -309,6 +324,9 @@ public class GroupsResourceTest extends JerseyTest{
         assertEquals(200, okResponse2.getStatus());
         mManager.clear();
         assertNull(mManager.find(Device.class, mDeviceWAuth.getId()));
+        assertTrue(mManager.find(DeviceGroup.class, mGroup.getId()).getDeleted());
+        GroupReaper.getInstance().reap(mManager, mGroup.getId());
+        mManager.clear();
         assertNull(mManager.find(DeviceGroup.class, mGroup.getId()));
     }
 }
\ No newline at end of file
@@ -26,6 +26,8 @@ import org.junit.Test;
 import org.noorganization.instalist.comm.message.IngredientInfo;
 import org.noorganization.instalist.server.AuthenticationFilter;
 import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.EntityManagerListener;
+import org.noorganization.instalist.server.QueryCountAssert;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
 import org.noorganization.instalist.server.model.*;
 import org.noorganization.instalist.server.support.DatabaseHelper;
@@ -42,6 +44,7 @@ import java.util.List;
 import java.util.UUID;
 
 import static org.junit.Assert.*;
+import static org.noorganization.instalist.server.QueryCountAssert.assertQueryCount;
 
 public class IngredientResourceTest extends JerseyTest {
 
@@ -64,6 +67,8 @@ public class IngredientResourceTest extends JerseyTest {
 
         ResourceConfig rc = new ResourceConfig(IngredientResource.class);
         rc.register(AuthenticationFilter.class);
+        rc.register(EntityManagerListener.class);
+        rc.register(QueryCountAssert.filter());
         return rc;
     }
 
@@ -150,6 +155,7 @@ public class IngredientResourceTest extends JerseyTest {
         Response okResponse1 = target(String.format(url, mGroup.getId())).request().
                 header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
         assertEquals(200, okResponse1.getStatus());
+        assertQueryCount(3, okResponse1);
         IngredientInfo[] allIngredientInfo = okResponse1.readEntity(IngredientInfo[].class);
         assertEquals(2, allIngredientInfo.length);
         for(IngredientInfo current: allIngredientInfo) {
@@ -214,6 +220,7 @@ public class IngredientResourceTest extends JerseyTest {
                 mIngredient.getUUID().toString())).request().
                 header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
         assertEquals(200, okResponse1.getStatus());
+        assertQueryCount(1, okResponse1);
         IngredientInfo returnedIngredientInfo = okResponse1.readEntity(IngredientInfo.class);
         assertNotNull(returnedIngredientInfo);
         assertEquals(mIngredient.getUpdated(), returnedIngredientInfo.getLastChanged().toInstant());
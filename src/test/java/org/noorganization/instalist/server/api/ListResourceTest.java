@@ -26,6 +26,8 @@ import org.junit.Test;
 import org.noorganization.instalist.comm.message.ListInfo;
 import org.noorganization.instalist.server.AuthenticationFilter;
 import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.EntityManagerListener;
+import org.noorganization.instalist.server.QueryCountAssert;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
 import org.noorganization.instalist.server.model.*;
 import org.noorganization.instalist.server.support.DatabaseHelper;
@@ -42,6 +44,7 @@ import java.util.List;
 import java.util.UUID;
 
 import static org.junit.Assert.*;
+import static org.noorganization.instalist.server.QueryCountAssert.assertQueryCount;
 
 public class ListResourceTest extends JerseyTest {
 
@@ -63,6 +66,8 @@ public class ListResourceTest extends JerseyTest {
 
         ResourceConfig rc = new ResourceConfig(ListResource.class);
         rc.register(AuthenticationFilter.class);
+        rc.register(EntityManagerListener.class);
+        rc.register(QueryCountAssert.filter());
         return rc;
     }
 
@@ -140,6 +145,7 @@ public class ListResourceTest extends JerseyTest {
         Response okResponse1 = target(String.format(url, mGroup.getId())).request().
                 header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
         assertEquals(200, okResponse1.getStatus());
+        assertQueryCount(3, okResponse1);
         ListInfo[] allListInfo = okResponse1.readEntity(ListInfo[].class);
         assertEquals(3, allListInfo.length);
         for(ListInfo current: allListInfo) {
@@ -213,6 +219,7 @@ public class ListResourceTest extends JerseyTest {
                 mListWC.getUUID().toString())).request().
                 header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
         assertEquals(200, okResponse1.getStatus());
+        assertQueryCount(1, okResponse1);
         ListInfo returnedListInfo = okResponse1.readEntity(ListInfo.class);
         assertNotNull(returnedListInfo);
         assertEquals(mListWC.getUUID(), UUID.fromString(returnedListInfo.getUUID()));
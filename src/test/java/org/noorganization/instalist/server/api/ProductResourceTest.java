@@ -26,6 +26,8 @@ import org.junit.Test;
 import org.noorganization.instalist.comm.message.ProductInfo;
 import org.noorganization.instalist.server.AuthenticationFilter;
 import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.EntityManagerListener;
+import org.noorganization.instalist.server.QueryCountAssert;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
 import org.noorganization.instalist.server.model.*;
 import org.noorganization.instalist.server.support.DatabaseHelper;
@@ -42,6 +44,7 @@ import java.util.List;
 import java.util.UUID;
 
 import static org.junit.Assert.*;
+import static org.noorganization.instalist.server.QueryCountAssert.assertQueryCount;
 
 public class ProductResourceTest extends JerseyTest {
 
@@ -62,6 +65,8 @@ public class ProductResourceTest extends JerseyTest {
 
         ResourceConfig rc = new ResourceConfig(ProductResource.class);
         rc.register(AuthenticationFilter.class);
+        rc.register(EntityManagerListener.class);
+        rc.register(QueryCountAssert.filter());
         return rc;
     }
 
@@ -140,6 +145,7 @@ public class ProductResourceTest extends JerseyTest {
         Response okResponse1 = target(String.format(url, mGroup.getId())).request().
                 header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
         assertEquals(200, okResponse1.getStatus());
+        assertQueryCount(3, okResponse1);
         ProductInfo[] allProductInfo = okResponse1.readEntity(ProductInfo[].class);
         assertEquals(3, allProductInfo.length);
         for(ProductInfo current: allProductInfo) {
@@ -217,6 +223,7 @@ public class ProductResourceTest extends JerseyTest {
                 mProductWU.getUUID().toString())).request().
                 header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
         assertEquals(200, okResponse1.getStatus());
+        assertQueryCount(1, okResponse1);
         ProductInfo returnedProductInfo = okResponse1.readEntity(ProductInfo.class);
         assertNotNull(returnedProductInfo);
         assertEquals(mProductWU.getUUID(), UUID.fromString(returnedProductInfo.getUUID()));
@@ -375,4 +382,36 @@ public class ProductResourceTest extends JerseyTest {
         assertEquals(1, savedDeletedUnits.size());
         assertTrue(preDelete.isBefore(savedDeletedUnits.get(0).getUpdated()));
     }
+
+    @Test
+    public void testDeleteProductWithEntries() throws Exception {
+        String url = "/groups/%d/products/%s";
+
+        mManager.getTransaction().begin();
+        ShoppingList list = new ShoppingList().withGroup(mGroup).withName("list1").
+                withUUID(UUID.randomUUID());
+        mManager.persist(list);
+        for (int i = 0; i < 20; i++) {
+            mManager.persist(new ListEntry().withGroup(mGroup).withUUID(UUID.randomUUID()).
+                    withAmount(1f).withProduct(mProduct).withList(list));
+        }
+        mManager.getTransaction().commit();
+
+        Response okResponse = target(String.format(url, mGroup.getId(),
+                mProduct.getUUID().toString())).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).delete();
+        assertEquals(200, okResponse.getStatus());
+        assertQueryCount(15, okResponse);
+
+        mManager.clear();
+        TypedQuery<Long> savedEntriesQuery = mManager.createQuery("select count(e) from " +
+                "ListEntry e where e.list = :list", Long.class);
+        savedEntriesQuery.setParameter("list", list);
+        assertEquals(0L, (long) savedEntriesQuery.getSingleResult());
+        TypedQuery<Long> deletedEntriesQuery = mManager.createQuery("select count(do) from " +
+                "DeletedObject do where do.group = :group and do.type = :type", Long.class);
+        deletedEntriesQuery.setParameter("group", mGroup);
+        deletedEntriesQuery.setParameter("type", DeletedObject.Type.LISTENTRY);
+        assertEquals(20L, (long) deletedEntriesQuery.getSingleResult());
+    }
 }
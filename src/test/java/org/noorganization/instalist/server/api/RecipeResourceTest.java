@@ -26,6 +26,8 @@ import org.junit.Test;
 import org.noorganization.instalist.comm.message.RecipeInfo;
 import org.noorganization.instalist.server.AuthenticationFilter;
 import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.EntityManagerListener;
+import org.noorganization.instalist.server.QueryCountAssert;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
 import org.noorganization.instalist.server.model.*;
 import org.noorganization.instalist.server.support.DatabaseHelper;
@@ -42,6 +44,7 @@ import java.util.List;
 import java.util.UUID;
 
 import static org.junit.Assert.*;
+import static org.noorganization.instalist.server.QueryCountAssert.assertQueryCount;
 
 public class RecipeResourceTest extends JerseyTest {
 
@@ -60,6 +63,8 @@ public class RecipeResourceTest extends JerseyTest {
 
         ResourceConfig rc = new ResourceConfig(RecipeResource.class);
         rc.register(AuthenticationFilter.class);
+        rc.register(EntityManagerListener.class);
+        rc.register(QueryCountAssert.filter());
         return rc;
     }
 
@@ -130,6 +135,7 @@ public class RecipeResourceTest extends JerseyTest {
         Response okResponse1 = target(String.format(url, mGroup.getId())).request().
                 header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
         assertEquals(200, okResponse1.getStatus());
+        assertQueryCount(3, okResponse1);
         RecipeInfo[] allRecipeInfo = okResponse1.readEntity(RecipeInfo[].class);
         assertEquals(2, allRecipeInfo.length);
         for(RecipeInfo current: allRecipeInfo) {
@@ -193,6 +199,7 @@ public class RecipeResourceTest extends JerseyTest {
                 mRecipe.getUUID().toString())).request().
                 header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
         assertEquals(200, okResponse1.getStatus());
+        assertQueryCount(1, okResponse1);
         RecipeInfo returnedRecipeInfo = okResponse1.readEntity(RecipeInfo.class);
         assertNotNull(returnedRecipeInfo);
         assertEquals(mRecipe.getUUID(), UUID.fromString(returnedRecipeInfo.getUUID()));
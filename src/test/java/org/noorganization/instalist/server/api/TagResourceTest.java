@@ -26,6 +26,8 @@ import org.junit.Test;
 import org.noorganization.instalist.comm.message.TagInfo;
 import org.noorganization.instalist.server.AuthenticationFilter;
 import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.EntityManagerListener;
+import org.noorganization.instalist.server.QueryCountAssert;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
 import org.noorganization.instalist.server.model.*;
 import org.noorganization.instalist.server.support.DatabaseHelper;
@@ -42,6 +44,7 @@ import java.util.List;
 import java.util.UUID;
 
 import static org.junit.Assert.*;
+import static org.noorganization.instalist.server.QueryCountAssert.assertQueryCount;
 
 public class TagResourceTest extends JerseyTest {
 
@@ -60,6 +63,8 @@ public class TagResourceTest extends JerseyTest {
 
         ResourceConfig rc = new ResourceConfig(TagResource.class);
         rc.register(AuthenticationFilter.class);
+        rc.register(EntityManagerListener.class);
+        rc.register(QueryCountAssert.filter());
         return rc;
     }
 
@@ -129,6 +134,7 @@ public class TagResourceTest extends JerseyTest {
         Response okResponse1 = target(String.format(url, mGroup.getId())).request().
                 header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
         assertEquals(200, okResponse1.getStatus());
+        assertQueryCount(3, okResponse1);
         TagInfo[] allTagInfo = okResponse1.readEntity(TagInfo[].class);
         assertEquals(2, allTagInfo.length);
         for(TagInfo current: allTagInfo) {
@@ -192,6 +198,7 @@ public class TagResourceTest extends JerseyTest {
                 mTag.getUUID().toString())).request().
                 header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
         assertEquals(200, okResponse1.getStatus());
+        assertQueryCount(1, okResponse1);
         TagInfo returnedTagInfo = okResponse1.readEntity(TagInfo.class);
         assertNotNull(returnedTagInfo);
         assertEquals(mTag.getUUID(), UUID.fromString(returnedTagInfo.getUUID()));
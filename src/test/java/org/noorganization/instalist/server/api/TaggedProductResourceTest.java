@@ -26,6 +26,8 @@ import org.junit.Test;
 import org.noorganization.instalist.comm.message.TaggedProductInfo;
 import org.noorganization.instalist.server.AuthenticationFilter;
 import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.EntityManagerListener;
+import org.noorganization.instalist.server.QueryCountAssert;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
 import org.noorganization.instalist.server.model.*;
 import org.noorganization.instalist.server.support.DatabaseHelper;
@@ -42,6 +44,7 @@ import java.util.List;
 import java.util.UUID;
 
 import static org.junit.Assert.*;
+import static org.noorganization.instalist.server.QueryCountAssert.assertQueryCount;
 
 public class TaggedProductResourceTest extends JerseyTest {
 
@@ -64,6 +67,8 @@ public class TaggedProductResourceTest extends JerseyTest {
 
         ResourceConfig rc = new ResourceConfig(TaggedProductResource.class);
         rc.register(AuthenticationFilter.class);
+        rc.register(EntityManagerListener.class);
+        rc.register(QueryCountAssert.filter());
         return rc;
     }
 
@@ -149,6 +154,7 @@ public class TaggedProductResourceTest extends JerseyTest {
         Response okResponse1 = target(String.format(url, mGroup.getId())).request().
                 header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
         assertEquals(200, okResponse1.getStatus());
+        assertQueryCount(3, okResponse1);
         TaggedProductInfo[] allTaggedProductInfo = okResponse1.
                 readEntity(TaggedProductInfo[].class);
         assertEquals(2, allTaggedProductInfo.length);
@@ -213,6 +219,7 @@ public class TaggedProductResourceTest extends JerseyTest {
                 mTaggedProduct.getUUID().toString())).request().
                 header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
         assertEquals(200, okResponse1.getStatus());
+        assertQueryCount(1, okResponse1);
         TaggedProductInfo returnedTPInfo = okResponse1.readEntity(TaggedProductInfo.class);
         assertNotNull(returnedTPInfo);
         assertEquals(mTaggedProduct.getUpdated(), returnedTPInfo.getLastChanged().toInstant());
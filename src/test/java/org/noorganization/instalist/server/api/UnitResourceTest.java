@@ -17,6 +17,8 @@
 package org.noorganization.instalist.server.api;
 
 import com.fasterxml.jackson.databind.util.ISO8601Utils;
+import com.fasterxml.jackson.jaxrs.smile.JacksonSmileProvider;
+import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.jersey.test.JerseyTest;
 import org.glassfish.jersey.test.TestProperties;
@@ -26,6 +28,11 @@ import org.junit.Test;
 import org.noorganization.instalist.comm.message.UnitInfo;
 import org.noorganization.instalist.server.AuthenticationFilter;
 import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.ConditionalGetFilter;
+import org.noorganization.instalist.server.EntityManagerListener;
+import org.noorganization.instalist.server.InfoStreamWriter;
+import org.noorganization.instalist.server.MediaTypes;
+import org.noorganization.instalist.server.QueryCountAssert;
 import org.noorganization.instalist.server.controller.impl.ControllerFactory;
 import org.noorganization.instalist.server.model.*;
 import org.noorganization.instalist.server.support.DatabaseHelper;
@@ -34,7 +41,9 @@ import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Application;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.time.Instant;
 import java.util.Date;
@@ -42,6 +51,7 @@ import java.util.List;
 import java.util.UUID;
 
 import static org.junit.Assert.*;
+import static org.noorganization.instalist.server.QueryCountAssert.assertQueryCount;
 
 public class UnitResourceTest extends JerseyTest {
 
@@ -61,9 +71,19 @@ public class UnitResourceTest extends JerseyTest {
 
         ResourceConfig rc = new ResourceConfig(UnitResource.class);
         rc.register(AuthenticationFilter.class);
+        rc.register(ConditionalGetFilter.class);
+        rc.register(EntityManagerListener.class);
+        rc.register(QueryCountAssert.filter());
+        rc.register(JacksonSmileProvider.class);
+        rc.register(InfoStreamWriter.class);
         return rc;
     }
 
+    @Override
+    protected void configureClient(ClientConfig _config) {
+        _config.register(JacksonSmileProvider.class);
+    }
+
     @Before
     public void setUp() throws Exception {
         super.setUp();
@@ -129,6 +149,8 @@ public class UnitResourceTest extends JerseyTest {
         Response okResponse1 = target(String.format(url, mGroup.getId())).request().
                 header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
         assertEquals(200, okResponse1.getStatus());
+        // one more for the change counter read by ConditionalGetFilter.
+        assertQueryCount(4, okResponse1);
         UnitInfo[] allUnitInfo = okResponse1.readEntity(UnitInfo[].class);
         assertEquals(2, allUnitInfo.length);
         for(UnitInfo current: allUnitInfo) {
@@ -192,6 +214,7 @@ public class UnitResourceTest extends JerseyTest {
                 mUnit.getUUID().toString())).request().
                 header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
         assertEquals(200, okResponse1.getStatus());
+        assertQueryCount(2, okResponse1);
         UnitInfo returnedUnitInfo = okResponse1.readEntity(UnitInfo.class);
         assertNotNull(returnedUnitInfo);
         assertEquals(mUnit.getUUID(), UUID.fromString(returnedUnitInfo.getUUID()));
@@ -200,6 +223,82 @@ public class UnitResourceTest extends JerseyTest {
         assertFalse(returnedUnitInfo.getDeleted());
     }
 
+    @Test
+    public void testGetUnitsNotModified() throws Exception {
+        String url = String.format("/groups/%d/units", mGroup.getId());
+        String itemUrl = url + "/" + mUnit.getUUID().toString();
+
+        Response okResponse = target(url).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(200, okResponse.getStatus());
+        EntityTag tag = okResponse.getEntityTag();
+        assertNotNull(tag);
+        assertTrue(tag.isWeak());
+        assertNotNull(okResponse.getLastModified());
+        okResponse.readEntity(UnitInfo[].class);
+
+        Response notModifiedResponse = target(url).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).
+                header(HttpHeaders.IF_NONE_MATCH, tag).get();
+        assertEquals(304, notModifiedResponse.getStatus());
+        assertEquals(tag, notModifiedResponse.getEntityTag());
+        assertQueryCount(1, notModifiedResponse);
+
+        // the tag of the JSON body does not match the Smile representation.
+        Response smileResponse = target(url).request(MediaTypes.SMILE).
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).
+                header(HttpHeaders.IF_NONE_MATCH, tag).get();
+        assertEquals(200, smileResponse.getStatus());
+        assertNotEquals(tag, smileResponse.getEntityTag());
+        assertTrue(smileResponse.getHeaderString(HttpHeaders.VARY).contains(HttpHeaders.ACCEPT));
+        smileResponse.close();
+
+        Response notModifiedItemResponse = target(itemUrl).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).
+                header(HttpHeaders.IF_NONE_MATCH, tag).get();
+        assertEquals(304, notModifiedItemResponse.getStatus());
+
+        UnitInfo changedUnit = new UnitInfo().withDeleted(false).withName("changedunit");
+        changedUnit.setLastChanged(new Date());
+        Response putResponse = target(itemUrl).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).
+                put(Entity.json(changedUnit));
+        assertEquals(200, putResponse.getStatus());
+
+        Response changedResponse = target(url).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).
+                header(HttpHeaders.IF_NONE_MATCH, tag).get();
+        assertEquals(200, changedResponse.getStatus());
+        assertNotEquals(tag, changedResponse.getEntityTag());
+        assertEquals(2, changedResponse.readEntity(UnitInfo[].class).length);
+    }
+
+    @Test
+    public void testUnitsAsSmile() throws Exception {
+        String url = String.format("/groups/%d/units", mGroup.getId());
+        UnitInfo newUnit = new UnitInfo().withUUID(UUID.randomUUID()).withName("unit4");
+
+        Response createdResponse = target(url).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).
+                post(Entity.entity(newUnit, MediaTypes.SMILE));
+        assertEquals(201, createdResponse.getStatus());
+
+        Response listResponse = target(url).request(MediaTypes.SMILE).
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(200, listResponse.getStatus());
+        assertEquals(MediaType.valueOf(MediaTypes.SMILE), listResponse.getMediaType());
+        assertEquals(3, listResponse.readEntity(UnitInfo[].class).length);
+
+        Response itemResponse = target(url + "/" + newUnit.getUUID()).request(MediaTypes.SMILE).
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(200, itemResponse.getStatus());
+        assertEquals("unit4", itemResponse.readEntity(UnitInfo.class).getName());
+
+        Response jsonResponse = target(url).request().
+                header(HttpHeaders.AUTHORIZATION, "X-Token " + mToken).get();
+        assertEquals(MediaType.APPLICATION_JSON_TYPE, jsonResponse.getMediaType());
+    }
+
     @Test
     public void testPostUnit() throws Exception {
         String url = "/groups/%d/units";
@@ -98,4 +98,23 @@ public class AuthControllerTest extends JerseyTest {
         assertEquals(mDevice1, mInstance.getDeviceByToken(token2));
         assertEquals(mDevice2, mInstance.getDeviceByToken(tokenDev2));
     }
+
+    @Test
+    public void testRevalidateDevice() throws Exception {
+        String token = mInstance.getTokenByHttpAuth(mManager, mDevice1.getId(), mData.mSecret);
+        assertNotNull(token);
+
+        mManager.getTransaction().begin();
+        mDevice1.setAuthorized(false);
+        mManager.getTransaction().commit();
+        mInstance.revalidateDevice(mManager, mDevice1.getId());
+        assertNotNull(mInstance.getDeviceByToken(token));
+        assertFalse(mInstance.getDeviceByToken(token).getAuthorized());
+
+        mManager.getTransaction().begin();
+        mManager.remove(mDevice1);
+        mManager.getTransaction().commit();
+        mInstance.revalidateDevice(mManager, mDevice1.getId());
+        assertNull(mInstance.getDeviceByToken(token));
+    }
 }
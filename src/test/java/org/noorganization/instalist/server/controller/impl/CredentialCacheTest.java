@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.controller.impl;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CredentialCacheTest {
+
+    @Test
+    public void testMatches() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        CredentialCache cache = new CredentialCache(10000, 10, metrics);
+        assertFalse(cache.matches(1, "secret", "hash1"));
+
+        cache.put(1, "secret", "hash1");
+        assertTrue(cache.matches(1, "secret", "hash1"));
+        assertFalse(cache.matches(1, "other secret", "hash1"));
+        assertFalse(cache.matches(1, "secret", "hash2"));
+        assertFalse(cache.matches(2, "secret", "hash1"));
+
+        cache.invalidate(1);
+        assertFalse(cache.matches(1, "secret", "hash1"));
+        assertEquals(1, metrics.counter("auth.credentials.hits").getCount());
+        assertEquals(5, metrics.counter("auth.credentials.misses").getCount());
+    }
+
+    @Test
+    public void testBounds() throws Exception {
+        CredentialCache cache = new CredentialCache(100, 2, new MetricRegistry());
+        cache.put(1, "secret", "hash");
+        cache.put(2, "secret", "hash");
+        cache.put(3, "secret", "hash");
+        assertEquals(2, cache.size());
+        assertFalse(cache.matches(1, "secret", "hash"));
+        assertTrue(cache.matches(3, "secret", "hash"));
+
+        Thread.sleep(200);
+        assertFalse(cache.matches(3, "secret", "hash"));
+
+        CredentialCache disabled = new CredentialCache(10000, 0, new MetricRegistry());
+        disabled.put(1, "secret", "hash");
+        assertFalse(disabled.matches(1, "secret", "hash"));
+        assertEquals(0, disabled.size());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.controller.impl;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.noorganization.instalist.server.model.Device;
+import org.noorganization.instalist.server.model.DeviceGroup;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SignedTokenStoreTest {
+
+    private Map<String, byte[]> mKeys;
+    private Device mDevice;
+
+    @Before
+    public void setUp() throws Exception {
+        mKeys = new HashMap<String, byte[]>();
+        mKeys.put("k1", "0123456789abcdef0123456789abcdef".getBytes("UTF-8"));
+        mKeys.put("k2", "fedcba9876543210fedcba9876543210".getBytes("UTF-8"));
+        mDevice = new Device().withId(5).withAuthorized(true).
+                withGroup(new DeviceGroup().withId(3));
+    }
+
+    @Test
+    public void testIssueAndVerify() throws Exception {
+        SignedTokenStore store = new SignedTokenStore(mKeys, "k1", 10000, new MetricRegistry());
+        String token = store.issue(mDevice);
+        assertTrue(token.startsWith("k1."));
+
+        Device verified = store.getDevice(token);
+        assertNotNull(verified);
+        assertEquals(5, verified.getId());
+        assertEquals(3, verified.getGroup().getId());
+        assertTrue(verified.getAuthorized());
+
+        SignedTokenStore otherNode = new SignedTokenStore(mKeys, "k2", 10000,
+                new MetricRegistry());
+        assertNotNull(otherNode.getDevice(token));
+    }
+
+    @Test
+    public void testRefuseInvalid() throws Exception {
+        SignedTokenStore store = new SignedTokenStore(mKeys, "k1", 10000, new MetricRegistry());
+        String token = store.issue(mDevice);
+        String[] parts = token.split("\\.");
+
+        assertNull(store.getDevice(null));
+        assertNull(store.getDevice("wrongauth"));
+        assertNull(store.getDevice("k2." + parts[1] + "." + parts[2]));
+        assertNull(store.getDevice("k3." + parts[1] + "." + parts[2]));
+        assertNull(store.getDevice(parts[0] + "." + parts[1] + "." + parts[2].substring(1)));
+        assertNull(store.getDevice(parts[0] + ".AAAA" + parts[1] + "." + parts[2]));
+
+        Map<String, byte[]> otherKeys = new HashMap<String, byte[]>();
+        otherKeys.put("k1", "another key".getBytes("UTF-8"));
+        assertNull(new SignedTokenStore(otherKeys, "k1", 10000, new MetricRegistry()).
+                getDevice(token));
+    }
+
+    @Test
+    public void testExpiryAndRevocation() throws Exception {
+        SignedTokenStore store = new SignedTokenStore(mKeys, "k1", 100, new MetricRegistry());
+        String token = store.issue(mDevice);
+        Thread.sleep(200);
+        assertNull(store.getDevice(token));
+
+        store = new SignedTokenStore(mKeys, "k1", 10000, new MetricRegistry());
+        token = store.issue(mDevice);
+        store.remove(mDevice.getId());
+        assertNull(store.getDevice(token));
+        assertEquals(1, store.getRevocationCount());
+
+        String newToken = store.issue(mDevice);
+        assertNotNull(store.getDevice(newToken));
+    }
+}
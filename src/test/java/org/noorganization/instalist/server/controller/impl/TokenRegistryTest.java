@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.controller.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.noorganization.instalist.server.model.Device;
+import org.noorganization.instalist.server.model.DeviceGroup;
+
+import static org.junit.Assert.*;
+
+public class TokenRegistryTest {
+
+    private Device mDevice1;
+    private Device mDevice2;
+
+    @Before
+    public void setUp() throws Exception {
+        DeviceGroup group = new DeviceGroup().withId(1);
+        mDevice1 = new Device().withId(1).withGroup(group).withAuthorized(true);
+        mDevice2 = new Device().withId(2).withGroup(group).withAuthorized(true);
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        TokenRegistry registry = new TokenRegistry(10000, 10000);
+        assertTrue(registry.register("token1", mDevice1));
+        assertFalse(registry.register("token1", mDevice2));
+        assertTrue(registry.register("token2", mDevice2));
+        assertEquals(mDevice1, registry.get("token1").device);
+        assertEquals("token2", registry.getTokenForDevice(mDevice2.getId()));
+
+        assertTrue(registry.register("token3", mDevice1));
+        assertNull(registry.get("token1"));
+        assertEquals("token3", registry.getTokenForDevice(mDevice1.getId()));
+        assertEquals(2, registry.size());
+
+        registry.remove(mDevice1.getId());
+        assertNull(registry.get("token3"));
+        assertNull(registry.getTokenForDevice(mDevice1.getId()));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testIdleExpiry() throws Exception {
+        TokenRegistry registry = new TokenRegistry(100, 10000);
+        registry.register("token1", mDevice1);
+        registry.register("token2", mDevice2);
+        assertNotNull(registry.get("token1"));
+
+        Thread.sleep(200);
+        assertNull(registry.get("token1"));
+        assertNull(registry.getTokenForDevice(mDevice1.getId()));
+
+        registry.sweep();
+        assertEquals(0, registry.size());
+        assertNull(registry.getTokenForDevice(mDevice2.getId()));
+    }
+
+    @Test
+    public void testAbsoluteExpiry() throws Exception {
+        TokenRegistry registry = new TokenRegistry(10000, 300);
+        registry.register("token1", mDevice1);
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(50);
+            assertNotNull(registry.get("token1"));
+        }
+        Thread.sleep(300);
+        assertNull(registry.get("token1"));
+        assertEquals(0, registry.size());
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import org.junit.Test;
+
+import java.time.Instant;
+
+import static org.junit.Assert.*;
+
+public class ChangeCursorTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Instant issued = Instant.ofEpochMilli(1455000000123L);
+        String encoded = new ChangeCursor(42, issued).toString();
+        assertFalse(encoded.contains("42"));
+
+        ChangeCursor decoded = ChangeCursor.parse(encoded);
+        assertEquals(42, decoded.getSeq());
+        assertEquals(issued, decoded.getIssued());
+    }
+
+    @Test
+    public void testParseInvalid() throws Exception {
+        for (String invalid : new String[] { "", "no cursor", "NDI", "LTEuMTIz", "YS5i" }) {
+            try {
+                ChangeCursor.parse(invalid);
+                fail("Parsed invalid cursor: " + invalid);
+            } catch (IllegalArgumentException _expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        assertSame(ChangeFilter.ALL, ChangeFilter.of(null, null));
+        assertEquals("", ChangeFilter.ALL.getCondition("c"));
+        assertEquals(" and c.updated > :updated",
+                ChangeFilter.of(Instant.now(), null).getCondition("c"));
+
+        String cursor = new ChangeCursor(3, Instant.now()).toString();
+        assertEquals(" and c.seq > :seq", ChangeFilter.of(Instant.now(), cursor).
+                getCondition("c"));
+        assertFalse(ChangeFilter.of(null, cursor).isBeyondHorizon());
+    }
+}
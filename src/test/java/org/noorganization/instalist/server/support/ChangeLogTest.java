@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.controller.IUnitController;
+import org.noorganization.instalist.server.controller.impl.ControllerFactory;
+import org.noorganization.instalist.server.model.DeletedObject;
+import org.noorganization.instalist.server.model.DeviceGroup;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class ChangeLogTest {
+
+    private EntityManager mManager;
+    private DeviceGroup   mGroup;
+
+    @Before
+    public void setUp() throws Exception {
+        new CommonData();
+        mManager = DatabaseHelper.getInstance().getManager();
+        mManager.getTransaction().begin();
+        mGroup = new DeviceGroup();
+        mManager.persist(mGroup);
+        mManager.getTransaction().commit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mManager.close();
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        ChangeLog log = ChangeLog.getInstance();
+        IUnitController unitController = ControllerFactory.getUnitController(mManager);
+        int groupId = mGroup.getId();
+        UUID unitUUID = UUID.randomUUID();
+
+        unitController.add(groupId, unitUUID, "unit1", Instant.now());
+        ChangeLog.Window added = log.window(groupId, cursor(0), 1);
+        assertNotNull(added);
+        assertTrue(added.hasChanges(DeletedObject.Type.UNIT));
+        assertFalse(added.hasChanges(DeletedObject.Type.LIST));
+        assertEquals(0, added.getDeletions(null).size());
+
+        unitController.delete(groupId, unitUUID);
+        ChangeLog.Window deleted = log.window(groupId, cursor(1), 2);
+        assertNotNull(deleted);
+        assertFalse(deleted.hasChanges(DeletedObject.Type.UNIT));
+        List<DeletedObject> deletions = deleted.getDeletions(DeletedObject.Type.UNIT);
+        assertEquals(1, deletions.size());
+        assertEquals(unitUUID, deletions.get(0).getUUID());
+        assertEquals(0, deleted.getDeletions(DeletedObject.Type.LIST).size());
+
+        // changes not committed yet and changes selected by time are read from the database.
+        assertNull(log.window(groupId, cursor(1), 3));
+        assertNull(log.window(groupId, ChangeFilter.of(Instant.now(), null), 2));
+    }
+
+    @Test
+    public void testRollback() throws Exception {
+        ChangeLog log = new ChangeLog(10, 10, new MetricRegistry());
+        int groupId = mGroup.getId();
+
+        mManager.getTransaction().begin();
+        DeviceGroup group = lockAndIncrement();
+        log.begin(mManager, group);
+        log.record(groupId, group.getChangeSeq(), DeletedObject.Type.UNIT, UUID.randomUUID(),
+                Instant.now(), false);
+        mManager.getTransaction().rollback();
+        mManager.clear();
+        assertEquals(0, log.size());
+
+        mManager.getTransaction().begin();
+        group = lockAndIncrement();
+        log.begin(mManager, group);
+        log.record(groupId, group.getChangeSeq(), DeletedObject.Type.LIST, null, Instant.now(),
+                true);
+        mManager.getTransaction().commit();
+        ChangeLog.Window window = log.window(groupId, cursor(0), 1);
+        assertNotNull(window);
+        assertFalse(window.hasChanges(DeletedObject.Type.UNIT));
+        assertNull(window.getDeletions(null));
+    }
+
+    private DeviceGroup lockAndIncrement() {
+        DeviceGroup rtn = mManager.find(DeviceGroup.class, mGroup.getId(),
+                LockModeType.PESSIMISTIC_WRITE);
+        rtn.setChangeSeq(rtn.getChangeSeq() + 1);
+        return rtn;
+    }
+
+    private static ChangeFilter cursor(long _seq) {
+        return ChangeFilter.of(null, new ChangeCursor(_seq, Instant.now()).toString());
+    }
+}
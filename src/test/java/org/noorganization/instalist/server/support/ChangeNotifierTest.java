@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.message.ChangeNotification;
+import org.noorganization.instalist.server.model.DeletedObject;
+import org.noorganization.instalist.server.model.DeviceGroup;
+
+import javax.persistence.EntityManager;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ChangeNotifierTest {
+
+    private EntityManager mManager;
+    private DeviceGroup   mGroup;
+
+    @Before
+    public void setUp() throws Exception {
+        new CommonData();
+        mManager = DatabaseHelper.getInstance().getManager();
+        mManager.getTransaction().begin();
+        mGroup = new DeviceGroup();
+        mManager.persist(mGroup);
+        mManager.getTransaction().commit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mManager.close();
+    }
+
+    @Test
+    public void testSubscribe() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        ChangeNotifier notifier = new ChangeNotifier(2, 3, 30, 16, 10, 4, metrics);
+        ChangeNotifier.Subscriber first = _notification -> true;
+        ChangeNotifier.Subscriber second = _notification -> true;
+        ChangeNotifier.Subscriber third = _notification -> true;
+
+        assertTrue(notifier.subscribe(1, first));
+        assertTrue(notifier.subscribe(1, second));
+        assertFalse(notifier.subscribe(1, third));
+        assertTrue(notifier.subscribe(2, third));
+        assertFalse(notifier.subscribe(3, _notification -> true));
+        assertEquals(3, notifier.size());
+        assertEquals(2, metrics.counter("notify.rejected").getCount());
+
+        notifier.unsubscribe(1, first);
+        notifier.unsubscribe(1, first);
+        assertEquals(2, notifier.size());
+        assertTrue(notifier.subscribe(3, first));
+    }
+
+    @Test
+    public void testNotifyOnCommit() throws Exception {
+        ChangeNotifier notifier = new ChangeNotifier(10, 10, 30, 16, 10, 4, new MetricRegistry());
+        BlockingQueue<ChangeNotification> received = new LinkedBlockingQueue<>();
+        assertTrue(notifier.subscribe(mGroup.getId(), received::add));
+
+        mManager.getTransaction().begin();
+        notifier.notifyOnCommit(mManager, mGroup, DeletedObject.Type.UNIT);
+        mManager.getTransaction().rollback();
+        assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+
+        mManager.getTransaction().begin();
+        mGroup = mManager.find(DeviceGroup.class, mGroup.getId());
+        mGroup.setChangeSeq(mGroup.getChangeSeq() + 1);
+        notifier.notifyOnCommit(mManager, mGroup, DeletedObject.Type.PRODUCT);
+        notifier.notifyOnCommit(mManager, mGroup, DeletedObject.Type.LISTENTRY);
+        mManager.getTransaction().commit();
+
+        // both changes are usually merged into one notification, but may arrive in two.
+        Set<String> types = new HashSet<>();
+        ChangeNotification notification = null;
+        while (types.size() < 2) {
+            notification = received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(notification);
+            types.addAll(notification.getTypes());
+        }
+        assertTrue(types.contains("products"));
+        assertTrue(types.contains("listentries"));
+        assertEquals(mGroup.getChangeSeq(), ChangeCursor.parse(notification.getCursor()).
+                getSeq());
+    }
+
+    @Test
+    public void testSlowSubscriber() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        ChangeNotifier notifier = new ChangeNotifier(10, 10, 30, 2, 10, 4, metrics);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch dropped = new CountDownLatch(1);
+        ChangeNotifier.Subscriber blocked = new ChangeNotifier.Subscriber() {
+            @Override
+            public boolean onChange(ChangeNotification _notification) {
+                try {
+                    release.await();
+                } catch (InterruptedException _e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+
+            @Override
+            public void onDropped() {
+                dropped.countDown();
+            }
+        };
+        BlockingQueue<ChangeNotification> received = new LinkedBlockingQueue<>();
+        assertTrue(notifier.subscribe(1, blocked));
+        assertTrue(notifier.subscribe(1, received::add));
+
+        // the blocked client must not delay the other one.
+        for (long seq = 1; seq <= 5; seq++) {
+            notifier.publish(1, seq, DeletedObject.Type.UNIT);
+            assertNotNull(received.poll(5, TimeUnit.SECONDS));
+        }
+        assertTrue(dropped.await(5, TimeUnit.SECONDS));
+        assertEquals(1, notifier.size());
+        assertEquals(1, metrics.counter("notify.dropped").getCount());
+        release.countDown();
+        notifier.stop();
+    }
+}
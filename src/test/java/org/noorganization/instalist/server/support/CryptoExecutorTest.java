@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CryptoExecutorTest {
+
+    private CryptoExecutor mExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        mExecutor = new CryptoExecutor(1, 1, 3, new MetricRegistry());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mExecutor.stop();
+    }
+
+    @Test
+    public void testRefuseIfBusy() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> running = new CompletableFuture<Object>();
+        CompletableFuture<Object> waiting = new CompletableFuture<Object>();
+        CompletableFuture<Object> refused = new CompletableFuture<Object>();
+        mExecutor.execute(response(running), () -> {
+            release.await();
+            return Response.ok().build();
+        });
+        mExecutor.execute(response(waiting), () -> Response.ok().build());
+        mExecutor.execute(response(refused), () -> Response.ok().build());
+
+        Response refusedResponse = (Response) refused.get(1, TimeUnit.SECONDS);
+        assertEquals(503, refusedResponse.getStatus());
+        assertEquals("3", refusedResponse.getHeaderString(HttpHeaders.RETRY_AFTER));
+        assertFalse(running.isDone());
+        assertFalse(waiting.isDone());
+
+        release.countDown();
+        assertEquals(200, ((Response) running.get(5, TimeUnit.SECONDS)).getStatus());
+        assertEquals(200, ((Response) waiting.get(5, TimeUnit.SECONDS)).getStatus());
+    }
+
+    @Test
+    public void testPassException() throws Exception {
+        CompletableFuture<Object> result = new CompletableFuture<Object>();
+        IllegalStateException thrown = new IllegalStateException("task failed");
+        mExecutor.execute(response(result), () -> {
+            throw thrown;
+        });
+        assertSame(thrown, result.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Creates a suspended response completing the future with the value it gets resumed with.
+     */
+    private static AsyncResponse response(CompletableFuture<Object> _result) {
+        return (AsyncResponse) Proxy.newProxyInstance(AsyncResponse.class.getClassLoader(),
+                new Class<?>[]{ AsyncResponse.class }, (_proxy, _method, _args) -> {
+                    if (_method.getName().equals("resume"))
+                        return _result.complete(_args[0]);
+                    return (_method.getReturnType() == boolean.class ? false : null);
+                });
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.controller.IProductController;
+import org.noorganization.instalist.server.controller.impl.ControllerFactory;
+import org.noorganization.instalist.server.model.DeviceGroup;
+import org.noorganization.instalist.server.model.Product;
+
+import javax.persistence.EntityManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class EntityCacheTest {
+
+    private EntityManager mManager;
+    private DeviceGroup   mGroup;
+    private Product       mProduct;
+
+    @Before
+    public void setUp() throws Exception {
+        new CommonData();
+        mManager = DatabaseHelper.getInstance().getManager();
+        mManager.getTransaction().begin();
+        mGroup = new DeviceGroup();
+        mProduct = new Product().withGroup(mGroup).withName("product1").
+                withUUID(UUID.randomUUID());
+        mManager.persist(mGroup);
+        mManager.persist(mProduct);
+        mManager.getTransaction().commit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mManager.close();
+    }
+
+    @Test
+    public void testIds() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        EntityCache cache = new EntityCache(100, 2, metrics);
+        UUID uuid = UUID.randomUUID();
+        assertNull(cache.getId(Product.class, 1, uuid));
+
+        cache.putId(Product.class, 1, uuid, 5);
+        assertEquals(Integer.valueOf(5), cache.getId(Product.class, 1, uuid));
+        assertNull(cache.getId(Product.class, 2, uuid));
+        assertNull(cache.getId(Product.class, 1, UUID.randomUUID()));
+
+        cache.putId(Product.class, 2, uuid, 6);
+        cache.putId(Product.class, 3, uuid, 7);
+        assertEquals(2, cache.size());
+        assertNull(cache.getId(Product.class, 1, uuid));
+
+        cache.invalidate(Product.class, 3, uuid);
+        assertNull(cache.getId(Product.class, 3, uuid));
+        Thread.sleep(200);
+        assertNull(cache.getId(Product.class, 2, uuid));
+        assertEquals(1, metrics.counter("cache.ids.hits").getCount());
+        assertEquals(6, metrics.counter("cache.ids.misses").getCount());
+    }
+
+    @Test
+    public void testFindCached() throws Exception {
+        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        IProductController controller = ControllerFactory.getProductController(manager);
+        DeviceGroup group = manager.find(DeviceGroup.class, mGroup.getId());
+        assertEquals(mProduct.getId(), controller.findByGroupAndUUID(group,
+                mProduct.getUUID()).getId());
+        manager.close();
+
+        QueryCounter.start();
+        manager = DatabaseHelper.getInstance().getManager();
+        controller = ControllerFactory.getProductController(manager);
+        group = manager.find(DeviceGroup.class, mGroup.getId());
+        assertEquals(mProduct.getId(), controller.findByGroupAndUUID(group,
+                mProduct.getUUID()).getId());
+        manager.close();
+        assertEquals(0, QueryCounter.stop().getTotal());
+    }
+
+    @Test
+    public void testChangeBypassesCache() throws Exception {
+        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        IProductController controller = ControllerFactory.getProductController(manager);
+        DeviceGroup group = manager.find(DeviceGroup.class, mGroup.getId());
+        assertNotNull(controller.findByGroupAndUUID(group, mProduct.getUUID()));
+        manager.close();
+
+        // a write of another server, not seen by the second level cache.
+        try (Connection connection = DatabaseHelper.getInstance().getPool().getConnection();
+             PreparedStatement update = connection.prepareStatement("UPDATE products SET " +
+                     "name = 'product2' WHERE id = ?")) {
+            update.setInt(1, mProduct.getId());
+            update.executeUpdate();
+            connection.commit();
+        }
+
+        manager = DatabaseHelper.getInstance().getManager();
+        controller = ControllerFactory.getProductController(manager);
+        group = manager.find(DeviceGroup.class, mGroup.getId());
+        assertEquals("product1", controller.findByGroupAndUUID(group, mProduct.getUUID()).
+                getName());
+        manager.close();
+
+        manager = DatabaseHelper.getInstance().getManager();
+        controller = ControllerFactory.getProductController(manager);
+        manager.getTransaction().begin();
+        group = controller.findGroupForChange(mGroup.getId());
+        assertEquals("product2", controller.findByGroupAndUUID(group, mProduct.getUUID()).
+                getName());
+        manager.getTransaction().rollback();
+        manager.close();
+    }
+
+    @Test
+    public void testDeleteInvalidates() throws Exception {
+        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        IProductController controller = ControllerFactory.getProductController(manager);
+        DeviceGroup group = manager.find(DeviceGroup.class, mGroup.getId());
+        assertNotNull(controller.findByGroupAndUUID(group, mProduct.getUUID()));
+        controller.delete(mGroup.getId(), mProduct.getUUID());
+        manager.close();
+
+        manager = DatabaseHelper.getInstance().getManager();
+        controller = ControllerFactory.getProductController(manager);
+        group = manager.find(DeviceGroup.class, mGroup.getId());
+        assertEquals(mGroup.getChangeSeq() + 1, group.getChangeSeq());
+        assertNull(controller.findByGroupAndUUID(group, mProduct.getUUID()));
+        manager.close();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.model.*;
+
+import javax.persistence.EntityManager;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GroupReaperTest {
+
+    private EntityManager mManager;
+    private DeviceGroup   mGroup;
+    private DeviceGroup   mOtherGroup;
+
+    @Before
+    public void setUp() throws Exception {
+        new CommonData();
+        mManager = DatabaseHelper.getInstance().getManager();
+        mManager.getTransaction().begin();
+        mGroup = new DeviceGroup().withDeleted(true);
+        mOtherGroup = new DeviceGroup();
+        mManager.persist(mGroup);
+        mManager.persist(mOtherGroup);
+        fill(mGroup);
+        fill(mOtherGroup);
+        mManager.getTransaction().commit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mManager.close();
+    }
+
+    @Test
+    public void testReap() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        GroupReaper reaper = new GroupReaper(2, metrics);
+        int groupId = mGroup.getId();
+
+        assertEquals(8 + 1, reaper.reap(mManager, groupId));
+        assertEquals(1, metrics.counter("groups.reaped").getCount());
+        assertEquals(8 + 1, metrics.counter("groups.reaped_rows").getCount());
+        assertEquals(0, reaper.reap(mManager, groupId));
+
+        mManager.clear();
+        assertNull(mManager.find(DeviceGroup.class, groupId));
+        assertEquals(0L, countItems(groupId));
+        assertNotNull(mManager.find(DeviceGroup.class, mOtherGroup.getId()));
+        assertEquals(8L, countItems(mOtherGroup.getId()));
+
+        reaper.reap(mManager);
+        assertEquals(0, metrics.getGauges().get("groups.reaper_pending").getValue());
+        assertNotNull(mManager.find(DeviceGroup.class, mOtherGroup.getId()));
+    }
+
+    @Test
+    public void testReapNotDeleted() throws Exception {
+        GroupReaper reaper = new GroupReaper(2, new MetricRegistry());
+        assertEquals(0, reaper.reap(mManager, mOtherGroup.getId()));
+        mManager.clear();
+        assertNotNull(mManager.find(DeviceGroup.class, mOtherGroup.getId()));
+    }
+
+    private void fill(DeviceGroup _group) {
+        Unit unit = new Unit().withGroup(_group).withName("unit").withUUID(UUID.randomUUID());
+        Product product = new Product().withGroup(_group).withName("product").withUnit(unit).
+                withUUID(UUID.randomUUID());
+        ShoppingList list = new ShoppingList().withGroup(_group).withName("list").
+                withUUID(UUID.randomUUID());
+        mManager.persist(unit);
+        mManager.persist(product);
+        mManager.persist(list);
+        for (int i = 0; i < 3; i++) {
+            mManager.persist(new ListEntry().withGroup(_group).withUUID(UUID.randomUUID()).
+                    withAmount(1f).withProduct(product).withList(list));
+        }
+        mManager.persist(new DeletedObject().withGroup(_group).withUUID(UUID.randomUUID()).
+                withType(DeletedObject.Type.UNIT));
+        mManager.persist(new Device().withGroup(_group).withName("device").withSecret("secret"));
+    }
+
+    private long countItems(int _groupId) {
+        long rtn = 0;
+        for (String entity : new String[]{ "Unit", "Product", "ShoppingList", "ListEntry",
+                "DeletedObject", "Device" }) {
+            rtn += mManager.createQuery("select count(e) from " + entity + " e where " +
+                    "e.group.id = :group", Long.class).setParameter("group", _groupId).
+                    getSingleResult();
+        }
+        return rtn;
+    }
+}
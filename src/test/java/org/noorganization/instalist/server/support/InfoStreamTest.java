@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.model.DeletedObject;
+import org.noorganization.instalist.server.model.DeviceGroup;
+import org.noorganization.instalist.server.model.Unit;
+
+import javax.persistence.EntityManager;
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class InfoStreamTest {
+
+    private EntityManager mManager;
+    private DeviceGroup   mGroup;
+
+    @Before
+    public void setUp() throws Exception {
+        new CommonData();
+        mManager = DatabaseHelper.getInstance().getManager();
+        mManager.getTransaction().begin();
+        mGroup = new DeviceGroup();
+        mManager.persist(mGroup);
+        for (int i = 0; i < 7; i++) {
+            mManager.persist(new Unit().withGroup(mGroup).withName("unit" + i).
+                    withUUID(UUID.randomUUID()));
+        }
+        for (int i = 0; i < 2; i++) {
+            mManager.persist(new DeletedObject().withGroup(mGroup).withUUID(UUID.randomUUID()).
+                    withType(DeletedObject.Type.UNIT));
+        }
+        DeviceGroup otherGroup = new DeviceGroup();
+        mManager.persist(otherGroup);
+        mManager.persist(new Unit().withGroup(otherGroup).withName("other").
+                withUUID(UUID.randomUUID()));
+        mManager.getTransaction().commit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mManager.close();
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        InfoStream stream = new InfoStream(mGroup.getId(), ChangeFilter.ALL,
+                InfoProjection.UNITS, 3);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        stream.write(output);
+
+        JsonNode written = new ObjectMapper().readTree(output.toByteArray());
+        assertTrue(written.isArray());
+        assertEquals(9, written.size());
+        int deleted = 0;
+        for (JsonNode current : written) {
+            assertNotEquals("other", current.path("name").asText());
+            if (current.path("deleted").asBoolean())
+                deleted++;
+        }
+        assertEquals(2, deleted);
+    }
+
+    @Test
+    public void testWriteFiltered() throws Exception {
+        ChangeFilter filter = ChangeFilter.of(null,
+                new ChangeCursor(mGroup.getChangeSeq() + 1, Instant.now()).toString());
+        InfoStream stream = new InfoStream(mGroup.getId(), filter, InfoProjection.UNITS,
+                3);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        stream.write(output);
+
+        assertEquals("[]", output.toString("UTF-8"));
+    }
+}
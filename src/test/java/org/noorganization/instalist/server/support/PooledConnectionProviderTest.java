@@ -0,0 +1,70 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.model.DeviceGroup;
+
+import javax.persistence.EntityManager;
+import java.sql.Connection;
+
+import static org.junit.Assert.*;
+
+public class PooledConnectionProviderTest {
+
+    private PooledConnectionProvider mPool;
+
+    @Before
+    public void setUp() throws Exception {
+        new CommonData();
+        mPool = DatabaseHelper.getInstance().getPool();
+    }
+
+    @Test
+    public void testPoolIsUsed() throws Exception {
+        assertNotNull(mPool);
+
+        EntityManager manager = DatabaseHelper.getInstance().getManager();
+        manager.getTransaction().begin();
+        manager.persist(new DeviceGroup());
+        manager.getTransaction().commit();
+        manager.close();
+
+        assertEquals(0, mPool.getActiveConnections());
+        assertEquals(0, mPool.getWaitingThreads());
+        assertTrue(MetricsHelper.getInstance().getRegistry().timer(
+                MetricRegistry.name(PooledConnectionProvider.POOL_NAME, "pool", "Wait")).
+                getCount() > 0);
+    }
+
+    @Test
+    public void testActiveConnections() throws Exception {
+        Connection first = mPool.getConnection();
+        Connection second = mPool.getConnection();
+        assertEquals(2, mPool.getActiveConnections());
+
+        mPool.closeConnection(first);
+        assertEquals(1, mPool.getActiveConnections());
+        assertTrue(mPool.getIdleConnections() >= 1);
+
+        mPool.closeConnection(second);
+        assertEquals(0, mPool.getActiveConnections());
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.noorganization.instalist.server.CommonData;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SchemaMigratorTest {
+
+    private Connection mConnection;
+
+    @Before
+    public void setUp() throws Exception {
+        mConnection = DriverManager.getConnection("jdbc:h2:mem:migration_test;MODE=MySQL", "sa",
+                "");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mConnection.close();
+    }
+
+    @Test
+    public void testMigrate() throws Exception {
+        SchemaMigrator.Migration first = SchemaMigrator.Migration.parse("V1__create_items.sql",
+                script("-- items\nCREATE TABLE items (id INT NOT NULL,\n  name VARCHAR(10));\n"));
+        SchemaMigrator.Migration second = SchemaMigrator.Migration.parse("V2__index_items.sql",
+                script("CREATE INDEX items_name_idx ON items (name);"));
+        assertEquals(1, first.version);
+        assertEquals("create items", first.description);
+        assertEquals(1, first.statements.size());
+
+        SchemaMigrator migrator = new SchemaMigrator(Arrays.asList(second, first));
+        assertEquals(0, migrator.getCurrentVersion(mConnection));
+        assertEquals(2, migrator.migrate(mConnection));
+        assertEquals(2, migrator.getCurrentVersion(mConnection));
+        assertEquals(0, migrator.migrate(mConnection));
+
+        try (Statement statement = mConnection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM items")) {
+            assertTrue(result.next());
+        }
+    }
+
+    @Test
+    public void testFailingMigration() throws Exception {
+        SchemaMigrator.Migration broken = SchemaMigrator.Migration.parse("V1__broken.sql",
+                script("CREATE INDEX missing_idx ON missing (name);"));
+        SchemaMigrator migrator = new SchemaMigrator(Collections.singletonList(broken));
+        try {
+            migrator.migrate(mConnection);
+            fail("Broken migration was applied.");
+        } catch (SQLException _e) {
+        }
+        assertEquals(0, migrator.getCurrentVersion(mConnection));
+    }
+
+    @Test
+    public void testRerunPartialMigration() throws Exception {
+        try (Statement statement = mConnection.createStatement()) {
+            statement.execute("CREATE TABLE items (id INT NOT NULL, name VARCHAR(10))");
+            // left by a failed run, DDL is committed implicitly on MySQL.
+            statement.execute("CREATE UNIQUE INDEX items_id_uq ON items (id)");
+        }
+        SchemaMigrator.Migration migration = SchemaMigrator.Migration.parse("V1__items.sql",
+                script("CREATE TABLE items (id INT NOT NULL, name VARCHAR(10));\n" +
+                        "CREATE UNIQUE INDEX items_id_uq ON items (id);\n" +
+                        "ALTER TABLE items ADD COLUMN seq BIGINT NOT NULL DEFAULT 0;\n" +
+                        "CREATE INDEX items_seq_idx ON items (seq);\n"));
+        SchemaMigrator migrator = new SchemaMigrator(Collections.singletonList(migration));
+        assertEquals(1, migrator.migrate(mConnection));
+        assertEquals(1, migrator.getCurrentVersion(mConnection));
+    }
+
+    @Test
+    public void testDuplicatesRefused() throws Exception {
+        try (Statement statement = mConnection.createStatement()) {
+            statement.execute("CREATE TABLE items (id INT NOT NULL, name VARCHAR(10))");
+            statement.execute("INSERT INTO items (id, name) VALUES (1, 'a'), (1, 'b'), (2, 'c')");
+        }
+        SchemaMigrator.Migration migration = SchemaMigrator.Migration.parse("V1__items.sql",
+                script("CREATE UNIQUE INDEX items_id_uq ON items (id);"));
+        SchemaMigrator migrator = new SchemaMigrator(Collections.singletonList(migration));
+        try {
+            migrator.migrate(mConnection);
+            fail("Unique index was created on duplicates.");
+        } catch (SQLException _e) {
+            assertTrue(_e.getMessage(), _e.getMessage().contains("1 duplicate values of (id)"));
+        }
+        assertEquals(0, migrator.getCurrentVersion(mConnection));
+    }
+
+    @Test
+    public void testDefaultMigrationsBaselined() throws Exception {
+        new CommonData();
+        SchemaMigrator migrator = SchemaMigrator.createDefault();
+        assertEquals(SchemaMigrator.MIGRATIONS.length, migrator.getLatestVersion());
+        try (Connection connection = DatabaseHelper.getInstance().getPool().getConnection()) {
+            assertEquals(migrator.getLatestVersion(), migrator.getCurrentVersion(connection));
+            assertEquals(0, migrator.migrate(connection));
+        }
+    }
+
+    private static ByteArrayInputStream script(String _content) {
+        return new ByteArrayInputStream(_content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.model.DeletedObject;
+import org.noorganization.instalist.server.model.DeviceGroup;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class TombstoneCompactorTest {
+
+    private EntityManager mManager;
+    private DeviceGroup   mGroup;
+
+    @Before
+    public void setUp() throws Exception {
+        new CommonData();
+        mManager = DatabaseHelper.getInstance().getManager();
+        mManager.getTransaction().begin();
+        mGroup = new DeviceGroup();
+        mManager.persist(mGroup);
+        mManager.getTransaction().commit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mManager.close();
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        Instant now = Instant.now();
+        addTombstone(uuid, DeletedObject.Type.UNIT, now.minus(2, ChronoUnit.HOURS));
+        addTombstone(uuid, DeletedObject.Type.UNIT, now.minus(1, ChronoUnit.HOURS));
+        addTombstone(uuid, DeletedObject.Type.UNIT, now);
+        addTombstone(uuid, DeletedObject.Type.TAG, now.minus(3, ChronoUnit.HOURS));
+        addTombstone(UUID.randomUUID(), DeletedObject.Type.UNIT, now);
+
+        MetricRegistry metrics = new MetricRegistry();
+        TombstoneCompactor compactor = new TombstoneCompactor(0, 1, metrics);
+        assertEquals(2, compactor.compact(mManager));
+        assertEquals(0, compactor.compact(mManager));
+        assertEquals(2, metrics.counter("tombstones.compacted").getCount());
+
+        mManager.clear();
+        assertEquals(3L, (long) mManager.createQuery("select count(do) from DeletedObject do",
+                Long.class).getSingleResult());
+        DeletedObject newest = mManager.createQuery("select do from DeletedObject do where " +
+                "do.UUID = :uuid and do.type = :type", DeletedObject.class).
+                setParameter("uuid", uuid).setParameter("type", DeletedObject.Type.UNIT).
+                getSingleResult();
+        assertEquals(now.toEpochMilli(), newest.getUpdated().toEpochMilli());
+    }
+
+    @Test
+    public void testPrune() throws Exception {
+        Instant now = Instant.now();
+        addTombstone(UUID.randomUUID(), DeletedObject.Type.UNIT, now.minus(3, ChronoUnit.DAYS));
+        addTombstone(UUID.randomUUID(), DeletedObject.Type.UNIT, now.minus(2, ChronoUnit.DAYS));
+        addTombstone(UUID.randomUUID(), DeletedObject.Type.UNIT, now);
+
+        TombstoneCompactor keeping = new TombstoneCompactor(0, 10, new MetricRegistry());
+        assertNull(keeping.getHorizon());
+        assertFalse(keeping.isBeyondHorizon(now.minus(300, ChronoUnit.DAYS)));
+        assertEquals(0, keeping.prune(mManager));
+
+        TombstoneCompactor pruning = new TombstoneCompactor(ChronoUnit.DAYS.getDuration().
+                toMillis(), 10, new MetricRegistry());
+        assertTrue(pruning.isBeyondHorizon(now.minus(2, ChronoUnit.DAYS)));
+        assertFalse(pruning.isBeyondHorizon(now.minus(1, ChronoUnit.HOURS)));
+        assertEquals(2, pruning.prune(mManager));
+        assertEquals(1L, (long) mManager.createQuery("select count(do) from DeletedObject do",
+                Long.class).getSingleResult());
+    }
+
+    private void addTombstone(UUID _uuid, DeletedObject.Type _type, Instant _updated) {
+        mManager.getTransaction().begin();
+        mManager.persist(new DeletedObject().withGroup(mGroup).withUUID(_uuid).withType(_type).
+                withUpdated(_updated));
+        mManager.getTransaction().commit();
+    }
+}
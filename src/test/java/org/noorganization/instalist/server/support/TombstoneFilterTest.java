@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 Tino Siegmund, Michael Wodniok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noorganization.instalist.server.support;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.noorganization.instalist.server.CommonData;
+import org.noorganization.instalist.server.controller.IUnitController;
+import org.noorganization.instalist.server.controller.impl.ControllerFactory;
+import org.noorganization.instalist.server.model.DeletedObject;
+import org.noorganization.instalist.server.model.DeviceGroup;
+import org.noorganization.instalist.server.support.exceptions.ConflictException;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class TombstoneFilterTest {
+
+    private EntityManager mManager;
+    private DeviceGroup   mGroup;
+    private UUID          mDeletedUUID;
+
+    @Before
+    public void setUp() throws Exception {
+        new CommonData();
+        mManager = DatabaseHelper.getInstance().getManager();
+        mManager.getTransaction().begin();
+        mGroup = new DeviceGroup();
+        mDeletedUUID = UUID.randomUUID();
+        mManager.persist(mGroup);
+        mManager.persist(new DeletedObject().withGroup(mGroup).withUUID(mDeletedUUID).
+                withType(DeletedObject.Type.UNIT));
+        mManager.getTransaction().commit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mManager.close();
+    }
+
+    @Test
+    public void testMightBeDeleted() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        TombstoneFilter filter = new TombstoneFilter(10, metrics);
+        int groupId = mGroup.getId();
+        UUID newUUID = UUID.randomUUID();
+
+        assertTrue(filter.mightBeDeleted(mManager, mGroup, mDeletedUUID));
+        assertFalse(filter.mightBeDeleted(mManager, mGroup, newUUID));
+        assertEquals(1, metrics.counter("tombstones.filter.builds").getCount());
+        assertEquals(1, filter.size());
+
+        filter.add(groupId, newUUID);
+        assertTrue(filter.mightBeDeleted(mManager, mGroup, newUUID));
+        assertEquals(1, metrics.counter("tombstones.filter.builds").getCount());
+
+        filter.invalidate(groupId);
+        assertEquals(0, filter.size());
+        assertTrue(filter.mightBeDeleted(mManager, mGroup, mDeletedUUID));
+        assertFalse(filter.mightBeDeleted(mManager, mGroup, newUUID));
+        assertEquals(2, metrics.counter("tombstones.filter.builds").getCount());
+        assertEquals(2, metrics.counter("tombstones.filter.skipped").getCount());
+        assertEquals(3, metrics.counter("tombstones.filter.checked").getCount());
+
+        TombstoneFilter disabled = new TombstoneFilter(0, new MetricRegistry());
+        assertTrue(disabled.mightBeDeleted(mManager, mGroup, newUUID));
+        assertEquals(0, disabled.size());
+    }
+
+    @Test
+    public void testReportBeforeCommit() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        TombstoneFilter filter = new TombstoneFilter(10, metrics);
+        int groupId = mGroup.getId();
+        UUID newUUID = UUID.randomUUID();
+        assertFalse(filter.mightBeDeleted(mManager, mGroup, newUUID));
+
+        mManager.getTransaction().begin();
+        filter.addOnCommit(mManager, groupId, newUUID);
+        assertTrue(filter.mightBeDeleted(mManager, mGroup, newUUID));
+        mManager.getTransaction().rollback();
+        assertTrue(filter.mightBeDeleted(mManager, mGroup, newUUID));
+
+        mManager.getTransaction().begin();
+        filter.invalidateOnCommit(mManager, groupId);
+        assertEquals(0, filter.size());
+        // built while the transaction is open, so it does not get kept.
+        filter.mightBeDeleted(mManager, mGroup, newUUID);
+        assertEquals(0, filter.size());
+        mManager.getTransaction().commit();
+        filter.mightBeDeleted(mManager, mGroup, newUUID);
+        assertEquals(1, filter.size());
+    }
+
+    @Test
+    public void testForeignChanges() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        TombstoneFilter filter = new TombstoneFilter(10, metrics);
+        UUID newUUID = UUID.randomUUID();
+        assertFalse(filter.mightBeDeleted(mManager, mGroup, newUUID));
+
+        // a change of this server keeps the filter.
+        mManager.getTransaction().begin();
+        mGroup.setChangeSeq(mGroup.getChangeSeq() + 1);
+        filter.begin(mManager, mGroup);
+        mManager.getTransaction().commit();
+        assertFalse(filter.mightBeDeleted(mManager, mGroup, newUUID));
+        assertEquals(1, metrics.counter("tombstones.filter.builds").getCount());
+
+        // a change of another server, not reported to the filter.
+        mManager.getTransaction().begin();
+        mGroup.setChangeSeq(mGroup.getChangeSeq() + 1);
+        mManager.persist(new DeletedObject().withGroup(mGroup).withUUID(newUUID).
+                withType(DeletedObject.Type.UNIT));
+        mManager.getTransaction().commit();
+        assertTrue(filter.mightBeDeleted(mManager, mGroup, newUUID));
+        assertEquals(2, metrics.counter("tombstones.filter.builds").getCount());
+    }
+
+    @Test
+    public void testFalsePositives() throws Exception {
+        TombstoneFilter.Filter filter = new TombstoneFilter.Filter(
+                TombstoneFilter.MIN_CAPACITY, 0);
+        UUID[] added = new UUID[TombstoneFilter.MIN_CAPACITY];
+        for (int i = 0; i < added.length; i++) {
+            added[i] = UUID.randomUUID();
+            filter.put(added[i]);
+        }
+        assertTrue(filter.isFull());
+        for (UUID uuid : added)
+            assertTrue(filter.mightContain(uuid));
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain(UUID.randomUUID()))
+                falsePositives++;
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 300);
+    }
+
+    @Test
+    public void testCreateSkipsDeletionLog() throws Exception {
+        Counter skipped = MetricsHelper.getInstance().getRegistry().
+                counter("tombstones.filter.skipped");
+        long before = skipped.getCount();
+        IUnitController controller = ControllerFactory.getUnitController(mManager);
+        controller.add(mGroup.getId(), UUID.randomUUID(), "unit1", Instant.now());
+        assertEquals(before + 1, skipped.getCount());
+
+        try {
+            controller.add(mGroup.getId(), mDeletedUUID, "unit2",
+                    Instant.now().minusSeconds(60));
+            fail("Deleted uuid was reused.");
+        } catch (ConflictException _e) {
+            // expected, the tombstone is newer than the creation.
+        }
+        assertEquals(before + 1, skipped.getCount());
+    }
+}